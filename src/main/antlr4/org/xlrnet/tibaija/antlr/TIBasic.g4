@@ -32,16 +32,37 @@
 
 grammar TIBasic;
 
-/* Additional java imports */
+/* Global attributes */
 
-@header {
-import org.xlrnet.tibaija.util.ValidationUtils;
+@parser::header {
+import org.xlrnet.tibaija.processor.Superinstruction;
 }
 
-/* Global attributes */
-
-@members {
-    boolean isListMode = false;
+@parser::members {
+    /**
+     * Checks if the given range of tokens forms nothing but a named list variable like ∟ABCDE. The check works
+     * directly on the token types, so that no text has to be built or matched while parsing.
+     */
+    boolean isNamedListVariable(Token start, Token stop) {
+        if (start == null || stop == null || start.getType() != LIST_TOKEN)
+            return false;
+        int length = stop.getTokenIndex() - start.getTokenIndex();
+        if (length < 1 || length > 5 || _input.get(start.getTokenIndex() + 1).getType() != CapitalTheta)
+            return false;
+        for (int i = start.getTokenIndex() + 2; i <= stop.getTokenIndex(); i++) {
+            int type = _input.get(i).getType();
+            if (type != CapitalTheta && type != DIGIT)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the given range of tokens forms nothing but a single number variable.
+     */
+    boolean isNumberVariable(Token start, Token stop) {
+        return start != null && start == stop && start.getType() == CapitalTheta;
+    }
 }
 
 /* Actual grammar */
@@ -52,7 +73,7 @@ program
 commandList
        : (SEPARATOR command)*;
 
-command returns [ boolean isControlFlowStatement ]                       // Includes handling of the ANS variable
+command returns [ boolean isControlFlowStatement, Superinstruction superinstruction ]   // Includes handling of the ANS variable
        : statement
        | expressionParent
        | controlFlowStatement { $isControlFlowStatement = true; }
@@ -103,14 +124,14 @@ expression_plus_minus returns [ List<String> operators ]
          expression_mul_div )*;
 
 // Let's hope the following rule doesn't break ...
-expression_mul_div returns [         
+expression_mul_div returns [
     List<String> operators
 ] locals [
-    String lastExpr,
+    boolean isLastListVariable,
     boolean isImplicit = false
 ]
 @init { _localctx.operators = new ArrayList<String>(); }
-       : expression_infix { $lastExpr = $expression_infix.text; }
+       : expression_infix { $isLastListVariable = isNamedListVariable($expression_infix.start, $expression_infix.stop); }
        (
          ( MULTIPLY { $operators.add($MULTIPLY.text); $isImplicit = false;}
          | DIVIDE { $operators.add($DIVIDE.text); $isImplicit = false; }
@@ -120,9 +141,9 @@ expression_mul_div returns [
          // if the last expression was a list variable and the next expression begins with a number variable
          // I.e.: Prevent that  ∟ABCDEF will be interpreted as ∟ABCDE*F
          expression_infix { !($isImplicit
-                            && ValidationUtils.isValidListName($lastExpr)
-                            && ValidationUtils.isValidNumberVariableName($expression_infix.text)) }?
-           { $lastExpr = $expression_infix.text; }
+                            && $isLastListVariable
+                            && isNumberVariable($expression_infix.start, $expression_infix.stop)) }?
+           { $isLastListVariable = isNamedListVariable($expression_infix.start, $expression_infix.stop); }
        )*;
 
 expression_infix returns [ List<String> operators ]
@@ -151,6 +172,8 @@ expression_postfix returns [ List<String> operators ]
          ( SQUARED   { $operators.add($SQUARED.text); }
          | FACTORIAL { $operators.add($FACTORIAL.text); }
          | CUBED     { $operators.add($CUBED.text); }
+         | TRANSPOSE { $operators.add($TRANSPOSE.text); }
+         | INVERSE   { $operators.add($INVERSE.text); }
            // TODO: Add other postfix operators
          )*
        ;
@@ -180,18 +203,39 @@ expression_prefix returns [ String operator ]
 expression_value
        : LEFT_PARENTHESIS expression RIGHT_PARENTHESIS?
        | numericalValue
+       | listElement                                  // Must be checked before listValue, so that ∟A(1) isn't ∟A*1
        | listValue
+       | matrixElement                                // Must be checked before matrixValue, so that [A](1,1) isn't [A]*1
+       | matrixValue
        | lastResult
+       | getKey
+       | functionCall
          // TODO: Implement other data types
        ;
 
 
+functionCall                                        // Functions with an argument list, e.g. sum(∟A,2,5)
+       : function = ( SUM
+                    | MEAN
+                    | MEDIAN
+                    | STDDEV
+                    | VARIANCE
+                    | DET
+                    | RREF
+                    ) expression ( COMMA expression )* RIGHT_PARENTHESIS?
+       ;
+
 /* END Code for operator precedence */
 
 statement
        : callStatement
        | storeStatement
        | stopStatement
+       | inputStatement
+       | promptStatement
+       | pauseStatement
+       | statisticsStatement
+       | sortStatement
        ;
 
 controlFlowStatement returns [ String flowType ]                      // Separated controlFlowStatement to allowing blocking of control flow statements in visitor
@@ -239,9 +283,38 @@ stopStatement
 callStatement
        : DISP expression;
 
+inputStatement                                      // I/O statements may suspend the program until input is available
+       : INPUT inputTarget;
+
+promptStatement
+       : PROMPT inputTarget ( COMMA inputTarget )*;
+
+pauseStatement
+       : PAUSE expression?;
+
+statisticsStatement                                 // Results are returned as a list, since there are no statistics variables
+       : statistic = ( ONE_VAR_STATS
+                     | LINREG
+                     ) ( expression ( COMMA expression )* )?
+       ;
+
+sortStatement                                       // Sorts the first list and reorders all dependent lists in the same way
+       : sort = ( SORTA
+                | SORTD
+                ) listVariable ( COMMA listVariable )* RIGHT_PARENTHESIS?
+       ;
+
+inputTarget
+       : numericalVariable
+       | listVariable
+       ;
+
 storeStatement
        : expression STORE numericalVariable      # StoreNumberStatement
+       | expression STORE listElement            # StoreListElementStatement
        | expression STORE listVariable           # StoreListStatement
+       | expression STORE matrixElement          # StoreMatrixElementStatement
+       | expression STORE matrixVariable         # StoreMatrixStatement
        ;
 
 numericalValue
@@ -249,19 +322,44 @@ numericalValue
        | number
        ;
        
-listValue
-       : listVariable   { !(isListMode) }? {isListMode = false; }      // Disable list mode after visiting the expression/variable
-       | listExpression {isListMode = false; }
+listValue                                           // Nested lists are rejected by the preprocessor after parsing
+       : listVariable
+       | listExpression
        ;
-       
+
 listExpression
-       : LEFT_BRACE { !(isListMode) }? { isListMode = true; } expression ( COMMA expression )* RIGHT_BRACE?
+       : LEFT_BRACE expression ( COMMA expression )* RIGHT_BRACE?
        ;
        
 listVariable
        : LIST_TOKEN listIdentifier
        ;
+
+listElement                                         // One-based access to a single element, e.g. ∟A(1)
+       : listVariable LEFT_PARENTHESIS expression RIGHT_PARENTHESIS?
+       ;
        
+matrixValue
+       : matrixVariable
+       | matrixExpression
+       ;
+
+matrixExpression                                    // Only the closing bracket of the whole matrix may be omitted
+       : LEFT_BRACKET matrixRow+ RIGHT_BRACKET?
+       ;
+
+matrixRow
+       : LEFT_BRACKET expression ( COMMA expression )* RIGHT_BRACKET
+       ;
+
+matrixVariable
+       : MATRIX_VARIABLE
+       ;
+
+matrixElement                                       // One-based access to a single element, e.g. [A](1,2)
+       : matrixVariable LEFT_PARENTHESIS expression COMMA expression RIGHT_PARENTHESIS?
+       ;
+
 labelIdentifier
        : (CapitalTheta | DIGIT) (CapitalTheta | DIGIT)?;
 
@@ -280,6 +378,9 @@ listIdentifier
 lastResult
        : 'Ans';
 
+getKey
+       : GETKEY;
+
 
 
 /* Lexer rules for more readable code */
@@ -291,10 +392,11 @@ digits: DIGIT+;     // Helper rule to get the token
 
 number returns [
     String preDecimal, String decimal
-] :  NEGATIVE_MINUS?
-     digits? { $preDecimal = $digits.text; }
-     DOT?
-     digits { $decimal = $digits.text; }
+] :  NEGATIVE_MINUS?                // Integers are stored in decimal, so that every alternative can be predicted with SLL
+     ( integer = digits { $decimal = $integer.text; }
+       ( DOT fraction = digits { $preDecimal = $integer.text; $decimal = $fraction.text; } )?
+     | DOT fraction = digits { $decimal = $fraction.text; }
+     )
      ;
 
 /* Main Token */
@@ -331,6 +433,8 @@ CUBIC_ROOT: '∛(';
 FACTORIAL: '!';
 SQUARED: '²';
 CUBED: '³';
+TRANSPOSE: 'ᵀ';
+INVERSE: '⁻¹';
 // Conversion operators
 TO_FRAC: '►Frac';
 TO_DEC: '►Dec';
@@ -340,6 +444,8 @@ LEFT_PARENTHESIS: '(';
 RIGHT_PARENTHESIS: ')';
 LEFT_BRACE: '{';
 RIGHT_BRACE: '}';
+LEFT_BRACKET: '[';
+RIGHT_BRACKET: ']';
 COMMA: ',';
 STORE: '->' | '→';
 IMAGINARY: 'i';
@@ -348,6 +454,7 @@ DOT: '.';
 THETA: 'θ';
 CAPITAL_LETTER: 'A' .. 'Z';
 LIST_TOKEN: '∟';
+MATRIX_VARIABLE: '[' 'A' .. 'J' ']';        // Longer than LEFT_BRACKET, so [A] is always a matrix variable
 
 /* Skip whitespace */
 
@@ -374,6 +481,26 @@ STOP: 'Stop';
 DELVAR: 'DelVar';
 GRAPHSTYLE: 'GraphStyle(';
 
+/* List commands */
+
+SORTA: 'SortA(';
+SORTD: 'SortD(';
+
+/* Statistics commands */
+
+SUM: 'sum(';
+MEAN: 'mean(';
+MEDIAN: 'median(';
+STDDEV: 'stdDev(';
+VARIANCE: 'variance(';
+ONE_VAR_STATS: '1-Var Stats';
+LINREG: 'LinReg(ax+b)';
+
+/* Matrix commands */
+
+DET: 'det(';
+RREF: 'rref(';
+
 /* I/O commands */
 
 INPUT: 'Input';
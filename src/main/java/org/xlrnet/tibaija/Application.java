@@ -29,11 +29,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xlrnet.tibaija.exception.TIRuntimeException;
 import org.xlrnet.tibaija.io.CalculatorIO;
+import org.xlrnet.tibaija.io.CapturingIO;
 import org.xlrnet.tibaija.io.ConsoleIO;
+import org.xlrnet.tibaija.io.ProgramFile;
+import org.xlrnet.tibaija.io.ProgramFileLoader;
 import org.xlrnet.tibaija.memory.CalculatorMemory;
 import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.processor.ExecutionLimits;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main application class for starting the interpreter.
@@ -85,6 +97,12 @@ public class Application {
                 runInteractiveMode();
             } else if (config.isShowHelp()) {
                 printUsage(parser);
+            } else if (config.isBatch() && config.getStartFile() != null) {
+                runBatchMode(config);
+            } else if (config.getSweepFile() != null && config.getStartFile() != null) {
+                runSweepMode(config);
+            } else if (config.getStartFile() != null) {
+                runStartFile(config.getStartFile().toPath());
             }
 
         } catch (CmdLineException e) {
@@ -96,6 +114,24 @@ public class Application {
         }
     }
 
+    private void printBatchReport(BatchRunner.BatchResult batchResult) {
+        for (BatchRunner.ProgramResult result : batchResult.getResults()) {
+            System.out.printf("%-14s %-40s %10.2f ms %12d commands%n", result.getStatus(), result.getFile(),
+                    result.getRunNanos() / 1e6, result.getExecutedCommands());
+            if (result.getError() != null)
+                System.out.println("    " + result.getError());
+        }
+
+        double seconds = batchResult.getWallClockNanos() / 1e9;
+        System.out.println();
+        System.out.printf("Programs: %d, successful: %d, failed: %d, limit exceeded: %d, load failed: %d%n",
+                batchResult.getResults().size(), batchResult.count(BatchRunner.Status.SUCCESS),
+                batchResult.count(BatchRunner.Status.FAILED), batchResult.count(BatchRunner.Status.LIMIT_EXCEEDED),
+                batchResult.count(BatchRunner.Status.LOAD_FAILED));
+        System.out.printf("Time: %.2f s on %d threads, %.1f programs/s, %.0f commands/s%n", seconds,
+                batchResult.getThreadCount(), batchResult.getResults().size() / seconds, batchResult.getTotalCommands() / seconds);
+    }
+
     private void printUsage(CmdLineParser parser) {
         System.out.println("Tibaija - a TI-Basic interpreter for Java");
         System.out.println();
@@ -107,6 +143,49 @@ public class Application {
         parseArguments(args);
     }
 
+    private void runBatchMode(ApplicationConfiguration config) {
+        ExecutionLimits limits = new ExecutionLimits(config.getMaxCommands(), config.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        BatchRunner batchRunner = new BatchRunner(config.getThreadCount(), limits);
+
+        try {
+            List<Path> files = BatchRunner.findProgramFiles(config.getStartFile().getPath());
+            BatchRunner.BatchResult batchResult = batchRunner.run(files);
+
+            if (config.getOutputDirectory() != null)
+                writeBatchOutput(batchResult, config.getOutputDirectory().toPath());
+            printBatchReport(batchResult);
+            System.exit(batchResult.isSuccessful() ? 0 : 1);
+        } catch (IOException e) {
+            LOGGER.error("Unable to run batch", e);
+            System.exit(2);
+        }
+    }
+
+    private void runSweepMode(ApplicationConfiguration config) {
+        ExecutionLimits limits = new ExecutionLimits(config.getMaxCommands(), config.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        ParameterSweep sweep = new ParameterSweep(config.getThreadCount(), limits);
+        VirtualCalculator calculator = new TI83Plus(new DefaultCalculatorMemory(), new CapturingIO());
+
+        try {
+            String programName = loadProgramFile(calculator, config.getStartFile().toPath());
+            List<Map<String, Value>> rows = ParameterSweep.readBindings(config.getSweepFile().toPath());
+            List<String> outputVariables = Arrays.asList(StringUtils.split(config.getOutputVariables(), ','));
+            ParameterSweep.Result result = sweep.run(calculator, programName, rows, outputVariables);
+
+            Writer writer = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            result.writeCsv(writer);
+            writer.flush();
+            LOGGER.info("Finished {} runs in {} ms, {} failed", result.getRowCount(), result.getWallClockNanos() / 1_000_000, result.getFailedRowCount());
+            System.exit(result.getFailedRowCount() == 0 ? 0 : 1);
+        } catch (IOException e) {
+            LOGGER.error("Unable to run sweep", e);
+            System.exit(2);
+        } catch (TIRuntimeException | IllegalArgumentException e) {
+            LOGGER.error("Unable to run sweep: {}", e.getMessage());
+            System.exit(2);
+        }
+    }
+
     private void runInteractiveMode() {
         LOGGER.info("Starting interpreter in interactive mode ...");
 
@@ -140,6 +219,59 @@ public class Application {
         System.exit(0);
     }
 
+    /**
+     * Load and run the file that was given on the command line. A directory will be imported as a library of program
+     * files, a .8xp file will be detokenized and every other file will be interpreted as plain source code.
+     */
+    private void runStartFile(Path startFile) {
+        VirtualCalculator calculator = getDefaultCalculator();
+
+        try {
+            if (Files.isDirectory(startFile)) {
+                ProgramFileLoader.ImportResult result = ProgramFileLoader.importDirectory(startFile, calculator);
+                for (Map.Entry<Path, Exception> failure : result.getFailures().entrySet())
+                    LOGGER.error("Unable to import {}: {}", failure.getKey(), failure.getValue().getMessage());
+                LOGGER.info("Imported programs: {}", result.getLoadedPrograms());
+                return;
+            }
+
+            String programName = loadProgramFile(calculator, startFile);
+            LOGGER.info("Running program {} from {}", programName, startFile);
+            calculator.executeProgram(programName);
+        } catch (IOException e) {
+            LOGGER.error("Unable to read {}", startFile, e);
+        } catch (TIRuntimeException e) {
+            calculator.getIODevice().printLine("ERR: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load a single program file into the calculator. A .8xp file will be detokenized and every other file will be
+     * interpreted as plain source code named after the file.
+     *
+     * @return The name under which the program has been stored.
+     */
+    private String loadProgramFile(VirtualCalculator calculator, Path file) throws IOException {
+        String programName;
+        if (ProgramFileLoader.isProgramFile(file)) {
+            ProgramFile programFile = ProgramFileLoader.read(file);
+            programName = programFile.getProgramName();
+            calculator.loadProgram(programName, programFile.getSource());
+        } else {
+            programName = StringUtils.substringBefore(file.getFileName().toString(), ".").toUpperCase();
+            calculator.loadProgram(programName, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+        return programName;
+    }
+
+    private void writeBatchOutput(BatchRunner.BatchResult batchResult, Path outputDirectory) throws IOException {
+        Files.createDirectories(outputDirectory);
+        for (BatchRunner.ProgramResult result : batchResult.getResults()) {
+            Path outputFile = outputDirectory.resolve(result.getFile().getFileName() + ".out");
+            Files.write(outputFile, result.getOutput().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
     private void showWelcome() {
         LOGGER.debug("Started tibaija in interactive mode");
         System.out.println("#############################################################################");
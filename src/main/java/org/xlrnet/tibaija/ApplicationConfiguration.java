@@ -41,10 +41,59 @@ public class ApplicationConfiguration {
     @Option(name = "-h", usage = "show this help")
     private boolean showHelp;
 
+    @Option(name = "-b", usage = "run all programs in the given directory or glob in batch mode")
+    private boolean batch;
+
+    @Option(name = "-t", metaVar = "threads", usage = "number of worker threads in batch and sweep mode (default: number of cores)")
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "-o", metaVar = "dir", usage = "write the output of every program in batch mode to this directory")
+    private File outputDirectory;
+
+    @Option(name = "--max-commands", metaVar = "n", usage = "stop programs after this number of commands in batch and sweep mode")
+    private long maxCommands;
+
+    @Option(name = "--timeout", metaVar = "ms", usage = "stop programs after this number of milliseconds in batch and sweep mode")
+    private long timeoutMillis;
+
+    @Option(name = "--sweep", metaVar = "csv", usage = "run the program once for every line of initial variable values in the CSV file")
+    private File sweepFile;
+
+    @Option(name = "--outputs", metaVar = "vars", usage = "comma separated variables that are collected in sweep mode (default: Ans)")
+    private String outputVariables = "Ans";
+
+    public long getMaxCommands() {
+        return maxCommands;
+    }
+
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public String getOutputVariables() {
+        return outputVariables;
+    }
+
     public File getStartFile() {
         return startFile;
     }
 
+    public File getSweepFile() {
+        return sweepFile;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
     public boolean isInteractive() {
         return interactive;
     }
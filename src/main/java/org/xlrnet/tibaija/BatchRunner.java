@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.exception.ExecutionLimitExceededException;
+import org.xlrnet.tibaija.io.CapturingIO;
+import org.xlrnet.tibaija.io.ProgramFile;
+import org.xlrnet.tibaija.io.ProgramFileLoader;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.processor.ExecutableProgram;
+import org.xlrnet.tibaija.processor.ExecutionLimits;
+import org.xlrnet.tibaija.processor.FullTIBasicVisitor;
+import org.xlrnet.tibaija.processor.ProgramExecution;
+import org.xlrnet.tibaija.processor.ProgramScheduler;
+import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a large number of program files unattended. Every program runs in its own {@link TI83Plus} with a fresh memory
+ * and an I/O device that captures all output. Programs are preprocessed in parallel and executed on a shared {@link
+ * ProgramScheduler}, so that all available cores are used and a single long-running program can't hold up the rest of
+ * the batch.
+ */
+public class BatchRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchRunner.class);
+
+    private static final long SLICE_BUDGET = 4096;
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private final int threadCount;
+
+    private final ExecutionLimits limits;
+
+    /**
+     * Create a new batch runner.
+     *
+     * @param threadCount
+     *         Number of worker threads for preprocessing and for running the programs.
+     * @param limits
+     *         Limits for every single program.
+     */
+    public BatchRunner(int threadCount, @NotNull ExecutionLimits limits) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("At least one thread is required");
+        this.threadCount = threadCount;
+        this.limits = limits;
+    }
+
+    /**
+     * Find all program files for the given pattern. If the pattern denotes a directory, all regular non-hidden files
+     * inside the directory are returned. If the pattern contains glob characters, all files matching the glob are
+     * returned, e.g. <code>programs/**.8xp</code>. Otherwise the pattern is treated as a single file.
+     *
+     * @param pattern
+     *         A directory, glob or single file.
+     * @return All matching files in lexicographic order.
+     * @throws IOException
+     *         Will be thrown if a directory can't be read.
+     */
+    @NotNull
+    public static List<Path> findProgramFiles(@NotNull String pattern) throws IOException {
+        int globIndex = StringUtils.indexOfAny(pattern, GLOB_CHARACTERS);
+        if (globIndex < 0) {
+            Path path = Paths.get(pattern);
+            if (!Files.isDirectory(path))
+                return ImmutableList.of(path);
+            try (Stream<Path> files = Files.list(path)) {
+                return files.filter(BatchRunner::isVisibleFile).sorted().collect(Collectors.toList());
+            }
+        }
+
+        // Split the pattern into a fixed base directory and the glob that will be matched relative to it
+        int separatorIndex = Math.max(pattern.lastIndexOf('/', globIndex), pattern.lastIndexOf('\\', globIndex));
+        Path baseDirectory = separatorIndex < 0 ? Paths.get("") : Paths.get(pattern.substring(0, separatorIndex + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(separatorIndex + 1));
+
+        if (!Files.isDirectory(baseDirectory.toAbsolutePath()))
+            return ImmutableList.of();
+        try (Stream<Path> files = Files.walk(baseDirectory.toAbsolutePath())) {
+            return files.filter(BatchRunner::isVisibleFile)
+                    .filter(file -> matcher.matches(baseDirectory.toAbsolutePath().relativize(file)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public ExecutionLimits getLimits() {
+        return limits;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Run all given program files and wait until every program has finished. Errors in single programs are reported in
+     * their results and don't affect the other programs.
+     *
+     * @param files
+     *         The files to run. Files ending with .8xp are read as tokenized programs, all other files as plain source
+     *         code.
+     * @return The results of all programs in the same order as the given files.
+     */
+    @NotNull
+    public BatchResult run(@NotNull List<Path> files) {
+        LOGGER.info("Running {} programs on {} threads", files.size(), threadCount);
+        long startTime = System.nanoTime();
+
+        ProgramScheduler scheduler = new ProgramScheduler(threadCount, SLICE_BUDGET);
+        ExecutorService preprocessorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<CompletableFuture<ProgramResult>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                CompletableFuture<ProgramResult> future = CompletableFuture
+                        .supplyAsync(() -> prepare(file), preprocessorService)
+                        .thenCompose(prepared -> scheduler.submit(prepared.execution)
+                                .handle((execution, throwable) -> prepared.toResult(throwable)))
+                        .exceptionally(throwable -> ProgramResult.loadFailed(file, unwrap(throwable)));
+                futures.add(future);
+            }
+
+            ImmutableList<ProgramResult> results = ImmutableList.copyOf(futures.stream()
+                    .map(CompletableFuture::join)
+                    .collect(Collectors.toList()));
+            BatchResult batchResult = new BatchResult(results, System.nanoTime() - startTime, threadCount);
+            LOGGER.info("Finished {} programs in {} ms", results.size(), batchResult.getWallClockNanos() / 1_000_000);
+            return batchResult;
+        } finally {
+            preprocessorService.shutdownNow();
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static boolean isVisibleFile(@NotNull Path path) {
+        return Files.isRegularFile(path) && !path.getFileName().toString().startsWith(".");
+    }
+
+    @NotNull
+    private static Throwable unwrap(@NotNull Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof UncheckedIOException) && cause.getCause() != null)
+            cause = cause.getCause();
+        return cause;
+    }
+
+    @NotNull
+    private PreparedProgram prepare(@NotNull Path file) {
+        long startTime = System.nanoTime();
+        String programName;
+        CharSequence source;
+        try {
+            if (ProgramFileLoader.isProgramFile(file)) {
+                ProgramFile programFile = ProgramFileLoader.read(file);
+                programName = programFile.getProgramName();
+                source = programFile.getSource();
+            } else {
+                programName = StringUtils.substringBefore(file.getFileName().toString(), ".").toUpperCase();
+                source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        CapturingIO calculatorIO = new CapturingIO();
+        VirtualCalculator calculator = new TI83Plus(new DefaultCalculatorMemory(), calculatorIO);
+        calculator.loadProgram(programName, source);
+        ExecutableProgram program = calculator.getMemory().getStoredProgram(programName);
+        ProgramExecution execution = ExecutionEnvironmentUtil.newDefaultEnvironment(calculator)
+                .newExecution(program, new FullTIBasicVisitor(), limits);
+
+        return new PreparedProgram(file, programName, calculatorIO, execution, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Final state of a single program in a batch.
+     */
+    public enum Status {
+        /**
+         * The program has run until its end.
+         */
+        SUCCESS,
+        /**
+         * The program has been terminated with an error.
+         */
+        FAILED,
+        /**
+         * The program has been terminated because it exceeded its limits.
+         */
+        LIMIT_EXCEEDED,
+        /**
+         * The program could not be read or preprocessed.
+         */
+        LOAD_FAILED
+    }
+
+    /**
+     * A program that has been preprocessed and is ready to run.
+     */
+    private static class PreparedProgram {
+
+        private final Path file;
+
+        private final String programName;
+
+        private final CapturingIO calculatorIO;
+
+        private final ProgramExecution execution;
+
+        private final long preprocessNanos;
+
+        PreparedProgram(Path file, String programName, CapturingIO calculatorIO, ProgramExecution execution, long preprocessNanos) {
+            this.file = file;
+            this.programName = programName;
+            this.calculatorIO = calculatorIO;
+            this.execution = execution;
+            this.preprocessNanos = preprocessNanos;
+        }
+
+        @NotNull
+        ProgramResult toResult(@Nullable Throwable throwable) {
+            Throwable error = throwable != null ? unwrap(throwable) : null;
+            Status status;
+            if (error == null)
+                status = Status.SUCCESS;
+            else if (error instanceof ExecutionLimitExceededException)
+                status = Status.LIMIT_EXCEEDED;
+            else
+                status = Status.FAILED;
+            return new ProgramResult(file, programName, status, calculatorIO.getOutput(), error, preprocessNanos,
+                    execution.getElapsedNanos(), execution.getExecutedCommands());
+        }
+    }
+
+    /**
+     * Result of a single program in a batch.
+     */
+    public static class ProgramResult {
+
+        private final Path file;
+
+        private final String programName;
+
+        private final Status status;
+
+        private final String output;
+
+        private final Throwable error;
+
+        private final long preprocessNanos;
+
+        private final long runNanos;
+
+        private final long executedCommands;
+
+        ProgramResult(@NotNull Path file, @Nullable String programName, @NotNull Status status, @NotNull String output, @Nullable Throwable error, long preprocessNanos, long runNanos, long executedCommands) {
+            this.file = file;
+            this.programName = programName;
+            this.status = status;
+            this.output = output;
+            this.error = error;
+            this.preprocessNanos = preprocessNanos;
+            this.runNanos = runNanos;
+            this.executedCommands = executedCommands;
+        }
+
+        @NotNull
+        static ProgramResult loadFailed(@NotNull Path file, @NotNull Throwable error) {
+            return new ProgramResult(file, null, Status.LOAD_FAILED, "", error, 0, 0, 0);
+        }
+
+        /**
+         * Returns the error that terminated the program or null if the program finished successfully.
+         */
+        @Nullable
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Returns the number of commands that have been executed or skipped.
+         */
+        public long getExecutedCommands() {
+            return executedCommands;
+        }
+
+        @NotNull
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Returns everything the program has printed.
+         */
+        @NotNull
+        public String getOutput() {
+            return output;
+        }
+
+        /**
+         * Returns the time needed for reading and preprocessing the program.
+         */
+        public long getPreprocessNanos() {
+            return preprocessNanos;
+        }
+
+        /**
+         * Returns the name under which the program has been loaded or null if the file couldn't be read.
+         */
+        @Nullable
+        public String getProgramName() {
+            return programName;
+        }
+
+        /**
+         * Returns the wall clock time the program has been running.
+         */
+        public long getRunNanos() {
+            return runNanos;
+        }
+
+        @NotNull
+        public Status getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Results of a complete batch.
+     */
+    public static class BatchResult {
+
+        private final ImmutableList<ProgramResult> results;
+
+        private final long wallClockNanos;
+
+        private final int threadCount;
+
+        BatchResult(@NotNull ImmutableList<ProgramResult> results, long wallClockNanos, int threadCount) {
+            this.results = results;
+            this.wallClockNanos = wallClockNanos;
+            this.threadCount = threadCount;
+        }
+
+        /**
+         * Returns the number of programs with the given status.
+         */
+        public long count(@NotNull Status status) {
+            return results.stream().filter(result -> result.getStatus() == status).count();
+        }
+
+        /**
+         * Returns the results of all programs in the order in which the files have been passed.
+         */
+        @NotNull
+        public ImmutableList<ProgramResult> getResults() {
+            return results;
+        }
+
+        public int getThreadCount() {
+            return threadCount;
+        }
+
+        /**
+         * Returns the total number of commands executed by all programs.
+         */
+        public long getTotalCommands() {
+            return results.stream().mapToLong(ProgramResult::getExecutedCommands).sum();
+        }
+
+        /**
+         * Returns the wall clock time of the whole batch.
+         */
+        public long getWallClockNanos() {
+            return wallClockNanos;
+        }
+
+        /**
+         * Returns true if all programs have finished successfully.
+         */
+        public boolean isSuccessful() {
+            return count(Status.SUCCESS) == results.size();
+        }
+    }
+}
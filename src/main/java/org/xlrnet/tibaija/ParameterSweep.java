@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.exception.UndefinedVariableException;
+import org.xlrnet.tibaija.io.CapturingIO;
+import org.xlrnet.tibaija.memory.CalculatorMemory;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.ReadOnlyCalculatorMemory;
+import org.xlrnet.tibaija.memory.Matrix;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.processor.ExecutableProgram;
+import org.xlrnet.tibaija.processor.ExecutionEnvironment;
+import org.xlrnet.tibaija.processor.ExecutionLimits;
+import org.xlrnet.tibaija.processor.FullTIBasicVisitor;
+import org.xlrnet.tibaija.processor.NumberMode;
+import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
+import org.xlrnet.tibaija.util.ValidationUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Runs one stored program many times with different initial values of its variables, e.g. for a sensitivity analysis.
+ * The program is preprocessed only once and every run gets its own fork of the calculator memory, so that setting up a
+ * run only costs as much as writing its initial values. The runs are distributed over a fixed pool of worker threads
+ * and the chosen output variables of all runs are collected column by column.
+ */
+public class ParameterSweep {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParameterSweep.class);
+
+    private final int threadCount;
+
+    private final ExecutionLimits limits;
+
+    /**
+     * Create a new parameter sweep.
+     *
+     * @param threadCount
+     *         Number of worker threads.
+     * @param limits
+     *         Limits for every single run.
+     */
+    public ParameterSweep(int threadCount, @NotNull ExecutionLimits limits) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("At least one thread is required");
+        this.threadCount = threadCount;
+        this.limits = limits;
+    }
+
+    /**
+     * Reads the initial values of a sweep from a CSV file. The first line contains the names of the variables and every
+     * following line the values of one run. Values may be any TI-Basic expression, e.g. <code>2.5</code> or
+     * <code>{1,2,3}</code>. Commas inside braces don't separate cells. Empty cells leave the variable unchanged.
+     *
+     * @param csvFile
+     *         The file to read.
+     * @return The initial values of every run in the order of the file.
+     * @throws IOException
+     *         Will be thrown if the file can't be read.
+     */
+    @NotNull
+    public static List<Map<String, Value>> readBindings(@NotNull Path csvFile) throws IOException {
+        VirtualCalculator evaluator = new TI83Plus(new DefaultCalculatorMemory(), new CapturingIO());
+        List<Map<String, Value>> rows = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null)
+                return rows;
+            List<String> variableNames = splitCells(header);
+            variableNames.forEach(Variable::of);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                List<String> cells = splitCells(line);
+                Map<String, Value> row = new LinkedHashMap<>();
+                for (int i = 0; i < cells.size() && i < variableNames.size(); i++) {
+                    if (cells.get(i).isEmpty())
+                        continue;
+                    evaluator.interpret(cells.get(i));
+                    row.put(variableNames.get(i), evaluator.getMemory().getLastResult());
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Formats a value the way it would be entered on the calculator, e.g. <code>{1,2.5}</code>, <code>3-2i</code> or
+     * <code>[[1,2][3,4]]</code>.
+     */
+    @NotNull
+    public static String formatValue(@NotNull Value value) {
+        if (value.isMatrix())
+            return formatMatrix(value.matrix());
+        if (value.isList())
+            return value.list().stream().map(ParameterSweep::formatComplex).collect(Collectors.joining(",", "{", "}"));
+        return formatComplex(value.complex());
+    }
+
+    public ExecutionLimits getLimits() {
+        return limits;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Runs a program that is stored in the given calculator once for every row of initial values and waits until all
+     * runs have finished. All runs start from the current memory of the calculator, which won't be modified. Errors in
+     * single runs are reported in the result and don't affect the other runs.
+     *
+     * @param calculator
+     *         The calculator whose memory contains the program and the common initial state.
+     * @param programName
+     *         Name of the stored program.
+     * @param rows
+     *         Initial values for every run. The keys are variable names like <code>A</code>, <code>∟DATA</code> or
+     *         <code>Ans</code>.
+     * @param outputVariables
+     *         Names of the variables whose values will be collected after each run.
+     * @return The collected values of all runs.
+     * @throws IllegalArgumentException
+     *         Will be thrown if a variable name is invalid.
+     */
+    @NotNull
+    public Result run(@NotNull VirtualCalculator calculator, @NotNull String programName, @NotNull List<Map<String, Value>> rows, @NotNull List<String> outputVariables) {
+        ExecutableProgram program = calculator.getMemory().getStoredProgram(programName);
+        List<Variable> outputs = outputVariables.stream().map(Variable::of).collect(Collectors.toList());
+        Map<String, Variable> inputs = new HashMap<>();
+        rows.forEach(row -> row.keySet().forEach(name -> inputs.computeIfAbsent(name, Variable::of)));
+
+        LOGGER.info("Running program {} with {} parameter sets on {} threads", programName, rows.size(), threadCount);
+        long startTime = System.nanoTime();
+        Value[][] columns = new Value[outputs.size()][rows.size()];
+        Throwable[] errors = new Throwable[rows.size()];
+
+        // Forking modifies the forked memory, so all forks have to be created by this thread
+        CalculatorMemory baseMemory = calculator.getMemory().fork();
+        // Every worker reuses its visitor, so that the caches of the visitor are only built once per thread
+        ThreadLocal<FullTIBasicVisitor> visitors = ThreadLocal.withInitial(FullTIBasicVisitor::new);
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                final int rowIndex = i;
+                final CalculatorMemory memory = baseMemory.fork();
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        runRow(program, visitors.get(), calculator.getNumberMode(), memory, rows.get(rowIndex), inputs);
+                        for (int column = 0; column < outputs.size(); column++)
+                            columns[column][rowIndex] = outputs.get(column).read(memory);
+                    } catch (RuntimeException e) {
+                        LOGGER.debug("Run {} of program {} failed", rowIndex, programName, e);
+                        errors[rowIndex] = e;
+                    }
+                }, executorService));
+            }
+            futures.forEach(CompletableFuture::join);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Result result = new Result(ImmutableList.copyOf(outputVariables), columns, errors, System.nanoTime() - startTime);
+        LOGGER.info("Finished {} runs in {} ms", rows.size(), result.getWallClockNanos() / 1_000_000);
+        return result;
+    }
+
+    @NotNull
+    private static String formatMatrix(@NotNull Matrix matrix) {
+        StringBuilder builder = new StringBuilder().append('[');
+        for (int row = 0; row < matrix.getRows(); row++) {
+            builder.append('[');
+            for (int column = 0; column < matrix.getColumns(); column++) {
+                if (column > 0)
+                    builder.append(',');
+                builder.append(formatReal(matrix.get(row, column)));
+            }
+            builder.append(']');
+        }
+        return builder.append(']').toString();
+    }
+
+    @NotNull
+    private static String formatComplex(@NotNull Complex complex) {
+        if (complex.getImaginary() == 0)
+            return formatReal(complex.getReal());
+        String imaginary = Math.abs(complex.getImaginary()) == 1 ? "i" : formatReal(Math.abs(complex.getImaginary())) + "i";
+        if (complex.getReal() == 0)
+            return complex.getImaginary() < 0 ? "-" + imaginary : imaginary;
+        return formatReal(complex.getReal()) + (complex.getImaginary() < 0 ? "-" : "+") + imaginary;
+    }
+
+    @NotNull
+    private static String formatReal(double real) {
+        if (real == Math.rint(real) && Math.abs(real) < 1e15)
+            return Long.toString((long) real);
+        return Double.toString(real);
+    }
+
+    private void runRow(@NotNull ExecutableProgram program, @NotNull FullTIBasicVisitor visitor, @NotNull NumberMode numberMode, @NotNull CalculatorMemory memory, @NotNull Map<String, Value> row, @NotNull Map<String, Variable> inputs) {
+        row.forEach((name, value) -> inputs.get(name).write(memory, value));
+        ExecutionEnvironment environment = ExecutionEnvironmentUtil.newDefaultEnvironment(memory, new CapturingIO());
+        environment.setNumberMode(numberMode);
+        environment.newExecution(program, visitor, limits).run();
+    }
+
+    @NotNull
+    private static List<String> splitCells(@NotNull String line) {
+        List<String> cells = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                cells.add(unquote(line.substring(start, i)));
+                start = i + 1;
+            }
+        }
+        cells.add(unquote(line.substring(start)));
+        return cells;
+    }
+
+    @NotNull
+    private static String unquote(@NotNull String cell) {
+        String trimmed = cell.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\""))
+            return trimmed.substring(1, trimmed.length() - 1).trim();
+        return trimmed;
+    }
+
+    /**
+     * A variable that can be set before and read after each run.
+     */
+    private static class Variable {
+
+        private static final String LAST_RESULT = "Ans";
+
+        private static final String LIST_TOKEN = "∟";
+
+        private final Variables.NumberVariable numberVariable;
+
+        private final String listName;
+
+        private Variable(@Nullable Variables.NumberVariable numberVariable, @Nullable String listName) {
+            this.numberVariable = numberVariable;
+            this.listName = listName;
+        }
+
+        @NotNull
+        static Variable of(@NotNull String name) {
+            if (LAST_RESULT.equals(name))
+                return new Variable(null, null);
+            if (ValidationUtils.isValidNumberVariableName(name))
+                return new Variable(Variables.NumberVariable.valueOf(name), null);
+            if (ValidationUtils.isValidListName(name) || name.matches(LIST_TOKEN + "[₁-₆]"))
+                return new Variable(null, name.substring(LIST_TOKEN.length()));
+            throw new IllegalArgumentException("Invalid variable name: " + name);
+        }
+
+        @Nullable
+        Value read(@NotNull ReadOnlyCalculatorMemory memory) {
+            if (numberVariable != null)
+                return memory.getNumberVariableValue(numberVariable);
+            if (listName == null)
+                return memory.getLastResult();
+            try {
+                return memory.getListVariableValue(listName);
+            } catch (UndefinedVariableException e) {
+                return null;
+            }
+        }
+
+        void write(@NotNull CalculatorMemory memory, @NotNull Value value) {
+            if (numberVariable != null)
+                memory.setNumberVariableValue(numberVariable, value);
+            else if (listName != null)
+                memory.setListVariableValue(listName, value);
+            else
+                memory.setLastResult(value);
+        }
+    }
+
+    /**
+     * Collected output values of all runs of a sweep. The values are stored column by column, i.e. all values of one
+     * variable are kept together.
+     */
+    public static class Result {
+
+        private final ImmutableList<String> variables;
+
+        private final Value[][] columns;
+
+        private final Throwable[] errors;
+
+        private final long wallClockNanos;
+
+        Result(@NotNull ImmutableList<String> variables, @NotNull Value[][] columns, @NotNull Throwable[] errors, long wallClockNanos) {
+            this.variables = variables;
+            this.columns = columns;
+            this.errors = errors;
+            this.wallClockNanos = wallClockNanos;
+        }
+
+        /**
+         * Returns the values of a variable after each run. The value of a run is null if the run failed or if the
+         * variable is a list that has not been defined.
+         *
+         * @param variable
+         *         One of the output variables of the sweep.
+         * @return An unmodifiable list with one value per run.
+         */
+        @NotNull
+        public List<Value> getColumn(@NotNull String variable) {
+            int index = variables.indexOf(variable);
+            if (index < 0)
+                throw new IllegalArgumentException("Not an output variable: " + variable);
+            return Collections.unmodifiableList(Arrays.asList(columns[index]));
+        }
+
+        /**
+         * Returns the error that terminated the given run or null if the run finished successfully.
+         */
+        @Nullable
+        public Throwable getError(int row) {
+            return errors[row];
+        }
+
+        /**
+         * Returns the number of runs that have been terminated with an error.
+         */
+        public long getFailedRowCount() {
+            return Arrays.stream(errors).filter(error -> error != null).count();
+        }
+
+        public int getRowCount() {
+            return errors.length;
+        }
+
+        @NotNull
+        public ImmutableList<String> getVariables() {
+            return variables;
+        }
+
+        public long getWallClockNanos() {
+            return wallClockNanos;
+        }
+
+        /**
+         * Writes all values as CSV with one line per run. Failed runs contain the error message in the last column.
+         *
+         * @param appendable
+         *         The target of the CSV lines.
+         * @throws IOException
+         *         Will be thrown if writing fails.
+         */
+        public void writeCsv(@NotNull Appendable appendable) throws IOException {
+            appendable.append("run");
+            for (String variable : variables)
+                appendable.append(',').append(variable);
+            appendable.append(",error\n");
+
+            for (int row = 0; row < getRowCount(); row++) {
+                appendable.append(Integer.toString(row + 1));
+                for (Value[] column : columns)
+                    appendable.append(',').append(quote(column[row] != null ? formatValue(column[row]) : ""));
+                appendable.append(',').append(quote(errors[row] != null ? String.valueOf(errors[row].getMessage()) : ""));
+                appendable.append('\n');
+            }
+        }
+
+        @NotNull
+        private static String quote(@NotNull String cell) {
+            if (cell.indexOf(',') < 0 && cell.indexOf('"') < 0)
+                return cell;
+            return '"' + cell.replace("\"", "\"\"") + '"';
+        }
+    }
+}
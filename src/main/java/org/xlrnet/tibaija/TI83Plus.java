@@ -25,17 +25,28 @@ package org.xlrnet.tibaija;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.exception.DuplicateProgramException;
 import org.xlrnet.tibaija.exception.PreprocessException;
 import org.xlrnet.tibaija.exception.ProgramNotFoundException;
 import org.xlrnet.tibaija.io.CalculatorIO;
 import org.xlrnet.tibaija.memory.CalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
 import org.xlrnet.tibaija.processor.ControlflowLessTIBasicVisitor;
 import org.xlrnet.tibaija.processor.ExecutableProgram;
+import org.xlrnet.tibaija.processor.ExecutionLimits;
 import org.xlrnet.tibaija.processor.FullTIBasicVisitor;
+import org.xlrnet.tibaija.processor.NumberMode;
 import org.xlrnet.tibaija.processor.Preprocessor;
+import org.xlrnet.tibaija.processor.ProgramArchive;
 import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
 import org.xlrnet.tibaija.util.ValidationUtils;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
 /**
  * Virtual calculator based on the TI-83+ model.
  */
@@ -49,11 +60,24 @@ public class TI83Plus implements VirtualCalculator {
 
     private CalculatorIO calculatorIO;
 
+    private ProgramArchive programArchive;
+
+    private NumberMode numberMode = NumberMode.BINARY;
+
     public TI83Plus(CalculatorMemory calculatorMemory, CalculatorIO calculatorIO) {
         this.calculatorMemory = calculatorMemory;
         this.calculatorIO = calculatorIO;
     }
 
+    /**
+     * Create a new calculator that consults the given archive before preprocessing a program. Programs that are
+     * found in the archive will only be parsed when they are executed for the first time.
+     */
+    public TI83Plus(CalculatorMemory calculatorMemory, CalculatorIO calculatorIO, ProgramArchive programArchive) {
+        this(calculatorMemory, calculatorIO);
+        this.programArchive = programArchive;
+    }
+
     @Override
     public void executeProgram(String programName) throws ProgramNotFoundException {
         ExecutableProgram executableProgram = calculatorMemory.getStoredProgram(programName);
@@ -70,6 +94,16 @@ public class TI83Plus implements VirtualCalculator {
         return calculatorMemory;
     }
 
+    @Override
+    public NumberMode getNumberMode() {
+        return numberMode;
+    }
+
+    @Override
+    public void setNumberMode(NumberMode numberMode) {
+        this.numberMode = numberMode;
+    }
+
     @Override
     public void interpret(String input) {
         // Fix input without colon:
@@ -92,7 +126,7 @@ public class TI83Plus implements VirtualCalculator {
         }
 
         try {
-            ExecutableProgram executableProgram = internalPreprocessCode(programName, programCode);
+            ExecutableProgram executableProgram = internalLoadProgramCode(programName, programCode);
             getMemory().storeProgram(programName, executableProgram);
         } catch (PreprocessException e) {
             LOGGER.error("Loading program {} failed", programName);
@@ -100,6 +134,62 @@ public class TI83Plus implements VirtualCalculator {
         }
     }
 
+    /**
+     * Preprocess all programs in parallel and store them afterwards. Duplicate names are checked before any program is
+     * preprocessed, so that either all or none of the programs are stored.
+     */
+    @Override
+    public void loadPrograms(Map<String, ? extends CharSequence> programs) {
+        for (String programName : programs.keySet()) {
+            if (!ValidationUtils.isValidProgramName(programName)) {
+                getIODevice().printLine("Invalid program name: " + programName);
+            }
+            if (getMemory().getStoredProgramNames().contains(programName)) {
+                LOGGER.error("Loading program {} failed", programName);
+                throw new DuplicateProgramException(programName);
+            }
+        }
+
+        // Preprocessing is thread-safe, but the memory may only be modified by a single thread
+        List<ExecutableProgram> executablePrograms = programs.entrySet().parallelStream()
+                .map(entry -> {
+                    try {
+                        return internalLoadProgramCode(entry.getKey(), entry.getValue());
+                    } catch (PreprocessException e) {
+                        LOGGER.error("Loading program {} failed", entry.getKey());
+                        throw e;
+                    }
+                })
+                .collect(Collectors.toList());
+
+        for (ExecutableProgram executableProgram : executablePrograms) {
+            getMemory().storeProgram(executableProgram.getProgramName().toString(), executableProgram);
+        }
+    }
+
+    @Override
+    public void updateProgram(String programName, CharSequence programCode) {
+        if (!getMemory().getStoredProgramNames().contains(programName)) {
+            loadProgram(programName, programCode);
+            return;
+        }
+
+        try {
+            ExecutableProgram oldProgram = getMemory().getStoredProgram(programName);
+            ExecutableProgram executableProgram = preprocessor.updateProgramCode(oldProgram, programCode);
+            getMemory().replaceProgram(programName, executableProgram);
+        } catch (PreprocessException e) {
+            LOGGER.error("Updating program {} failed", programName);
+            throw e;
+        }
+    }
+
+    @Override
+    public ParameterSweep.Result sweepProgram(String programName, List<Map<String, Value>> rows, List<String> outputVariables) throws ProgramNotFoundException {
+        ParameterSweep sweep = new ParameterSweep(Runtime.getRuntime().availableProcessors(), ExecutionLimits.UNLIMITED);
+        return sweep.run(this, programName, rows, outputVariables);
+    }
+
     /**
      * Run all neccessary internal routines for preprocessing a given code.
      */
@@ -108,4 +198,27 @@ public class TI83Plus implements VirtualCalculator {
         executableProgram = preprocessor.preprocessProgramCode(programName, programCode);
         return executableProgram;
     }
+
+    /**
+     * Preprocess a program that should be stored in memory. If an archive is configured, it will be consulted first
+     * and each newly preprocessed program will be added to it.
+     */
+    private ExecutableProgram internalLoadProgramCode(String programName, CharSequence programCode) {
+        if (programArchive == null)
+            return internalPreprocessCode(programName, programCode);
+
+        Optional<ProgramArchive.Entry> archiveEntry = programArchive.lookup(programCode);
+        if (archiveEntry.isPresent()) {
+            LOGGER.debug("Found program {} in archive - deferring preprocessing", programName);
+            return preprocessor.deferProgramCode(programName, programCode, archiveEntry.get());
+        }
+
+        ExecutableProgram executableProgram = internalPreprocessCode(programName, programCode);
+        try {
+            programArchive.add(executableProgram);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to add program {} to archive {}", programName, programArchive.getPath(), e);
+        }
+        return executableProgram;
+    }
 }
@@ -25,6 +25,11 @@ package org.xlrnet.tibaija;
 import org.xlrnet.tibaija.exception.ProgramNotFoundException;
 import org.xlrnet.tibaija.io.CalculatorIO;
 import org.xlrnet.tibaija.memory.CalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.processor.NumberMode;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * This is the basic interface for accessing the virtual hardware of a TI-Basic capable calculator.
@@ -48,6 +53,19 @@ public interface VirtualCalculator {
      */
     public CalculatorMemory getMemory();
 
+    /**
+     * Returns the mode in which programs on this calculator calculate with real numbers.
+     */
+    public NumberMode getNumberMode();
+
+    /**
+     * Set the mode in which all programs and interpretations that are started afterwards calculate with real numbers.
+     *
+     * @param numberMode
+     *         The new number mode.
+     */
+    public void setNumberMode(NumberMode numberMode);
+
     /**
      * Execute and the given input string on the virtual calculator. This will execute in a stateful manner and
      * might change the internal state of the calculator. This method should be used for short interpretations and
@@ -68,4 +86,41 @@ public interface VirtualCalculator {
      */
     public void loadProgram(String programName, CharSequence programCode);
 
+    /**
+     * Load all given programs into main memory. The programs may be preprocessed in parallel. If any program can't be
+     * preprocessed, none of the programs will be stored.
+     *
+     * @param programs
+     *         Map of program names to valid TI-Basic code.
+     */
+    public void loadPrograms(Map<String, ? extends CharSequence> programs);
+
+    /**
+     * Replace the code of a program in main memory. If the program has already been loaded, only the changed commands
+     * will be preprocessed again. Otherwise the program will be loaded like with {@link #loadProgram(String,
+     * CharSequence)}.
+     *
+     * @param programName
+     *         Internal name of the program, must be one to eight capital letters or numbers.
+     * @param programCode
+     *         Valid TI-Basic code
+     */
+    public void updateProgram(String programName, CharSequence programCode);
+
+    /**
+     * Run a stored program once for every given set of initial variable values. Every run starts from the current
+     * memory of this calculator in its own isolated copy, so that neither this calculator nor the other runs are
+     * affected. The runs are distributed over all available cores.
+     *
+     * @param programName
+     *         Internal name of the stored program.
+     * @param rows
+     *         Initial values for every run, e.g. <code>A</code>, <code>∟DATA</code> or <code>Ans</code>.
+     * @param outputVariables
+     *         Names of the variables whose values will be collected after each run.
+     * @return The collected values of all runs.
+     * @see ParameterSweep
+     */
+    public ParameterSweep.Result sweepProgram(String programName, List<Map<String, Value>> rows, List<String> outputVariables) throws ProgramNotFoundException;
+
 }
\ No newline at end of file
@@ -25,13 +25,17 @@ package org.xlrnet.tibaija.commands;
 import com.google.common.collect.ImmutableList;
 import org.apache.commons.math3.complex.Complex;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xlrnet.tibaija.exception.IllegalTypeException;
 import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.memory.Matrix;
 import org.xlrnet.tibaija.memory.Value;
 import org.xlrnet.tibaija.memory.Variables;
 import org.xlrnet.tibaija.processor.Command;
+import org.xlrnet.tibaija.processor.NumberMode;
+import org.xlrnet.tibaija.util.MatrixUtils;
 import org.xlrnet.tibaija.util.ValueUtils;
 
 import java.util.ArrayList;
@@ -66,6 +70,61 @@ public class BinaryCommand extends Command {
         this.evaluationFunction = evaluationFunction;
     }
 
+    /**
+     * Returns the operator of this command or null if the command has been created with a custom function.
+     */
+    @Nullable
+    public BinaryCommandOperator getOperator() {
+        return operator;
+    }
+
+    /**
+     * Returns true if this command calculates with 14 significant decimal digits, because its environment is in {@link
+     * NumberMode#DECIMAL} and the operator supports it.
+     */
+    public boolean usesDecimalArithmetic() {
+        return operator != null && operator.hasDecimalArithmetic() && getEnvironment() != null
+                && getEnvironment().getNumberMode() == NumberMode.DECIMAL;
+    }
+
+    /**
+     * Apply this command to two numbers without checking the arguments. This may only be used if both operands are
+     * known to be numbers, e.g. from a static type analysis of the expression.
+     *
+     * @param lhs
+     *         Left side of the expression. Must be a number.
+     * @param rhs
+     *         Right side of the expression. Must be a number.
+     * @return The result of the operation.
+     */
+    @NotNull
+    public Value applyToNumbers(@NotNull Value lhs, @NotNull Value rhs) {
+        final Value result = usesDecimalArithmetic() ? operator.applyDecimal(lhs, rhs) : evaluationFunction.apply(lhs, rhs);
+
+        LOGGER.debug("({}) {} {} -> {}", operator, lhs.getValue(), rhs.getValue(), result.getValue());
+
+        return result;
+    }
+
+    /**
+     * Apply this command to operands of which at least one is a list without checking the arguments. This may only be
+     * used if the types of both operands are known, e.g. from a static type analysis of the expression.
+     *
+     * @param lhs
+     *         Left side of the expression. Must be a number or a list.
+     * @param rhs
+     *         Right side of the expression. Must be a number or a list.
+     * @return The result of the operation.
+     */
+    @NotNull
+    public Value applyToLists(@NotNull Value lhs, @NotNull Value rhs) {
+        final Value result = applyOperator(lhs, rhs);
+
+        LOGGER.debug("({}) {} {} -> {}", operator, lhs.getValue(), rhs.getValue(), result.getValue());
+
+        return result;
+    }
+
     @Override
     protected Optional<Value> execute(ImmutableList<Value> arguments) {
         final Value lhs = arguments.get(0);
@@ -78,11 +137,11 @@ public class BinaryCommand extends Command {
     }
 
     /**
-     * Check if both arguments are of a numerical type and not null.
+     * Check if both arguments are of a numerical type or matrices and not null.
      *
      * @param parameters
      *         The arguments for the command.
-     * @return True if both arguments are of a numerical type and not null.
+     * @return True if both arguments are of a numerical type or matrices and not null.
      */
     @Override
     protected boolean hasValidArgumentValues(ImmutableList<Value> parameters) {
@@ -91,10 +150,10 @@ public class BinaryCommand extends Command {
         checkNotNull(lhs);
         checkNotNull(rhs);
 
-        if (!ValueUtils.isNumberOrList(lhs))
-            throw new IllegalTypeException("Left hand side of expression is not a list or number: " + lhs.getValue(), Variables.VariableType.NUMBER, lhs.getType());
-        if (!ValueUtils.isNumberOrList(rhs))
-            throw new IllegalTypeException("Right hand side of expression is not a list or number: " + rhs.getValue(), Variables.VariableType.NUMBER, rhs.getType());
+        if (!ValueUtils.isNumberOrList(lhs) && !lhs.isMatrix())
+            throw new IllegalTypeException("Left hand side of expression is not a list, number or matrix: " + lhs.getValue(), Variables.VariableType.NUMBER, lhs.getType());
+        if (!ValueUtils.isNumberOrList(rhs) && !rhs.isMatrix())
+            throw new IllegalTypeException("Right hand side of expression is not a list, number or matrix: " + rhs.getValue(), Variables.VariableType.NUMBER, rhs.getType());
 
         return true;
     }
@@ -119,10 +178,12 @@ public class BinaryCommand extends Command {
      *         Left side of the expression
      * @param rhs
      *         Right side of the expression.
+     * @param function
+     *         The function that will be applied to each pair of elements.
      * @return A new Value object with the internal function applied to it.
      */
     @NotNull
-    private Value applyOnBothList(@NotNull Value lhs, @NotNull Value rhs) {
+    private Value applyOnBothList(@NotNull Value lhs, @NotNull Value rhs, @NotNull BinaryOperator<Value> function) {
         final ImmutableList<Complex> leftList = lhs.list();
         final ImmutableList<Complex> rightList = rhs.list();
 
@@ -131,7 +192,7 @@ public class BinaryCommand extends Command {
 
         List<Complex> resultList = new ArrayList<>(leftList.size());
         for (int i = 0; i < leftList.size(); i++)
-            resultList.add(evaluationFunction.apply(Value.of(leftList.get(i)), Value.of(rightList.get(i))).complex());
+            resultList.add(function.apply(Value.of(leftList.get(i)), Value.of(rightList.get(i))).complex());
         return Value.of(resultList);
     }
 
@@ -143,13 +204,15 @@ public class BinaryCommand extends Command {
      *         Left side of the expression
      * @param rhs
      *         Right side of the expression.
+     * @param function
+     *         The function that will be applied to each element.
      * @return A new Value object with the internal function applied to it.
      */
     @NotNull
-    private Value applyOnLeftList(@NotNull Value lhs, @NotNull Value rhs) {
+    private Value applyOnLeftList(@NotNull Value lhs, @NotNull Value rhs, @NotNull BinaryOperator<Value> function) {
         List<Complex> valueList = lhs.list()
                 .stream()
-                .map(c -> evaluationFunction.apply(Value.of(c), rhs).complex())
+                .map(c -> function.apply(Value.of(c), rhs).complex())
                 .collect(Collectors.toList());
         return Value.of(valueList);
     }
@@ -162,23 +225,136 @@ public class BinaryCommand extends Command {
      *         Left side of the expression
      * @param rhs
      *         Right side of the expression.
+     * @param function
+     *         The function that will be applied to each element.
      * @return A new Value object with the internal function applied to it.
      */
     @NotNull
-    private Value applyOnRightList(@NotNull Value lhs, @NotNull Value rhs) {
+    private Value applyOnRightList(@NotNull Value lhs, @NotNull Value rhs, @NotNull BinaryOperator<Value> function) {
         List<Complex> valueList = rhs.list()
                 .stream()
-                .map(c -> evaluationFunction.apply(lhs, Value.of(c)).complex())
+                .map(c -> function.apply(lhs, Value.of(c)).complex())
                 .collect(Collectors.toList());
         return Value.of(valueList);
     }
 
     /**
-     * Apply the internal operator function on the given operand. If both operand are numbers, the function will be
+     * Apply the operator with the {@link ListKernels} if this returns exactly the same result as the operator
+     * function, i.e. if all elements are finite real numbers.
+     *
+     * @param lhs
+     *         Left side of the expression
+     * @param rhs
+     *         Right side of the expression.
+     * @return The result or null if the kernels can't be used.
+     */
+    @Nullable
+    private Value applyWithKernels(@NotNull Value lhs, @NotNull Value rhs) {
+        if (operator == null || !ListKernels.isExactForReals(operator))
+            return null;
+        if (lhs.isList() && rhs.isList() && lhs.list().size() != rhs.list().size())
+            return null;
+
+        double[] left = ListKernels.toRealArray(lhs);
+        double[] right = left != null ? ListKernels.toRealArray(rhs) : null;
+        if (right == null || (operator == BinaryCommandOperator.DIVIDE && !ListKernels.isNonZero(right)))
+            return null;
+
+        double[] result = new double[lhs.isList() ? left.length : right.length];
+        ListKernels.getInstance().apply(operator, left, right, result);
+        return ListKernels.toListValue(result);
+    }
+
+    /**
+     * Apply the operator if at least one operand is a matrix. Sums and differences of matrices with the same dimension
+     * as well as products and quotients of a matrix and a real number are calculated element-wise with the {@link
+     * ListKernels}. The product of two matrices and integer powers of a square matrix are calculated with {@link
+     * MatrixUtils}. Matrices can only be compared for equality.
+     *
+     * @param lhs
+     *         Left side of the expression
+     * @param rhs
+     *         Right side of the expression.
+     * @return A new Value object with the result of the operation.
+     */
+    @NotNull
+    private Value applyOnMatrix(@NotNull Value lhs, @NotNull Value rhs) throws TIArgumentException {
+        if (operator != null && lhs.isMatrix() && rhs.isMatrix()) {
+            Matrix left = lhs.matrix();
+            Matrix right = rhs.matrix();
+            switch (operator) {
+                case MULTIPLY:
+                    return Value.of(MatrixUtils.multiply(left, right));
+                case EQUALS:
+                    return Value.of(hasEqualElements(left, right));
+                case NOT_EQUALS:
+                    return Value.of(!hasEqualElements(left, right));
+                case PLUS:
+                case MINUS:
+                    if (left.getRows() != right.getRows() || left.getColumns() != right.getColumns())
+                        throw new TIArgumentException("Dimension mismatch", lhs, rhs);
+                    return applyOnMatrixElements(left, right.elements());
+            }
+        } else if (operator != null && lhs.isMatrix() && rhs.isNumber()) {
+            switch (operator) {
+                case MULTIPLY:
+                    return applyOnMatrixElements(lhs.matrix(), new double[]{toMatrixElement(rhs)});
+                case DIVIDE:
+                    double divisor = toMatrixElement(rhs);
+                    if (divisor == 0)
+                        throw new TIArgumentException("Divide by zero", lhs, rhs);
+                    return applyOnMatrixElements(lhs.matrix(), new double[]{divisor});
+                case POWER:
+                    double exponent = toMatrixElement(rhs);
+                    if (exponent != Math.rint(exponent) || exponent < 0 || exponent > Integer.MAX_VALUE)
+                        throw new TIArgumentException("Invalid exponent", rhs);
+                    return Value.of(MatrixUtils.power(lhs.matrix(), (int) exponent));
+            }
+        } else if (operator == BinaryCommandOperator.MULTIPLY && lhs.isNumber() && rhs.isMatrix()) {
+            return applyOnMatrixElements(rhs.matrix(), new double[]{toMatrixElement(lhs)});
+        }
+        throw new IllegalTypeException("Operation " + operator + " is not supported for " + lhs.getType() + " and " + rhs.getType(),
+                Variables.VariableType.MATRIX, lhs.isMatrix() ? rhs.getType() : lhs.getType());
+    }
+
+    /**
+     * Apply the operator with the {@link ListKernels} on the elements of a matrix and either the elements of another
+     * matrix with the same dimension or a single number. The matrix is always the left operand of the kernel, which
+     * is correct for all commutative operators and for dividing a matrix by a number.
+     */
+    @NotNull
+    private Value applyOnMatrixElements(@NotNull Matrix matrix, @NotNull double[] operand) {
+        double[] result = new double[matrix.elements().length];
+        ListKernels.getInstance().apply(operator, matrix.elements(), operand, result);
+        return Value.of(Matrix.wrap(matrix.getRows(), matrix.getColumns(), result));
+    }
+
+    private static double toMatrixElement(@NotNull Value number) throws TIArgumentException {
+        if (number.hasImaginaryValue())
+            throw new TIArgumentException("Matrix elements must be real numbers", number);
+        return number.complex().getReal();
+    }
+
+    private static boolean hasEqualElements(@NotNull Matrix lhs, @NotNull Matrix rhs) {
+        if (lhs.getRows() != rhs.getRows() || lhs.getColumns() != rhs.getColumns())
+            return false;
+        double[] left = lhs.elements();
+        double[] right = rhs.elements();
+        for (int i = 0; i < left.length; i++) {
+            if (left[i] != right[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Apply the internal operator function on the given operand. If at least one operand is a matrix, the operation
+     * will be delegated to {@link #applyOnMatrix(Value, Value)}. If both operand are numbers, the function will be
      * applied to both numerical values. If both operands are lists and have the same length, each i-th element of the
      * left list will be applied with the i-th element of the right list to build the i-th element of the result.  If
      * both lists have a different length an exception will be thrown. If only one side of the expression is a list,
-     * the non-list side will be applied to each element of the list side.
+     * the non-list side will be applied to each element of the list side. In {@link NumberMode#DECIMAL}, the basic
+     * arithmetic operators are calculated with 14 significant decimal digits.
      *
      * @param lhs
      *         Left side of the expression
@@ -188,17 +364,24 @@ public class BinaryCommand extends Command {
      */
     private Value applyOperator(Value lhs, Value rhs) throws TIArgumentException {
         Value result;
+        boolean decimal = usesDecimalArithmetic();
+        BinaryOperator<Value> function = decimal ? operator::applyDecimal : evaluationFunction;
 
-        if (lhs.isList() || rhs.isList()) {
-            if (lhs.isList() && rhs.isList()) {
-                result = applyOnBothList(lhs, rhs);
+        if (lhs.isMatrix() || rhs.isMatrix()) {
+            result = applyOnMatrix(lhs, rhs);
+        } else if (lhs.isList() || rhs.isList()) {
+            Value kernelResult = decimal ? null : applyWithKernels(lhs, rhs);
+            if (kernelResult != null) {
+                result = kernelResult;
+            } else if (lhs.isList() && rhs.isList()) {
+                result = applyOnBothList(lhs, rhs, function);
             } else if (lhs.isList()) {
-                result = applyOnLeftList(lhs, rhs);
+                result = applyOnLeftList(lhs, rhs, function);
             } else {
-                result = applyOnRightList(lhs, rhs);
+                result = applyOnRightList(lhs, rhs, function);
             }
         } else {
-            result = evaluationFunction.apply(lhs, rhs);
+            result = function.apply(lhs, rhs);
         }
         return result;
     }
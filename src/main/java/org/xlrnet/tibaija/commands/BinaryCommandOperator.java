@@ -22,9 +22,13 @@
 
 package org.xlrnet.tibaija.commands;
 
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.xlrnet.tibaija.exception.TIArgumentException;
 import org.xlrnet.tibaija.memory.Value;
 import org.xlrnet.tibaija.util.CompareUtils;
 import org.xlrnet.tibaija.util.LogicUtils;
+import org.xlrnet.tibaija.util.TIDecimal;
 import org.xlrnet.tibaija.util.TIMathUtils;
 
 import java.util.function.BinaryOperator;
@@ -106,4 +110,83 @@ public enum BinaryCommandOperator {
     public BinaryOperator<Value> getOperatorFunction() {
         return operatorFunction;
     }
+
+    /**
+     * Apply this operator on two single elements of a list. The result is always the same as with the operator
+     * function, but the basic arithmetic operators don't need to wrap the elements in {@link Value} objects.
+     *
+     * @param lhs
+     *         Left side of the expression.
+     * @param rhs
+     *         Right side of the expression.
+     * @return The result of the operation.
+     */
+    @NotNull
+    public Complex applyOnElements(@NotNull Complex lhs, @NotNull Complex rhs) {
+        switch (this) {
+            case PLUS:
+                return lhs.add(rhs);
+            case MINUS:
+                return lhs.subtract(rhs);
+            case MULTIPLY:
+                return lhs.multiply(rhs);
+            case DIVIDE:
+                return lhs.divide(rhs);
+            case POWER:
+                return lhs.pow(rhs);
+            default:
+                return operatorFunction.apply(Value.of(lhs), Value.of(rhs)).complex();
+        }
+    }
+
+    /**
+     * Returns true if this operator can be calculated with {@link TIDecimal} numbers, i.e. if it is one of +, -, * and
+     * /.
+     */
+    public boolean hasDecimalArithmetic() {
+        switch (this) {
+            case PLUS:
+            case MINUS:
+            case MULTIPLY:
+            case DIVIDE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Apply this operator with 14 significant decimal digits like a real calculator. If any operand is not a finite
+     * real number or if the operator has no decimal arithmetic, the operator function will be used instead.
+     *
+     * @param lhs
+     *         Left side of the expression.
+     * @param rhs
+     *         Right side of the expression.
+     * @return The rounded result of the operation.
+     * @throws TIArgumentException
+     *         Will be thrown on a division by zero or if the result is too large.
+     */
+    @NotNull
+    public Value applyDecimal(@NotNull Value lhs, @NotNull Value rhs) throws TIArgumentException {
+        if (!hasDecimalArithmetic() || !TIDecimal.isFiniteReal(lhs.complex()) || !TIDecimal.isFiniteReal(rhs.complex()))
+            return operatorFunction.apply(lhs, rhs);
+
+        try {
+            long left = TIDecimal.valueOf(lhs.complex().getReal());
+            long right = TIDecimal.valueOf(rhs.complex().getReal());
+            switch (this) {
+                case PLUS:
+                    return Value.of(TIDecimal.toDouble(TIDecimal.add(left, right)));
+                case MINUS:
+                    return Value.of(TIDecimal.toDouble(TIDecimal.subtract(left, right)));
+                case MULTIPLY:
+                    return Value.of(TIDecimal.toDouble(TIDecimal.multiply(left, right)));
+                default:
+                    return Value.of(TIDecimal.toDouble(TIDecimal.divide(left, right)));
+            }
+        } catch (ArithmeticException e) {
+            throw new TIArgumentException(e.getMessage(), lhs, rhs);
+        }
+    }
 }
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.commands;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.util.LogicUtils;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Element-wise kernels that evaluate the arithmetic operators over arrays of real numbers. All kernels write into a
+ * given result array, which may be the same array as one of the operands. An operand with a single element will be
+ * applied to every element of the other operand, just like a number is applied to every element of a list.
+ * <p/>
+ * The implementation is selected once at runtime. Additional implementations (e.g. based on the incubating vector API
+ * of newer JDKs) can be registered with the {@link ServiceLoader} mechanism and are used if {@link #isAvailable()}
+ * returns true on the running JVM. The system property {@value #KERNELS_PROPERTY} selects an implementation by its
+ * name. If no other implementation is available, the {@link ScalarListKernels} will be used.
+ */
+public abstract class ListKernels {
+
+    /**
+     * System property with the name of the kernels that should be used.
+     */
+    public static final String KERNELS_PROPERTY = "tibaija.kernels";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListKernels.class);
+
+    private static final ListKernels INSTANCE = loadKernels();
+
+    /**
+     * Returns the kernels that have been selected for the running JVM.
+     */
+    @NotNull
+    public static ListKernels getInstance() {
+        return INSTANCE;
+    }
+
+    @NotNull
+    private static ListKernels loadKernels() {
+        String requestedName = System.getProperty(KERNELS_PROPERTY);
+        Iterator<ListKernels> iterator = ServiceLoader.load(ListKernels.class).iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext())
+                    break;
+                ListKernels kernels = iterator.next();
+                if ((requestedName == null || requestedName.equals(kernels.getName())) && kernels.isAvailable()) {
+                    LOGGER.info("Using {} list kernels", kernels.getName());
+                    return kernels;
+                }
+            } catch (ServiceConfigurationError | LinkageError e) {
+                LOGGER.debug("Skipping list kernels that can't be loaded: {}", e.getMessage());
+            }
+        }
+        ListKernels fallback = new ScalarListKernels();
+        if (requestedName != null && !requestedName.equals(fallback.getName()))
+            LOGGER.warn("List kernels {} are not available - falling back to {} kernels", requestedName, fallback.getName());
+        return fallback;
+    }
+
+    /**
+     * Returns the name under which these kernels can be selected.
+     */
+    @NotNull
+    public abstract String getName();
+
+    /**
+     * Returns true if these kernels can be used on the running JVM. Implementations that depend on optional JDK
+     * modules should check for the module here.
+     */
+    public boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Returns true if the given operator can be evaluated with the kernels.
+     */
+    public static boolean supports(@NotNull BinaryCommandOperator operator) {
+        switch (operator) {
+            case NTH_ROOT:
+            case NPR:
+            case NCR:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Returns true if the given operator can be evaluated with the kernels.
+     */
+    public static boolean supports(@NotNull UnaryCommandOperator operator) {
+        switch (operator) {
+            case NOT:
+            case SQUARED:
+            case CUBED:
+            case SQUARE_ROOT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns true if the kernel of the given operator returns exactly the same result as the operator function does
+     * for finite real numbers. Divisions are only exact if no divisor is zero, since dividing by a complex zero is not
+     * the same as dividing by a real zero.
+     */
+    public static boolean isExactForReals(@NotNull BinaryCommandOperator operator) {
+        switch (operator) {
+            case POWER:
+            case NTH_ROOT:
+            case NPR:
+            case NCR:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Returns true if the kernel of the given operator returns exactly the same result as the operator function does
+     * for finite real numbers. Square roots are only exact for non-negative numbers.
+     */
+    public static boolean isExactForReals(@NotNull UnaryCommandOperator operator) {
+        return supports(operator);
+    }
+
+    /**
+     * Returns the real parts of all elements of a list or number value. If the value has any element which is not a
+     * finite real number, null will be returned.
+     *
+     * @param value
+     *         A list or number value.
+     * @return An array with one element per list element or with a single element for numbers.
+     */
+    @Nullable
+    public static double[] toRealArray(@NotNull Value value) {
+        if (value.isNumber())
+            return isFiniteReal(value.complex()) ? new double[]{value.complex().getReal()} : null;
+
+        List<Complex> list = value.list();
+        double[] array = new double[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            Complex complex = list.get(i);
+            if (!isFiniteReal(complex))
+                return null;
+            array[i] = complex.getReal();
+        }
+        return array;
+    }
+
+    /**
+     * Converts an array of real numbers to a list value.
+     */
+    @NotNull
+    public static Value toListValue(@NotNull double[] array) {
+        ImmutableList.Builder<Complex> builder = ImmutableList.builder();
+        for (double d : array)
+            builder.add(Complex.valueOf(d));
+        return Value.of(builder.build());
+    }
+
+    private static boolean isFiniteReal(@NotNull Complex complex) {
+        return complex.getImaginary() == 0 && !Double.isInfinite(complex.getReal()) && !Double.isNaN(complex.getReal());
+    }
+
+    /**
+     * Returns true if no element of the given array is zero.
+     */
+    public static boolean isNonZero(@NotNull double[] operand) {
+        for (double d : operand) {
+            if (d == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if every power of the given operands has a real result, i.e. no negative base is raised to a
+     * non-integer exponent. Single-element operands will be broadcast.
+     */
+    public static boolean hasRealPowers(@NotNull double[] base, @NotNull double[] exponent) {
+        int length = Math.max(base.length, exponent.length);
+        for (int i = 0; i < length; i++) {
+            double b = base[base.length == 1 ? 0 : i];
+            double e = exponent[exponent.length == 1 ? 0 : i];
+            if (b < 0 && e != Math.rint(e) && !Double.isInfinite(e))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if no element of the given array is negative.
+     */
+    public static boolean isNonNegative(@NotNull double[] operand) {
+        for (double d : operand) {
+            if (d < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a function that evaluates the given operator on two real numbers. Logical and comparison operators
+     * return 1 for true and 0 for false.
+     */
+    @NotNull
+    public static DoubleBinaryOperator scalarFunction(@NotNull BinaryCommandOperator operator) {
+        switch (operator) {
+            case PLUS:
+                return (lhs, rhs) -> lhs + rhs;
+            case MINUS:
+                return (lhs, rhs) -> lhs - rhs;
+            case MULTIPLY:
+                return (lhs, rhs) -> lhs * rhs;
+            case DIVIDE:
+                return (lhs, rhs) -> lhs / rhs;
+            case POWER:
+                return Math::pow;
+            case EQUALS:
+                return (lhs, rhs) -> lhs == rhs ? 1 : 0;
+            case NOT_EQUALS:
+                return (lhs, rhs) -> lhs != rhs ? 1 : 0;
+            case GREATER_THAN:
+                return (lhs, rhs) -> lhs > rhs ? 1 : 0;
+            case LESS_THAN:
+                return (lhs, rhs) -> lhs < rhs ? 1 : 0;
+            case GREATER_EQUALS:
+                return (lhs, rhs) -> lhs >= rhs ? 1 : 0;
+            case LESS_EQUALS:
+                return (lhs, rhs) -> lhs <= rhs ? 1 : 0;
+            case AND:
+                return (lhs, rhs) -> LogicUtils.and(lhs, rhs) ? 1 : 0;
+            case OR:
+                return (lhs, rhs) -> LogicUtils.or(lhs, rhs) ? 1 : 0;
+            case XOR:
+                return (lhs, rhs) -> LogicUtils.xor(lhs, rhs) ? 1 : 0;
+            default:
+                throw new UnsupportedOperationException("No kernel for operator " + operator);
+        }
+    }
+
+    /**
+     * Apply a binary operator on every element of the given operands. Both operands must either have the length of
+     * the result array or exactly one element.
+     *
+     * @param operator
+     *         The operator to apply. Must be supported by {@link #supports(BinaryCommandOperator)}.
+     * @param lhs
+     *         The left operand.
+     * @param rhs
+     *         The right operand.
+     * @param result
+     *         The array to which the results will be written.
+     */
+    public final void apply(@NotNull BinaryCommandOperator operator, @NotNull double[] lhs, @NotNull double[] rhs, @NotNull double[] result) {
+        if (lhs.length == result.length && rhs.length == result.length)
+            applyOnBoth(operator, lhs, rhs, result);
+        else if (rhs.length == 1)
+            applyOnLeft(operator, lhs, rhs[0], result);
+        else
+            applyOnRight(operator, lhs[0], rhs, result);
+    }
+
+    /**
+     * Apply a unary operator on every element of the given operand.
+     *
+     * @param operator
+     *         The operator to apply. Must be supported by {@link #supports(UnaryCommandOperator)}.
+     * @param operand
+     *         The operand with the same length as the result.
+     * @param result
+     *         The array to which the results will be written.
+     */
+    public abstract void apply(@NotNull UnaryCommandOperator operator, @NotNull double[] operand, @NotNull double[] result);
+
+    /**
+     * Apply a binary operator on two operands with the same length as the result.
+     */
+    protected abstract void applyOnBoth(@NotNull BinaryCommandOperator operator, @NotNull double[] lhs, @NotNull double[] rhs, @NotNull double[] result);
+
+    /**
+     * Apply a binary operator on a left operand with the same length as the result and a single right operand.
+     */
+    protected abstract void applyOnLeft(@NotNull BinaryCommandOperator operator, @NotNull double[] lhs, double rhs, @NotNull double[] result);
+
+    /**
+     * Apply a binary operator on a single left operand and a right operand with the same length as the result.
+     */
+    protected abstract void applyOnRight(@NotNull BinaryCommandOperator operator, double lhs, @NotNull double[] rhs, @NotNull double[] result);
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.commands;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.exception.IllegalTypeException;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.processor.Command;
+
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Generic implementation for functions with a single matrix argument like det(, rref( or ᵀ. Uses a functional enum
+ * pattern for instantiation.
+ */
+public class MatrixCommand extends Command {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MatrixCommand.class);
+
+    private final MatrixCommandOperator operator;
+
+    public MatrixCommand(@NotNull MatrixCommandOperator operator) {
+        this.operator = checkNotNull(operator);
+    }
+
+    @NotNull
+    public MatrixCommandOperator getOperator() {
+        return operator;
+    }
+
+    @Override
+    protected Optional<Value> execute(ImmutableList<Value> arguments) {
+        final Value operand = arguments.get(0);
+        final Value result = operator.getOperatorFunction().apply(operand.matrix());
+
+        LOGGER.debug("({}) {} -> {}", operator, operand.getValue(), result.getValue());
+
+        return Optional.of(result);
+    }
+
+    /**
+     * Check if the argument is a matrix.
+     *
+     * @param parameters
+     *         The arguments for the command.
+     * @return True if the argument is a matrix.
+     */
+    @Override
+    protected boolean hasValidArgumentValues(ImmutableList<Value> parameters) {
+        final Value operand = checkNotNull(parameters.get(0));
+        if (!operand.isMatrix())
+            throw new IllegalTypeException("Illegal argument for " + operator + ": " + operand.getValue(), Variables.VariableType.MATRIX, operand.getType());
+        return true;
+    }
+
+    /**
+     * Check if exactly one argument was passed.
+     *
+     * @param numberOfParametersEntered
+     *         Number of parameters passed by the caller.
+     * @return True if exactly one argument was passed.
+     */
+    @Override
+    protected boolean hasValidNumberOfArguments(int numberOfParametersEntered) {
+        return numberOfParametersEntered == 1;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.commands;
+
+import org.jetbrains.annotations.NotNull;
+import org.xlrnet.tibaija.memory.Matrix;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.util.MatrixUtils;
+
+import java.util.function.Function;
+
+/**
+ * Static enum that defines the functions of TI-Basic which expect a single matrix as argument. The calculations
+ * themselves are done in {@link MatrixUtils}.
+ */
+public enum MatrixCommandOperator {
+
+    /**
+     * matrixᵀ - Transposed matrix.
+     */
+    TRANSPOSE(matrix -> Value.of(MatrixUtils.transpose(matrix))),
+
+    /**
+     * det(matrix) - Determinant of a square matrix.
+     */
+    DETERMINANT(matrix -> Value.of(MatrixUtils.determinant(matrix))),
+
+    /**
+     * rref(matrix) - Reduced row echelon form.
+     */
+    REDUCED_ROW_ECHELON_FORM(matrix -> Value.of(MatrixUtils.rref(matrix)));
+
+    private final Function<Matrix, Value> operatorFunction;
+
+    MatrixCommandOperator(@NotNull Function<Matrix, Value> operatorFunction) {
+        this.operatorFunction = operatorFunction;
+    }
+
+    public Function<Matrix, Value> getOperatorFunction() {
+        return operatorFunction;
+    }
+}
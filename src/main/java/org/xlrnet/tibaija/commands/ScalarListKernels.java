@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.commands;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Portable kernels with one plain loop per operator. The loops don't allocate any objects and don't call any methods
+ * except for powers and roots, so that the JIT compiler can unroll them and use SIMD instructions where the platform
+ * supports it. These kernels are always available and used if no other implementation has been selected.
+ */
+public final class ScalarListKernels extends ListKernels {
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public void apply(@NotNull UnaryCommandOperator operator, @NotNull double[] operand, @NotNull double[] result) {
+        int length = result.length;
+        switch (operator) {
+            case NOT:
+                for (int i = 0; i < length; i++)
+                    result[i] = operand[i] == 0 ? 1 : 0;
+                break;
+            case SQUARED:
+                for (int i = 0; i < length; i++)
+                    result[i] = operand[i] * operand[i];
+                break;
+            case CUBED:
+                for (int i = 0; i < length; i++)
+                    result[i] = operand[i] * operand[i] * operand[i];
+                break;
+            case SQUARE_ROOT:
+                for (int i = 0; i < length; i++)
+                    result[i] = Math.sqrt(operand[i]);
+                break;
+            default:
+                throw new UnsupportedOperationException("No kernel for operator " + operator);
+        }
+    }
+
+    @Override
+    protected void applyOnBoth(@NotNull BinaryCommandOperator operator, @NotNull double[] lhs, @NotNull double[] rhs, @NotNull double[] result) {
+        int length = result.length;
+        switch (operator) {
+            case PLUS:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] + rhs[i];
+                break;
+            case MINUS:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] - rhs[i];
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] * rhs[i];
+                break;
+            case DIVIDE:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] / rhs[i];
+                break;
+            case POWER:
+                for (int i = 0; i < length; i++)
+                    result[i] = Math.pow(lhs[i], rhs[i]);
+                break;
+            case EQUALS:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] == rhs[i] ? 1 : 0;
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] != rhs[i] ? 1 : 0;
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] > rhs[i] ? 1 : 0;
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] < rhs[i] ? 1 : 0;
+                break;
+            case GREATER_EQUALS:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] >= rhs[i] ? 1 : 0;
+                break;
+            case LESS_EQUALS:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] <= rhs[i] ? 1 : 0;
+                break;
+            case AND:
+                for (int i = 0; i < length; i++)
+                    result[i] = (lhs[i] != 0 & rhs[i] != 0) ? 1 : 0;
+                break;
+            case OR:
+                for (int i = 0; i < length; i++)
+                    result[i] = (lhs[i] != 0 | rhs[i] != 0) ? 1 : 0;
+                break;
+            case XOR:
+                for (int i = 0; i < length; i++)
+                    result[i] = (lhs[i] != 0 ^ rhs[i] != 0) ? 1 : 0;
+                break;
+            default:
+                throw new UnsupportedOperationException("No kernel for operator " + operator);
+        }
+    }
+
+    @Override
+    protected void applyOnLeft(@NotNull BinaryCommandOperator operator, @NotNull double[] lhs, double rhs, @NotNull double[] result) {
+        int length = result.length;
+        switch (operator) {
+            case PLUS:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] + rhs;
+                break;
+            case MINUS:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] - rhs;
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] * rhs;
+                break;
+            case DIVIDE:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs[i] / rhs;
+                break;
+            default:
+                applyOnBoth(operator, lhs, broadcast(rhs, length), result);
+        }
+    }
+
+    @Override
+    protected void applyOnRight(@NotNull BinaryCommandOperator operator, double lhs, @NotNull double[] rhs, @NotNull double[] result) {
+        int length = result.length;
+        switch (operator) {
+            case PLUS:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs + rhs[i];
+                break;
+            case MINUS:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs - rhs[i];
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs * rhs[i];
+                break;
+            case DIVIDE:
+                for (int i = 0; i < length; i++)
+                    result[i] = lhs / rhs[i];
+                break;
+            default:
+                applyOnBoth(operator, broadcast(lhs, length), rhs, result);
+        }
+    }
+
+    @NotNull
+    private static double[] broadcast(double value, int length) {
+        double[] array = new double[length];
+        Arrays.fill(array, value);
+        return array;
+    }
+}
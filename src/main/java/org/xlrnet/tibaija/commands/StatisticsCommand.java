@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.commands;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.exception.IllegalTypeException;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.processor.Command;
+
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Generic implementation for the statistics functions like sum(, mean( or LinReg(ax+b). Uses a functional enum pattern
+ * for instantiation.
+ */
+public class StatisticsCommand extends Command {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatisticsCommand.class);
+
+    private final StatisticsCommandOperator operator;
+
+    public StatisticsCommand(@NotNull StatisticsCommandOperator operator) {
+        this.operator = checkNotNull(operator);
+    }
+
+    @NotNull
+    public StatisticsCommandOperator getOperator() {
+        return operator;
+    }
+
+    @Override
+    protected Optional<Value> execute(ImmutableList<Value> arguments) {
+        ImmutableList<Value> actualArguments = arguments;
+        if (arguments.isEmpty()) {
+            ImmutableList.Builder<Value> builder = ImmutableList.builder();
+            for (String listName : operator.getDefaultLists())
+                builder.add(getEnvironment().getMemory().getListVariableValue(listName));
+            actualArguments = builder.build();
+        }
+
+        final Value result = operator.getOperatorFunction().apply(actualArguments);
+
+        LOGGER.debug("({}) {} -> {}", operator, actualArguments, result.getValue());
+
+        return Optional.of(result);
+    }
+
+    /**
+     * Check that the first arguments are lists. Only the start and end index of sum( may be numbers.
+     *
+     * @param parameters
+     *         The arguments for the command.
+     * @return True if all arguments have the expected type.
+     */
+    @Override
+    protected boolean hasValidArgumentValues(ImmutableList<Value> parameters) {
+        for (int i = 0; i < parameters.size(); i++) {
+            Value parameter = checkNotNull(parameters.get(i));
+            Variables.VariableType expectedType = i <= operator.getListArguments() ? Variables.VariableType.LIST : Variables.VariableType.NUMBER;
+            if (parameter.getType() != expectedType)
+                throw new IllegalTypeException("Illegal argument for " + operator + ": " + parameter.getValue(), expectedType, parameter.getType());
+        }
+        return true;
+    }
+
+    /**
+     * Check if the number of arguments is in the range of the operator. Commands without any arguments use the default
+     * lists of the operator instead.
+     *
+     * @param numberOfParametersEntered
+     *         Number of parameters passed by the caller.
+     * @return True if the number of arguments is valid for the operator.
+     */
+    @Override
+    protected boolean hasValidNumberOfArguments(int numberOfParametersEntered) {
+        if (numberOfParametersEntered == 0)
+            return !operator.getDefaultLists().isEmpty();
+        return numberOfParametersEntered >= operator.getMinArguments() && numberOfParametersEntered <= operator.getMaxArguments();
+    }
+}
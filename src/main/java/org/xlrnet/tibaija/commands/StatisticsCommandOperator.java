@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.commands;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.util.StatisticsUtils;
+import org.xlrnet.tibaija.util.ValueUtils;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Static enum that defines the statistics functions of TI-Basic. Every function expects a list as its first argument
+ * and most of them accept an optional list of frequencies as their last argument. The calculations themselves are
+ * done in {@link StatisticsUtils}.
+ */
+public enum StatisticsCommandOperator {
+
+    /**
+     * sum(list[,start,end]) - Sum of all elements or the elements between two one-based indices.
+     */
+    SUM(1, 3, 0, arguments -> {
+        List<Complex> list = arguments.get(0).list();
+        int start = arguments.size() > 1 ? ValueUtils.checkListIndex(arguments.get(1), list.size()) : 1;
+        int end = arguments.size() > 2 ? ValueUtils.checkListIndex(arguments.get(2), list.size()) : list.size();
+        double real = StatisticsUtils.sum(toArray(list, false), start - 1, end);
+        double imaginary = hasImaginaryElement(list) ? StatisticsUtils.sum(toArray(list, true), start - 1, end) : 0;
+        return Value.of(new Complex(real, imaginary));
+    }),
+
+    /**
+     * mean(list[,freqlist]) - Arithmetic mean, which may be complex.
+     */
+    MEAN(1, 2, 1, arguments -> {
+        List<Complex> list = arguments.get(0).list();
+        double[] frequencies = getFrequencies(arguments, 1);
+        double real = StatisticsUtils.mean(toArray(list, false), frequencies);
+        double imaginary = hasImaginaryElement(list) ? StatisticsUtils.mean(toArray(list, true), frequencies) : 0;
+        return Value.of(new Complex(real, imaginary));
+    }),
+
+    /**
+     * median(list[,freqlist])
+     */
+    MEDIAN(1, 2, 1, arguments -> Value.of(StatisticsUtils.median(toRealArray(arguments.get(0)), getFrequencies(arguments, 1)))),
+
+    /**
+     * stdDev(list[,freqlist]) - Sample standard deviation.
+     */
+    STANDARD_DEVIATION(1, 2, 1, arguments -> {
+        StatisticsUtils.Moments moments = StatisticsUtils.moments(toRealArray(arguments.get(0)), getFrequencies(arguments, 1));
+        return Value.of(Math.sqrt(moments.getSampleVariance()));
+    }),
+
+    /**
+     * variance(list[,freqlist]) - Sample variance.
+     */
+    VARIANCE(1, 2, 1, arguments -> {
+        StatisticsUtils.Moments moments = StatisticsUtils.moments(toRealArray(arguments.get(0)), getFrequencies(arguments, 1));
+        return Value.of(moments.getSampleVariance());
+    }),
+
+    /**
+     * 1-Var Stats [list[,freqlist]] - Returns the list {x̄,Σx,Σx²,Sx,σx,n,minX,Q1,Med,Q3,maxX}. Uses ∟₁ if no list is
+     * given.
+     */
+    ONE_VAR_STATS(1, 2, 1, arguments -> {
+        double[] values = toRealArray(arguments.get(0));
+        double[] frequencies = getFrequencies(arguments, 1);
+        StatisticsUtils.Moments moments = StatisticsUtils.moments(values, frequencies);
+        double[] quartiles = StatisticsUtils.quartiles(values, frequencies);
+        double sampleDeviation = moments.getWeight() > 1 ? Math.sqrt(moments.getSampleVariance()) : Double.NaN;
+        return toListValue(moments.getMean(), moments.getSum(), moments.getSumOfSquares(), sampleDeviation,
+                Math.sqrt(moments.getPopulationVariance()), moments.getWeight(), moments.getMin(),
+                quartiles[0], quartiles[1], quartiles[2], moments.getMax());
+    }, "₁"),
+
+    /**
+     * LinReg(ax+b) [xlist,ylist[,freqlist]] - Returns the list {a,b,r²,r}. Uses ∟₁ and ∟₂ if no lists are given.
+     */
+    LINEAR_REGRESSION(2, 3, 2, arguments -> {
+        double[] result = StatisticsUtils.linearRegression(toRealArray(arguments.get(0)), toRealArray(arguments.get(1)), getFrequencies(arguments, 2));
+        return toListValue(result);
+    }, "₁", "₂");
+
+    private final int minArguments;
+
+    private final int maxArguments;
+
+    private final int listArguments;
+
+    private final Function<ImmutableList<Value>, Value> operatorFunction;
+
+    private final ImmutableList<String> defaultLists;
+
+    StatisticsCommandOperator(int minArguments, int maxArguments, int listArguments, Function<ImmutableList<Value>, Value> operatorFunction, String... defaultLists) {
+        this.minArguments = minArguments;
+        this.maxArguments = maxArguments;
+        this.listArguments = listArguments;
+        this.operatorFunction = operatorFunction;
+        this.defaultLists = ImmutableList.copyOf(defaultLists);
+    }
+
+    public Function<ImmutableList<Value>, Value> getOperatorFunction() {
+        return operatorFunction;
+    }
+
+    public int getMinArguments() {
+        return minArguments;
+    }
+
+    public int getMaxArguments() {
+        return maxArguments;
+    }
+
+    /**
+     * Returns the number of arguments after the first one that must be lists, e.g. the y list of a regression or the
+     * frequencies. The first argument must always be a list.
+     */
+    public int getListArguments() {
+        return listArguments;
+    }
+
+    /**
+     * Returns the names of the lists that will be used if the command is called without arguments.
+     */
+    @NotNull
+    public ImmutableList<String> getDefaultLists() {
+        return defaultLists;
+    }
+
+    @Nullable
+    private static double[] getFrequencies(@NotNull ImmutableList<Value> arguments, int index) throws TIArgumentException {
+        return arguments.size() > index ? toRealArray(arguments.get(index)) : null;
+    }
+
+    private static boolean hasImaginaryElement(@NotNull List<Complex> list) {
+        for (Complex complex : list) {
+            if (complex.getImaginary() != 0)
+                return true;
+        }
+        return false;
+    }
+
+    @NotNull
+    private static double[] toRealArray(@NotNull Value list) throws TIArgumentException {
+        if (hasImaginaryElement(list.list()))
+            throw new TIArgumentException("Cannot operate on imaginary values", list);
+        return toArray(list.list(), false);
+    }
+
+    @NotNull
+    private static double[] toArray(@NotNull List<Complex> list, boolean imaginary) {
+        double[] array = new double[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = imaginary ? list.get(i).getImaginary() : list.get(i).getReal();
+        return array;
+    }
+
+    @NotNull
+    private static Value toListValue(@NotNull double... values) {
+        return ListKernels.toListValue(values);
+    }
+}
@@ -24,12 +24,18 @@ package org.xlrnet.tibaija.commands;
 
 import com.google.common.collect.ImmutableList;
 import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xlrnet.tibaija.exception.IllegalTypeException;
+import org.xlrnet.tibaija.memory.Matrix;
 import org.xlrnet.tibaija.memory.Value;
 import org.xlrnet.tibaija.memory.Variables;
 import org.xlrnet.tibaija.processor.Command;
+import org.xlrnet.tibaija.processor.NumberMode;
+import org.xlrnet.tibaija.util.MatrixUtils;
 import org.xlrnet.tibaija.util.ValueUtils;
 
 import java.util.List;
@@ -64,6 +70,40 @@ public class UnaryCommand extends Command {
         this.evaluationFunction = evaluationFunction;
     }
 
+    /**
+     * Returns the operator of this command or null if the command has been created with a custom function.
+     */
+    @Nullable
+    public UnaryCommandOperator getOperator() {
+        return operator;
+    }
+
+    /**
+     * Returns true if this command calculates with 14 significant decimal digits, because its environment is in {@link
+     * NumberMode#DECIMAL} and the operator supports it.
+     */
+    public boolean usesDecimalArithmetic() {
+        return operator != null && operator.hasDecimalArithmetic() && getEnvironment() != null
+                && getEnvironment().getNumberMode() == NumberMode.DECIMAL;
+    }
+
+    /**
+     * Apply this command to a number or a list without checking the argument. This may only be used if the type of the
+     * operand is known, e.g. from a static type analysis of the expression.
+     *
+     * @param operand
+     *         The operand. Must be a number or a list.
+     * @return The result of the operation.
+     */
+    @NotNull
+    public Value applyTyped(@NotNull Value operand) {
+        final Value result = applyOperator(operand);
+
+        LOGGER.debug("({}) {} -> {}", operator, operand.getValue(), result.getValue());
+
+        return result;
+    }
+
     @Override
     protected Optional<Value> execute(ImmutableList<Value> arguments) {
         final Value operand = arguments.get(0);
@@ -86,6 +126,8 @@ public class UnaryCommand extends Command {
         final Value operand = parameters.get(0);
         checkNotNull(operand);
 
+        if (operand.isMatrix() && supportsMatrices())
+            return true;
         if (!ValueUtils.isNumberOrList(operand))
             throw new IllegalTypeException("Operand is not a Number: " + operand.getValue(), Variables.VariableType.NUMBER, operand.getType());
 
@@ -104,10 +146,59 @@ public class UnaryCommand extends Command {
         return numberOfParametersEntered == 1;
     }
 
+    /**
+     * Returns true if the operator can be applied to a matrix, i.e. if it is either ², ³ or ⁻¹.
+     */
+    private boolean supportsMatrices() {
+        return operator == UnaryCommandOperator.SQUARED || operator == UnaryCommandOperator.CUBED
+                || operator == UnaryCommandOperator.INVERSE;
+    }
+
+    /**
+     * Apply the operator on a square matrix. ² and ³ are calculated as matrix products and ⁻¹ returns the inverse
+     * matrix.
+     *
+     * @param operand
+     *         The matrix to which the operator should be applied.
+     * @return A new Value object with the resulting matrix.
+     */
+    @NotNull
+    private Value applyOnMatrix(@NotNull Value operand) {
+        Matrix matrix = operand.matrix();
+        if (operator == UnaryCommandOperator.INVERSE)
+            return Value.of(MatrixUtils.inverse(matrix));
+        if (operator == UnaryCommandOperator.SQUARED || operator == UnaryCommandOperator.CUBED)
+            return Value.of(MatrixUtils.power(matrix, operator == UnaryCommandOperator.SQUARED ? 2 : 3));
+        throw new IllegalTypeException("Operand is not a Number: " + operand.getValue(), Variables.VariableType.NUMBER, operand.getType());
+    }
+
+    /**
+     * Apply the operator with the {@link ListKernels} if this returns exactly the same result as the operator
+     * function, i.e. if all elements are finite real numbers.
+     *
+     * @param operand
+     *         The list to which the operator should be applied.
+     * @return The result or null if the kernels can't be used.
+     */
+    @Nullable
+    private Value applyWithKernels(@NotNull Value operand) {
+        if (operator == null || !ListKernels.isExactForReals(operator))
+            return null;
+
+        double[] elements = ListKernels.toRealArray(operand);
+        if (elements == null || (operator == UnaryCommandOperator.SQUARE_ROOT && !ListKernels.isNonNegative(elements)))
+            return null;
+
+        ListKernels.getInstance().apply(operator, elements, elements);
+        return ListKernels.toListValue(elements);
+    }
+
     /**
      * Apply the internal operator function on the given operand. If the operand is a Number, the function will be
      * applied to the numerical value. If the operand is a list, the function will be applied to each number in the
-     * list and return a new list. Any other value type will cause an exception.
+     * list and return a new list. Matrices are only supported by ², ³ and ⁻¹. Any other value type will cause an
+     * exception. In {@link NumberMode#DECIMAL}, ² and ³
+     * are calculated with 14 significant decimal digits.
      *
      * @param operand
      *         The value to which the function should be applied.
@@ -115,14 +206,21 @@ public class UnaryCommand extends Command {
      */
     private Value applyOperator(Value operand) {
         Value result;
-        if (operand.isList()) {
+        boolean decimal = usesDecimalArithmetic();
+        UnaryOperator<Value> function = decimal ? operator::applyDecimal : evaluationFunction;
+        if (operand.isMatrix()) {
+            result = applyOnMatrix(operand);
+        } else if (operand.isList()) {
+            Value kernelResult = decimal ? null : applyWithKernels(operand);
+            if (kernelResult != null)
+                return kernelResult;
             List<Complex> valueList = operand.list()
                     .stream()
-                    .map(c -> evaluationFunction.apply(Value.of(c)).complex())
+                    .map(c -> function.apply(Value.of(c)).complex())
                     .collect(Collectors.toList());
             result = Value.of(valueList);
         } else {
-            result = evaluationFunction.apply(operand);
+            result = function.apply(operand);
         }
         return result;
     }
@@ -22,7 +22,11 @@
 
 package org.xlrnet.tibaija.commands;
 
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.xlrnet.tibaija.exception.TIArgumentException;
 import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.util.TIDecimal;
 import org.xlrnet.tibaija.util.TIMathUtils;
 
 import java.util.function.UnaryOperator;
@@ -51,7 +55,9 @@ public enum UnaryCommandOperator {
     FACTORIAL(operand -> {
         checkIfAnyValueIsImaginary(operand);
         return Value.of(TIMathUtils.factorial(operand.complex().getReal()));
-    });
+    }),
+
+    INVERSE(operand -> Value.of(Complex.ONE.divide(operand.complex())));
 
     private final UnaryOperator<Value> operatorFunction;
 
@@ -63,4 +69,59 @@ public enum UnaryCommandOperator {
         return operatorFunction;
     }
 
+    /**
+     * Apply this operator on a single element of a list. The result is always the same as with the operator function,
+     * but the basic arithmetic operators don't need to wrap the element in a {@link Value} object.
+     *
+     * @param operand
+     *         The element to which the operator should be applied.
+     * @return The result of the operation.
+     */
+    @NotNull
+    public Complex applyOnElement(@NotNull Complex operand) {
+        switch (this) {
+            case SQUARED:
+                return operand.multiply(operand);
+            case CUBED:
+                return operand.multiply(operand).multiply(operand);
+            case SQUARE_ROOT:
+                return operand.sqrt();
+            default:
+                return operatorFunction.apply(Value.of(operand)).complex();
+        }
+    }
+
+    /**
+     * Returns true if this operator can be calculated with {@link TIDecimal} numbers, i.e. if it is either ² or ³.
+     */
+    public boolean hasDecimalArithmetic() {
+        return this == SQUARED || this == CUBED;
+    }
+
+    /**
+     * Apply this operator with 14 significant decimal digits like a real calculator. If the operand is not a finite
+     * real number or if the operator has no decimal arithmetic, the operator function will be used instead.
+     *
+     * @param operand
+     *         The value to which the operator should be applied.
+     * @return The rounded result of the operation.
+     * @throws TIArgumentException
+     *         Will be thrown if the result is too large.
+     */
+    @NotNull
+    public Value applyDecimal(@NotNull Value operand) throws TIArgumentException {
+        if (!hasDecimalArithmetic() || !TIDecimal.isFiniteReal(operand.complex()))
+            return operatorFunction.apply(operand);
+
+        try {
+            long decimal = TIDecimal.valueOf(operand.complex().getReal());
+            long result = TIDecimal.multiply(decimal, decimal);
+            if (this == CUBED)
+                result = TIDecimal.multiply(result, decimal);
+            return Value.of(TIDecimal.toDouble(result));
+        } catch (ArithmeticException e) {
+            throw new TIArgumentException(e.getMessage(), operand);
+        }
+    }
+
 }
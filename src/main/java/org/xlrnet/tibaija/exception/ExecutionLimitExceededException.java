@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.exception;
+
+/**
+ * An exception that indicates that a program has used up either its command budget or its wall clock time and has
+ * therefore been terminated.
+ */
+public class ExecutionLimitExceededException extends TIRuntimeException {
+
+    private static final long serialVersionUID = 4627410738541237395L;
+
+    private final long executedCommands;
+
+    public ExecutionLimitExceededException(int linenumber, int startIndex, String message, long executedCommands) {
+        super(linenumber, startIndex, message);
+        this.executedCommands = executedCommands;
+    }
+
+    /**
+     * Returns the number of commands that were executed before the program was terminated.
+     */
+    public long getExecutedCommands() {
+        return executedCommands;
+    }
+}
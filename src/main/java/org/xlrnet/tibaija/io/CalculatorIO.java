@@ -25,6 +25,7 @@ package org.xlrnet.tibaija.io;
 import org.xlrnet.tibaija.memory.Value;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for all kinds of calculator I/O.
@@ -58,11 +59,41 @@ public interface CalculatorIO {
     public void printLine(Value... values);
 
     /**
-     * Reads a CharSequence from the input and returns it. This methods must block the main execution until the return
+     * Reads a String from the input and returns it. This methods must block the main execution until the return
      * value is ready.
      *
-     * @return A CharSequence from the user input.
+     * @return A String from the user input.
      */
     public String readInput() throws IOException;
 
+
+    /**
+     * Requests a String from the input without blocking the calling thread. The returned future completes as
+     * soon as the user has entered a value, which allows running programs to be suspended while they wait for input.
+     * <p/>
+     * The default implementation simply delegates to the blocking {@link #readInput()} and returns an already
+     * completed future. Implementations that receive their input asynchronously should override this method.
+     *
+     * @return A future that completes with the user input.
+     */
+    default CompletableFuture<String> requestInput() {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            future.complete(readInput());
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Returns the code of the last pressed key or zero if no key has been pressed since the last call. This method
+     * must never block.
+     *
+     * @return The key code of the last pressed key or zero.
+     */
+    default int getKey() {
+        return 0;
+    }
+
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.io;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+import org.xlrnet.tibaija.memory.Value;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Implementation of {@link org.xlrnet.tibaija.io.CalculatorIO} that collects all output in memory instead of printing
+ * it. Input is taken from a fixed list of lines; once all lines have been consumed, the end of the input is reached.
+ * This device is meant for running programs without a user, e.g. in batch mode or in tests.
+ */
+public class CapturingIO implements CalculatorIO {
+
+    private final StringBuilder output = new StringBuilder();
+
+    private final Iterator<String> inputLines;
+
+    /**
+     * Create a new device without any input.
+     */
+    public CapturingIO() {
+        this(ImmutableList.of());
+    }
+
+    /**
+     * Create a new device which answers input requests with the given lines.
+     *
+     * @param inputLines
+     *         The lines that will be returned one after another by {@link #readInput()}.
+     */
+    public CapturingIO(@NotNull List<String> inputLines) {
+        this.inputLines = ImmutableList.copyOf(inputLines).iterator();
+    }
+
+    /**
+     * Returns everything that has been printed so far.
+     */
+    @NotNull
+    public String getOutput() {
+        return output.toString();
+    }
+
+    @Override
+    public void print(String charSequence) {
+        output.append(charSequence);
+    }
+
+    @Override
+    public void printLine(String text) {
+        output.append(text).append('\n');
+    }
+
+    @Override
+    public void printLine(Value... values) {
+        for (Value value : values) {
+            printLine(value.toString());
+        }
+    }
+
+    /**
+     * Returns the next input line or null if all lines have been consumed.
+     */
+    @Override
+    public String readInput() {
+        return inputLines.hasNext() ? inputLines.next() : null;
+    }
+}
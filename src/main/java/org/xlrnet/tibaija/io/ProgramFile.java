@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.io;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A detokenized program that has been read from a program file of a real calculator.
+ */
+public class ProgramFile {
+
+    private final String programName;
+
+    private final CharSequence source;
+
+    private final String comment;
+
+    private final boolean editLocked;
+
+    ProgramFile(@NotNull String programName, @NotNull CharSequence source, @NotNull String comment, boolean editLocked) {
+        this.programName = programName;
+        this.source = source;
+        this.comment = comment;
+        this.editLocked = editLocked;
+    }
+
+    /**
+     * Returns the comment from the file header.
+     */
+    @NotNull
+    public String getComment() {
+        return comment;
+    }
+
+    /**
+     * Returns the name of the program as it was stored on the calculator.
+     */
+    @NotNull
+    public String getProgramName() {
+        return programName;
+    }
+
+    /**
+     * Returns the detokenized source code of the program. Each line of the original program is a separate command.
+     */
+    @NotNull
+    public CharSequence getSource() {
+        return source;
+    }
+
+    /**
+     * Returns true if the program was protected against editing on the calculator.
+     */
+    public boolean isEditLocked() {
+        return editLocked;
+    }
+}
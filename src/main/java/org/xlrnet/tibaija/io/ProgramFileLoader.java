@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.io;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.exception.TIRuntimeException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Loader for tokenized program files (.8xp) of TI-83+ and TI-84+ calculators. Files are memory-mapped and the tokens
+ * are translated directly from the mapped buffer into source text that can be loaded with {@link
+ * VirtualCalculator#loadProgram(String, CharSequence)}.
+ * <p/>
+ * A program file consists of a 55 byte header (signature, comment and length of the data section), the data section
+ * with the variable entry and the tokenized program, and a two byte checksum over the data section. All multi-byte
+ * numbers are stored in little-endian byte order.
+ */
+public final class ProgramFileLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgramFileLoader.class);
+
+    private static final byte[] SIGNATURE = {'*', '*', 'T', 'I', '8', '3', 'F', '*', 0x1A, 0x0A, 0x00};
+
+    private static final int COMMENT_OFFSET = 0x0B;
+
+    private static final int COMMENT_LENGTH = 42;
+
+    private static final int DATA_LENGTH_OFFSET = 0x35;
+
+    private static final int DATA_OFFSET = 0x37;
+
+    private static final int NAME_LENGTH = 8;
+
+    private static final int TYPE_PROGRAM = 0x05;
+
+    private static final int TYPE_EDIT_LOCKED_PROGRAM = 0x06;
+
+    private static final String FILE_EXTENSION = ".8xp";
+
+    private ProgramFileLoader() {
+        // No instances
+    }
+
+    /**
+     * Read and detokenize a single program file. The file will be memory-mapped instead of being copied into the
+     * heap.
+     *
+     * @param path
+     *         Path of the .8xp file.
+     * @return The detokenized program.
+     * @throws IOException
+     *         Will be thrown if the file can't be read, is not a valid program file or contains unsupported tokens.
+     */
+    @NotNull
+    public static ProgramFile read(@NotNull Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        } catch (IOException e) {
+            throw new IOException(path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read and detokenize a program file from the given buffer. The buffer must contain the whole file beginning at
+     * position zero. Its position and byte order won't be changed.
+     *
+     * @param fileBuffer
+     *         Content of a .8xp file.
+     * @return The detokenized program.
+     * @throws IOException
+     *         Will be thrown if the buffer doesn't contain a valid program file or if the program contains unsupported
+     *         tokens.
+     */
+    @NotNull
+    public static ProgramFile read(@NotNull ByteBuffer fileBuffer) throws IOException {
+        ByteBuffer buffer = fileBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            validateSignature(buffer);
+            String comment = readComment(buffer);
+
+            int dataLength = buffer.getShort(DATA_LENGTH_OFFSET) & 0xFFFF;
+            if (buffer.limit() < DATA_OFFSET + dataLength + 2)
+                throw new IOException("File is shorter than its header says");
+            validateChecksum(buffer, dataLength);
+
+            // Variable entry
+            buffer.position(DATA_OFFSET);
+            int headerLength = buffer.getShort() & 0xFFFF;
+            int variableLength = buffer.getShort() & 0xFFFF;
+            int type = buffer.get() & 0xFF;
+            if (headerLength != 0x0B && headerLength != 0x0D)
+                throw new IOException("Invalid variable header length: " + headerLength);
+            if (type != TYPE_PROGRAM && type != TYPE_EDIT_LOCKED_PROGRAM)
+                throw new IOException(String.format("File doesn't contain a program but a variable of type 0x%02X", type));
+
+            String programName = readProgramName(buffer);
+            if (headerLength == 0x0D)
+                buffer.position(buffer.position() + 2);             // Skip version and archive flag
+            if ((buffer.getShort() & 0xFFFF) != variableLength)
+                throw new IOException("Inconsistent variable length");
+            if (buffer.position() + variableLength > DATA_OFFSET + dataLength)
+                throw new IOException("Variable exceeds data section");
+
+            int tokenLength = buffer.getShort() & 0xFFFF;
+            if (tokenLength + 2 != variableLength)
+                throw new IOException("Inconsistent program length");
+
+            CharSequence source = detokenize(buffer, buffer.position(), tokenLength);
+            return new ProgramFile(programName, source, comment, type == TYPE_EDIT_LOCKED_PROGRAM);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Unexpected end of file", e);
+        }
+    }
+
+    /**
+     * Read all program files in the given directory and load them into the given calculator. The files are read and
+     * detokenized in parallel. Files that can't be loaded don't stop the import of the remaining files.
+     *
+     * @param directory
+     *         Directory with .8xp files. Subdirectories are ignored.
+     * @param calculator
+     *         Calculator that receives all programs.
+     * @return The result of the import.
+     * @throws IOException
+     *         Will be thrown if the directory can't be read.
+     */
+    @NotNull
+    public static ImportResult importDirectory(@NotNull Path directory, @NotNull VirtualCalculator calculator) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, path -> Files.isRegularFile(path)
+                && path.getFileName().toString().toLowerCase().endsWith(FILE_EXTENSION))) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+
+        List<ReadResult> results = files.parallelStream()
+                .map(ProgramFileLoader::readProgramFile)
+                .collect(Collectors.toList());
+
+        ImmutableList.Builder<String> loadedPrograms = ImmutableList.builder();
+        ImmutableMap.Builder<Path, Exception> failures = ImmutableMap.builder();
+        for (ReadResult result : results) {
+            if (result.programFile == null) {
+                failures.put(result.path, result.exception);
+                continue;
+            }
+            try {
+                calculator.loadProgram(result.programFile.getProgramName(), result.programFile.getSource());
+                loadedPrograms.add(result.programFile.getProgramName());
+            } catch (TIRuntimeException e) {
+                failures.put(result.path, e);
+            }
+        }
+
+        ImportResult importResult = new ImportResult(loadedPrograms.build(), failures.build());
+        LOGGER.info("Imported {} programs from {} ({} failed)", importResult.getLoadedPrograms().size(), directory, importResult.getFailures().size());
+        return importResult;
+    }
+
+    /**
+     * Returns true if the given path looks like a tokenized program file.
+     */
+    public static boolean isProgramFile(@NotNull Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(FILE_EXTENSION);
+    }
+
+    @NotNull
+    private static ReadResult readProgramFile(@NotNull Path path) {
+        try {
+            return new ReadResult(path, read(path), null);
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.debug("Reading program file {} failed", path, e);
+            return new ReadResult(path, null, e);
+        }
+    }
+
+    /**
+     * Translate the given range of tokens into source text. Since the grammar expects a separator in front of each
+     * command, the text always starts with a colon.
+     */
+    @NotNull
+    private static CharSequence detokenize(@NotNull ByteBuffer buffer, int offset, int length) throws IOException {
+        StringBuilder builder = new StringBuilder(length + length / 2 + 1);
+        builder.append(':');
+
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int token = buffer.get(i) & 0xFF;
+            String text;
+            if (TokenTable.isTwoByteToken(token)) {
+                if (i + 1 >= end)
+                    throw new IOException(String.format("Incomplete two-byte token 0x%02X at the end of the program", token));
+                int secondByte = buffer.get(++i) & 0xFF;
+                text = TokenTable.getTwoByteToken(token, secondByte);
+                if (text == null)
+                    throw new IOException(String.format("Unsupported token 0x%02X%02X at offset %d", token, secondByte, i - 1 - offset));
+            } else {
+                text = TokenTable.getSingleByteToken(token);
+                if (text == null)
+                    throw new IOException(String.format("Unsupported token 0x%02X at offset %d", token, i - offset));
+            }
+            builder.append(text);
+        }
+        return builder;
+    }
+
+    private static void validateSignature(@NotNull ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < DATA_OFFSET)
+            throw new IOException("File is too short");
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (buffer.get(i) != SIGNATURE[i])
+                throw new IOException("Invalid file signature");
+        }
+    }
+
+    private static void validateChecksum(@NotNull ByteBuffer buffer, int dataLength) throws IOException {
+        int checksum = 0;
+        for (int i = DATA_OFFSET; i < DATA_OFFSET + dataLength; i++)
+            checksum += buffer.get(i) & 0xFF;
+        checksum &= 0xFFFF;
+
+        int expectedChecksum = buffer.getShort(DATA_OFFSET + dataLength) & 0xFFFF;
+        if (checksum != expectedChecksum)
+            throw new IOException(String.format("Checksum mismatch: expected 0x%04X but was 0x%04X", expectedChecksum, checksum));
+    }
+
+    @NotNull
+    private static String readComment(@NotNull ByteBuffer buffer) {
+        int length = 0;
+        while (length < COMMENT_LENGTH && buffer.get(COMMENT_OFFSET + length) != 0)
+            length++;
+        byte[] comment = new byte[length];
+        for (int i = 0; i < length; i++)
+            comment[i] = buffer.get(COMMENT_OFFSET + i);
+        return new String(comment, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    @NotNull
+    private static String readProgramName(@NotNull ByteBuffer buffer) {
+        StringBuilder name = new StringBuilder(NAME_LENGTH);
+        for (int i = 0; i < NAME_LENGTH; i++) {
+            int character = buffer.get() & 0xFF;
+            if (character == 0)
+                continue;
+            name.append(character == 0x5B ? 'θ' : (char) character);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Outcome of reading a single file during a directory import. Exactly one of program file and exception is set.
+     */
+    private static class ReadResult {
+
+        private final Path path;
+
+        @Nullable
+        private final ProgramFile programFile;
+
+        @Nullable
+        private final Exception exception;
+
+        ReadResult(@NotNull Path path, @Nullable ProgramFile programFile, @Nullable Exception exception) {
+            this.path = path;
+            this.programFile = programFile;
+            this.exception = exception;
+        }
+    }
+
+    /**
+     * Result of a directory import.
+     */
+    public static class ImportResult {
+
+        private final ImmutableList<String> loadedPrograms;
+
+        private final ImmutableMap<Path, Exception> failures;
+
+        ImportResult(@NotNull ImmutableList<String> loadedPrograms, @NotNull ImmutableMap<Path, Exception> failures) {
+            this.loadedPrograms = loadedPrograms;
+            this.failures = failures;
+        }
+
+        /**
+         * Returns the files that couldn't be loaded together with the reason.
+         */
+        @NotNull
+        public ImmutableMap<Path, Exception> getFailures() {
+            return failures;
+        }
+
+        /**
+         * Returns the names of all programs that have been loaded successfully.
+         */
+        @NotNull
+        public ImmutableList<String> getLoadedPrograms() {
+            return loadedPrograms;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.io;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Table for translating the one- and two-byte tokens of tokenized TI-83+ programs into the source representation that
+ * is accepted by the lexer. Tokens that have no representation in the grammar are not part of this table.
+ */
+final class TokenTable {
+
+    private static final String[] SINGLE_BYTE_TOKENS = new String[256];
+
+    private static final String[][] TWO_BYTE_TOKENS = new String[256][];
+
+    static {
+        // Digits and letters
+        for (int i = 0; i <= 9; i++)
+            SINGLE_BYTE_TOKENS[0x30 + i] = String.valueOf((char) ('0' + i));
+        for (int i = 0; i < 26; i++)
+            SINGLE_BYTE_TOKENS[0x41 + i] = String.valueOf((char) ('A' + i));
+        SINGLE_BYTE_TOKENS[0x5B] = "θ";
+        SINGLE_BYTE_TOKENS[0x3A] = ".";
+        SINGLE_BYTE_TOKENS[0x2C] = "i";
+        SINGLE_BYTE_TOKENS[0x72] = "Ans";
+
+        // Separators and punctuation; newlines are treated as command separators
+        SINGLE_BYTE_TOKENS[0x3E] = ":";
+        SINGLE_BYTE_TOKENS[0x3F] = ":";
+        SINGLE_BYTE_TOKENS[0x29] = " ";
+        SINGLE_BYTE_TOKENS[0x2A] = "\"";
+        SINGLE_BYTE_TOKENS[0x2B] = ",";
+        SINGLE_BYTE_TOKENS[0x10] = "(";
+        SINGLE_BYTE_TOKENS[0x11] = ")";
+        SINGLE_BYTE_TOKENS[0x06] = "[";
+        SINGLE_BYTE_TOKENS[0x07] = "]";
+        SINGLE_BYTE_TOKENS[0x08] = "{";
+        SINGLE_BYTE_TOKENS[0x09] = "}";
+        SINGLE_BYTE_TOKENS[0x04] = "→";
+
+        // Operators
+        SINGLE_BYTE_TOKENS[0x70] = "+";
+        SINGLE_BYTE_TOKENS[0x71] = "-";
+        SINGLE_BYTE_TOKENS[0x82] = "*";
+        SINGLE_BYTE_TOKENS[0x83] = "/";
+        SINGLE_BYTE_TOKENS[0xF0] = "^";
+        SINGLE_BYTE_TOKENS[0xF1] = "×√";
+        SINGLE_BYTE_TOKENS[0x6A] = "=";
+        SINGLE_BYTE_TOKENS[0x6B] = "<";
+        SINGLE_BYTE_TOKENS[0x6C] = ">";
+        SINGLE_BYTE_TOKENS[0x6D] = "≤";
+        SINGLE_BYTE_TOKENS[0x6E] = "≥";
+        SINGLE_BYTE_TOKENS[0x6F] = "≠";
+        SINGLE_BYTE_TOKENS[0x40] = " and ";
+        SINGLE_BYTE_TOKENS[0x3C] = " or ";
+        SINGLE_BYTE_TOKENS[0x3D] = " xor ";
+        SINGLE_BYTE_TOKENS[0xB8] = "not(";
+        SINGLE_BYTE_TOKENS[0xB0] = "‾";
+        SINGLE_BYTE_TOKENS[0xBC] = "√(";
+        SINGLE_BYTE_TOKENS[0xBD] = "∛(";
+        SINGLE_BYTE_TOKENS[0x94] = " nPr ";
+        SINGLE_BYTE_TOKENS[0x95] = " nCr ";
+        SINGLE_BYTE_TOKENS[0x2D] = "!";
+        SINGLE_BYTE_TOKENS[0x0D] = "²";
+        SINGLE_BYTE_TOKENS[0x0F] = "³";
+        SINGLE_BYTE_TOKENS[0x02] = "►Dec";
+        SINGLE_BYTE_TOKENS[0x03] = "►Frac";
+
+        // Control flow
+        SINGLE_BYTE_TOKENS[0xCE] = "If ";
+        SINGLE_BYTE_TOKENS[0xCF] = "Then";
+        SINGLE_BYTE_TOKENS[0xD0] = "Else";
+        SINGLE_BYTE_TOKENS[0xD1] = "While ";
+        SINGLE_BYTE_TOKENS[0xD2] = "Repeat ";
+        SINGLE_BYTE_TOKENS[0xD3] = "For(";
+        SINGLE_BYTE_TOKENS[0xD4] = "End";
+        SINGLE_BYTE_TOKENS[0xD5] = "Return";
+        SINGLE_BYTE_TOKENS[0xD6] = "Lbl ";
+        SINGLE_BYTE_TOKENS[0xD7] = "Goto ";
+        SINGLE_BYTE_TOKENS[0xD8] = "Pause ";
+        SINGLE_BYTE_TOKENS[0xD9] = "Stop";
+        SINGLE_BYTE_TOKENS[0xDA] = "IS>(";
+        SINGLE_BYTE_TOKENS[0xDB] = "DS<(";
+        SINGLE_BYTE_TOKENS[0xE6] = "Menu(";
+        SINGLE_BYTE_TOKENS[0x5F] = "prgm";
+
+        // I/O
+        SINGLE_BYTE_TOKENS[0xDC] = "Input ";
+        SINGLE_BYTE_TOKENS[0xDD] = "Prompt ";
+        SINGLE_BYTE_TOKENS[0xDE] = "Disp ";
+        SINGLE_BYTE_TOKENS[0xDF] = "DispGraph";
+        SINGLE_BYTE_TOKENS[0xE0] = "Output(";
+        SINGLE_BYTE_TOKENS[0xE1] = "ClrHome";
+        SINGLE_BYTE_TOKENS[0xE5] = "DispTable";
+        SINGLE_BYTE_TOKENS[0xAD] = "getKey";
+
+        // Lists and statistics
+        SINGLE_BYTE_TOKENS[0xE3] = "SortA(";
+        SINGLE_BYTE_TOKENS[0xE4] = "SortD(";
+        SINGLE_BYTE_TOKENS[0xB6] = "sum(";
+        SINGLE_BYTE_TOKENS[0xF2] = "1-Var Stats ";
+        SINGLE_BYTE_TOKENS[0xFF] = "LinReg(ax+b) ";
+
+        // Matrix operators
+        SINGLE_BYTE_TOKENS[0x0C] = "⁻¹";
+        SINGLE_BYTE_TOKENS[0x0E] = "ᵀ";
+        SINGLE_BYTE_TOKENS[0xB3] = "det(";
+
+        // Lists: user lists are prefixed with a single token, the default lists L₁ to L₆ are two-byte tokens
+        SINGLE_BYTE_TOKENS[0xEB] = "∟";
+        String[] lists = new String[256];
+        for (int i = 0; i < 6; i++)
+            lists[i] = "∟" + (char) ('₁' + i);
+        TWO_BYTE_TOKENS[0x5D] = lists;
+
+        // Matrices [A] to [J]
+        String[] matrices = new String[256];
+        for (int i = 0; i < 10; i++)
+            matrices[i] = "[" + (char) ('A' + i) + "]";
+        TWO_BYTE_TOKENS[0x5C] = matrices;
+
+        // Prefixes of two-byte tokens that are not supported yet
+        for (int prefix : new int[]{0x5E, 0x60, 0x61, 0x62, 0x63, 0x7E, 0xAA, 0xBB, 0xEF})
+            TWO_BYTE_TOKENS[prefix] = new String[256];
+    }
+
+    private TokenTable() {
+        // No instances
+    }
+
+    /**
+     * Returns true if the given byte is the first byte of a two-byte token.
+     */
+    static boolean isTwoByteToken(int firstByte) {
+        return TWO_BYTE_TOKENS[firstByte & 0xFF] != null;
+    }
+
+    /**
+     * Returns the source representation of a single-byte token or null if the token is not supported.
+     */
+    @Nullable
+    static String getSingleByteToken(int token) {
+        return SINGLE_BYTE_TOKENS[token & 0xFF];
+    }
+
+    /**
+     * Returns the source representation of a two-byte token or null if the token is not supported.
+     */
+    @Nullable
+    static String getTwoByteToken(int firstByte, int secondByte) {
+        String[] tokens = TWO_BYTE_TOKENS[firstByte & 0xFF];
+        return tokens != null ? tokens[secondByte & 0xFF] : null;
+    }
+}
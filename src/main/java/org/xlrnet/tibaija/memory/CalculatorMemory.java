@@ -53,6 +53,16 @@ public interface CalculatorMemory extends ReadOnlyCalculatorMemory {
      */
     public void setListVariableValue(@NotNull String listName, @NotNull Value value);
 
+    /**
+     * Sets the internal value of the given matrix variable.
+     *
+     * @param variable
+     *         The variable to which the value should be written.
+     * @param value
+     *         The new value of the selected variable.
+     */
+    public void setMatrixVariableValue(@NotNull Variables.MatrixVariable variable, @NotNull Value value);
+
     /**
      * Sets the internal value of the given number variable.
      *
@@ -73,4 +83,35 @@ public interface CalculatorMemory extends ReadOnlyCalculatorMemory {
      */
     public void storeProgram(String programName, @NotNull ExecutableProgram programCode) throws DuplicateProgramException;
 
+    /**
+     * Stores a program in internal memory and replaces any existing program with the same name.
+     *
+     * @param programName
+     *         Name of the program, must consist of one to eight capital letters or digits.
+     * @param programCode
+     *         A preprocessed and executable TI-Basic program.
+     */
+    public void replaceProgram(String programName, @NotNull ExecutableProgram programCode);
+
+    /**
+     * Creates an independent copy of this memory in constant time. The copy starts with the same variables, last
+     * result and programs, but changes of either memory are not visible in the other one. Since values are immutable,
+     * both memories can share all entries that have not been changed. Forks can be used by different threads at the
+     * same time, while each single memory may still only be used by one thread.
+     *
+     * @return A new memory with the same content.
+     */
+    @NotNull
+    public CalculatorMemory fork();
+
+    /**
+     * Replaces all stored programs with their compact version, which doesn't keep the parse tree in memory.
+     *
+     * @see ExecutableProgram#compact()
+     */
+    default void compactPrograms() {
+        for (String programName : getStoredProgramNames())
+            replaceProgram(programName, getStoredProgram(programName).compact());
+    }
+
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.memory;
+
+import com.google.common.collect.ImmutableSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A map that can be forked in constant time. All entries that existed at the time of a fork are moved into an
+ * immutable layer that is shared by both maps, and each map writes into its own new layer afterwards. A map only ever
+ * writes into its topmost layer, so that shared layers are never modified and forks may be used by different threads.
+ * Entries can't be removed, which makes lookups simple: the topmost layer that contains a key wins.
+ * <p/>
+ * Since every fork adds a layer, lookups would get slower with each generation. Once a map has too many layers, they
+ * are merged into a single one, so the cost of a fork is still constant on average.
+ */
+class CopyOnWriteMap<K, V> {
+
+    /**
+     * Maximum number of shared layers below the writable layer.
+     */
+    private static final int MAX_DEPTH = 8;
+
+    @Nullable
+    private Layer<K, V> shared;
+
+    @NotNull
+    private Map<K, V> writable = new HashMap<>();
+
+    CopyOnWriteMap() {
+    }
+
+    private CopyOnWriteMap(@Nullable Layer<K, V> shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Returns a new map with the same entries. Changes of either map will not be visible in the other one.
+     */
+    @NotNull
+    CopyOnWriteMap<K, V> fork() {
+        if (!writable.isEmpty()) {
+            shared = new Layer<>(writable, shared);
+            writable = new HashMap<>();
+            if (shared.depth > MAX_DEPTH)
+                shared = shared.flatten();
+        }
+        return new CopyOnWriteMap<>(shared);
+    }
+
+    boolean containsKey(@NotNull K key) {
+        return get(key) != null;
+    }
+
+    @Nullable
+    V get(@NotNull K key) {
+        V value = writable.get(key);
+        for (Layer<K, V> layer = shared; value == null && layer != null; layer = layer.parent)
+            value = layer.entries.get(key);
+        return value;
+    }
+
+    @Nullable
+    V put(@NotNull K key, @NotNull V value) {
+        V previous = get(key);
+        writable.put(key, value);
+        return previous;
+    }
+
+    @NotNull
+    Set<K> keySet() {
+        ImmutableSet.Builder<K> builder = ImmutableSet.builder();
+        builder.addAll(writable.keySet());
+        for (Layer<K, V> layer = shared; layer != null; layer = layer.parent)
+            builder.addAll(layer.entries.keySet());
+        return builder.build();
+    }
+
+    private static class Layer<K, V> {
+
+        private final Map<K, V> entries;
+
+        @Nullable
+        private final Layer<K, V> parent;
+
+        private final int depth;
+
+        private Layer(@NotNull Map<K, V> entries, @Nullable Layer<K, V> parent) {
+            this.entries = entries;
+            this.parent = parent;
+            this.depth = parent != null ? parent.depth + 1 : 1;
+        }
+
+        @NotNull
+        private Layer<K, V> flatten() {
+            Map<K, V> merged = new HashMap<>();
+            for (Layer<K, V> layer = this; layer != null; layer = layer.parent)
+                layer.entries.forEach(merged::putIfAbsent);
+            return new Layer<>(merged, null);
+        }
+    }
+}
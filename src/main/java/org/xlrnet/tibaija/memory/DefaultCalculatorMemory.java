@@ -33,30 +33,59 @@ import org.xlrnet.tibaija.processor.ExecutableProgram;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.xlrnet.tibaija.util.ValueUtils.checkValueType;
 
 /**
- * Default implementation of the TI-Basic memory model.
+ * Default implementation of the TI-Basic memory model. Variables and programs are kept in copy-on-write maps, so that
+ * the memory can be forked in constant time.
  */
 public class DefaultCalculatorMemory implements CalculatorMemory {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultCalculatorMemory.class);
 
-    private final Map<Variables.NumberVariable, Value> numberVariableValueMap;
+    private final CopyOnWriteMap<Variables.NumberVariable, Value> numberVariableValueMap;
 
-    private final Map<String, Value> listVariableValueMap = new HashMap<>();
+    private final CopyOnWriteMap<String, Value> listVariableValueMap;
+
+    private final CopyOnWriteMap<Variables.MatrixVariable, Value> matrixVariableValueMap;
 
     private Value lastResult = Value.of(0);
 
-    private Map<String, ExecutableProgram> programMap = new HashMap<>();
+    private final CopyOnWriteMap<String, ExecutableProgram> programMap;
 
     /**
      * Creates a new instance of a TI-Basic capable calculator's memory model.
      */
     public DefaultCalculatorMemory() {
-        numberVariableValueMap = newEnumValueMapWithDefault(Variables.NumberVariable.class, Value.ZERO);
+        numberVariableValueMap = new CopyOnWriteMap<>();
+        listVariableValueMap = new CopyOnWriteMap<>();
+        matrixVariableValueMap = new CopyOnWriteMap<>();
+        programMap = new CopyOnWriteMap<>();
+        newEnumValueMapWithDefault(Variables.NumberVariable.class, Value.ZERO).forEach(numberVariableValueMap::put);
+    }
+
+    private DefaultCalculatorMemory(@NotNull DefaultCalculatorMemory parent) {
+        numberVariableValueMap = parent.numberVariableValueMap.fork();
+        listVariableValueMap = parent.listVariableValueMap.fork();
+        matrixVariableValueMap = parent.matrixVariableValueMap.fork();
+        programMap = parent.programMap.fork();
+        lastResult = parent.lastResult;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The fork shares all entries with this memory. Only the entries written after the fork are stored separately in
+     * each memory.
+     */
+    @NotNull
+    @Override
+    public DefaultCalculatorMemory fork() {
+        LOGGER.debug("Forking calculator memory");
+        return new DefaultCalculatorMemory(this);
     }
 
     @NotNull
@@ -81,6 +110,27 @@ public class DefaultCalculatorMemory implements CalculatorMemory {
         return listVariableValueMap.get(variable);
     }
 
+    @NotNull
+    @Override
+    public Set<String> getListVariableNames() {
+        return listVariableValueMap.keySet();
+    }
+
+    @NotNull
+    @Override
+    public Value getMatrixVariableValue(@NotNull Variables.MatrixVariable variable) throws UndefinedVariableException {
+        checkNotNull(variable);
+        if (!matrixVariableValueMap.containsKey(variable))
+            throw new UndefinedVariableException(variable.toString());
+        return matrixVariableValueMap.get(variable);
+    }
+
+    @NotNull
+    @Override
+    public Set<Variables.MatrixVariable> getMatrixVariableNames() {
+        return matrixVariableValueMap.keySet();
+    }
+
     @NotNull
     @Override
     public Value getNumberVariableValue(@NotNull Variables.NumberVariable variable) {
@@ -99,6 +149,12 @@ public class DefaultCalculatorMemory implements CalculatorMemory {
         return programMap.get(programName);
     }
 
+    @NotNull
+    @Override
+    public Set<String> getStoredProgramNames() {
+        return programMap.keySet();
+    }
+
     @Override
     public void setListVariableValue(@NotNull String listName, @NotNull Value value) {
         checkNotNull(listName);
@@ -109,6 +165,16 @@ public class DefaultCalculatorMemory implements CalculatorMemory {
         LOGGER.debug("Changed value in list variable {} to {}", listName, value);
     }
 
+    @Override
+    public void setMatrixVariableValue(@NotNull Variables.MatrixVariable variable, @NotNull Value value) {
+        checkNotNull(variable);
+        checkNotNull(value);
+        checkValueType(value, Variables.VariableType.MATRIX);
+
+        matrixVariableValueMap.put(variable, value);
+        LOGGER.debug("Changed value in matrix variable {} to {}", variable, value);
+    }
+
     @Override
     public void setNumberVariableValue(@NotNull Variables.NumberVariable variable, @NotNull Value value) {
         checkNotNull(variable);
@@ -131,6 +197,17 @@ public class DefaultCalculatorMemory implements CalculatorMemory {
         LOGGER.debug("Stored new program {}", programName);
     }
 
+    @Override
+    public void replaceProgram(@NotNull String programName, @NotNull ExecutableProgram programCode) {
+        checkNotNull(programName);
+        checkNotNull(programCode);
+
+        if (programMap.put(programName, programCode) != null)
+            LOGGER.debug("Replaced program {}", programName);
+        else
+            LOGGER.debug("Stored new program {}", programName);
+    }
+
     /**
      * Takes an Enum class and creates a new map with each enum value as key and the given default value as the value.
      *
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.memory;
+
+import org.jetbrains.annotations.NotNull;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+
+import java.util.Arrays;
+
+/**
+ * Immutable matrix of real numbers like the matrix variables [A] to [J]. The elements are stored in a single
+ * row-major array of primitive doubles, i.e. the element in row r and column c is stored at index r*columns+c.
+ */
+public final class Matrix {
+
+    private final int rows;
+
+    private final int columns;
+
+    private final double[] elements;
+
+    private Matrix(int rows, int columns, @NotNull double[] elements) {
+        this.rows = rows;
+        this.columns = columns;
+        this.elements = elements;
+    }
+
+    /**
+     * Create a new matrix from a row-major array. The array will be copied.
+     *
+     * @param rows
+     *         Number of rows.
+     * @param columns
+     *         Number of columns.
+     * @param elements
+     *         All elements in row-major order.
+     * @return A new matrix.
+     * @throws TIArgumentException
+     *         Will be thrown if a dimension is not positive or doesn't match the number of elements.
+     */
+    @NotNull
+    public static Matrix of(int rows, int columns, @NotNull double... elements) throws TIArgumentException {
+        return wrap(rows, columns, elements.clone());
+    }
+
+    /**
+     * Create a new matrix that uses the given row-major array directly without copying it. The array must not be
+     * modified afterwards.
+     *
+     * @param rows
+     *         Number of rows.
+     * @param columns
+     *         Number of columns.
+     * @param elements
+     *         All elements in row-major order.
+     * @return A new matrix.
+     * @throws TIArgumentException
+     *         Will be thrown if a dimension is not positive or doesn't match the number of elements.
+     */
+    @NotNull
+    public static Matrix wrap(int rows, int columns, @NotNull double[] elements) throws TIArgumentException {
+        if (rows < 1 || columns < 1 || (long) rows * columns != elements.length)
+            throw new TIArgumentException("Invalid dimension", rows, columns);
+        return new Matrix(rows, columns, elements);
+    }
+
+    /**
+     * Create a new identity matrix with the given dimension.
+     */
+    @NotNull
+    public static Matrix identity(int dimension) throws TIArgumentException {
+        if (dimension < 1)
+            throw new TIArgumentException("Invalid dimension", dimension);
+        double[] elements = new double[dimension * dimension];
+        for (int i = 0; i < dimension; i++)
+            elements[i * dimension + i] = 1;
+        return new Matrix(dimension, dimension, elements);
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns true if the matrix has as many rows as columns.
+     */
+    public boolean isSquare() {
+        return rows == columns;
+    }
+
+    /**
+     * Returns the element at the given zero-based position.
+     */
+    public double get(int row, int column) {
+        return elements[row * columns + column];
+    }
+
+    /**
+     * Returns the internal row-major array without copying it. The array must not be modified.
+     */
+    @NotNull
+    public double[] elements() {
+        return elements;
+    }
+
+    /**
+     * Returns a copy of this matrix in which the element at the given zero-based position has been replaced.
+     */
+    @NotNull
+    public Matrix with(int row, int column, double value) {
+        double[] copy = elements.clone();
+        copy[row * columns + column] = value;
+        return new Matrix(rows, columns, copy);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Matrix)) return false;
+
+        Matrix that = (Matrix) o;
+        return rows == that.rows && columns == that.columns && Arrays.equals(elements, that.elements);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = rows;
+        result = 31 * result + columns;
+        result = 31 * result + Arrays.hashCode(elements);
+        return result;
+    }
+
+    /**
+     * Returns the matrix the way it would be entered on the calculator, e.g. <code>[[1.0,2.0][3.0,4.0]]</code>.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(rows * columns * 4 + 2).append('[');
+        for (int row = 0; row < rows; row++) {
+            builder.append('[');
+            for (int column = 0; column < columns; column++) {
+                if (column > 0)
+                    builder.append(',');
+                builder.append(elements[row * columns + column]);
+            }
+            builder.append(']');
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.memory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.exception.DuplicateProgramException;
+import org.xlrnet.tibaija.processor.ExecutableProgram;
+import org.xlrnet.tibaija.processor.Preprocessor;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Immutable binary snapshot of a calculator memory. A snapshot contains the Ans variable, all number, list and matrix
+ * variables and the sources of all stored programs. It can be restored into any {@link CalculatorMemory} without
+ * re-running the programs that originally created the values.
+ * <p/>
+ * The binary format is versioned and consists of the following sections (all numbers in big-endian byte order):
+ * <ol>
+ * <li>Header: magic number "TIBM", format version (short) and reserved flags (short)</li>
+ * <li>Ans: a single value</li>
+ * <li>Number variables: count followed by real and imaginary part of each variable as packed doubles</li>
+ * <li>List variables: count followed by name, length, a flag for imaginary parts, all real parts and, if flagged,
+ * all imaginary parts as primitive double arrays</li>
+ * <li>Matrix variables (since version 2): count followed by name, rows, columns and all elements in row-major order
+ * as a primitive double array</li>
+ * <li>Programs: count followed by name and UTF-8 encoded source of each program</li>
+ * <li>CRC32 checksum over all previous bytes</li>
+ * </ol>
+ * Since all arrays are length-prefixed, a snapshot can be read straight from a {@link ByteBuffer} or a memory-mapped
+ * file. Snapshots of version 1 without matrix variables can still be read.
+ */
+public final class MemorySnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemorySnapshot.class);
+
+    /**
+     * Magic number at the beginning of each snapshot: "TIBM"
+     */
+    private static final int MAGIC = 0x5449424D;
+
+    private static final short VERSION = 2;
+
+    /**
+     * Oldest format version that can still be read. Version 1 doesn't contain any matrix variables.
+     */
+    private static final short MIN_VERSION = 1;
+
+    private static final byte TYPE_NUMBER = 0;
+
+    private static final byte TYPE_LIST = 1;
+
+    private static final byte TYPE_MATRIX = 2;
+
+    private final Value lastResult;
+
+    private final ImmutableMap<Variables.NumberVariable, Value> numberVariables;
+
+    private final ImmutableMap<String, Value> listVariables;
+
+    private final ImmutableMap<Variables.MatrixVariable, Value> matrixVariables;
+
+    private final ImmutableMap<String, String> programSources;
+
+    private MemorySnapshot(@NotNull Value lastResult, @NotNull ImmutableMap<Variables.NumberVariable, Value> numberVariables,
+                           @NotNull ImmutableMap<String, Value> listVariables, @NotNull ImmutableMap<Variables.MatrixVariable, Value> matrixVariables,
+                           @NotNull ImmutableMap<String, String> programSources) {
+        this.lastResult = lastResult;
+        this.numberVariables = numberVariables;
+        this.listVariables = listVariables;
+        this.matrixVariables = matrixVariables;
+        this.programSources = programSources;
+    }
+
+    /**
+     * Take a snapshot of the current content of the given memory.
+     *
+     * @param memory
+     *         The memory to save.
+     * @return A new snapshot.
+     */
+    @NotNull
+    public static MemorySnapshot of(@NotNull ReadOnlyCalculatorMemory memory) {
+        ImmutableMap.Builder<Variables.NumberVariable, Value> numberVariables = ImmutableMap.builder();
+        for (Variables.NumberVariable variable : Variables.NumberVariable.values())
+            numberVariables.put(variable, memory.getNumberVariableValue(variable));
+
+        ImmutableMap.Builder<String, Value> listVariables = ImmutableMap.builder();
+        for (String listName : memory.getListVariableNames())
+            listVariables.put(listName, memory.getListVariableValue(listName));
+
+        ImmutableMap.Builder<Variables.MatrixVariable, Value> matrixVariables = ImmutableMap.builder();
+        for (Variables.MatrixVariable variable : memory.getMatrixVariableNames())
+            matrixVariables.put(variable, memory.getMatrixVariableValue(variable));
+
+        ImmutableMap.Builder<String, String> programSources = ImmutableMap.builder();
+        for (String programName : memory.getStoredProgramNames())
+            programSources.put(programName, memory.getStoredProgram(programName).getOriginalSource().toString());
+
+        return new MemorySnapshot(memory.getLastResult(), numberVariables.build(), listVariables.build(), matrixVariables.build(), programSources.build());
+    }
+
+    /**
+     * Read a snapshot from the remaining bytes of the given buffer. After reading, the position of the buffer points
+     * directly behind the snapshot.
+     *
+     * @param buffer
+     *         A buffer that contains a snapshot at its current position.
+     * @return The decoded snapshot.
+     * @throws IOException
+     *         Will be thrown if the buffer doesn't contain a valid snapshot.
+     */
+    @NotNull
+    public static MemorySnapshot read(@NotNull ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Buffer doesn't contain a memory snapshot");
+            short version = buffer.getShort();
+            if (version < MIN_VERSION || version > VERSION)
+                throw new IOException("Unsupported snapshot version: " + version);
+            buffer.getShort();          // Reserved flags
+
+            Value lastResult = readValue(buffer);
+
+            int numberVariableCount = buffer.getInt();
+            Variables.NumberVariable[] variables = Variables.NumberVariable.values();
+            if (numberVariableCount != variables.length)
+                throw new IOException("Unexpected number of number variables: " + numberVariableCount);
+            ImmutableMap.Builder<Variables.NumberVariable, Value> numberVariables = ImmutableMap.builder();
+            for (Variables.NumberVariable variable : variables)
+                numberVariables.put(variable, Value.of(new Complex(buffer.getDouble(), buffer.getDouble())));
+
+            int listVariableCount = readCount(buffer);
+            ImmutableMap.Builder<String, Value> listVariables = ImmutableMap.builder();
+            for (int i = 0; i < listVariableCount; i++) {
+                String listName = readString(buffer);
+                listVariables.put(listName, readList(buffer));
+            }
+
+            ImmutableMap.Builder<Variables.MatrixVariable, Value> matrixVariables = ImmutableMap.builder();
+            if (version >= 2) {
+                int matrixVariableCount = readCount(buffer);
+                for (int i = 0; i < matrixVariableCount; i++) {
+                    Variables.MatrixVariable variable = Variables.resolveMatrixVariable(readString(buffer));
+                    matrixVariables.put(variable, readMatrix(buffer));
+                }
+            }
+
+            int programCount = readCount(buffer);
+            ImmutableMap.Builder<String, String> programSources = ImmutableMap.builder();
+            for (int i = 0; i < programCount; i++) {
+                String programName = readString(buffer);
+                programSources.put(programName, readString(buffer));
+            }
+
+            long checksum = checksum(buffer, start, buffer.position());
+            if (buffer.getLong() != checksum)
+                throw new IOException("Snapshot checksum mismatch");
+
+            return new MemorySnapshot(lastResult, numberVariables.build(), listVariables.build(), matrixVariables.build(), programSources.build());
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of snapshot", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read a snapshot from a file. The file will be memory-mapped instead of being copied into the heap.
+     *
+     * @param path
+     *         Path of the snapshot file.
+     * @return The decoded snapshot.
+     * @throws IOException
+     *         Will be thrown if the file can't be read or doesn't contain a valid snapshot.
+     */
+    @NotNull
+    public static MemorySnapshot read(@NotNull Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        }
+    }
+
+    /**
+     * Returns the exact number of bytes that {@link #writeTo(ByteBuffer)} will write.
+     */
+    public int getEncodedSize() {
+        int size = 4 + 2 + 2;                       // Header
+        size += getEncodedSize(lastResult);
+        size += 4 + numberVariables.size() * 16;    // Packed number variables
+        size += 4;
+        for (Map.Entry<String, Value> entry : listVariables.entrySet())
+            size += getEncodedSize(entry.getKey()) + getEncodedListSize(entry.getValue().list());
+        size += 4;
+        for (Map.Entry<Variables.MatrixVariable, Value> entry : matrixVariables.entrySet())
+            size += getEncodedSize(entry.getKey().toString()) + getEncodedMatrixSize(entry.getValue().matrix());
+        size += 4;
+        for (Map.Entry<String, String> entry : programSources.entrySet())
+            size += getEncodedSize(entry.getKey()) + getEncodedSize(entry.getValue());
+        size += 8;                                  // Checksum
+        return size;
+    }
+
+    /**
+     * Encode this snapshot into a new heap buffer. The returned buffer is ready for reading.
+     *
+     * @return A new buffer with the encoded snapshot.
+     */
+    @NotNull
+    public ByteBuffer toByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(getEncodedSize());
+        writeTo(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Write this snapshot to the given buffer beginning at its current position.
+     *
+     * @param buffer
+     *         The target buffer. Must have at least {@link #getEncodedSize()} remaining bytes.
+     */
+    public void writeTo(@NotNull ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) 0);
+
+        writeValue(buffer, lastResult);
+
+        buffer.putInt(numberVariables.size());
+        for (Variables.NumberVariable variable : Variables.NumberVariable.values()) {
+            Complex complex = numberVariables.get(variable).complex();
+            buffer.putDouble(complex.getReal());
+            buffer.putDouble(complex.getImaginary());
+        }
+
+        buffer.putInt(listVariables.size());
+        for (Map.Entry<String, Value> entry : listVariables.entrySet()) {
+            writeString(buffer, entry.getKey());
+            writeList(buffer, entry.getValue().list());
+        }
+
+        buffer.putInt(matrixVariables.size());
+        for (Map.Entry<Variables.MatrixVariable, Value> entry : matrixVariables.entrySet()) {
+            writeString(buffer, entry.getKey().toString());
+            writeMatrix(buffer, entry.getValue().matrix());
+        }
+
+        buffer.putInt(programSources.size());
+        for (Map.Entry<String, String> entry : programSources.entrySet()) {
+            writeString(buffer, entry.getKey());
+            writeString(buffer, entry.getValue());
+        }
+
+        buffer.putLong(checksum(buffer, start, buffer.position()));
+    }
+
+    /**
+     * Write this snapshot to a file. An existing file will be overwritten.
+     *
+     * @param path
+     *         Path of the target file.
+     * @throws IOException
+     *         Will be thrown if the file can't be written.
+     */
+    public void writeTo(@NotNull Path path) throws IOException {
+        Files.write(path, toByteBuffer().array());
+    }
+
+    /**
+     * Restore all variables and programs of this snapshot in the given memory. All variables will be overwritten.
+     * Programs that don't exist in the target memory will be preprocessed and stored.
+     *
+     * @param memory
+     *         The target memory.
+     * @throws DuplicateProgramException
+     *         Will be thrown if the target memory contains a program with the same name but a different source.
+     */
+    public void restoreInto(@NotNull CalculatorMemory memory) throws DuplicateProgramException {
+        Preprocessor preprocessor = null;
+        for (Map.Entry<String, String> entry : programSources.entrySet()) {
+            String programName = entry.getKey();
+            if (memory.getStoredProgramNames().contains(programName)) {
+                if (!entry.getValue().equals(memory.getStoredProgram(programName).getOriginalSource().toString()))
+                    throw new DuplicateProgramException(programName);
+            } else {
+                if (preprocessor == null)
+                    preprocessor = new Preprocessor();
+                ExecutableProgram program = preprocessor.preprocessProgramCode(programName, entry.getValue());
+                memory.storeProgram(programName, program);
+            }
+        }
+
+        memory.setLastResult(lastResult);
+        numberVariables.forEach(memory::setNumberVariableValue);
+        listVariables.forEach(memory::setListVariableValue);
+        matrixVariables.forEach(memory::setMatrixVariableValue);
+        LOGGER.debug("Restored snapshot with {} lists, {} matrices and {} programs", listVariables.size(), matrixVariables.size(), programSources.size());
+    }
+
+    @NotNull
+    public Value getLastResult() {
+        return lastResult;
+    }
+
+    @NotNull
+    public ImmutableMap<String, Value> getListVariables() {
+        return listVariables;
+    }
+
+    @NotNull
+    public ImmutableMap<Variables.MatrixVariable, Value> getMatrixVariables() {
+        return matrixVariables;
+    }
+
+    @NotNull
+    public ImmutableMap<Variables.NumberVariable, Value> getNumberVariables() {
+        return numberVariables;
+    }
+
+    @NotNull
+    public ImmutableMap<String, String> getProgramSources() {
+        return programSources;
+    }
+
+    private static long checksum(@NotNull ByteBuffer buffer, int start, int end) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(end);
+        region.position(start);
+        CRC32 crc32 = new CRC32();
+        crc32.update(region);
+        return crc32.getValue();
+    }
+
+    private static int getEncodedSize(@NotNull Value value) {
+        if (value.isMatrix())
+            return 1 + getEncodedMatrixSize(value.matrix());
+        return value.isList() ? 1 + getEncodedListSize(value.list()) : 1 + 16;
+    }
+
+    private static int getEncodedMatrixSize(@NotNull Matrix matrix) {
+        return 4 + 4 + matrix.getRows() * matrix.getColumns() * 8;
+    }
+
+    private static int getEncodedListSize(@NotNull ImmutableList<Complex> list) {
+        boolean hasImaginary = hasImaginaryPart(list);
+        return 4 + 1 + list.size() * (hasImaginary ? 16 : 8);
+    }
+
+    private static int getEncodedSize(@NotNull String string) {
+        return 4 + string.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static boolean hasImaginaryPart(@NotNull ImmutableList<Complex> list) {
+        for (Complex complex : list) {
+            if (complex.getImaginary() != 0)
+                return true;
+        }
+        return false;
+    }
+
+    private static void writeValue(@NotNull ByteBuffer buffer, @NotNull Value value) {
+        if (value.isMatrix()) {
+            buffer.put(TYPE_MATRIX);
+            writeMatrix(buffer, value.matrix());
+        } else if (value.isList()) {
+            buffer.put(TYPE_LIST);
+            writeList(buffer, value.list());
+        } else {
+            buffer.put(TYPE_NUMBER);
+            buffer.putDouble(value.complex().getReal());
+            buffer.putDouble(value.complex().getImaginary());
+        }
+    }
+
+    @NotNull
+    private static Value readValue(@NotNull ByteBuffer buffer) throws IOException {
+        byte type = buffer.get();
+        switch (type) {
+            case TYPE_NUMBER:
+                return Value.of(new Complex(buffer.getDouble(), buffer.getDouble()));
+            case TYPE_LIST:
+                return readList(buffer);
+            case TYPE_MATRIX:
+                return readMatrix(buffer);
+            default:
+                throw new IOException("Unsupported value type: " + type);
+        }
+    }
+
+    /**
+     * Lists are written as two separate primitive arrays, so that they can be copied in bulk. The array with the
+     * imaginary parts is omitted if all imaginary parts are zero.
+     */
+    private static void writeList(@NotNull ByteBuffer buffer, @NotNull ImmutableList<Complex> list) {
+        boolean hasImaginary = hasImaginaryPart(list);
+        int size = list.size();
+        double[] parts = new double[size];
+
+        buffer.putInt(size);
+        buffer.put((byte) (hasImaginary ? 1 : 0));
+        for (int i = 0; i < size; i++)
+            parts[i] = list.get(i).getReal();
+        putDoubles(buffer, parts);
+        if (hasImaginary) {
+            for (int i = 0; i < size; i++)
+                parts[i] = list.get(i).getImaginary();
+            putDoubles(buffer, parts);
+        }
+    }
+
+    @NotNull
+    private static Value readList(@NotNull ByteBuffer buffer) throws IOException {
+        int size = readCount(buffer);
+        boolean hasImaginary = buffer.get() != 0;
+        double[] realParts = getDoubles(buffer, size);
+        double[] imaginaryParts = hasImaginary ? getDoubles(buffer, size) : null;
+
+        Complex[] complexes = new Complex[size];
+        for (int i = 0; i < size; i++)
+            complexes[i] = hasImaginary ? new Complex(realParts[i], imaginaryParts[i]) : new Complex(realParts[i]);
+        return Value.of(ImmutableList.copyOf(complexes));
+    }
+
+    /**
+     * Matrices are already stored as a single row-major array and can be written without any conversion.
+     */
+    private static void writeMatrix(@NotNull ByteBuffer buffer, @NotNull Matrix matrix) {
+        buffer.putInt(matrix.getRows());
+        buffer.putInt(matrix.getColumns());
+        putDoubles(buffer, matrix.elements());
+    }
+
+    @NotNull
+    private static Value readMatrix(@NotNull ByteBuffer buffer) throws IOException {
+        int rows = readCount(buffer);
+        int columns = readCount(buffer);
+        if (rows == 0 || columns == 0)
+            throw new IOException("Invalid matrix dimension: " + rows + "x" + columns);
+        return Value.of(Matrix.wrap(rows, columns, getDoubles(buffer, Math.multiplyExact(rows, columns))));
+    }
+
+    private static void putDoubles(@NotNull ByteBuffer buffer, @NotNull double[] values) {
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 8);
+    }
+
+    @NotNull
+    private static double[] getDoubles(@NotNull ByteBuffer buffer, int count) throws IOException {
+        if (buffer.remaining() < count * 8L)
+            throw new IOException("Unexpected end of snapshot");
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+
+    private static int readCount(@NotNull ByteBuffer buffer) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0)
+            throw new IOException("Invalid count: " + count);
+        return count;
+    }
+
+    private static void writeString(@NotNull ByteBuffer buffer, @NotNull String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    @NotNull
+    private static String readString(@NotNull ByteBuffer buffer) throws IOException {
+        int length = readCount(buffer);
+        if (buffer.remaining() < length)
+            throw new IOException("Unexpected end of snapshot");
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
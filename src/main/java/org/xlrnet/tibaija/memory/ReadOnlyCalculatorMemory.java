@@ -26,6 +26,8 @@ import org.jetbrains.annotations.NotNull;
 import org.xlrnet.tibaija.exception.ProgramNotFoundException;
 import org.xlrnet.tibaija.processor.ExecutableProgram;
 
+import java.util.Set;
+
 /**
  * This interface defines a read-only access for the internal calculator memory.
  */
@@ -54,6 +56,34 @@ public interface ReadOnlyCalculatorMemory {
     @NotNull
     public Value getListVariableValue(@NotNull String variable);
 
+    /**
+     * Returns the names of all list variables that have been written to. The names don't contain the leading list
+     * token "∟".
+     *
+     * @return An immutable set with the names of all defined list variables.
+     */
+    @NotNull
+    public Set<String> getListVariableNames();
+
+    /**
+     * Returns the stored value of a given matrix variable. If a variable has not yet been written to, an
+     * UndefinedVariableException will be thrown.
+     *
+     * @param variable
+     *         The matrix variable from which value should be returned.
+     * @return Value of the selected variable.
+     */
+    @NotNull
+    public Value getMatrixVariableValue(@NotNull Variables.MatrixVariable variable);
+
+    /**
+     * Returns all matrix variables that have been written to.
+     *
+     * @return An immutable set with all defined matrix variables.
+     */
+    @NotNull
+    public Set<Variables.MatrixVariable> getMatrixVariableNames();
+
     /**
      * Returns the stored value of a given number variable. If a variable has not yet been written to, the value is
      * zero.
@@ -77,4 +107,25 @@ public interface ReadOnlyCalculatorMemory {
     @NotNull
     public ExecutableProgram getStoredProgram(@NotNull String programName) throws ProgramNotFoundException;
 
+    /**
+     * Returns the names of all programs that are stored in the virtual calculator's memory.
+     *
+     * @return An immutable set with the names of all stored programs.
+     */
+    @NotNull
+    public Set<String> getStoredProgramNames();
+
+    /**
+     * Estimates the number of bytes on the heap that are retained by all stored programs.
+     *
+     * @return The sum of the estimated retained sizes of all stored programs.
+     * @see ExecutableProgram#getRetainedBytes()
+     */
+    default long getRetainedProgramBytes() {
+        long bytes = 0;
+        for (String programName : getStoredProgramNames())
+            bytes += getStoredProgram(programName).getRetainedBytes();
+        return bytes;
+    }
+
 }
@@ -78,6 +78,29 @@ public class Value implements Comparable<Value> {
         type = Variables.VariableType.LIST;
     }
 
+    /**
+     * Create a new Value object from a matrix and set the according type.
+     *
+     * @param matrix
+     *         The matrix.
+     */
+    private Value(@NotNull Matrix matrix) {
+        value = matrix;
+        type = Variables.VariableType.MATRIX;
+    }
+
+    /**
+     * Create a new Value object from a matrix.
+     *
+     * @param matrix
+     *         The matrix.
+     * @return A new Value object with the given matrix.
+     */
+    @NotNull
+    public static Value of(@NotNull Matrix matrix) {
+        return new Value(matrix);
+    }
+
     /**
      * Create a new Value object from an immutable list of complex numbers.
      *
@@ -270,6 +293,15 @@ public class Value implements Comparable<Value> {
         return isType(Variables.VariableType.LIST);
     }
 
+    /**
+     * Check if this object contains a matrix.
+     *
+     * @return True if this object contains a matrix; false otherwise.
+     */
+    public boolean isMatrix() {
+        return isType(Variables.VariableType.MATRIX);
+    }
+
     /**
      * Check if this object contains a complex or numerical value.
      *
@@ -293,6 +325,19 @@ public class Value implements Comparable<Value> {
         return (ImmutableList) value;
     }
 
+    /**
+     * Retrieves the internal value as a matrix. If the internal is not a matrix, this method will throw an
+     * {IllegalTypeException}. Use this method only if you know the underlying object type!
+     *
+     * @return The internal value as a matrix.
+     * @throws TIRuntimeException
+     */
+    @NotNull
+    public Matrix matrix() throws IllegalTypeException {
+        internalTypeCheck(Variables.VariableType.MATRIX);
+        return (Matrix) value;
+    }
+
     @Override
     public String toString() {
         return "AnswerVariable{" +
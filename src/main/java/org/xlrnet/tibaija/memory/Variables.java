@@ -34,6 +34,15 @@ public class Variables {
         return internalResolveVariableName(NumberVariable.class, variableName);
     }
 
+    /**
+     * Resolves a matrix variable from its name with or without brackets, e.g. <code>[A]</code> or <code>A</code>.
+     */
+    public static MatrixVariable resolveMatrixVariable(String variableName) {
+        if (variableName.length() == 3 && variableName.charAt(0) == '[' && variableName.charAt(2) == ']')
+            return internalResolveVariableName(MatrixVariable.class, variableName.substring(1, 2));
+        return internalResolveVariableName(MatrixVariable.class, variableName);
+    }
+
     private static <E extends Enum<E>> E internalResolveVariableName(final Class<E> clazz, String variableName) {
         E result = EnumUtils.getEnum(clazz, variableName);
         if (result == null)
@@ -45,6 +54,15 @@ public class Variables {
         A, B, C, D, E, F, G, H, I, J, K, L, M, N, O, P, Q, R, S, T, U, V, W, X, Y, Z
     }
 
+    public enum MatrixVariable {
+        A, B, C, D, E, F, G, H, I, J;
+
+        @Override
+        public String toString() {
+            return "[" + name() + "]";
+        }
+    }
+
     public enum VariableType {
         NUMBER,
         STRING,
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.Trees;
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.commands.BinaryCommandOperator;
+import org.xlrnet.tibaija.commands.ListKernels;
+import org.xlrnet.tibaija.commands.UnaryCommandOperator;
+import org.xlrnet.tibaija.exception.PreprocessException;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.exception.TIRuntimeException;
+import org.xlrnet.tibaija.io.CapturingIO;
+import org.xlrnet.tibaija.memory.CalculatorMemory;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.util.ContextUtils;
+import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single expression that is compiled once and evaluated for many rows of input at the same time. Number variables
+ * of the expression can be bound to columns of real numbers, i.e. arrays that contain one value for every row. The
+ * expression will then be evaluated like an implicit list operation on all rows and returns a column with one result
+ * per row. A bound variable like A in {@code A²+B*C} behaves exactly as if the list of its column had been used
+ * instead of the variable.
+ * <p/>
+ * Expressions that only use real arithmetic, comparison and logic operators are evaluated with the primitive
+ * {@link ListKernels} without creating any objects per row. All other expressions (e.g. with lists, imaginary numbers
+ * or factorials) and rows whose intermediate results are not real will be evaluated with the regular operator
+ * commands instead. The results of both ways are the same except for rounding errors of the complex arithmetic.
+ * <p/>
+ * Instances are immutable and may be evaluated from multiple threads at the same time.
+ */
+public class BatchExpression {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchExpression.class);
+
+    private static final ImmutableMap<String, BinaryCommandOperator> BINARY_OPERATORS = ImmutableMap.<String, BinaryCommandOperator>builder()
+            .put("+", BinaryCommandOperator.PLUS)
+            .put("-", BinaryCommandOperator.MINUS)
+            .put("*", BinaryCommandOperator.MULTIPLY)
+            .put("/", BinaryCommandOperator.DIVIDE)
+            .put("^", BinaryCommandOperator.POWER)
+            .put("=", BinaryCommandOperator.EQUALS)
+            .put("≠", BinaryCommandOperator.NOT_EQUALS)
+            .put(">", BinaryCommandOperator.GREATER_THAN)
+            .put("≥", BinaryCommandOperator.GREATER_EQUALS)
+            .put("<", BinaryCommandOperator.LESS_THAN)
+            .put("≤", BinaryCommandOperator.LESS_EQUALS)
+            .put("and", BinaryCommandOperator.AND)
+            .put("or", BinaryCommandOperator.OR)
+            .put("xor", BinaryCommandOperator.XOR)
+            .build();
+
+    private static final ImmutableMap<String, UnaryCommandOperator> UNARY_OPERATORS = ImmutableMap.of(
+            "²", UnaryCommandOperator.SQUARED,
+            "³", UnaryCommandOperator.CUBED,
+            "√(", UnaryCommandOperator.SQUARE_ROOT,
+            "not(", UnaryCommandOperator.NOT
+    );
+
+    private static final double[] NEGATIVE_ONE = {-1};
+
+    private static final ListKernels KERNELS = ListKernels.getInstance();
+
+    private final String expressionCode;
+
+    private final TIBasicParser.ExpressionContext expression;
+
+    private final ImmutableSet<Variables.NumberVariable> variables;
+
+    /**
+     * Root of the primitive evaluation tree or null if the expression can't be evaluated with kernels.
+     */
+    @Nullable
+    private final Node kernelTree;
+
+    private BatchExpression(@NotNull String expressionCode, @NotNull TIBasicParser.ExpressionContext expression) {
+        this.expressionCode = expressionCode;
+        this.expression = expression;
+        this.kernelTree = new KernelCompiler().fold(expression);
+
+        ImmutableSet.Builder<Variables.NumberVariable> builder = ImmutableSet.builder();
+        for (ParseTree variable : Trees.findAllRuleNodes(expression, TIBasicParser.RULE_numericalVariable))
+            builder.add(Variables.resolveNumberVariable(variable.getText()));
+        this.variables = builder.build();
+    }
+
+    /**
+     * Parses and compiles the given expression.
+     *
+     * @param expressionCode
+     *         A single TI-Basic expression like {@code A²+B*C}.
+     * @return The compiled expression.
+     * @throws PreprocessException
+     *         Will be thrown if the expression is not valid.
+     */
+    @NotNull
+    public static BatchExpression compile(@NotNull String expressionCode) throws PreprocessException {
+        BatchExpression batchExpression = new BatchExpression(expressionCode, new Preprocessor().preprocessExpression(expressionCode));
+        LOGGER.debug("Compiled batch expression {} - evaluation with kernels: {}", expressionCode, batchExpression.isKernelEvaluated());
+        return batchExpression;
+    }
+
+    /**
+     * Returns the source code of this expression.
+     */
+    @NotNull
+    public String getExpressionCode() {
+        return expressionCode;
+    }
+
+    /**
+     * Returns all number variables that are used in this expression.
+     */
+    @NotNull
+    public ImmutableSet<Variables.NumberVariable> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Returns true if the expression can be evaluated with the primitive kernels. If this is false, every evaluation
+     * will use the regular operator commands.
+     */
+    public boolean isKernelEvaluated() {
+        return kernelTree != null;
+    }
+
+    /**
+     * Evaluates the expression for all rows of the given columns. Variables that are not bound to a column will be
+     * treated like on an empty calculator, i.e. they are zero.
+     *
+     * @param columns
+     *         Columns of the bound variables. All columns must have the same length.
+     * @return One result for every row of the columns.
+     * @throws TIRuntimeException
+     *         Will be thrown if the columns have different lengths or if the result of any row is not real.
+     */
+    @NotNull
+    public double[] evaluate(@NotNull Map<Variables.NumberVariable, double[]> columns) throws TIRuntimeException {
+        return evaluate(columns, new DefaultCalculatorMemory());
+    }
+
+    /**
+     * Evaluates the expression for all rows of the given columns. Variables that are not bound to a column will be
+     * read from the given memory and are the same for all rows. The memory will not be modified.
+     *
+     * @param columns
+     *         Columns of the bound variables. All columns must have the same length. If no column is given, the result
+     *         will contain exactly one row.
+     * @param memory
+     *         The memory from which all other variables will be read.
+     * @return One result for every row of the columns.
+     * @throws TIRuntimeException
+     *         Will be thrown if the columns have different lengths or if the result of any row is not real.
+     */
+    @NotNull
+    public double[] evaluate(@NotNull Map<Variables.NumberVariable, double[]> columns, @NotNull CalculatorMemory memory) throws TIRuntimeException {
+        int rows = getRowCount(columns);
+        if (rows == 0)
+            return new double[0];
+
+        if (kernelTree != null) {
+            try {
+                return broadcast(kernelTree.evaluate(new Bindings(columns, memory, rows)), rows);
+            } catch (NonRealResultException e) {
+                LOGGER.debug("Expression {} has non-real intermediate results - falling back to operator commands", expressionCode);
+            }
+        }
+        return evaluateWithCommands(columns, memory, rows);
+    }
+
+    private int getRowCount(@NotNull Map<Variables.NumberVariable, double[]> columns) throws TIArgumentException {
+        int rows = -1;
+        for (double[] column : columns.values()) {
+            if (rows == -1)
+                rows = column.length;
+            else if (rows != column.length)
+                throw new TIArgumentException("Mismatching dimensions: " + rows + " - " + column.length, ImmutableList.of());
+        }
+        return rows == -1 ? 1 : rows;
+    }
+
+    @NotNull
+    private double[] evaluateWithCommands(@NotNull Map<Variables.NumberVariable, double[]> columns, @NotNull CalculatorMemory memory, int rows) throws TIRuntimeException {
+        Map<Variables.NumberVariable, Value> listColumns = new EnumMap<>(Variables.NumberVariable.class);
+        for (Map.Entry<Variables.NumberVariable, double[]> entry : columns.entrySet()) {
+            List<Complex> list = new ArrayList<>(rows);
+            for (double d : entry.getValue())
+                list.add(Complex.valueOf(d));
+            listColumns.put(entry.getKey(), Value.of(list));
+        }
+
+        ColumnVisitor visitor = new ColumnVisitor(listColumns);
+        visitor.setEnvironment(ExecutionEnvironmentUtil.newDefaultEnvironment(memory, new CapturingIO()));
+        Value value = (Value) expression.accept(visitor);
+
+        double[] result = new double[rows];
+        if (value.isList()) {
+            List<Complex> list = value.list();
+            if (list.size() != rows)
+                throw new TIArgumentException("Mismatching dimensions: " + rows + " - " + list.size(), value);
+            for (int i = 0; i < rows; i++)
+                result[i] = getReal(list.get(i), value);
+        } else {
+            Arrays.fill(result, getReal(value.complex(), value));
+        }
+        return result;
+    }
+
+    private static double getReal(@NotNull Complex complex, @NotNull Value value) throws TIArgumentException {
+        if (complex.getImaginary() != 0)
+            throw new TIArgumentException("Result is not a real number: " + complex, value);
+        return complex.getReal();
+    }
+
+    @NotNull
+    private static double[] broadcast(@NotNull double[] result, int rows) {
+        if (result.length == rows)
+            return result;
+        double[] column = new double[rows];
+        Arrays.fill(column, result[0]);
+        return column;
+    }
+
+    /**
+     * Compiles an expression into a tree of kernel nodes. All nodes that can't be evaluated with kernels are null.
+     */
+    private static class KernelCompiler extends ExpressionFolder<Node> {
+
+        @Nullable
+        @Override
+        protected Node binary(@NotNull String operator, @NotNull Node lhs, @NotNull Node rhs) {
+            BinaryCommandOperator binaryOperator = BINARY_OPERATORS.get(operator);
+            if (binaryOperator == null || !ListKernels.supports(binaryOperator))
+                return null;
+            return new BinaryNode(binaryOperator, lhs, rhs);
+        }
+
+        @Nullable
+        @Override
+        protected Node unary(@NotNull String operator, @NotNull Node operand) {
+            UnaryCommandOperator unaryOperator = UNARY_OPERATORS.get(operator);
+            if (unaryOperator == null || !ListKernels.supports(unaryOperator))
+                return null;
+            return new UnaryNode(unaryOperator, operand);
+        }
+
+        @NotNull
+        @Override
+        protected Node negation(@NotNull Node operand) {
+            return new BinaryNode(BinaryCommandOperator.MULTIPLY, operand, new ConstantNode(NEGATIVE_ONE));
+        }
+
+        @Nullable
+        @Override
+        protected Node leaf(@NotNull ParseTree tree) {
+            if (!(tree instanceof TIBasicParser.Expression_valueContext) || ((TIBasicParser.Expression_valueContext) tree).numericalValue() == null)
+                return null;            // Lists, Ans, getKey and imaginary numbers
+            TIBasicParser.NumericalValueContext ctx = ((TIBasicParser.Expression_valueContext) tree).numericalValue();
+            if (ctx.numericalVariable() != null)
+                return new VariableNode(Variables.resolveNumberVariable(ctx.numericalVariable().getText()));
+            return new ConstantNode(new double[]{ContextUtils.extractValueFromNumberContext(ctx.number()).complex().getReal()});
+        }
+    }
+
+    /**
+     * Input of a single evaluation with the kernels.
+     */
+    private static class Bindings {
+
+        final Map<Variables.NumberVariable, double[]> columns;
+
+        final CalculatorMemory memory;
+
+        final int rows;
+
+        Bindings(Map<Variables.NumberVariable, double[]> columns, CalculatorMemory memory, int rows) {
+            this.columns = columns;
+            this.memory = memory;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Node of the primitive evaluation tree. Every node returns either a column with one element per row or a single
+     * element that is the same for all rows.
+     */
+    private static abstract class Node {
+
+        @NotNull
+        abstract double[] evaluate(@NotNull Bindings bindings);
+
+        /**
+         * Returns true if the arrays returned by this node are created for every evaluation and may be overwritten.
+         */
+        abstract boolean isTemporary();
+
+        @NotNull
+        static double[] target(@NotNull Bindings bindings, @NotNull Node lhsNode, @NotNull double[] lhs, @Nullable Node rhsNode, @Nullable double[] rhs) {
+            if (lhsNode.isTemporary() && lhs.length == bindings.rows)
+                return lhs;
+            if (rhsNode != null && rhsNode.isTemporary() && rhs.length == bindings.rows)
+                return rhs;
+            return new double[lhs.length == 1 && (rhs == null || rhs.length == 1) ? 1 : bindings.rows];
+        }
+    }
+
+    private static class ConstantNode extends Node {
+
+        private final double[] value;
+
+        ConstantNode(double[] value) {
+            this.value = value;
+        }
+
+        @NotNull
+        @Override
+        double[] evaluate(@NotNull Bindings bindings) {
+            return value;
+        }
+
+        @Override
+        boolean isTemporary() {
+            return false;
+        }
+    }
+
+    private static class VariableNode extends Node {
+
+        private final Variables.NumberVariable variable;
+
+        VariableNode(Variables.NumberVariable variable) {
+            this.variable = variable;
+        }
+
+        @NotNull
+        @Override
+        double[] evaluate(@NotNull Bindings bindings) {
+            double[] column = bindings.columns.get(variable);
+            if (column != null)
+                return column;
+            Value value = bindings.memory.getNumberVariableValue(variable);
+            if (value.hasImaginaryValue())
+                throw NonRealResultException.INSTANCE;
+            return new double[]{value.complex().getReal()};
+        }
+
+        @Override
+        boolean isTemporary() {
+            return false;
+        }
+    }
+
+    private static class BinaryNode extends Node {
+
+        private final BinaryCommandOperator operator;
+
+        private final Node lhsNode;
+
+        private final Node rhsNode;
+
+        BinaryNode(BinaryCommandOperator operator, Node lhsNode, Node rhsNode) {
+            this.operator = operator;
+            this.lhsNode = lhsNode;
+            this.rhsNode = rhsNode;
+        }
+
+        @NotNull
+        @Override
+        double[] evaluate(@NotNull Bindings bindings) {
+            double[] lhs = lhsNode.evaluate(bindings);
+            double[] rhs = rhsNode.evaluate(bindings);
+            if (operator == BinaryCommandOperator.POWER && !ListKernels.hasRealPowers(lhs, rhs))
+                throw NonRealResultException.INSTANCE;
+            double[] result = target(bindings, lhsNode, lhs, rhsNode, rhs);
+            KERNELS.apply(operator, lhs, rhs, result);
+            return result;
+        }
+
+        @Override
+        boolean isTemporary() {
+            return true;
+        }
+    }
+
+    private static class UnaryNode extends Node {
+
+        private final UnaryCommandOperator operator;
+
+        private final Node operandNode;
+
+        UnaryNode(UnaryCommandOperator operator, Node operandNode) {
+            this.operator = operator;
+            this.operandNode = operandNode;
+        }
+
+        @NotNull
+        @Override
+        double[] evaluate(@NotNull Bindings bindings) {
+            double[] operand = operandNode.evaluate(bindings);
+            if (operator == UnaryCommandOperator.SQUARE_ROOT && !ListKernels.isNonNegative(operand))
+                throw NonRealResultException.INSTANCE;
+            double[] result = target(bindings, operandNode, operand, null, null);
+            KERNELS.apply(operator, operand, result);
+            return result;
+        }
+
+        @Override
+        boolean isTemporary() {
+            return true;
+        }
+    }
+
+    /**
+     * Visitor that evaluates every bound variable as the list of its column.
+     */
+    private static class ColumnVisitor extends FullTIBasicVisitor {
+
+        private final Map<Variables.NumberVariable, Value> listColumns;
+
+        ColumnVisitor(Map<Variables.NumberVariable, Value> listColumns) {
+            this.listColumns = listColumns;
+        }
+
+        @Override
+        public Value visitNumericalVariable(@org.antlr.v4.runtime.misc.NotNull TIBasicParser.NumericalVariableContext ctx) {
+            Value column = listColumns.get(Variables.resolveNumberVariable(ctx.getText()));
+            return column != null ? column : super.visitNumericalVariable(ctx);
+        }
+    }
+
+    /**
+     * Signals that an intermediate result would not be real. Thrown without stack trace, since it is only used to
+     * switch to the evaluation with operator commands.
+     */
+    private static class NonRealResultException extends RuntimeException {
+
+        static final NonRealResultException INSTANCE = new NonRealResultException();
+
+        private NonRealResultException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.exception.PreprocessException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the commands of a program one after another from a character stream. Since the separator ':' can't appear
+ * anywhere else in a program, the source can be split into commands before parsing and every command can be parsed on
+ * its own. Only the source of the current command is kept in memory, so that programs of any length can be read.
+ * <p/>
+ * Commands that would require jumping backwards (i.e. loops, labels and Goto) are rejected, since the commands before
+ * the current one are not available anymore.
+ */
+class CommandStream {
+
+    private static final char SEPARATOR = ':';
+
+    private final Reader reader;
+
+    private final Preprocessor preprocessor;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * Position of the next character that will be read from the reader.
+     */
+    private int line = 1;
+
+    private int column = 0;
+
+    /**
+     * Position of the last character that has been read. After a separator has been found, this is the position of
+     * the separator that starts the next command.
+     */
+    private int separatorLine;
+
+    private int separatorColumn;
+
+    private boolean started;
+
+    private boolean exhausted;
+
+    CommandStream(@NotNull Reader reader, @NotNull Preprocessor preprocessor) {
+        this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+        this.preprocessor = preprocessor;
+    }
+
+    /**
+     * Reads and preprocesses the next command.
+     *
+     * @return The next command or null if the end of the stream has been reached.
+     * @throws IOException
+     *         Will be thrown if reading from the underlying reader fails.
+     * @throws PreprocessException
+     *         Will be thrown if the next command is invalid or not supported in a stream.
+     */
+    @Nullable
+    TIBasicParser.CommandContext next() throws IOException, PreprocessException {
+        if (!started) {
+            skipToFirstSeparator();
+            started = true;
+        }
+        if (exhausted)
+            return null;
+
+        int commandLine = separatorLine;
+        int commandColumn = separatorColumn;
+        buffer.setLength(0);
+        buffer.append(SEPARATOR);
+        readUntilSeparator();
+
+        TIBasicParser.CommandContext command = preprocessor.preprocessCommand(buffer, commandLine, commandColumn);
+        checkStreamable(command, commandLine, commandColumn);
+        return command;
+    }
+
+    private void checkStreamable(@NotNull TIBasicParser.CommandContext command, int commandLine, int commandColumn) throws PreprocessException {
+        if (!command.isControlFlowStatement)
+            return;
+        String flowType = command.controlFlowStatement().flowType;
+        switch (flowType) {
+            case "WHILE":
+            case "REPEAT":
+            case "FOR":
+            case "LABEL":
+            case "GOTO":
+                throw new PreprocessException(commandLine, commandColumn, "Command is not supported in streamed programs: " + flowType);
+            default:
+                // Conditions only jump forward and can be executed as usual
+        }
+    }
+
+    /**
+     * Text before the first separator is not part of any command. Since a regular parse would fail on it, only
+     * whitespace is allowed there.
+     */
+    private void skipToFirstSeparator() throws IOException, PreprocessException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == SEPARATOR) {
+                return;
+            }
+            if (!Character.isWhitespace(c)) {
+                throw new PreprocessException(separatorLine, separatorColumn, "Program must start with '" + SEPARATOR + "'");
+            }
+        }
+        exhausted = true;
+    }
+
+    /**
+     * Appends all characters up to the next separator to the buffer. The position of the separator will be remembered
+     * for the next command.
+     */
+    private void readUntilSeparator() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == SEPARATOR)
+                return;
+            buffer.append((char) c);
+        }
+        exhausted = true;
+    }
+
+    private int read() throws IOException {
+        separatorLine = line;
+        separatorColumn = column;
+        int c = reader.read();
+        if (c == '\n') {
+            line++;
+            column = 0;
+        } else if (c != -1) {
+            column++;
+        }
+        return c;
+    }
+}
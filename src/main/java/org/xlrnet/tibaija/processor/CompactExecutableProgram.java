@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableMap;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.exception.LabelNotFoundException;
+
+import java.lang.ref.SoftReference;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link ExecutableProgram} that only keeps what is needed to execute the program and to report errors: the source,
+ * the position of each command and the index of each label. The parse tree is rebuilt from the source whenever it is
+ * needed and only softly cached afterwards, so that it can be reclaimed as soon as memory gets low. Programs that are
+ * currently running keep their commands on their own.
+ */
+class CompactExecutableProgram extends ExecutableProgram {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompactExecutableProgram.class);
+
+    private final ImmutableMap<String, Integer> labelIndexes;
+
+    private volatile SoftReference<TIBasicParser.ProgramContext> cachedContext = new SoftReference<>(null);
+
+    CompactExecutableProgram(String programName, String programCode, CommandPositions commandPositions, Map<String, Integer> labelIndexes) {
+        this.labelIndexes = ImmutableMap.copyOf(labelIndexes);
+        this.commandPositions = commandPositions;
+        setProgramName(programName);
+        setOriginalSource(programCode);
+    }
+
+    @NotNull
+    @Override
+    public ExecutableProgram compact() {
+        return this;
+    }
+
+    @Override
+    public List<TIBasicParser.CommandContext> getLabelCommands(String labelName) throws LabelNotFoundException {
+        Integer index = labelIndexes.get(labelName);
+        if (index == null)
+            throw new LabelNotFoundException(-1, -1, programName, labelName);
+        List<TIBasicParser.CommandContext> commands = getMainProgramContext().commandList().command();
+        return commands.subList(index, commands.size());
+    }
+
+    @Override
+    Map<String, Integer> getLabelIndexes() {
+        return labelIndexes;
+    }
+
+    @Override
+    public TIBasicParser.ProgramContext getMainProgramContext() {
+        TIBasicParser.ProgramContext context = cachedContext.get();
+        if (context != null)
+            return context;
+
+        synchronized (this) {
+            context = cachedContext.get();
+            if (context == null) {
+                LOGGER.debug("Rebuilding parse tree of compact program {}", programName);
+                context = new Preprocessor().preprocessProgramCode(programName, originalSource).getMainProgramContext();
+                cachedContext = new SoftReference<>(context);
+            }
+        }
+        return context;
+    }
+
+    /**
+     * The softly cached parse tree is not included, since it may be reclaimed at any time.
+     */
+    @Override
+    public long getRetainedBytes() {
+        return RetainedSize.OBJECT_HEADER + 7 * RetainedSize.REFERENCE
+                + RetainedSize.of(originalSource)
+                + commandPositions.getRetainedBytes()
+                + RetainedSize.ofLabelMap(labelIndexes.keySet(), RetainedSize.OBJECT_HEADER + 4);
+    }
+
+    @Override
+    public boolean isCompact() {
+        return true;
+    }
+}
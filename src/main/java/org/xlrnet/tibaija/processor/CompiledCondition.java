@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.commands.BinaryCommand;
+import org.xlrnet.tibaija.commands.BinaryCommandOperator;
+import org.xlrnet.tibaija.commands.UnaryCommand;
+import org.xlrnet.tibaija.commands.UnaryCommandOperator;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.util.ContextUtils;
+
+/**
+ * Condition of an If, While or Repeat statement that has been compiled to primitive comparisons. Evaluating the
+ * condition with {@link Value} objects requires several comparators and wrapper objects for every comparison, although
+ * most conditions like {@code A<10 and B≠0} only compare real numbers.
+ * <p/>
+ * Only conditions that consist of numbers, number variables, Ans and the operators +, -, *, /, ², ³, the negative
+ * minus, comparisons, and, or, xor and not( can be compiled. If any variable is not a finite real number when the
+ * condition is evaluated, if an arithmetic operation doesn't have a finite result or if arithmetic operations would be
+ * calculated with decimal numbers, the whole condition will be evaluated by the visitor instead. Since none of these
+ * operands has side effects, the result is always the same as with the visitor.
+ * <p/>
+ * The right operand of "and" and "or" is only evaluated if it can change the result. Otherwise only its variables are
+ * checked, since only variables that are not real numbers could cause an error in the visitor.
+ */
+class CompiledCondition {
+
+    /**
+     * Signals that the condition must be evaluated by the visitor. Thrown without stack trace, since it is only used
+     * for control flow.
+     */
+    private static final FallbackException FALLBACK = new FallbackException();
+
+    private final Node root;
+
+    private final boolean hasArithmetic;
+
+    private CompiledCondition(@NotNull Node root, boolean hasArithmetic) {
+        this.root = root;
+        this.hasArithmetic = hasArithmetic;
+    }
+
+    /**
+     * Compile the given condition. All operators must be registered in the given environment as the default commands.
+     *
+     * @param ctx
+     *         The condition to compile.
+     * @param environment
+     *         The environment in which the condition will be evaluated.
+     * @return The compiled condition or null if the condition contains unsupported values or operators.
+     */
+    @Nullable
+    static CompiledCondition compile(@NotNull TIBasicParser.ExpressionContext ctx, @NotNull ExecutionEnvironment environment) {
+        Compiler compiler = new Compiler(environment);
+        Node root = compiler.fold(ctx);
+        return root != null ? new CompiledCondition(root, compiler.hasArithmetic) : null;
+    }
+
+    /**
+     * Evaluate the condition. The given context must be the one from which this condition has been compiled.
+     *
+     * @param ctx
+     *         The condition that will be evaluated by the visitor if the compiled condition can't be used.
+     * @param visitor
+     *         The visitor for evaluating the condition.
+     * @param environment
+     *         The environment with the current variables.
+     * @return True if the condition is not zero.
+     */
+    boolean evaluate(@NotNull TIBasicParser.ExpressionContext ctx, @NotNull FullTIBasicVisitor visitor, @NotNull ExecutionEnvironment environment) {
+        if (!hasArithmetic || environment.getNumberMode() != NumberMode.DECIMAL) {
+            try {
+                return root.test(environment);
+            } catch (FallbackException e) {
+                // Continue with the visitor
+            }
+        }
+        return ((Value) ctx.accept(visitor)).bool();
+    }
+
+    private static class Compiler extends ExpressionFolder<Node> {
+
+        private final ExecutionEnvironment environment;
+
+        private boolean hasArithmetic;
+
+        Compiler(@NotNull ExecutionEnvironment environment) {
+            this.environment = environment;
+        }
+
+        @Nullable
+        @Override
+        protected Node binary(@NotNull String operator, @NotNull Node lhs, @NotNull Node rhs) {
+            Command command = environment.getCommand(operator);
+            BinaryCommandOperator binaryOperator = command instanceof BinaryCommand ? ((BinaryCommand) command).getOperator() : null;
+            if (binaryOperator == null)
+                return null;
+            switch (binaryOperator) {
+                case PLUS:
+                case MINUS:
+                case MULTIPLY:
+                case DIVIDE:
+                    hasArithmetic = true;
+                    return new ArithmeticNode(binaryOperator, lhs, rhs);
+                case EQUALS:
+                case NOT_EQUALS:
+                case GREATER_THAN:
+                case LESS_THAN:
+                case GREATER_EQUALS:
+                case LESS_EQUALS:
+                    return new CompareNode(binaryOperator, lhs, rhs);
+                case AND:
+                    return new AndNode(lhs, rhs);
+                case OR:
+                    return new OrNode(lhs, rhs);
+                case XOR:
+                    return new XorNode(lhs, rhs);
+                default:
+                    return null;
+            }
+        }
+
+        @Nullable
+        @Override
+        protected Node unary(@NotNull String operator, @NotNull Node operand) {
+            Command command = environment.getCommand(operator);
+            UnaryCommandOperator unaryOperator = command instanceof UnaryCommand ? ((UnaryCommand) command).getOperator() : null;
+            if (unaryOperator == UnaryCommandOperator.NOT)
+                return new NotNode(operand);
+            if (unaryOperator == UnaryCommandOperator.SQUARED || unaryOperator == UnaryCommandOperator.CUBED) {
+                hasArithmetic = true;
+                return new PowerNode(unaryOperator == UnaryCommandOperator.CUBED, operand);
+            }
+            return null;
+        }
+
+        @Nullable
+        @Override
+        protected Node negation(@NotNull Node operand) {
+            Command command = environment.getCommand("*");
+            if (!(command instanceof BinaryCommand) || ((BinaryCommand) command).getOperator() != BinaryCommandOperator.MULTIPLY)
+                return null;
+            hasArithmetic = true;
+            return new ArithmeticNode(BinaryCommandOperator.MULTIPLY, operand, new ConstantNode(-1));
+        }
+
+        @Nullable
+        @Override
+        protected Node leaf(@NotNull ParseTree tree) {
+            if (!(tree instanceof TIBasicParser.Expression_valueContext))
+                return null;
+            TIBasicParser.Expression_valueContext ctx = (TIBasicParser.Expression_valueContext) tree;
+            if (ctx.lastResult() != null)
+                return new LastResultNode();
+            if (ctx.numericalValue() == null)
+                return null;
+            if (ctx.numericalValue().numericalVariable() != null)
+                return new VariableNode(Variables.resolveNumberVariable(ctx.numericalValue().numericalVariable().getText()));
+
+            Complex number = ContextUtils.extractValueFromNumberContext(ctx.numericalValue().number()).complex();
+            if (!isFiniteReal(number))
+                return null;
+            return new ConstantNode(number.getReal());
+        }
+    }
+
+    private static boolean isFiniteReal(@NotNull Complex complex) {
+        return complex.getImaginary() == 0 && !Double.isNaN(complex.getReal()) && !Double.isInfinite(complex.getReal());
+    }
+
+    private static double checkFinite(double value) throws FallbackException {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            throw FALLBACK;
+        return value;
+    }
+
+    /**
+     * Node of a compiled condition. Every node can be evaluated both as number and as truth value.
+     */
+    private static abstract class Node {
+
+        /**
+         * Evaluate this node as a number. Truth values are 1 for true and 0 for false.
+         */
+        abstract double number(@NotNull ExecutionEnvironment environment) throws FallbackException;
+
+        /**
+         * Evaluate this node as a truth value, which is true for all numbers except zero.
+         */
+        boolean test(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            return number(environment) != 0;
+        }
+
+        /**
+         * Check that all variables of this node are finite real numbers without evaluating any operators.
+         */
+        abstract void verify(@NotNull ExecutionEnvironment environment) throws FallbackException;
+    }
+
+    /**
+     * Node whose value is a truth value.
+     */
+    private static abstract class PredicateNode extends Node {
+
+        @Override
+        final double number(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            return test(environment) ? 1 : 0;
+        }
+
+        @Override
+        abstract boolean test(@NotNull ExecutionEnvironment environment) throws FallbackException;
+    }
+
+    private static class ConstantNode extends Node {
+
+        private final double value;
+
+        ConstantNode(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double number(@NotNull ExecutionEnvironment environment) {
+            return value;
+        }
+
+        @Override
+        void verify(@NotNull ExecutionEnvironment environment) {
+            // Constants are always real
+        }
+    }
+
+    private static class VariableNode extends Node {
+
+        private final Variables.NumberVariable variable;
+
+        VariableNode(@NotNull Variables.NumberVariable variable) {
+            this.variable = variable;
+        }
+
+        @Override
+        double number(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            Complex value = environment.getMemory().getNumberVariableValue(variable).complex();
+            if (!isFiniteReal(value))
+                throw FALLBACK;
+            return value.getReal();
+        }
+
+        @Override
+        void verify(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            number(environment);
+        }
+    }
+
+    private static class LastResultNode extends Node {
+
+        @Override
+        double number(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            Value value = environment.getMemory().getLastResult();
+            if (!value.isNumber() || !isFiniteReal(value.complex()))
+                throw FALLBACK;
+            return value.complex().getReal();
+        }
+
+        @Override
+        void verify(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            number(environment);
+        }
+    }
+
+    private static abstract class BinaryNode extends Node {
+
+        final Node lhs;
+
+        final Node rhs;
+
+        BinaryNode(@NotNull Node lhs, @NotNull Node rhs) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        void verify(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            lhs.verify(environment);
+            rhs.verify(environment);
+        }
+    }
+
+    /**
+     * Basic arithmetic on real numbers. The results are the same as with {@link Complex} numbers without imaginary
+     * part.
+     */
+    private static class ArithmeticNode extends BinaryNode {
+
+        private final BinaryCommandOperator operator;
+
+        ArithmeticNode(@NotNull BinaryCommandOperator operator, @NotNull Node lhs, @NotNull Node rhs) {
+            super(lhs, rhs);
+            this.operator = operator;
+        }
+
+        @Override
+        double number(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            double left = lhs.number(environment);
+            double right = rhs.number(environment);
+            switch (operator) {
+                case PLUS:
+                    return checkFinite(left + right);
+                case MINUS:
+                    return checkFinite(left - right);
+                case MULTIPLY:
+                    return checkFinite(left * right);
+                default:
+                    if (right == 0)
+                        throw FALLBACK;
+                    return checkFinite(left / right);
+            }
+        }
+    }
+
+    private static class PowerNode extends Node {
+
+        private final boolean cubed;
+
+        private final Node operand;
+
+        PowerNode(boolean cubed, @NotNull Node operand) {
+            this.cubed = cubed;
+            this.operand = operand;
+        }
+
+        @Override
+        double number(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            double value = operand.number(environment);
+            return checkFinite(cubed ? value * value * value : value * value);
+        }
+
+        @Override
+        void verify(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            operand.verify(environment);
+        }
+    }
+
+    private static class CompareNode extends PredicateNode {
+
+        private final BinaryCommandOperator operator;
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        CompareNode(@NotNull BinaryCommandOperator operator, @NotNull Node lhs, @NotNull Node rhs) {
+            this.operator = operator;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        boolean test(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            double left = lhs.number(environment);
+            double right = rhs.number(environment);
+            switch (operator) {
+                case EQUALS:
+                    return left == right;
+                case NOT_EQUALS:
+                    return left != right;
+                case GREATER_THAN:
+                    return left > right;
+                case LESS_THAN:
+                    return left < right;
+                case GREATER_EQUALS:
+                    return left >= right;
+                default:
+                    return left <= right;
+            }
+        }
+
+        @Override
+        void verify(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            lhs.verify(environment);
+            rhs.verify(environment);
+        }
+    }
+
+    private static class AndNode extends PredicateNode {
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        AndNode(@NotNull Node lhs, @NotNull Node rhs) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        boolean test(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            if (lhs.test(environment))
+                return rhs.test(environment);
+            rhs.verify(environment);
+            return false;
+        }
+
+        @Override
+        void verify(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            lhs.verify(environment);
+            rhs.verify(environment);
+        }
+    }
+
+    private static class OrNode extends PredicateNode {
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        OrNode(@NotNull Node lhs, @NotNull Node rhs) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        boolean test(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            if (!lhs.test(environment))
+                return rhs.test(environment);
+            rhs.verify(environment);
+            return true;
+        }
+
+        @Override
+        void verify(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            lhs.verify(environment);
+            rhs.verify(environment);
+        }
+    }
+
+    private static class XorNode extends PredicateNode {
+
+        private final Node lhs;
+
+        private final Node rhs;
+
+        XorNode(@NotNull Node lhs, @NotNull Node rhs) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        boolean test(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            return lhs.test(environment) ^ rhs.test(environment);
+        }
+
+        @Override
+        void verify(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            lhs.verify(environment);
+            rhs.verify(environment);
+        }
+    }
+
+    private static class NotNode extends PredicateNode {
+
+        private final Node operand;
+
+        NotNode(@NotNull Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            return !operand.test(environment);
+        }
+
+        @Override
+        void verify(@NotNull ExecutionEnvironment environment) throws FallbackException {
+            operand.verify(environment);
+        }
+    }
+
+    private static class FallbackException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        FallbackException() {
+            super(null, null, false, false);
+        }
+    }
+}
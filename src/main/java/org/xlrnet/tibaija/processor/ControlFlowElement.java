@@ -23,6 +23,7 @@
 package org.xlrnet.tibaija.processor;
 
 import org.xlrnet.tibaija.exception.IllegalControlFlowException;
+import org.xlrnet.tibaija.memory.Value;
 
 /**
  * Container class for control flow elements. Instances are supposed to be used in connection with the control flow
@@ -42,6 +43,10 @@ public class ControlFlowElement {
 
     private boolean lastEvaluation;
 
+    private Value loopEnd;
+
+    private Value loopStep;
+
     public ControlFlowElement(int line, int charIndex, ControlFlowToken token, boolean lastEvaluation, boolean repeatable) {
         this.token = token;
         this.lastEvaluation = lastEvaluation;
@@ -80,6 +85,25 @@ public class ControlFlowElement {
         return token;
     }
 
+    /**
+     * Returns the end value of a For( loop. The value is evaluated only once when the loop is entered.
+     */
+    public Value getLoopEnd() {
+        return loopEnd;
+    }
+
+    /**
+     * Returns the increment of a For( loop. The value is evaluated only once when the loop is entered.
+     */
+    public Value getLoopStep() {
+        return loopStep;
+    }
+
+    public void setLoopBounds(Value loopEnd, Value loopStep) {
+        this.loopEnd = loopEnd;
+        this.loopStep = loopStep;
+    }
+
     public boolean isRepeatable() {
         return repeatable;
     }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.exception.LabelNotFoundException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link ExecutableProgram} whose source is already known to be valid but which will only be parsed when it is
+ * accessed for the first time. This allows loading large sets of programs of which only a few are actually executed.
+ */
+class DeferredExecutableProgram extends ExecutableProgram {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeferredExecutableProgram.class);
+
+    private final ImmutableSet<String> knownLabels;
+
+    private final int commandCount;
+
+    private volatile boolean preprocessed;
+
+    /**
+     * @param knownLabels
+     *         Identifiers of all labels in the program. Lookups of other labels fail without parsing the program.
+     * @param commandCount
+     *         Number of commands in the program as recorded in the archive.
+     */
+    DeferredExecutableProgram(String programName, CharSequence programCode, ImmutableSet<String> knownLabels, int commandCount) {
+        this.knownLabels = knownLabels;
+        this.commandCount = commandCount;
+        setProgramName(programName);
+        setOriginalSource(programCode);
+    }
+
+    @Override
+    public List<TIBasicParser.CommandContext> getLabelCommands(String labelName) throws LabelNotFoundException {
+        if (!knownLabels.contains(labelName))
+            throw new LabelNotFoundException(-1, -1, programName, labelName);
+        ensurePreprocessed();
+        return super.getLabelCommands(labelName);
+    }
+
+    @Override
+    public int getCommandCount() {
+        if (!preprocessed)
+            return commandCount;
+        return super.getCommandCount();
+    }
+
+    @Override
+    Map<String, Integer> getLabelIndexes() {
+        ensurePreprocessed();
+        return super.getLabelIndexes();
+    }
+
+    @Override
+    public TIBasicParser.ProgramContext getMainProgramContext() {
+        ensurePreprocessed();
+        return super.getMainProgramContext();
+    }
+
+    /**
+     * Returns true if the program has already been parsed.
+     */
+    boolean isPreprocessed() {
+        return preprocessed;
+    }
+
+    private void ensurePreprocessed() {
+        if (preprocessed)
+            return;
+
+        synchronized (this) {
+            if (!preprocessed) {
+                LOGGER.debug("Preprocessing deferred program {}", programName);
+                ExecutableProgram program = new Preprocessor().preprocessProgramCode(programName, originalSource);
+                setMainProgramContext(program.mainProgramContext);
+                setInternalLabelMap(program.internalLabelMap);
+                preprocessed = true;
+            }
+        }
+    }
+}
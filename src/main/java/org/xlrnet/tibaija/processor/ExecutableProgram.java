@@ -22,9 +22,13 @@
 
 package org.xlrnet.tibaija.processor;
 
+import org.antlr.v4.runtime.Token;
+import org.jetbrains.annotations.NotNull;
 import org.xlrnet.tibaija.antlr.TIBasicParser;
 import org.xlrnet.tibaija.exception.LabelNotFoundException;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -44,6 +48,8 @@ public class ExecutableProgram {
 
     Map<String, List<TIBasicParser.CommandContext>> internalLabelMap;
 
+    CommandPositions commandPositions;
+
     public List<TIBasicParser.CommandContext> getLabelCommands(String labelName) throws LabelNotFoundException {
         List<TIBasicParser.CommandContext> commandListContext = internalLabelMap.get(labelName);
         if (commandListContext == null)
@@ -51,6 +57,74 @@ public class ExecutableProgram {
         return commandListContext;
     }
 
+    /**
+     * Returns the number of commands in the program.
+     */
+    public int getCommandCount() {
+        return getCommandPositions().size();
+    }
+
+    /**
+     * Returns the index of the label command for every label in the program.
+     */
+    Map<String, Integer> getLabelIndexes() {
+        Map<String, Integer> labelIndexes = new HashMap<>();
+        if (internalLabelMap != null) {
+            int commandCount = getCommandCount();
+            internalLabelMap.forEach((label, labelCommands) -> labelIndexes.put(label, commandCount - labelCommands.size()));
+        }
+        return labelIndexes;
+    }
+
+    /**
+     * Returns a compact version of this program that doesn't keep the parse tree in memory. The compact program only
+     * holds the source, the position of each command and the index of each label. Its parse tree will be rebuilt when
+     * the program is executed and may be reclaimed by the garbage collector afterwards. This program is not modified,
+     * so that running executions are not affected.
+     *
+     * @return A compact program with the same source or this program if it is already compact.
+     */
+    @NotNull
+    public ExecutableProgram compact() {
+        return new CompactExecutableProgram(programName, originalSource.toString(), getCommandPositions(), getLabelIndexes());
+    }
+
+    /**
+     * Returns true if the program doesn't keep its parse tree in memory.
+     */
+    public boolean isCompact() {
+        return false;
+    }
+
+    /**
+     * Estimates the number of bytes on the heap that are retained by this program, i.e. that could be reclaimed if the
+     * program was removed. Parts that are shared with other programs, e.g. commands of a previous version of an
+     * edited program, are counted for every program.
+     *
+     * @return The estimated retained size in bytes.
+     */
+    public long getRetainedBytes() {
+        long bytes = RetainedSize.OBJECT_HEADER + 5 * RetainedSize.REFERENCE;
+        bytes += RetainedSize.of(originalSource);
+        if (mainProgramContext != null)
+            bytes += RetainedSize.of(mainProgramContext);
+        if (commandPositions != null)
+            bytes += commandPositions.getRetainedBytes();
+        if (internalLabelMap != null)
+            bytes += RetainedSize.ofLabelMap(internalLabelMap.keySet(), RetainedSize.SUB_LIST);
+        return bytes;
+    }
+
+    /**
+     * Returns the position of every command in the original source. The positions will be taken from the parse tree
+     * when they are needed for the first time.
+     */
+    CommandPositions getCommandPositions() {
+        if (commandPositions == null)
+            commandPositions = CommandPositions.of(getMainProgramContext().commandList());
+        return commandPositions;
+    }
+
     public TIBasicParser.ProgramContext getMainProgramContext() {
         return mainProgramContext;
     }
@@ -78,4 +152,105 @@ public class ExecutableProgram {
     protected void setInternalLabelMap(Map<String, List<TIBasicParser.CommandContext>> internalLabelMap) {
         this.internalLabelMap = internalLabelMap;
     }
+
+    /**
+     * Offset, line and column of the separator in front of each command. The positions are kept separately from the
+     * tokens, since tokens of commands that have been taken over from a previous version of the program still carry
+     * their old offsets.
+     */
+    static final class CommandPositions {
+
+        private final int[] offsets;
+
+        private final int[] lines;
+
+        private final int[] columns;
+
+        private CommandPositions(int[] offsets, int[] lines, int[] columns) {
+            this.offsets = offsets;
+            this.lines = lines;
+            this.columns = columns;
+        }
+
+        static CommandPositions of(TIBasicParser.CommandListContext commandList) {
+            return of(commandList, 0);
+        }
+
+        private static CommandPositions of(TIBasicParser.CommandListContext commandList, int baseOffset) {
+            int size = commandList.SEPARATOR().size();
+            int[] offsets = new int[size];
+            int[] lines = new int[size];
+            int[] columns = new int[size];
+            for (int i = 0; i < size; i++) {
+                Token separator = commandList.SEPARATOR(i).getSymbol();
+                offsets[i] = baseOffset + separator.getStartIndex();
+                lines[i] = separator.getLine();
+                columns[i] = separator.getCharPositionInLine();
+            }
+            return new CommandPositions(offsets, lines, columns);
+        }
+
+        /**
+         * Returns the index of the command that contains the given offset of the source or -1 if the offset is before
+         * the first command.
+         */
+        int findCommand(int offset) {
+            int index = Arrays.binarySearch(offsets, offset);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        int getColumn(int command) {
+            return columns[command];
+        }
+
+        int getLine(int command) {
+            return lines[command];
+        }
+
+        int getOffset(int command) {
+            return offsets[command];
+        }
+
+        int size() {
+            return offsets.length;
+        }
+
+        long getRetainedBytes() {
+            return RetainedSize.OBJECT_HEADER + 3 * RetainedSize.REFERENCE + 3 * RetainedSize.ofIntArray(offsets.length);
+        }
+
+        /**
+         * Returns the positions after the commands from firstCommand (inclusive) to endCommand (exclusive) have been
+         * replaced with the given parsed code. The commands after the replaced ones must start on a line that hasn't
+         * been changed and the number of lines before them must be the same, so that only their offsets move.
+         *
+         * @param spanStart
+         *         Offset of the replaced commands in the source.
+         * @param changedCommandList
+         *         The parsed new commands. The tokens must have offsets relative to the start of the replaced commands
+         *         and absolute lines and columns.
+         * @param lengthDifference
+         *         Difference between the length of the new and the old source.
+         */
+        CommandPositions splice(int firstCommand, int endCommand, int spanStart, TIBasicParser.CommandListContext changedCommandList, int lengthDifference) {
+            CommandPositions changed = of(changedCommandList, spanStart);
+            int suffixCount = size() - endCommand;
+            int newSize = firstCommand + changed.size() + suffixCount;
+            int[] newOffsets = Arrays.copyOf(offsets, newSize);
+            int[] newLines = Arrays.copyOf(lines, newSize);
+            int[] newColumns = Arrays.copyOf(columns, newSize);
+
+            System.arraycopy(changed.offsets, 0, newOffsets, firstCommand, changed.size());
+            System.arraycopy(changed.lines, 0, newLines, firstCommand, changed.size());
+            System.arraycopy(changed.columns, 0, newColumns, firstCommand, changed.size());
+
+            int target = firstCommand + changed.size();
+            for (int i = endCommand; i < size(); i++, target++) {
+                newOffsets[target] = offsets[i] + lengthDifference;
+                newLines[target] = lines[i];
+                newColumns[target] = columns[i];
+            }
+            return new CommandPositions(newOffsets, newLines, newColumns);
+        }
+    }
 }
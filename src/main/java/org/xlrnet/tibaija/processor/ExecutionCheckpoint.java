@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.memory.CalculatorMemory;
+import org.xlrnet.tibaija.memory.MemorySnapshot;
+import org.xlrnet.tibaija.memory.ReadOnlyCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary format for checkpoints of a running program. A checkpoint contains the complete state of an {@link
+ * ProgramExecution} at a command boundary together with the whole calculator memory, so that the execution can be
+ * continued later or in another JVM.
+ * <p/>
+ * The format consists of a header with magic number and version, the source of the executed program, the {@link
+ * NumberMode} of the environment, the execution state, a {@link MemorySnapshot} of the calculator memory and a trailing
+ * CRC32 checksum over all previous bytes. Programs are stored as source code and will be preprocessed again when the
+ * checkpoint is restored.
+ */
+final class ExecutionCheckpoint {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionCheckpoint.class);
+
+    /**
+     * Magic number at the beginning of each checkpoint: "TIBC"
+     */
+    private static final int MAGIC = 0x54494243;
+
+    private static final short VERSION = 4;
+
+    private ExecutionCheckpoint() {
+        // No instances
+    }
+
+    /**
+     * Writes a checkpoint of the given execution together with the memory and number mode of the given environment to
+     * the given stream. The stream will not be closed.
+     */
+    static void write(@NotNull ProgramExecution execution, @NotNull ExecutionEnvironment environment, @NotNull OutputStream outputStream) throws IOException {
+        if (execution.isFinished())
+            throw new IllegalStateException("Cannot create a checkpoint of a finished program");
+
+        long startTime = System.nanoTime();
+        CheckedOutputStream checkedStream = new CheckedOutputStream(new BufferedOutputStream(outputStream), new CRC32());
+        DataOutputStream out = new DataOutputStream(checkedStream);
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+
+        ExecutableProgram program = execution.getProgram();
+        out.writeUTF(program.getProgramName().toString());
+        writeString(out, program.getOriginalSource());
+        out.writeByte(environment.getNumberMode().ordinal());
+
+        writeExecutionState(out, execution);
+        writeMemory(out, environment.getMemory());
+
+        out.flush();
+        out.writeLong(checkedStream.getChecksum().getValue());
+        out.flush();
+
+        LOGGER.debug("Created checkpoint of program {} in {} µs", program.getProgramName(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+    }
+
+    /**
+     * Reads a checkpoint from the given stream and restores it in the given environment. All variables in the memory of
+     * the environment and its number mode will be overwritten. Programs from the checkpoint that don't exist in the
+     * environment will be preprocessed and stored. The whole checkpoint is validated before the environment is changed,
+     * so that an invalid checkpoint leaves the environment untouched.
+     *
+     * @return A new execution that continues at the command where the checkpoint has been taken.
+     */
+    @NotNull
+    static ProgramExecution read(@NotNull InputStream inputStream, @NotNull ExecutionEnvironment environment, @NotNull FullTIBasicVisitor visitor) throws IOException {
+        CheckedInputStream checkedStream = new CheckedInputStream(new BufferedInputStream(inputStream), new CRC32());
+        DataInputStream in = new DataInputStream(checkedStream);
+
+        if (in.readInt() != MAGIC)
+            throw new IOException("Stream doesn't contain a TI-Basic checkpoint");
+        short version = in.readShort();
+        if (version != VERSION)
+            throw new IOException("Unsupported checkpoint version: " + version);
+
+        String programName = in.readUTF();
+        String programSource = readString(in);
+        NumberMode numberMode = readNumberMode(in);
+
+        ExecutionState state = new ExecutionState();
+        state.commandCounter = in.readInt();
+        state.executedCommands = in.readLong();
+        state.inputTargetIndex = in.readInt();
+        long elapsedNanos = in.readLong();
+        ExecutionLimits limits = new ExecutionLimits(in.readLong(), in.readLong(), TimeUnit.NANOSECONDS);
+        readFlowElements(in, state);
+
+        MemorySnapshot snapshot = readMemory(in);
+
+        long expectedChecksum = checkedStream.getChecksum().getValue();
+        if (in.readLong() != expectedChecksum)
+            throw new IOException("Checkpoint checksum mismatch");
+
+        // Validate all programs before anything is written to memory
+        Map<String, String> programSources = new LinkedHashMap<>(snapshot.getProgramSources());
+        if (!programSources.getOrDefault(programName, programSource).equals(programSource))
+            throw new IOException("Program " + programName + " differs from the snapshot in the checkpoint");
+        programSources.put(programName, programSource);
+        CalculatorMemory memory = environment.getWritableMemory();
+        Map<String, ExecutableProgram> missingPrograms = preprocessMissingPrograms(memory, programSources);
+
+        ExecutableProgram program = missingPrograms.containsKey(programName) ? missingPrograms.get(programName) : memory.getStoredProgram(programName);
+        if (state.commandCounter > program.getCommandCount())
+            throw new IOException("Command counter " + state.commandCounter + " is out of range");
+
+        missingPrograms.forEach(memory::storeProgram);
+        snapshot.restoreInto(memory);
+        environment.setNumberMode(numberMode);
+        visitor.setEnvironment(environment);
+        return new ProgramExecution(program, visitor, limits, state, elapsedNanos);
+    }
+
+    /**
+     * Preprocesses all programs that don't exist in the given memory yet without storing them.
+     *
+     * @throws IOException
+     *         Will be thrown if a program in memory has a different source than the one in the checkpoint.
+     */
+    @NotNull
+    private static Map<String, ExecutableProgram> preprocessMissingPrograms(@NotNull ReadOnlyCalculatorMemory memory, @NotNull Map<String, String> programSources) throws IOException {
+        Preprocessor preprocessor = new Preprocessor();
+        Map<String, ExecutableProgram> missingPrograms = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : programSources.entrySet()) {
+            String programName = entry.getKey();
+            if (memory.getStoredProgramNames().contains(programName)) {
+                if (!entry.getValue().equals(memory.getStoredProgram(programName).getOriginalSource().toString()))
+                    throw new IOException("Program " + programName + " in memory differs from the checkpoint");
+            } else {
+                missingPrograms.put(programName, preprocessor.preprocessProgramCode(programName, entry.getValue()));
+            }
+        }
+        return missingPrograms;
+    }
+
+    private static void writeExecutionState(@NotNull DataOutputStream out, @NotNull ProgramExecution execution) throws IOException {
+        ExecutionState state = execution.getState();
+        out.writeInt(state.commandCounter);
+        out.writeLong(state.executedCommands);
+        // A pending input can't be stored -> the input will be requested again after restoring
+        out.writeInt(state.inputTargetIndex);
+        out.writeLong(execution.getElapsedNanos());
+        out.writeLong(execution.getLimits().getMaxCommands());
+        out.writeLong(execution.getLimits().getMaxWallClockNanos());
+
+        out.writeInt(state.flowElementStack.size());
+        for (ControlFlowElement element : state.flowElementStack) {
+            out.writeByte(element.getToken().ordinal());
+            out.writeInt(element.getLine());
+            out.writeInt(element.getCharIndex());
+            out.writeInt(element.getCommandIndex());
+            out.writeBoolean(element.getLastEvaluation());
+            out.writeBoolean(element.isRepeatable());
+            if (element.getToken() == ControlFlowElement.ControlFlowToken.FOR) {
+                // Bounds of For( loops are always real numbers
+                out.writeDouble(element.getLoopEnd().complex().getReal());
+                out.writeDouble(element.getLoopStep().complex().getReal());
+            }
+        }
+        out.writeInt(state.skipCommandsStack.size());
+        for (ControlFlowElement.ControlFlowToken token : state.skipCommandsStack) {
+            out.writeByte(token.ordinal());
+        }
+    }
+
+    private static void readFlowElements(@NotNull DataInputStream in, @NotNull ExecutionState state) throws IOException {
+        int flowElementCount = in.readInt();
+        for (int i = 0; i < flowElementCount; i++) {
+            ControlFlowElement.ControlFlowToken token = readToken(in);
+            int line = in.readInt();
+            int charIndex = in.readInt();
+            int commandIndex = in.readInt();
+            boolean lastEvaluation = in.readBoolean();
+            boolean repeatable = in.readBoolean();
+            ControlFlowElement element = new ControlFlowElement(line, charIndex, token, lastEvaluation, repeatable);
+            element.setCommandIndex(commandIndex);
+            if (token == ControlFlowElement.ControlFlowToken.FOR)
+                element.setLoopBounds(Value.of(in.readDouble()), Value.of(in.readDouble()));
+            state.flowElementStack.push(element);
+        }
+        int skipTokenCount = in.readInt();
+        for (int i = 0; i < skipTokenCount; i++) {
+            state.skipCommandsStack.push(readToken(in));
+        }
+    }
+
+    @NotNull
+    private static ControlFlowElement.ControlFlowToken readToken(@NotNull DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        ControlFlowElement.ControlFlowToken[] tokens = ControlFlowElement.ControlFlowToken.values();
+        if (ordinal >= tokens.length)
+            throw new IOException("Invalid control flow token: " + ordinal);
+        return tokens[ordinal];
+    }
+
+    @NotNull
+    private static NumberMode readNumberMode(@NotNull DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        NumberMode[] numberModes = NumberMode.values();
+        if (ordinal >= numberModes.length)
+            throw new IOException("Invalid number mode: " + ordinal);
+        return numberModes[ordinal];
+    }
+
+    private static void writeMemory(@NotNull DataOutputStream out, @NotNull ReadOnlyCalculatorMemory memory) throws IOException {
+        ByteBuffer snapshot = MemorySnapshot.of(memory).toByteBuffer();
+        out.writeInt(snapshot.remaining());
+        out.write(snapshot.array(), snapshot.arrayOffset() + snapshot.position(), snapshot.remaining());
+    }
+
+    @NotNull
+    private static MemorySnapshot readMemory(@NotNull DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            throw new IOException("Invalid snapshot length: " + length);
+        byte[] snapshot = new byte[length];
+        in.readFully(snapshot);
+        return MemorySnapshot.read(ByteBuffer.wrap(snapshot));
+    }
+
+    /**
+     * Program sources may be longer than the 64K supported by {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static void writeString(@NotNull DataOutputStream out, @NotNull CharSequence charSequence) throws IOException {
+        byte[] bytes = charSequence.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @NotNull
+    private static String readString(@NotNull DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            throw new IOException("Invalid string length: " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
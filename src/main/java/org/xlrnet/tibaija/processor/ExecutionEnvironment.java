@@ -23,7 +23,9 @@
 package org.xlrnet.tibaija.processor;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.xlrnet.tibaija.VirtualCalculator;
 import org.xlrnet.tibaija.exception.CommandNotFoundException;
 import org.xlrnet.tibaija.exception.DuplicateCommandException;
@@ -33,9 +35,19 @@ import org.xlrnet.tibaija.memory.CalculatorMemory;
 import org.xlrnet.tibaija.memory.ReadOnlyCalculatorMemory;
 import org.xlrnet.tibaija.memory.Value;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This class provides the main environment where programs and functions get executed.
@@ -48,6 +60,12 @@ public class ExecutionEnvironment {
 
     Map<String, Command> commandMap = new HashMap<>();
 
+    NumberMode numberMode = NumberMode.BINARY;
+
+    private ForkJoinPool parallelLoopPool;
+
+    private final Set<Integer> parallelizedLoopLines = new LinkedHashSet<>();
+
     private ExecutionEnvironment(CalculatorMemory memory, CalculatorIO calculatorIO) {
         this.memory = memory;
         this.calculatorIO = calculatorIO;
@@ -99,6 +117,76 @@ public class ExecutionEnvironment {
         return memory;
     }
 
+    /**
+     * Returns the mode in which commands calculate with real numbers. The default is {@link NumberMode#BINARY}.
+     */
+    @NotNull
+    public NumberMode getNumberMode() {
+        return numberMode;
+    }
+
+    /**
+     * Set the mode in which commands calculate with real numbers. The mode affects all commands that are executed
+     * afterwards.
+     *
+     * @param numberMode
+     *         The new number mode.
+     */
+    public void setNumberMode(@NotNull NumberMode numberMode) {
+        this.numberMode = numberMode;
+    }
+
+    /**
+     * Returns the pool in which independent iterations of For( loops are executed or null if parallel loops are
+     * disabled. Parallel loops are disabled by default.
+     */
+    @Nullable
+    public ForkJoinPool getParallelLoopPool() {
+        return parallelLoopPool;
+    }
+
+    /**
+     * Enable or disable the parallel execution of For( loops. If a pool is set, the body of each For( loop will be
+     * analyzed when the loop is entered. Loops whose iterations don't depend on each other will then be executed in
+     * the given pool. A loop body is independent if it contains only commands without I/O or control flow, writes only
+     * to the element of a list at the index of the loop variable and reads every other variable it writes only after
+     * writing it in the same iteration. The results are exactly the same as with sequential execution.
+     *
+     * @param parallelLoopPool
+     *         The pool for parallel loops or null to disable parallel loops.
+     */
+    public void setParallelLoopPool(@Nullable ForkJoinPool parallelLoopPool) {
+        this.parallelLoopPool = parallelLoopPool;
+    }
+
+    /**
+     * Returns the line numbers of all For( loops that have been executed in parallel so far.
+     */
+    @NotNull
+    public ImmutableSet<Integer> getParallelizedLoopLines() {
+        return ImmutableSet.copyOf(parallelizedLoopLines);
+    }
+
+    void reportParallelizedLoop(int line) {
+        parallelizedLoopLines.add(line);
+    }
+
+    /**
+     * Create an environment that uses the same commands, I/O device and number mode as this environment, but works on
+     * the given memory. Parallel loops are always disabled in the new environment.
+     * <p/>
+     * The commands are still bound to this environment, so that a command which accesses the memory through {@link
+     * Command#getEnvironment()} reads and writes the memory of this environment instead of the given one. Only commands
+     * that work on their arguments alone may be executed in the new environment.
+     */
+    @NotNull
+    ExecutionEnvironment withMemory(@NotNull CalculatorMemory memory) {
+        ExecutionEnvironment environment = new ExecutionEnvironment(memory, calculatorIO);
+        environment.commandMap = commandMap;
+        environment.numberMode = numberMode;
+        return environment;
+    }
+
     /**
      * Register a command or function in the execution environment. All programs and other commands or functions can
      * run the new command once it has been registered. Every command may only be associated with at most one execution
@@ -132,8 +220,105 @@ public class ExecutionEnvironment {
      *         Will be thrown on errors while executing the program
      */
     public void run(@NotNull ExecutableProgram program, @NotNull FullTIBasicVisitor visitor) throws TIRuntimeException {
+        newExecution(program, visitor, ExecutionLimits.UNLIMITED).run();
+    }
+
+    /**
+     * Run a program that is read from the given reader while it is executed. Every command will be parsed right
+     * before it is executed and dropped afterwards, so that the memory needed does not depend on the length of the
+     * program. This is meant for very long generated programs. Since commands that have already been executed are not
+     * available anymore, the program may not contain any loops, labels or Goto. Conditions are fully supported.
+     * <p/>
+     * Commands are executed as soon as the following command has been read. If the stream contains an invalid command,
+     * all commands except the last one before it have already been executed when the error is thrown.
+     *
+     * @param reader
+     *         Reader for the source of the program. The reader will not be closed.
+     * @param visitor
+     *         The visitor implementation that should run this program.
+     * @throws IOException
+     *         Will be thrown if reading the program fails.
+     * @throws TIRuntimeException
+     *         Will be thrown on errors while preprocessing or executing the program.
+     */
+    public void runStreaming(@NotNull Reader reader, @NotNull FullTIBasicVisitor visitor) throws IOException, TIRuntimeException {
+        visitor.setEnvironment(this);
+        new StreamingExecution(new CommandStream(reader, new Preprocessor()), visitor).run();
+    }
+
+    /**
+     * Run a program file with {@link #runStreaming(Reader, FullTIBasicVisitor)}. The file must contain the plain
+     * program source in UTF-8.
+     *
+     * @param programFile
+     *         Path to the source of the program.
+     * @param visitor
+     *         The visitor implementation that should run this program.
+     * @throws IOException
+     *         Will be thrown if reading the program fails.
+     * @throws TIRuntimeException
+     *         Will be thrown on errors while preprocessing or executing the program.
+     */
+    public void runStreaming(@NotNull Path programFile, @NotNull FullTIBasicVisitor visitor) throws IOException, TIRuntimeException {
+        try (Reader reader = Files.newBufferedReader(programFile, StandardCharsets.UTF_8)) {
+            runStreaming(reader, visitor);
+        }
+    }
+
+    /**
+     * Prepare a new execution of the given {@link org.xlrnet.tibaija.processor.ExecutableProgram} inside this
+     * environment without running any command. The returned execution can be advanced step by step, which allows
+     * interrupting the program at command boundaries.
+     *
+     * @param program
+     *         The program to run.
+     * @param visitor
+     *         The visitor implementation that should run this program.
+     * @param limits
+     *         The limits after which the program will be terminated.
+     * @return A new execution that has not yet been started.
+     */
+    @NotNull
+    public ProgramExecution newExecution(@NotNull ExecutableProgram program, @NotNull FullTIBasicVisitor visitor, @NotNull ExecutionLimits limits) {
         visitor.setEnvironment(this);
-        visitor.visit(program.getMainProgramContext());
+        return new ProgramExecution(program, visitor, limits);
+    }
+
+    /**
+     * Write a checkpoint of the given execution to a stream. The checkpoint contains the current position and control
+     * flow state of the execution as well as the complete memory and the number mode of this environment. It may only
+     * be taken between two steps of the execution. If the program currently waits for input, the input will be
+     * requested again after the checkpoint has been restored.
+     *
+     * @param execution
+     *         The execution which should be saved. Must be running inside this environment.
+     * @param outputStream
+     *         The stream to which the checkpoint will be written. The stream will not be closed.
+     * @throws IOException
+     *         Will be thrown if writing to the stream fails.
+     */
+    public void writeCheckpoint(@NotNull ProgramExecution execution, @NotNull OutputStream outputStream) throws IOException {
+        ExecutionCheckpoint.write(execution, this, outputStream);
+    }
+
+    /**
+     * Restore a checkpoint that has been created with {@link #writeCheckpoint(ProgramExecution, OutputStream)}. All
+     * variables and the number mode of this environment will be overwritten with the values from the checkpoint and
+     * missing programs will be stored in memory. The returned execution continues exactly at the command where the
+     * checkpoint has been taken.
+     *
+     * @param inputStream
+     *         The stream from which the checkpoint will be read. The stream will not be closed.
+     * @param visitor
+     *         The visitor implementation that should continue the program.
+     * @return A new execution that continues the saved program.
+     * @throws IOException
+     *         Will be thrown if the stream doesn't contain a valid checkpoint or if a stored program differs from the
+     *         one in the checkpoint.
+     */
+    @NotNull
+    public ProgramExecution restoreCheckpoint(@NotNull InputStream inputStream, @NotNull FullTIBasicVisitor visitor) throws IOException {
+        return ExecutionCheckpoint.read(inputStream, this, visitor);
     }
 
     /**
@@ -159,6 +344,14 @@ public class ExecutionEnvironment {
         return command.execute(argumentList);
     }
 
+    /**
+     * Returns the command that has been registered with the given name or null if there is no such command.
+     */
+    @Nullable
+    Command getCommand(@NotNull String commandName) {
+        return commandMap.get(commandName);
+    }
+
     /**
      * Return a reference to the writable memory of this environment.
      *
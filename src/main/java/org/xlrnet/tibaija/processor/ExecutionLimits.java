@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable set of limits for a single program execution. A program that exceeds any of its limits will be terminated
+ * with an {@link org.xlrnet.tibaija.exception.ExecutionLimitExceededException}. A limit of zero means that the
+ * according resource is not limited.
+ */
+public final class ExecutionLimits {
+
+    /**
+     * Limits that allow a program to run forever.
+     */
+    public static final ExecutionLimits UNLIMITED = new ExecutionLimits(0, 0, TimeUnit.MILLISECONDS);
+
+    private final long maxCommands;
+
+    private final long maxWallClockNanos;
+
+    /**
+     * Create a new set of execution limits.
+     *
+     * @param maxCommands
+     *         Total number of commands the program may execute. Skipped commands count as well. Zero for no limit.
+     * @param maxWallClockTime
+     *         Maximum time the program may take from its first to its last command. Time spent waiting for input
+     *         doesn't count. Zero for no limit.
+     * @param unit
+     *         Time unit of the wall clock limit.
+     */
+    public ExecutionLimits(long maxCommands, long maxWallClockTime, TimeUnit unit) {
+        if (maxCommands < 0 || maxWallClockTime < 0)
+            throw new IllegalArgumentException("Limits may not be negative");
+        this.maxCommands = maxCommands;
+        this.maxWallClockNanos = unit.toNanos(maxWallClockTime);
+    }
+
+    public long getMaxCommands() {
+        return maxCommands;
+    }
+
+    public long getMaxWallClockNanos() {
+        return maxWallClockNanos;
+    }
+
+    public boolean hasCommandLimit() {
+        return maxCommands > 0;
+    }
+
+    public boolean hasWallClockLimit() {
+        return maxWallClockNanos > 0;
+    }
+
+    public boolean isUnlimited() {
+        return !hasCommandLimit() && !hasWallClockLimit();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Explicit state of a running command list. Between two commands, this object contains everything that is needed to
+ * continue the execution of a program, so that a program may be interrupted at any command boundary.
+ */
+class ExecutionState {
+
+    /**
+     * Index of the next command to execute.
+     */
+    int commandCounter;
+
+    /**
+     * Total number of commands that have been executed or skipped so far.
+     */
+    long executedCommands;
+
+    final Stack<ControlFlowElement> flowElementStack = new Stack<>();
+
+    final Stack<ControlFlowElement.ControlFlowToken> skipCommandsStack = new Stack<>();
+
+    /**
+     * Input that has been requested by the current command but has not yet been consumed. If this future is not done,
+     * the program is suspended.
+     */
+    CompletableFuture<String> pendingInput;
+
+    /**
+     * Index of the next variable that will be read by the current input command, e.g. for Prompt A,B,C.
+     */
+    int inputTargetIndex;
+
+    /**
+     * Blocks until the pending input is available. Errors will not be thrown here but when the input is consumed.
+     */
+    void awaitInput() {
+        if (pendingInput != null)
+            pendingInput.handle((input, throwable) -> input).join();
+    }
+
+}
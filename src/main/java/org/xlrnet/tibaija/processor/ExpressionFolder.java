@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+
+import java.util.List;
+
+/**
+ * Folds the operator rules of an expression parse tree into a tree of operator nodes. The operators are visited in the
+ * same order and with the same associativity as in {@link FullTIBasicVisitor}. All values that are not built from
+ * operators (e.g. numbers, variables, lists or imaginary numbers) are passed to {@link #leaf(ParseTree)}.
+ * <p/>
+ * Implementations may return null for any node that they don't support. The parent of such a node will then be null
+ * as well without calling the implementation.
+ *
+ * @param <N>
+ *         Type of the folded nodes.
+ */
+abstract class ExpressionFolder<N> {
+
+    /**
+     * Fold the given expression or any of its operator subrules.
+     *
+     * @param tree
+     *         The tree to fold.
+     * @return The folded node or null if any of its nodes is not supported.
+     */
+    @Nullable
+    public N fold(@NotNull ParseTree tree) {
+        if (tree instanceof TIBasicParser.ExpressionContext)
+            return fold(((TIBasicParser.ExpressionContext) tree).expression_conv());
+        if (tree instanceof TIBasicParser.Expression_convContext)
+            return fold(((TIBasicParser.Expression_convContext) tree).expression_xor());
+        if (tree instanceof TIBasicParser.Expression_xorContext)
+            return foldChain(((TIBasicParser.Expression_xorContext) tree).operators, ((TIBasicParser.Expression_xorContext) tree).expression_or());
+        if (tree instanceof TIBasicParser.Expression_orContext)
+            return foldChain(((TIBasicParser.Expression_orContext) tree).operators, ((TIBasicParser.Expression_orContext) tree).expression_and());
+        if (tree instanceof TIBasicParser.Expression_andContext)
+            return foldChain(((TIBasicParser.Expression_andContext) tree).operators, ((TIBasicParser.Expression_andContext) tree).expression_compare());
+        if (tree instanceof TIBasicParser.Expression_compareContext)
+            return foldChain(((TIBasicParser.Expression_compareContext) tree).operators, ((TIBasicParser.Expression_compareContext) tree).expression_plus_minus());
+        if (tree instanceof TIBasicParser.Expression_plus_minusContext)
+            return foldChain(((TIBasicParser.Expression_plus_minusContext) tree).operators, ((TIBasicParser.Expression_plus_minusContext) tree).expression_mul_div());
+        if (tree instanceof TIBasicParser.Expression_mul_divContext)
+            return foldChain(((TIBasicParser.Expression_mul_divContext) tree).operators, ((TIBasicParser.Expression_mul_divContext) tree).expression_infix());
+        if (tree instanceof TIBasicParser.Expression_infixContext)
+            return foldChain(((TIBasicParser.Expression_infixContext) tree).operators, ((TIBasicParser.Expression_infixContext) tree).expression_negation());
+        if (tree instanceof TIBasicParser.Expression_power_rootContext)
+            return foldChain(((TIBasicParser.Expression_power_rootContext) tree).operators, ((TIBasicParser.Expression_power_rootContext) tree).expression_postfix());
+        if (tree instanceof TIBasicParser.Expression_negationContext) {
+            TIBasicParser.Expression_negationContext ctx = (TIBasicParser.Expression_negationContext) tree;
+            N operand = fold(ctx.expression_power_root());
+            if (operand == null || ctx.NEGATIVE_MINUS() == null)
+                return operand;
+            return negation(operand);
+        }
+        if (tree instanceof TIBasicParser.Expression_postfixContext) {
+            TIBasicParser.Expression_postfixContext ctx = (TIBasicParser.Expression_postfixContext) tree;
+            if (ctx.expression_preeval() == null)
+                return leaf(ctx);           // Imaginary numbers have their own postfix logic
+            N operand = fold(ctx.expression_preeval());
+            for (int i = 0; i < ctx.operators.size() && operand != null; i++)
+                operand = unary(ctx.operators.get(i), operand);
+            return operand;
+        }
+        if (tree instanceof TIBasicParser.Expression_preevalContext)
+            return fold(tree.getChild(0));
+        if (tree instanceof TIBasicParser.Expression_prefixContext) {
+            TIBasicParser.Expression_prefixContext ctx = (TIBasicParser.Expression_prefixContext) tree;
+            N operand = fold(ctx.expression_xor());
+            if (operand == null || ctx.operator == null)
+                return operand;
+            return unary(ctx.operator, operand);
+        }
+        if (tree instanceof TIBasicParser.Expression_valueContext) {
+            TIBasicParser.Expression_valueContext ctx = (TIBasicParser.Expression_valueContext) tree;
+            if (ctx.expression() != null)
+                return fold(ctx.expression());
+        }
+        return leaf(tree);
+    }
+
+    @Nullable
+    private N foldChain(@NotNull List<String> operators, @NotNull List<? extends ParseTree> operands) {
+        N lhs = fold(operands.get(0));
+        for (int i = 1; i < operands.size() && lhs != null; i++) {
+            N rhs = fold(operands.get(i));
+            if (rhs == null)
+                return null;
+            lhs = binary(operators.get(i - 1), lhs, rhs);
+        }
+        return lhs;
+    }
+
+    /**
+     * Create a node for a binary operator.
+     *
+     * @param operator
+     *         Name of the operator as it is registered in the environment.
+     * @param lhs
+     *         The left operand.
+     * @param rhs
+     *         The right operand.
+     * @return A new node or null if the operator is not supported.
+     */
+    @Nullable
+    protected abstract N binary(@NotNull String operator, @NotNull N lhs, @NotNull N rhs);
+
+    /**
+     * Create a node for a prefix or postfix operator.
+     *
+     * @param operator
+     *         Name of the operator as it is registered in the environment.
+     * @param operand
+     *         The operand.
+     * @return A new node or null if the operator is not supported.
+     */
+    @Nullable
+    protected abstract N unary(@NotNull String operator, @NotNull N operand);
+
+    /**
+     * Create a node for a negation with the negative minus, which is a multiplication with -1.
+     */
+    @Nullable
+    protected abstract N negation(@NotNull N operand);
+
+    /**
+     * Create a node for a value that is not built from operators. The given tree is usually an {@link
+     * TIBasicParser.Expression_valueContext}, but may be any context that can be evaluated by the visitor.
+     */
+    @Nullable
+    protected abstract N leaf(@NotNull ParseTree tree);
+}
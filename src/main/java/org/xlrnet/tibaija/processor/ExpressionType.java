@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+/**
+ * Statically inferred type of the result of an expression. See {@link TypeInference}.
+ */
+enum ExpressionType {
+
+    /**
+     * A number without imaginary part.
+     */
+    REAL,
+
+    /**
+     * A number that may have an imaginary part.
+     */
+    COMPLEX,
+
+    /**
+     * A list of numbers.
+     */
+    LIST,
+
+    /**
+     * The type can't be decided before the expression is evaluated, e.g. because it depends on Ans.
+     */
+    UNKNOWN;
+
+    /**
+     * Returns true if the expression always evaluates to a number.
+     */
+    boolean isNumber() {
+        return this == REAL || this == COMPLEX;
+    }
+}
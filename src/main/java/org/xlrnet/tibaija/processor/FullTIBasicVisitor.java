@@ -22,25 +22,44 @@
 
 package org.xlrnet.tibaija.processor;
 
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.misc.NotNull;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.apache.commons.lang3.EnumUtils;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xlrnet.tibaija.antlr.TIBasicBaseVisitor;
 import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.commands.BinaryCommand;
+import org.xlrnet.tibaija.commands.UnaryCommand;
 import org.xlrnet.tibaija.exception.IllegalControlFlowException;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.exception.TIInputException;
 import org.xlrnet.tibaija.exception.TIStopException;
+import org.xlrnet.tibaija.io.CalculatorIO;
+import org.xlrnet.tibaija.memory.Matrix;
 import org.xlrnet.tibaija.memory.Value;
 import org.xlrnet.tibaija.memory.Variables;
 import org.xlrnet.tibaija.util.ContextUtils;
+import org.xlrnet.tibaija.util.SortUtils;
 import org.xlrnet.tibaija.util.TIMathUtils;
+import org.xlrnet.tibaija.util.ValueUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Stack;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 /**
@@ -52,6 +71,31 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
 
     ExecutionEnvironment environment;
 
+    private Preprocessor inputPreprocessor;
+
+    /**
+     * Fused operator trees of all expressions that have been evaluated so far. The fused expressions don't reference
+     * their contexts, so that commands which are not used anymore can still be collected.
+     */
+    private final Map<TIBasicParser.ExpressionContext, Optional<FusedListExpression>> fusedExpressions = new WeakHashMap<>();
+
+    /**
+     * Compiled conditions of all If, While and Repeat statements that have been evaluated in the current environment.
+     */
+    private final Map<TIBasicParser.ExpressionContext, Optional<CompiledCondition>> compiledConditions = new WeakHashMap<>();
+
+    /**
+     * Statically inferred types of all operands that have been evaluated so far. Operators whose operand types are
+     * known skip the dynamic type checks of their commands.
+     */
+    private final Map<ParseTree, ExpressionType> expressionTypes = new WeakHashMap<>();
+
+    /**
+     * Results of the dependence analysis of all For( loops that have been entered while parallel loops were enabled.
+     * The loops don't reference their commands, so that commands which are not used anymore can still be collected.
+     */
+    private final Map<TIBasicParser.CommandContext, Optional<ParallelForLoop>> parallelLoops = new WeakHashMap<>();
+
     /**
      * Sets the internal execution environment.
      *
@@ -59,16 +103,29 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
      *         The new execution environment.
      */
     final public void setEnvironment(ExecutionEnvironment environment) {
+        if (this.environment != environment)
+            compiledConditions.clear();         // Conditions depend on the commands of the environment
         this.environment = environment;
     }
 
     @Override
     public Object visitCallStatement(@NotNull TIBasicParser.CallStatementContext ctx) {
-        return super.visitCallStatement(ctx);
+        // Disp only prints its argument and doesn't change the last result
+        Value value = (Value) ctx.expression().accept(this);
+        environment.getCalculatorIO().printLine(value);
+        return null;
     }
 
     @Override
     public Object visitCommand(@NotNull TIBasicParser.CommandContext ctx) {
+        if (ctx.superinstruction != null) {
+            Value value = ctx.superinstruction.execute(environment);
+            if (value != null) {
+                environment.getWritableMemory().setLastResult(value);
+                return Optional.of(value);
+            }
+        }
+
         Object result = null;
         if (ctx.expressionParent() != null) {
             result = ctx.expressionParent().accept(this);
@@ -77,8 +134,8 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
         }
 
         if (result instanceof Optional) {
-            Value lastResult = (Value) ((Optional) result).get();
-            environment.getWritableMemory().setLastResult(lastResult);
+            if (((Optional) result).isPresent())
+                environment.getWritableMemory().setLastResult((Value) ((Optional) result).get());
         } else if (result != null) {
             LOGGER.debug("Command returned object of type {} with value {}", result.getClass().getSimpleName(), result);
         }
@@ -92,31 +149,9 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
 
     @Override
     public Object visitCommandList(@NotNull TIBasicParser.CommandListContext ctx) {
-        final List<TIBasicParser.CommandContext> commandList = ctx.command();
-        final int commandListSize = commandList.size();
-
-        Stack<ControlFlowElement> flowElementStack = new Stack<>();
-        Stack<ControlFlowElement.ControlFlowToken> skipCommandsStack = new Stack<>();
-
-        try {
-            for (int commandCounter = 0; commandCounter < commandListSize; commandCounter++) {
-                final TIBasicParser.CommandContext nextCommand = commandList.get(commandCounter);
-
-                // Skipping logic
-                if (!skipCommandsStack.empty()) {
-                    if (nextCommand.isControlFlowStatement) {
-                        commandCounter = internalHandleSkipFlowLogic(commandCounter, commandList, skipCommandsStack, nextCommand);
-                    } else {
-                        LOGGER.debug("Skipping command {}", commandCounter);
-                    }
-                } else if (nextCommand.isControlFlowStatement) {
-                    commandCounter = internalHandleControlFlowLogic(commandCounter, commandList, flowElementStack, skipCommandsStack, nextCommand);
-                } else {
-                    nextCommand.accept(this);
-                }
-            }
-        } catch (TIStopException stop) {
-            LOGGER.debug("Forced program stop in line {} at char {}", stop.getLinenumber(), stop.getCharInLine());
+        ExecutionState state = new ExecutionState();
+        while (executeCommands(ctx.command(), state, Long.MAX_VALUE) == ProgramExecution.Status.SUSPENDED) {
+            state.awaitInput();
         }
         return null;
     }
@@ -142,6 +177,14 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
 
     @Override
     public Object visitExpression(@NotNull TIBasicParser.ExpressionContext ctx) {
+        Optional<FusedListExpression> fusedExpression = fusedExpressions.get(ctx);
+        if (fusedExpression == null) {
+            fusedExpression = Optional.ofNullable(FusedListExpression.compile(ctx));
+            fusedExpressions.put(ctx, fusedExpression);
+        }
+        if (fusedExpression.isPresent())
+            return fusedExpression.get().evaluate(ctx, this, environment);
+
         // Nothing to do here -> just return the value ...
         return super.visitExpression(ctx);
     }
@@ -191,7 +234,7 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
         if (ctx.NEGATIVE_MINUS() == null)
             return lhs;                 // Return left hand side if no negation is wanted
         Value rhs = Value.NEGATIVE_ONE;
-        return environment.runRegisteredCommand("*", lhs, rhs).get();
+        return applyBinaryOperator("*", lhs, getExpressionType(ctx.expression_power_root()), rhs, ExpressionType.REAL);
     }
 
     @Override
@@ -215,8 +258,11 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
         if (ctx.expression_preeval() != null) {
             // Run regular right-associative postfix logic without imaginary parts
             Value expressionValue = (Value) ctx.expression_preeval().accept(this);
+            if (operators.isEmpty())
+                return expressionValue;
+            boolean isTypeKnown = getExpressionType(ctx.expression_preeval()) != ExpressionType.UNKNOWN;
             for (String op : operators)
-                expressionValue = environment.runRegisteredCommand(op, expressionValue).get();
+                expressionValue = applyUnaryOperator(op, expressionValue, isTypeKnown);
             return expressionValue;
         } else {
             // Run imaginary logic -> e.g. ii²² == i(i²)²
@@ -257,7 +303,7 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
     public Value visitExpression_prefix(@NotNull TIBasicParser.Expression_prefixContext ctx) {
         Value lhs = (Value) ctx.expression_xor().accept(this);
         if (ctx.operator != null)
-            return environment.runRegisteredCommand(ctx.operator, lhs).get();
+            return applyUnaryOperator(ctx.operator, lhs, getExpressionType(ctx.expression_xor()) != ExpressionType.UNKNOWN);
         return lhs;
     }
 
@@ -277,8 +323,27 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
     }
 
     @Override
-    public Object visitForStatement(@NotNull TIBasicParser.ForStatementContext ctx) {
-        return super.visitForStatement(ctx);
+    public ControlFlowElement visitForStatement(@NotNull TIBasicParser.ForStatementContext ctx) {
+        final int line = ctx.FOR().getSymbol().getLine();
+        final int startIndex = ctx.FOR().getSymbol().getCharPositionInLine();
+
+        // Bounds and increment are evaluated only once when the loop is entered
+        Value begin = (Value) ctx.expression(0).accept(this);
+        Value end = (Value) ctx.expression(1).accept(this);
+        Value step = ctx.expression().size() > 2 ? (Value) ctx.expression(2).accept(this) : Value.of(1);
+        checkLoopBounds(begin, end, step);
+
+        Variables.NumberVariable variable = Variables.resolveNumberVariable(ctx.numericalVariable().getText());
+        environment.getWritableMemory().setNumberVariableValue(variable, begin);
+
+        ControlFlowElement flowElement = new ControlFlowElement(line, startIndex, ControlFlowElement.ControlFlowToken.FOR, isWithinLoopBounds(begin, end, step), false);
+        flowElement.setLoopBounds(end, step);
+        return flowElement;
+    }
+
+    @Override
+    public Value visitFunctionCall(@NotNull TIBasicParser.FunctionCallContext ctx) {
+        return runFunction(ctx.function.getText(), ctx.expression());
     }
 
     @Override
@@ -291,12 +356,24 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
         final int line = ctx.IF().getSymbol().getLine();
         final int startIndex = ctx.IF().getSymbol().getCharPositionInLine();
 
-        Value value = (Value) ctx.expression().accept(this);
-        boolean lastEvaluation = value.bool();
+        boolean lastEvaluation = evaluateCondition(ctx.getParent(), ctx.expression());
 
         return new ControlFlowElement(line, startIndex, ControlFlowElement.ControlFlowToken.IF, lastEvaluation, false);
     }
 
+    @Override
+    public Value visitGetKey(@NotNull TIBasicParser.GetKeyContext ctx) {
+        return Value.of(environment.getCalculatorIO().getKey());
+    }
+
+    @Override
+    public Value visitListElement(@NotNull TIBasicParser.ListElementContext ctx) {
+        Value list = environment.getMemory().getListVariableValue(ctx.listVariable().listIdentifier().getText());
+        Value index = (Value) ctx.expression().accept(this);
+        int elementIndex = ValueUtils.checkListIndex(index, list.list().size());
+        return Value.of(list.list().get(elementIndex - 1));
+    }
+
     @Override
     public Object visitLabelIdentifier(@NotNull TIBasicParser.LabelIdentifierContext ctx) {
         return super.visitLabelIdentifier(ctx);
@@ -332,6 +409,45 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
         throw new UnsupportedOperationException("This shouldn't happen");
     }
 
+    @Override
+    public Value visitMatrixElement(@NotNull TIBasicParser.MatrixElementContext ctx) {
+        Matrix matrix = ((Value) ctx.matrixVariable().accept(this)).matrix();
+        int row = ValueUtils.checkListIndex((Value) ctx.expression(0).accept(this), matrix.getRows());
+        int column = ValueUtils.checkListIndex((Value) ctx.expression(1).accept(this), matrix.getColumns());
+        return Value.of(matrix.get(row - 1, column - 1));
+    }
+
+    @Override
+    public Value visitMatrixExpression(@NotNull TIBasicParser.MatrixExpressionContext ctx) {
+        List<TIBasicParser.MatrixRowContext> rows = ctx.matrixRow();
+        int columns = rows.get(0).expression().size();
+        double[] elements = new double[rows.size() * columns];
+
+        for (int row = 0; row < rows.size(); row++) {
+            List<TIBasicParser.ExpressionContext> expressions = rows.get(row).expression();
+            if (expressions.size() != columns)
+                throw new TIArgumentException("Invalid dimension", rows.size(), expressions.size());
+            for (int column = 0; column < columns; column++) {
+                Value element = (Value) expressions.get(column).accept(this);
+                ValueUtils.checkValueType(element, Variables.VariableType.NUMBER);
+                if (element.hasImaginaryValue())
+                    throw new TIArgumentException("Matrix elements must be real numbers", element);
+                elements[row * columns + column] = element.complex().getReal();
+            }
+        }
+        return Value.of(Matrix.wrap(rows.size(), columns, elements));
+    }
+
+    @Override
+    public Value visitMatrixValue(@NotNull TIBasicParser.MatrixValueContext ctx) {
+        return (Value) ctx.getChild(0).accept(this);        // Automatically pass-through the next value
+    }
+
+    @Override
+    public Value visitMatrixVariable(@NotNull TIBasicParser.MatrixVariableContext ctx) {
+        return environment.getMemory().getMatrixVariableValue(Variables.resolveMatrixVariable(ctx.getText()));
+    }
+
     @Override
     public Value visitNumber(@NotNull TIBasicParser.NumberContext ctx) {
         return ContextUtils.extractValueFromNumberContext(ctx);
@@ -367,11 +483,59 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
         return Optional.ofNullable((Value) super.visitStatement(ctx));
     }
 
+    @Override
+    public Object visitSortStatement(@NotNull TIBasicParser.SortStatementContext ctx) {
+        // All lists are read before any list is written, so that a list may be given more than once
+        List<String> listNames = new ArrayList<>(ctx.listVariable().size());
+        List<Value> lists = new ArrayList<>(ctx.listVariable().size());
+        for (TIBasicParser.ListVariableContext listVariable : ctx.listVariable()) {
+            listNames.add(listVariable.listIdentifier().getText());
+            lists.add(environment.getMemory().getListVariableValue(listVariable.listIdentifier().getText()));
+        }
+
+        double[] keys = SortUtils.toSortKeys(lists.get(0).list());
+        int[] permutation = SortUtils.sortingPermutation(keys, ctx.sort.getType() == TIBasicParser.SORTD);
+        List<Value> sortedLists = new ArrayList<>(lists.size());
+        for (Value list : lists)
+            sortedLists.add(Value.of(SortUtils.permute(list.list(), permutation)));
+
+        for (int i = 0; i < listNames.size(); i++)
+            environment.getWritableMemory().setListVariableValue(listNames.get(i), sortedLists.get(i));
+        return null;
+    }
+
+    @Override
+    public Value visitStatisticsStatement(@NotNull TIBasicParser.StatisticsStatementContext ctx) {
+        // The results are stored in the last result, since there are no statistics variables yet
+        return runFunction(ctx.statistic.getText(), ctx.expression());
+    }
+
     @Override
     public Object visitStopStatement(@NotNull TIBasicParser.StopStatementContext ctx) {
         throw new TIStopException(ctx.STOP().getSymbol().getLine(), ctx.STOP().getSymbol().getCharPositionInLine());
     }
 
+    @Override
+    public Value visitStoreListElementStatement(@NotNull TIBasicParser.StoreListElementStatementContext ctx) {
+        String variableName = ctx.listElement().listVariable().listIdentifier().getText();
+        Value value = (Value) ctx.expression().accept(this);
+        Value index = (Value) ctx.listElement().expression().accept(this);
+        ValueUtils.checkValueType(value, Variables.VariableType.NUMBER);
+
+        // A list may be extended by one element or created by storing its first element
+        List<Complex> elements = new ArrayList<>();
+        if (environment.getMemory().getListVariableNames().contains(variableName))
+            elements.addAll(environment.getMemory().getListVariableValue(variableName).list());
+        int elementIndex = ValueUtils.checkListIndex(index, elements.size() + 1);
+        if (elementIndex > elements.size())
+            elements.add(value.complex());
+        else
+            elements.set(elementIndex - 1, value.complex());
+
+        environment.getWritableMemory().setListVariableValue(variableName, Value.of(elements));
+        return value;
+    }
+
     @Override
     public Value visitStoreListStatement(@NotNull TIBasicParser.StoreListStatementContext ctx) {
         String variableName = ctx.listVariable().listIdentifier().getText();
@@ -381,6 +545,32 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
         return value;
     }
 
+    @Override
+    public Value visitStoreMatrixElementStatement(@NotNull TIBasicParser.StoreMatrixElementStatementContext ctx) {
+        Variables.MatrixVariable variable = Variables.resolveMatrixVariable(ctx.matrixElement().matrixVariable().getText());
+        Value value = (Value) ctx.expression().accept(this);
+        ValueUtils.checkValueType(value, Variables.VariableType.NUMBER);
+        if (value.hasImaginaryValue())
+            throw new TIArgumentException("Matrix elements must be real numbers", value);
+
+        // Matrices are immutable -> the element will be replaced in a copy
+        Matrix matrix = environment.getMemory().getMatrixVariableValue(variable).matrix();
+        int row = ValueUtils.checkListIndex((Value) ctx.matrixElement().expression(0).accept(this), matrix.getRows());
+        int column = ValueUtils.checkListIndex((Value) ctx.matrixElement().expression(1).accept(this), matrix.getColumns());
+
+        environment.getWritableMemory().setMatrixVariableValue(variable, Value.of(matrix.with(row - 1, column - 1, value.complex().getReal())));
+        return value;
+    }
+
+    @Override
+    public Value visitStoreMatrixStatement(@NotNull TIBasicParser.StoreMatrixStatementContext ctx) {
+        Variables.MatrixVariable variable = Variables.resolveMatrixVariable(ctx.matrixVariable().getText());
+        Value value = (Value) ctx.expression().accept(this);
+
+        environment.getWritableMemory().setMatrixVariableValue(variable, value);
+        return value;
+    }
+
     @Override
     public Value visitStoreNumberStatement(@NotNull TIBasicParser.StoreNumberStatementContext ctx) {
         String variableName = ctx.numericalVariable().getText();
@@ -404,12 +594,254 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
         final int line = ctx.WHILE().getSymbol().getLine();
         final int startIndex = ctx.WHILE().getSymbol().getCharPositionInLine();
 
-        Value value = (Value) ctx.expression().accept(this);
-        boolean lastEvaluation = value.bool();
+        boolean lastEvaluation = evaluateCondition(ctx.getParent(), ctx.expression());
 
         return new ControlFlowElement(line, startIndex, ControlFlowElement.ControlFlowToken.WHILE, lastEvaluation, true);
     }
 
+    /**
+     * Executes the commands of the given list beginning at the command counter of the given state. The execution ends
+     * when either the end of the list or a stop statement has been reached, when the given number of commands has
+     * been executed or skipped or when a command has to wait for input. In the latter cases, the state points to the
+     * next command, so that the execution can be resumed by calling this method again with the same state.
+     *
+     * @param commandList
+     *         The commands of the program.
+     * @param state
+     *         The execution state that will be updated after each command.
+     * @param commandBudget
+     *         Maximum number of commands that may be executed in this call.
+     * @return {@link ProgramExecution.Status#FINISHED} if the program has finished, {@link
+     * ProgramExecution.Status#YIELDED} if the command budget has been used up or {@link
+     * ProgramExecution.Status#SUSPENDED} if the program waits for the pending input of the state.
+     */
+    @NotNull
+    ProgramExecution.Status executeCommands(@NotNull List<TIBasicParser.CommandContext> commandList, @NotNull ExecutionState state, long commandBudget) {
+        final int commandListSize = commandList.size();
+        final Stack<ControlFlowElement> flowElementStack = state.flowElementStack;
+        final Stack<ControlFlowElement.ControlFlowToken> skipCommandsStack = state.skipCommandsStack;
+        long remainingBudget = commandBudget;
+
+        try {
+            while (state.commandCounter < commandListSize) {
+                if (remainingBudget-- <= 0)
+                    return ProgramExecution.Status.YIELDED;
+
+                int commandCounter = state.commandCounter;
+                final TIBasicParser.CommandContext nextCommand = commandList.get(commandCounter);
+
+                // Skipping logic
+                if (!skipCommandsStack.empty()) {
+                    if (nextCommand.isControlFlowStatement) {
+                        commandCounter = internalHandleSkipFlowLogic(commandCounter, commandList, skipCommandsStack, nextCommand);
+                    } else {
+                        LOGGER.debug("Skipping command {}", commandCounter);
+                    }
+                } else if (nextCommand.isControlFlowStatement) {
+                    ParallelForLoop parallelLoop = getParallelLoop(commandList, commandCounter);
+                    long loopCommands = parallelLoop != null ? parallelLoop.run(this, environment, commandList, commandCounter, remainingBudget + 1) : 0;
+                    if (loopCommands > 0) {
+                        // The For( command, all iterations and the last End have been executed at once
+                        state.executedCommands += loopCommands - 1;
+                        remainingBudget -= loopCommands - 1;
+                        commandCounter = parallelLoop.getEndIndex(commandCounter);
+                    } else {
+                        commandCounter = internalHandleControlFlowLogic(commandCounter, commandList, flowElementStack, skipCommandsStack, nextCommand);
+                    }
+                } else if (isInputCommand(nextCommand)) {
+                    if (!processInputCommand(nextCommand.statement(), state))
+                        return ProgramExecution.Status.SUSPENDED;
+                } else {
+                    nextCommand.accept(this);
+                }
+
+                state.commandCounter = commandCounter + 1;
+                state.executedCommands++;
+            }
+        } catch (TIStopException stop) {
+            LOGGER.debug("Forced program stop in line {} at char {}", stop.getLinenumber(), stop.getCharInLine());
+            state.commandCounter = commandListSize;
+        }
+        return ProgramExecution.Status.FINISHED;
+    }
+
+    private boolean isInputCommand(@NotNull TIBasicParser.CommandContext command) {
+        TIBasicParser.StatementContext statement = command.statement();
+        return statement != null && (statement.inputStatement() != null || statement.promptStatement() != null || statement.pauseStatement() != null);
+    }
+
+    /**
+     * Runs a command that needs input from the I/O device. Instead of blocking, the input will be requested
+     * asynchronously and stored in the execution state. If the input is not yet available, the command will be
+     * interrupted and can be continued later by calling this method again with the same state. Since these commands
+     * are always complete statements, there are no partially evaluated expressions that would have to be saved.
+     *
+     * @param ctx
+     *         The statement that requests the input.
+     * @param state
+     *         The execution state that holds the pending input.
+     * @return True if the command has been completed or false if it still waits for input.
+     */
+    private boolean processInputCommand(@NotNull TIBasicParser.StatementContext ctx, @NotNull ExecutionState state) {
+        CalculatorIO calculatorIO = environment.getCalculatorIO();
+
+        if (ctx.pauseStatement() != null) {
+            if (state.pendingInput == null) {
+                if (ctx.pauseStatement().expression() != null)
+                    calculatorIO.printLine((Value) ctx.pauseStatement().expression().accept(this));
+                state.pendingInput = calculatorIO.requestInput();
+            }
+            if (!state.pendingInput.isDone())
+                return false;
+            takePendingInput(state, ctx.getStart());
+            return true;
+        }
+
+        final List<TIBasicParser.InputTargetContext> targets;
+        if (ctx.inputStatement() != null)
+            targets = Collections.singletonList(ctx.inputStatement().inputTarget());
+        else
+            targets = ctx.promptStatement().inputTarget();
+
+        while (state.inputTargetIndex < targets.size()) {
+            TIBasicParser.InputTargetContext target = targets.get(state.inputTargetIndex);
+            if (state.pendingInput == null) {
+                calculatorIO.print(ctx.promptStatement() != null ? target.getText() + "=?" : "?");
+                state.pendingInput = calculatorIO.requestInput();
+            }
+            if (!state.pendingInput.isDone())
+                return false;
+
+            String input = takePendingInput(state, target.getStart());
+            Value value = (Value) getInputPreprocessor().preprocessExpression(input).accept(this);
+            storeInputValue(target, value);
+            state.inputTargetIndex++;
+        }
+        state.inputTargetIndex = 0;
+        return true;
+    }
+
+    @NotNull
+    private String takePendingInput(@NotNull ExecutionState state, @NotNull Token token) {
+        CompletableFuture<String> pendingInput = state.pendingInput;
+        state.pendingInput = null;
+
+        String input;
+        try {
+            input = pendingInput.join();
+        } catch (CompletionException | CancellationException e) {
+            throw new TIInputException(token.getLine(), token.getCharPositionInLine(), "Reading input failed", e.getCause() != null ? e.getCause() : e);
+        }
+        if (input == null)
+            throw new TIInputException(token.getLine(), token.getCharPositionInLine(), "End of input reached", null);
+        return input;
+    }
+
+    private void storeInputValue(@NotNull TIBasicParser.InputTargetContext target, @NotNull Value value) {
+        if (target.numericalVariable() != null) {
+            Variables.NumberVariable variable = Variables.resolveNumberVariable(target.numericalVariable().getText());
+            environment.getWritableMemory().setNumberVariableValue(variable, value);
+        } else {
+            environment.getWritableMemory().setListVariableValue(target.listVariable().listIdentifier().getText(), value);
+        }
+    }
+
+    /**
+     * Evaluate the condition of an If, While or Repeat statement. Simple comparisons are executed as {@link
+     * Superinstruction} of the command, all other conditions are compiled to primitive comparisons whenever possible,
+     * see {@link CompiledCondition}.
+     *
+     * @param statement
+     *         The control flow statement to which the condition belongs.
+     * @param ctx
+     *         The condition to evaluate.
+     * @return True if the condition is not zero.
+     */
+    private boolean evaluateCondition(@NotNull ParserRuleContext statement, @NotNull TIBasicParser.ExpressionContext ctx) {
+        if (statement.getParent() instanceof TIBasicParser.CommandContext) {
+            Superinstruction superinstruction = ((TIBasicParser.CommandContext) statement.getParent()).superinstruction;
+            Boolean result = superinstruction != null ? superinstruction.test(environment) : null;
+            if (result != null)
+                return result;
+        }
+        Optional<CompiledCondition> condition = compiledConditions.get(ctx);
+        if (condition == null) {
+            condition = Optional.ofNullable(CompiledCondition.compile(ctx, environment));
+            compiledConditions.put(ctx, condition);
+        }
+        if (condition.isPresent())
+            return condition.get().evaluate(ctx, this, environment);
+        return ((Value) ctx.accept(this)).bool();
+    }
+
+    /**
+     * Returns the analysis of the For( loop at the given index if parallel loops are enabled in the environment and the
+     * loop can be executed in parallel.
+     */
+    @Nullable
+    private ParallelForLoop getParallelLoop(@NotNull List<TIBasicParser.CommandContext> commandList, int commandIndex) {
+        TIBasicParser.CommandContext command = commandList.get(commandIndex);
+        if (environment.getParallelLoopPool() == null || command.controlFlowStatement().forStatement() == null)
+            return null;
+
+        Optional<ParallelForLoop> parallelLoop = parallelLoops.get(command);
+        if (parallelLoop == null) {
+            parallelLoop = Optional.ofNullable(ParallelForLoop.analyze(commandList, commandIndex));
+            parallelLoops.put(command, parallelLoop);
+        }
+        return parallelLoop.orElse(null);
+    }
+
+    /**
+     * Checks that the bounds and the increment of a For( loop are real numbers and that the increment is not zero.
+     */
+    static void checkLoopBounds(@NotNull Value begin, @NotNull Value end, @NotNull Value step) {
+        for (Value value : new Value[]{begin, end, step})
+            ValueUtils.checkValueType(value, Variables.VariableType.NUMBER);
+        ValueUtils.checkIfAnyValueIsImaginary(begin, end, step);
+        if (step.complex().getReal() == 0)
+            throw new TIArgumentException("Invalid increment", step);
+    }
+
+    /**
+     * Returns true if the given value of a loop variable has not yet passed the end of the loop.
+     */
+    static boolean isWithinLoopBounds(@NotNull Value value, @NotNull Value end, @NotNull Value step) {
+        if (step.complex().getReal() > 0)
+            return value.complex().getReal() <= end.complex().getReal();
+        else
+            return value.complex().getReal() >= end.complex().getReal();
+    }
+
+    /**
+     * Returns the value of a loop variable in the next iteration.
+     */
+    @NotNull
+    Value nextLoopValue(@NotNull Value value, @NotNull Value step) {
+        Value next = applyBinaryOperator("+", value, ExpressionType.COMPLEX, step, ExpressionType.REAL);
+        ValueUtils.checkIfAnyValueIsImaginary(next);
+        return next;
+    }
+
+    /**
+     * Increments the variable of a For( loop at its End command.
+     *
+     * @return True if the loop has to be repeated.
+     */
+    private boolean incrementLoopVariable(@NotNull TIBasicParser.ForStatementContext ctx, @NotNull ControlFlowElement flowElement) {
+        Variables.NumberVariable variable = Variables.resolveNumberVariable(ctx.numericalVariable().getText());
+        Value value = nextLoopValue(environment.getMemory().getNumberVariableValue(variable), flowElement.getLoopStep());
+        environment.getWritableMemory().setNumberVariableValue(variable, value);
+        return isWithinLoopBounds(value, flowElement.getLoopEnd(), flowElement.getLoopStep());
+    }
+
+    @NotNull
+    private Preprocessor getInputPreprocessor() {
+        if (inputPreprocessor == null)
+            inputPreprocessor = new Preprocessor();
+        return inputPreprocessor;
+    }
+
     private int internalHandleControlFlowLogic(int commandIndex, List<TIBasicParser.CommandContext> commandList, Stack<ControlFlowElement> flowElementStack, Stack<ControlFlowElement.ControlFlowToken> skipCommandsStack, TIBasicParser.CommandContext nextCommand) {
         int commandListSize = commandList.size();
         ControlFlowElement currentFlowElement = (ControlFlowElement) nextCommand.accept(this);
@@ -432,6 +864,15 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
                 LOGGER.debug("Entering repeat loop at command {}", commandIndex);
                 flowElementStack.push(currentFlowElement);
                 break;
+            case FOR:
+                if (!currentFlowElement.getLastEvaluation()) {
+                    LOGGER.debug("Skipping For( loop until next END from command {}", commandIndex);
+                    skipCommandsStack.push(ControlFlowElement.ControlFlowToken.FOR);
+                } else {
+                    currentFlowElement.setCommandIndex(commandIndex);
+                    flowElementStack.push(currentFlowElement);
+                }
+                break;
             case WHILE:
                 if (!currentFlowElement.getLastEvaluation()) {
                     LOGGER.debug("Skipping commands until next END from command {}", commandIndex);
@@ -476,12 +917,18 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
                 if (topFlowElement.getToken() == ControlFlowElement.ControlFlowToken.REPEAT) {
                     // Repeat will only be check at the END command!
                     final TIBasicParser.CommandContext commandContext = commandList.get(topFlowElement.getCommandIndex());
-                    Value v = (Value) commandContext.controlFlowStatement().repeatStatement().expression().accept(this);
-                    if (v.bool()) {
+                    if (evaluateCondition(commandContext.controlFlowStatement(), commandContext.controlFlowStatement().repeatStatement().expression())) {
                         topFlowElement.setRepeatable(false);
                     } else {
                         topFlowElement.setRepeatable(true);
                     }
+                } else if (topFlowElement.getToken() == ControlFlowElement.ControlFlowToken.FOR) {
+                    final TIBasicParser.CommandContext commandContext = commandList.get(topFlowElement.getCommandIndex());
+                    if (incrementLoopVariable(commandContext.controlFlowStatement().forStatement(), topFlowElement)) {
+                        commandIndex = topFlowElement.getCommandIndex();            // Continue after the For( command
+                        LOGGER.debug("Moving command counter to index {}", commandIndex + 1);
+                        break;
+                    }
                 }
                 if (topFlowElement.isRepeatable()) {
                     commandIndex = topFlowElement.getCommandIndex() - 1;          // Move counter backwards
@@ -546,6 +993,7 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
                 break;
             case WHILE:
             case REPEAT:
+            case FOR:
                 skipCommandsStack.push(currentFlowToken);
                 break;
             case END:
@@ -580,11 +1028,76 @@ public class FullTIBasicVisitor extends TIBasicBaseVisitor {
     @NotNull
     private Value processGenericExpressions(@NotNull List<String> operators, @NotNull List<? extends RuleContext> contextRules) {
         Value lhs = (Value) contextRules.get(0).accept(this);
+        if (operators.isEmpty())
+            return lhs;
+
+        ExpressionType lhsType = getExpressionType(contextRules.get(0));
         for (int i = 1; i < contextRules.size(); i++) {
             Value rhs = (Value) contextRules.get(i).accept(this);
-            lhs = environment.runRegisteredCommand(operators.get(i - 1), lhs, rhs).get();
+            ExpressionType rhsType = getExpressionType(contextRules.get(i));
+            String operator = operators.get(i - 1);
+            lhs = applyBinaryOperator(operator, lhs, lhsType, rhs, rhsType);
+            lhsType = TypeInference.binaryResult(operator, lhsType, rhsType);
         }
         return lhs;
     }
 
+    /**
+     * Returns the statically inferred type of the given operand. The types of all subrules will be inferred as well on
+     * the first call.
+     */
+    @NotNull
+    private ExpressionType getExpressionType(@NotNull ParseTree operand) {
+        ExpressionType type = expressionTypes.get(operand);
+        if (type == null) {
+            expressionTypes.putAll(TypeInference.infer(operand));
+            type = expressionTypes.get(operand);
+        }
+        return type;
+    }
+
+    /**
+     * Apply a binary operator. If the types of both operands are known and the operator is implemented by a {@link
+     * BinaryCommand}, the command will be applied directly with the implementation for numbers or lists. Otherwise the
+     * registered command will be run with all dynamic checks.
+     */
+    @NotNull
+    private Value applyBinaryOperator(@NotNull String operator, @NotNull Value lhs, @NotNull ExpressionType lhsType, @NotNull Value rhs, @NotNull ExpressionType rhsType) {
+        if (lhsType != ExpressionType.UNKNOWN && rhsType != ExpressionType.UNKNOWN) {
+            Command command = environment.getCommand(operator);
+            if (command instanceof BinaryCommand && ((BinaryCommand) command).getOperator() != null) {
+                if (lhsType.isNumber() && rhsType.isNumber())
+                    return ((BinaryCommand) command).applyToNumbers(lhs, rhs);
+                return ((BinaryCommand) command).applyToLists(lhs, rhs);
+            }
+        }
+        return environment.runRegisteredCommand(operator, lhs, rhs).get();
+    }
+
+    /**
+     * Apply a prefix or postfix operator. If the type of the operand is known and the operator is implemented by a
+     * {@link UnaryCommand}, the command will be applied directly. Otherwise the registered command will be run with all
+     * dynamic checks.
+     */
+    @NotNull
+    private Value applyUnaryOperator(@NotNull String operator, @NotNull Value operand, boolean isTypeKnown) {
+        if (isTypeKnown) {
+            Command command = environment.getCommand(operator);
+            if (command instanceof UnaryCommand && ((UnaryCommand) command).getOperator() != null)
+                return ((UnaryCommand) command).applyTyped(operand);
+        }
+        return environment.runRegisteredCommand(operator, operand).get();
+    }
+
+    /**
+     * Evaluates all arguments from left to right and runs the registered command for the given function.
+     */
+    @NotNull
+    private Value runFunction(@NotNull String functionName, @NotNull List<TIBasicParser.ExpressionContext> arguments) {
+        Value[] values = new Value[arguments.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = (Value) arguments.get(i).accept(this);
+        return environment.runRegisteredCommand(functionName, values).get();
+    }
+
 }
@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.commands.BinaryCommand;
+import org.xlrnet.tibaija.commands.BinaryCommandOperator;
+import org.xlrnet.tibaija.commands.ListKernels;
+import org.xlrnet.tibaija.commands.UnaryCommand;
+import org.xlrnet.tibaija.commands.UnaryCommandOperator;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.exception.TIRuntimeException;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.util.ValueUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Evaluates chains of element-wise operators on lists in a single pass. Without fusion, every operator of an expression
+ * like {@code (∟A+1)*∟B-2} creates a complete intermediate list. A fused expression evaluates all operands first and
+ * then computes every element of the result through the whole operator tree, so that only the final list is created.
+ * <p/>
+ * Lists whose elements are all finite real numbers are computed column by column with the {@link ListKernels}.
+ * <p/>
+ * Broadcasting of numbers and the errors for lists with mismatching dimensions are the same as with the single
+ * operator commands. Operators whose operands are all numbers are still evaluated by the registered commands. Fusion is
+ * only used for commands that are implemented by a {@link BinaryCommand} or {@link UnaryCommand} with a known operator
+ * and that don't calculate with decimal numbers.
+ * <p/>
+ * A fused expression doesn't hold references to the parse tree it has been compiled from and must always be evaluated
+ * with the same expression context.
+ */
+class FusedListExpression {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FusedListExpression.class);
+
+    /**
+     * Minimum number of operators in an expression before fusion is worth it.
+     */
+    private static final int MIN_OPERATORS = 2;
+
+    private static final ListKernels KERNELS = ListKernels.getInstance();
+
+    private final Node root;
+
+    private FusedListExpression(@NotNull Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Compile the operator tree of the given expression.
+     *
+     * @param expression
+     *         The expression to compile.
+     * @return A fused expression or null if the expression has too few operators to be fused.
+     */
+    @Nullable
+    static FusedListExpression compile(@NotNull TIBasicParser.ExpressionContext expression) {
+        Compiler compiler = new Compiler(expression);
+        Node root = compiler.fold(expression);
+        if (root == null || compiler.operatorCount < MIN_OPERATORS)
+            return null;
+        return new FusedListExpression(root);
+    }
+
+    /**
+     * Evaluates the given expression, which must be the one from which this object has been compiled.
+     *
+     * @param expression
+     *         The expression context from which this object has been compiled.
+     * @param visitor
+     *         The visitor that evaluates all operands.
+     * @param environment
+     *         The environment in which the operators are registered.
+     * @return The value of the expression.
+     * @throws TIRuntimeException
+     *         Will be thrown on the same errors as with the regular evaluation.
+     */
+    @NotNull
+    Value evaluate(@NotNull TIBasicParser.ExpressionContext expression, @NotNull FullTIBasicVisitor visitor, @NotNull ExecutionEnvironment environment) throws TIRuntimeException {
+        return root.prepare(expression, visitor, environment).toValue();
+    }
+
+    /**
+     * Folds an expression into nodes and remembers the position of each leaf relative to the expression.
+     */
+    private static class Compiler extends ExpressionFolder<Node> {
+
+        private final ParseTree expression;
+
+        private int operatorCount;
+
+        Compiler(@NotNull ParseTree expression) {
+            this.expression = expression;
+        }
+
+        @NotNull
+        @Override
+        protected Node binary(@NotNull String operator, @NotNull Node lhs, @NotNull Node rhs) {
+            operatorCount++;
+            return new BinaryNode(operator, lhs, rhs);
+        }
+
+        @NotNull
+        @Override
+        protected Node unary(@NotNull String operator, @NotNull Node operand) {
+            operatorCount++;
+            return new UnaryNode(operator, operand);
+        }
+
+        @NotNull
+        @Override
+        protected Node negation(@NotNull Node operand) {
+            operatorCount++;
+            return new BinaryNode("*", operand, new ConstantNode(Value.NEGATIVE_ONE));
+        }
+
+        @NotNull
+        @Override
+        protected Node leaf(@NotNull ParseTree tree) {
+            List<Integer> path = new ArrayList<>();
+            for (ParseTree child = tree; child != expression; child = child.getParent()) {
+                ParseTree parent = child.getParent();
+                int index = 0;
+                while (parent.getChild(index) != child)
+                    index++;
+                path.add(0, index);
+            }
+            return new LeafNode(Ints.toArray(path));
+        }
+    }
+
+    /**
+     * Node of the compiled operator tree.
+     */
+    private interface Node {
+
+        /**
+         * Evaluates all operands of this node and either computes the value directly or returns an operand that
+         * computes the elements of a list on demand.
+         */
+        @NotNull
+        Operand prepare(@NotNull ParseTree expression, @NotNull FullTIBasicVisitor visitor, @NotNull ExecutionEnvironment environment);
+    }
+
+    private static class LeafNode implements Node {
+
+        /**
+         * Child indexes that lead from the expression to the leaf context.
+         */
+        private final int[] path;
+
+        LeafNode(int[] path) {
+            this.path = path;
+        }
+
+        @NotNull
+        @Override
+        public Operand prepare(@NotNull ParseTree expression, @NotNull FullTIBasicVisitor visitor, @NotNull ExecutionEnvironment environment) {
+            ParseTree leaf = expression;
+            for (int index : path)
+                leaf = leaf.getChild(index);
+            return new ValueOperand((Value) leaf.accept(visitor));
+        }
+    }
+
+    private static class ConstantNode implements Node {
+
+        private final Value value;
+
+        ConstantNode(Value value) {
+            this.value = value;
+        }
+
+        @NotNull
+        @Override
+        public Operand prepare(@NotNull ParseTree expression, @NotNull FullTIBasicVisitor visitor, @NotNull ExecutionEnvironment environment) {
+            return new ValueOperand(value);
+        }
+    }
+
+    private static class BinaryNode implements Node {
+
+        private final String operatorName;
+
+        private final Node lhsNode;
+
+        private final Node rhsNode;
+
+        BinaryNode(String operatorName, Node lhsNode, Node rhsNode) {
+            this.operatorName = operatorName;
+            this.lhsNode = lhsNode;
+            this.rhsNode = rhsNode;
+        }
+
+        @NotNull
+        @Override
+        public Operand prepare(@NotNull ParseTree expression, @NotNull FullTIBasicVisitor visitor, @NotNull ExecutionEnvironment environment) {
+            Operand lhs = lhsNode.prepare(expression, visitor, environment);
+            Operand rhs = rhsNode.prepare(expression, visitor, environment);
+
+            Command command = environment.getCommand(operatorName);
+            BinaryCommandOperator operator = null;
+            if (command instanceof BinaryCommand && !((BinaryCommand) command).usesDecimalArithmetic())
+                operator = ((BinaryCommand) command).getOperator();
+            if (operator != null && (lhs.size() >= 0 || rhs.size() >= 0) && lhs.isNumberOrList() && rhs.isNumberOrList()) {
+                if (lhs.size() >= 0 && rhs.size() >= 0 && lhs.size() != rhs.size())
+                    throw new TIArgumentException("Mismatching dimensions: " + lhs.size() + " - " + rhs.size(), lhs.toValue(), rhs.toValue());
+                return new BinaryOperand(operator, lhs, rhs);
+            }
+            return new ValueOperand(environment.runRegisteredCommand(operatorName, lhs.toValue(), rhs.toValue()).get());
+        }
+    }
+
+    private static class UnaryNode implements Node {
+
+        private final String operatorName;
+
+        private final Node operandNode;
+
+        UnaryNode(String operatorName, Node operandNode) {
+            this.operatorName = operatorName;
+            this.operandNode = operandNode;
+        }
+
+        @NotNull
+        @Override
+        public Operand prepare(@NotNull ParseTree expression, @NotNull FullTIBasicVisitor visitor, @NotNull ExecutionEnvironment environment) {
+            Operand operand = operandNode.prepare(expression, visitor, environment);
+
+            Command command = environment.getCommand(operatorName);
+            UnaryCommandOperator operator = null;
+            if (command instanceof UnaryCommand && !((UnaryCommand) command).usesDecimalArithmetic())
+                operator = ((UnaryCommand) command).getOperator();
+            if (operator != null && operand.size() >= 0)
+                return new UnaryOperand(operator, operand);
+            return new ValueOperand(environment.runRegisteredCommand(operatorName, operand.toValue()).get());
+        }
+    }
+
+    /**
+     * Evaluated operand of an operator. Operands are either a complete value or a list whose elements are computed on
+     * demand. If all elements of a list operand are finite real numbers, the whole list will be computed at once with
+     * the {@link ListKernels} instead.
+     */
+    private static abstract class Operand {
+
+        private double[] realColumn;
+
+        private boolean realColumnComputed;
+
+        /**
+         * Returns the number of elements if the operand is a list or -1 if it is a number.
+         */
+        abstract int size();
+
+        abstract boolean isNumberOrList();
+
+        /**
+         * Returns the element at the given index. Numbers return their value for every index.
+         */
+        @NotNull
+        abstract Complex element(int index);
+
+        /**
+         * Computes all elements as real numbers or returns null if any element is not a finite real number or can't
+         * be computed exactly with the kernels. Numbers return an array with a single element. The returned array
+         * may be overwritten by the caller.
+         */
+        @Nullable
+        abstract double[] computeRealColumn();
+
+        /**
+         * Returns the result of {@link #computeRealColumn()}, which is computed only once.
+         */
+        @Nullable
+        final double[] realColumn() {
+            if (!realColumnComputed) {
+                realColumn = computeRealColumn();
+                realColumnComputed = true;
+            }
+            return realColumn;
+        }
+
+        /**
+         * Computes all elements of the operand into a single value.
+         */
+        @NotNull
+        Value toValue() {
+            int size = size();
+            double[] column = realColumn();
+            if (column != null) {
+                LOGGER.debug("(FUSED) computed list with {} real elements", size);
+                return ListKernels.toListValue(column);
+            }
+            ImmutableList.Builder<Complex> builder = ImmutableList.builder();
+            for (int i = 0; i < size; i++)
+                builder.add(element(i));
+            LOGGER.debug("(FUSED) computed list with {} elements", size);
+            return Value.of(builder.build());
+        }
+    }
+
+    private static class ValueOperand extends Operand {
+
+        private final Value value;
+
+        private final ImmutableList<Complex> list;
+
+        private final Complex number;
+
+        ValueOperand(@NotNull Value value) {
+            this.value = value;
+            this.list = value.isList() ? value.list() : null;
+            this.number = value.isNumber() ? value.complex() : null;
+        }
+
+        @Override
+        int size() {
+            return list != null ? list.size() : -1;
+        }
+
+        @Override
+        boolean isNumberOrList() {
+            return ValueUtils.isNumberOrList(value);
+        }
+
+        @NotNull
+        @Override
+        Complex element(int index) {
+            return list != null ? list.get(index) : number;
+        }
+
+        @Nullable
+        @Override
+        double[] computeRealColumn() {
+            return ListKernels.toRealArray(value);
+        }
+
+        @NotNull
+        @Override
+        Value toValue() {
+            return value;
+        }
+    }
+
+    private static class BinaryOperand extends Operand {
+
+        private final BinaryCommandOperator operator;
+
+        private final Operand lhs;
+
+        private final Operand rhs;
+
+        private final int size;
+
+        BinaryOperand(BinaryCommandOperator operator, Operand lhs, Operand rhs) {
+            this.operator = operator;
+            this.lhs = lhs;
+            this.rhs = rhs;
+            this.size = Math.max(lhs.size(), rhs.size());
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        boolean isNumberOrList() {
+            return true;
+        }
+
+        @NotNull
+        @Override
+        Complex element(int index) {
+            double[] column = realColumn();
+            if (column != null)
+                return Complex.valueOf(column[index]);
+            return operator.applyOnElements(lhs.element(index), rhs.element(index));
+        }
+
+        @Nullable
+        @Override
+        double[] computeRealColumn() {
+            if (!ListKernels.isExactForReals(operator))
+                return null;
+            double[] left = lhs.realColumn();
+            double[] right = left != null ? rhs.realColumn() : null;
+            if (right == null || (operator == BinaryCommandOperator.DIVIDE && !ListKernels.isNonZero(right)))
+                return null;
+
+            // The columns of the operands are not needed anymore and can be reused
+            double[] result = left.length == size ? left : right.length == size ? right : new double[size];
+            KERNELS.apply(operator, left, right, result);
+            return result;
+        }
+    }
+
+    private static class UnaryOperand extends Operand {
+
+        private final UnaryCommandOperator operator;
+
+        private final Operand operand;
+
+        UnaryOperand(UnaryCommandOperator operator, Operand operand) {
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override
+        int size() {
+            return operand.size();
+        }
+
+        @Override
+        boolean isNumberOrList() {
+            return true;
+        }
+
+        @NotNull
+        @Override
+        Complex element(int index) {
+            double[] column = realColumn();
+            if (column != null)
+                return Complex.valueOf(column[index]);
+            return operator.applyOnElement(operand.element(index));
+        }
+
+        @Nullable
+        @Override
+        double[] computeRealColumn() {
+            if (!ListKernels.isExactForReals(operator))
+                return null;
+            double[] elements = operand.realColumn();
+            if (elements == null || (operator == UnaryCommandOperator.SQUARE_ROOT && !ListKernels.isNonNegative(elements)))
+                return null;
+
+            KERNELS.apply(operator, elements, elements);
+            return elements;
+        }
+    }
+}
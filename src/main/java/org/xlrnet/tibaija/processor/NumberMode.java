@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+/**
+ * Defines how the basic arithmetic operations on real numbers are calculated inside an {@link ExecutionEnvironment}.
+ */
+public enum NumberMode {
+
+    /**
+     * Calculate with binary double precision numbers. This is the fastest mode, but results may differ from a real
+     * calculator in the last digits, e.g. 0.1+0.2 is not exactly 0.3.
+     */
+    BINARY,
+
+    /**
+     * Calculate +, -, *, /, ² and ³ on real numbers with 14 significant decimal digits like a real calculator. See
+     * {@link org.xlrnet.tibaija.util.TIDecimal}.
+     */
+    DECIMAL
+}
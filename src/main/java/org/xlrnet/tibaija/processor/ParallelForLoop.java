@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.exception.TIRuntimeException;
+import org.xlrnet.tibaija.memory.CalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.util.ValueUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A For( loop whose iterations don't depend on each other and can therefore be executed in parallel. Instances are
+ * created by a dependence analysis of the preprocessed loop body, see {@link #analyze(List, int)}. A body is
+ * independent if all of the following conditions hold:
+ * <ul>
+ * <li>The body contains only expressions and stores, i.e. no control flow, no I/O and no getKey.</li>
+ * <li>Lists are only written element-wise at the index of the loop variable, e.g. {@code ∟A(I)+∟B(I)→∟RES(I)}, and
+ * written lists are not read in the body.</li>
+ * <li>Number variables and Ans are only read after they have been written in the same iteration, so they are local
+ * to each iteration. The loop variable is never written.</li>
+ * </ul>
+ * The iterations are split into chunks which are executed in a {@link ForkJoinPool}. Each chunk works on its own fork
+ * of the calculator memory, and list elements are collected separately. Afterwards all results are written in the
+ * order of the iterations, so that the memory contains exactly the same values as after a sequential execution. If any
+ * iteration fails, nothing will be written and the loop will be executed sequentially to report the error.
+ * <p/>
+ * Instances don't reference the parse tree but only the position of the body relative to the For( command, so that
+ * they can be cached per command without keeping old versions of a program alive.
+ */
+final class ParallelForLoop {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelForLoop.class);
+
+    /**
+     * Loops with fewer iterations are executed sequentially.
+     */
+    private static final int MIN_ITERATIONS = 2;
+
+    /**
+     * Values of the loop variable are computed before the iterations are distributed. Loops with more iterations are
+     * executed sequentially to limit the memory for these values.
+     */
+    private static final int MAX_ITERATIONS = 1 << 20;
+
+    /**
+     * Number of chunks per thread of the pool, so that threads which finish early can take over more work.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Number of commands between the For( and the End command.
+     */
+    private final int bodySize;
+
+    private final Variables.NumberVariable variable;
+
+    /**
+     * True for every command of the body that stores a list element.
+     */
+    private final boolean[] elementStores;
+
+    private final ImmutableSet<Variables.NumberVariable> writtenVariables;
+
+    private ParallelForLoop(int bodySize, @NotNull Analysis analysis) {
+        this.bodySize = bodySize;
+        this.variable = analysis.loopVariable;
+        this.elementStores = new boolean[bodySize];
+        for (int i = 0; i < bodySize; i++)
+            this.elementStores[i] = analysis.elementStores.get(i) != null;
+        this.writtenVariables = ImmutableSet.copyOf(analysis.writtenVariables);
+    }
+
+    /**
+     * Analyzes the dependences of the For( loop at the given index.
+     *
+     * @param commandList
+     *         The commands of the program.
+     * @param forIndex
+     *         Index of the For( command.
+     * @return The loop or null if its iterations can't be executed in parallel.
+     */
+    @Nullable
+    static ParallelForLoop analyze(@NotNull List<TIBasicParser.CommandContext> commandList, int forIndex) {
+        TIBasicParser.ForStatementContext forStatement = commandList.get(forIndex).controlFlowStatement().forStatement();
+        if (forStatement == null)
+            return null;
+
+        // Since no control flow is allowed inside, the loop ends at the next control flow statement
+        int endIndex = forIndex + 1;
+        while (endIndex < commandList.size() && !commandList.get(endIndex).isControlFlowStatement)
+            endIndex++;
+        if (endIndex >= commandList.size() || commandList.get(endIndex).controlFlowStatement().endStatement() == null) {
+            LOGGER.debug("For( loop at command {} contains control flow", forIndex);
+            return null;
+        }
+
+        ImmutableList<TIBasicParser.CommandContext> body = ImmutableList.copyOf(commandList.subList(forIndex + 1, endIndex));
+        Analysis analysis = new Analysis(forStatement.numericalVariable().getText());
+        for (TIBasicParser.ExpressionContext bound : forStatement.expression()) {
+            if (containsGetKey(bound))
+                return null;
+        }
+        if (!analysis.collectWrites(body) || !analysis.checkReads(body)) {
+            LOGGER.debug("Iterations of For( loop at command {} depend on each other", forIndex);
+            return null;
+        }
+        LOGGER.debug("For( loop at command {} can be executed in parallel", forIndex);
+        return new ParallelForLoop(body.size(), analysis);
+    }
+
+    /**
+     * Returns the index of the End command of this loop.
+     *
+     * @param forIndex
+     *         Index of the For( command.
+     */
+    int getEndIndex(int forIndex) {
+        return forIndex + bodySize + 1;
+    }
+
+    /**
+     * Executes the whole loop in the pool of the given environment. Bounds that are not real numbers, too many
+     * iterations and errors in any iteration lead to a sequential execution, in which case this method doesn't change
+     * the memory.
+     *
+     * @param visitor
+     *         The visitor that executes the program.
+     * @param environment
+     *         The environment with the pool for parallel loops.
+     * @param commandList
+     *         The commands of the program. Must be the same commands from which this loop has been analyzed.
+     * @param forIndex
+     *         Index of the For( command.
+     * @param commandBudget
+     *         Maximum number of commands that may be executed including the For( command.
+     * @return The number of executed commands, i.e. the For( command and the body and End command of every iteration,
+     * or zero if the loop has to be executed sequentially.
+     */
+    long run(@NotNull FullTIBasicVisitor visitor, @NotNull ExecutionEnvironment environment, @NotNull List<TIBasicParser.CommandContext> commandList, int forIndex, long commandBudget) {
+        ForkJoinPool pool = environment.getParallelLoopPool();
+        TIBasicParser.ForStatementContext forStatement = commandList.get(forIndex).controlFlowStatement().forStatement();
+        List<TIBasicParser.CommandContext> body = commandList.subList(forIndex + 1, getEndIndex(forIndex));
+        List<Value> loopValues = computeLoopValues(forStatement, visitor, (commandBudget - 1) / (bodySize + 1));
+        if (pool == null || loopValues == null || loopValues.size() <= MIN_ITERATIONS)
+            return 0;
+
+        int iterations = loopValues.size() - 1;          // The last value has already passed the end of the loop
+        int chunkCount = Math.min(iterations, pool.getParallelism() * CHUNKS_PER_THREAD);
+        Complex[][] elements = new Complex[bodySize][iterations];
+        List<Chunk> chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            // Forks must be created in this thread, since forking changes the parent memory
+            CalculatorMemory memory = environment.getWritableMemory().fork();
+            chunks.add(new Chunk(i * iterations / chunkCount, (i + 1) * iterations / chunkCount, memory, environment.withMemory(memory), body, loopValues, elements));
+        }
+
+        if (!executeChunks(pool, chunks) || !storeResults(environment.getWritableMemory(), body, loopValues, elements, chunks.get(chunkCount - 1).memory))
+            return 0;
+
+        int line = forStatement.FOR().getSymbol().getLine();
+        environment.reportParallelizedLoop(line);
+        LOGGER.debug("Executed {} iterations of For( loop in line {} in parallel", iterations, line);
+        return 1 + (long) iterations * (bodySize + 1);
+    }
+
+    /**
+     * Computes all values of the loop variable in the same way as a sequential execution. The returned list contains
+     * the value after the last iteration as last element.
+     *
+     * @return The values or null if the loop has to be executed sequentially.
+     */
+    @Nullable
+    private List<Value> computeLoopValues(@NotNull TIBasicParser.ForStatementContext forStatement, @NotNull FullTIBasicVisitor visitor, long maxIterations) {
+        Value begin = (Value) forStatement.expression(0).accept(visitor);
+        Value end = (Value) forStatement.expression(1).accept(visitor);
+        Value step = forStatement.expression().size() > 2 ? (Value) forStatement.expression(2).accept(visitor) : Value.of(1);
+        try {
+            FullTIBasicVisitor.checkLoopBounds(begin, end, step);
+        } catch (TIRuntimeException e) {
+            return null;            // The error will be thrown by the sequential execution
+        }
+
+        List<Value> loopValues = new ArrayList<>();
+        Value value = begin;
+        while (FullTIBasicVisitor.isWithinLoopBounds(value, end, step)) {
+            if (loopValues.size() >= Math.min(maxIterations, MAX_ITERATIONS))
+                return null;
+            loopValues.add(value);
+            value = visitor.nextLoopValue(value, step);
+        }
+        loopValues.add(value);
+        return loopValues;
+    }
+
+    private boolean executeChunks(@NotNull ForkJoinPool pool, @NotNull List<Chunk> chunks) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks)
+            tasks.add(pool.submit(chunk::run));
+
+        boolean successful = true;
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.get();             // Wait for all tasks, even if one has already failed
+            } catch (ExecutionException e) {
+                LOGGER.debug("Parallel execution of For( loop failed - executing sequentially", e.getCause());
+                successful = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                successful = false;
+            }
+        }
+        return successful;
+    }
+
+    /**
+     * Writes the results of all iterations to the given memory in the order of a sequential execution.
+     *
+     * @return False if a list index is invalid. In that case, the memory hasn't been changed.
+     */
+    private boolean storeResults(@NotNull CalculatorMemory memory, @NotNull List<TIBasicParser.CommandContext> body, @NotNull List<Value> loopValues, @NotNull Complex[][] elements, @NotNull CalculatorMemory lastIterationMemory) {
+        Map<String, List<Complex>> lists = new LinkedHashMap<>();
+        for (int i = 0; i < bodySize; i++) {
+            TIBasicParser.StoreListElementStatementContext store = getElementStore(body, i);
+            if (store == null)
+                continue;
+            String listName = store.listElement().listVariable().listIdentifier().getText();
+            if (!lists.containsKey(listName)) {
+                List<Complex> list = new ArrayList<>();
+                if (memory.getListVariableNames().contains(listName))
+                    list.addAll(memory.getListVariableValue(listName).list());
+                lists.put(listName, list);
+            }
+        }
+
+        for (int iteration = 0; iteration < loopValues.size() - 1; iteration++) {
+            double index = loopValues.get(iteration).complex().getReal();
+            for (int i = 0; i < bodySize; i++) {
+                TIBasicParser.StoreListElementStatementContext store = getElementStore(body, i);
+                if (store == null)
+                    continue;
+                List<Complex> list = lists.get(store.listElement().listVariable().listIdentifier().getText());
+                if (index != Math.rint(index) || index < 1 || index > list.size() + 1)
+                    return false;
+                if (index > list.size())
+                    list.add(elements[i][iteration]);
+                else
+                    list.set((int) index - 1, elements[i][iteration]);
+            }
+        }
+
+        for (Map.Entry<String, List<Complex>> list : lists.entrySet())
+            memory.setListVariableValue(list.getKey(), Value.of(list.getValue()));
+        for (Variables.NumberVariable writtenVariable : writtenVariables)
+            memory.setNumberVariableValue(writtenVariable, lastIterationMemory.getNumberVariableValue(writtenVariable));
+        memory.setLastResult(lastIterationMemory.getLastResult());
+        memory.setNumberVariableValue(variable, loopValues.get(loopValues.size() - 1));
+        return true;
+    }
+
+    /**
+     * Returns the element store at the given index of the body or null if the command doesn't store a list element.
+     */
+    @Nullable
+    private TIBasicParser.StoreListElementStatementContext getElementStore(@NotNull List<TIBasicParser.CommandContext> body, int index) {
+        if (!elementStores[index])
+            return null;
+        return (TIBasicParser.StoreListElementStatementContext) body.get(index).statement().storeStatement();
+    }
+
+    private static boolean containsGetKey(@NotNull ParseTree tree) {
+        if (tree instanceof TIBasicParser.GetKeyContext)
+            return true;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (containsGetKey(tree.getChild(i)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * A range of iterations that is executed by a single thread with its own memory and visitor.
+     * <p/>
+     * The environment of a chunk shares its command instances with the environment of the program, and commands that
+     * access memory through {@link Command#getEnvironment()} would therefore bypass the fork of the chunk. This is
+     * safe because the body only contains expressions and stores, whose commands only receive their arguments.
+     */
+    private class Chunk {
+
+        private final int from;
+
+        private final int to;
+
+        private final CalculatorMemory memory;
+
+        private final ExecutionEnvironment environment;
+
+        private final List<TIBasicParser.CommandContext> body;
+
+        private final List<Value> loopValues;
+
+        private final Complex[][] elements;
+
+        Chunk(int from, int to, @NotNull CalculatorMemory memory, @NotNull ExecutionEnvironment environment, @NotNull List<TIBasicParser.CommandContext> body, @NotNull List<Value> loopValues, @NotNull Complex[][] elements) {
+            this.from = from;
+            this.to = to;
+            this.memory = memory;
+            this.environment = environment;
+            this.body = body;
+            this.loopValues = loopValues;
+            this.elements = elements;
+        }
+
+        void run() {
+            FullTIBasicVisitor visitor = new FullTIBasicVisitor();
+            visitor.setEnvironment(environment);
+            for (int iteration = from; iteration < to; iteration++) {
+                memory.setNumberVariableValue(variable, loopValues.get(iteration));
+                for (int i = 0; i < bodySize; i++) {
+                    TIBasicParser.StoreListElementStatementContext store = getElementStore(body, i);
+                    if (store == null) {
+                        body.get(i).accept(visitor);
+                        continue;
+                    }
+                    // The element is collected instead of copying the whole list in every iteration
+                    Value value = (Value) store.expression().accept(visitor);
+                    ValueUtils.checkValueType(value, Variables.VariableType.NUMBER);
+                    memory.setLastResult(value);
+                    elements[i][iteration] = value.complex();
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the reads and writes of a loop body.
+     */
+    private static class Analysis {
+
+        private final String loopVariableName;
+
+        private final Variables.NumberVariable loopVariable;
+
+        private final Set<Variables.NumberVariable> writtenVariables = EnumSet.noneOf(Variables.NumberVariable.class);
+
+        private final Set<String> writtenLists = new HashSet<>();
+
+        private List<TIBasicParser.StoreListElementStatementContext> elementStores;
+
+        private final Set<Variables.NumberVariable> definedVariables = EnumSet.noneOf(Variables.NumberVariable.class);
+
+        private boolean isLastResultDefined;
+
+        Analysis(@NotNull String loopVariableName) {
+            this.loopVariableName = loopVariableName;
+            this.loopVariable = Variables.resolveNumberVariable(loopVariableName);
+        }
+
+        /**
+         * Collects all variables that are written in the body.
+         *
+         * @return False if the body contains a command that can't be executed in parallel.
+         */
+        boolean collectWrites(@NotNull List<TIBasicParser.CommandContext> body) {
+            List<TIBasicParser.StoreListElementStatementContext> stores = new ArrayList<>(body.size());
+            for (TIBasicParser.CommandContext command : body) {
+                TIBasicParser.StatementContext statement = command.statement();
+                stores.add(null);
+                if (statement == null)
+                    continue;           // Expressions and empty commands
+                if (statement.storeStatement() instanceof TIBasicParser.StoreNumberStatementContext) {
+                    String name = ((TIBasicParser.StoreNumberStatementContext) statement.storeStatement()).numericalVariable().getText();
+                    writtenVariables.add(Variables.resolveNumberVariable(name));
+                } else if (statement.storeStatement() instanceof TIBasicParser.StoreListElementStatementContext) {
+                    TIBasicParser.StoreListElementStatementContext store = (TIBasicParser.StoreListElementStatementContext) statement.storeStatement();
+                    if (!store.listElement().expression().getText().equals(loopVariableName))
+                        return false;   // Only the element at the index of the loop variable may be written
+                    writtenLists.add(store.listElement().listVariable().listIdentifier().getText());
+                    stores.set(stores.size() - 1, store);
+                } else {
+                    return false;       // Whole lists, I/O and Stop
+                }
+            }
+            elementStores = Collections.unmodifiableList(stores);
+            return !writtenVariables.contains(loopVariable);
+        }
+
+        /**
+         * Checks in the order of execution that written variables are only read after they have been written.
+         *
+         * @return False if a value is read from a previous iteration.
+         */
+        boolean checkReads(@NotNull List<TIBasicParser.CommandContext> body) {
+            definedVariables.add(loopVariable);
+            for (TIBasicParser.CommandContext command : body) {
+                if (command.expressionParent() != null) {
+                    if (!checkReads(command.expressionParent()))
+                        return false;
+                    isLastResultDefined = true;
+                } else if (command.statement() != null) {
+                    TIBasicParser.StoreStatementContext store = command.statement().storeStatement();
+                    if (store instanceof TIBasicParser.StoreNumberStatementContext) {
+                        TIBasicParser.StoreNumberStatementContext numberStore = (TIBasicParser.StoreNumberStatementContext) store;
+                        if (!checkReads(numberStore.expression()))
+                            return false;
+                        definedVariables.add(Variables.resolveNumberVariable(numberStore.numericalVariable().getText()));
+                    } else if (!checkReads(((TIBasicParser.StoreListElementStatementContext) store).expression())) {
+                        return false;
+                    }
+                    isLastResultDefined = true;
+                }
+            }
+            return true;
+        }
+
+        private boolean checkReads(@NotNull ParseTree tree) {
+            if (tree instanceof TIBasicParser.GetKeyContext)
+                return false;
+            if (tree instanceof TIBasicParser.LastResultContext)
+                return isLastResultDefined;
+            if (tree instanceof TIBasicParser.NumericalVariableContext) {
+                Variables.NumberVariable readVariable = Variables.resolveNumberVariable(tree.getText());
+                return !writtenVariables.contains(readVariable) || definedVariables.contains(readVariable);
+            }
+            if (tree instanceof TIBasicParser.ListVariableContext)
+                return !writtenLists.contains(((TIBasicParser.ListVariableContext) tree).listIdentifier().getText());
+            for (int i = 0; i < tree.getChildCount(); i++) {
+                if (!checkReads(tree.getChild(i)))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the parser that is used by all {@link Preprocessor} instances. Programs are first parsed with the fast
+ * SLL prediction mode and only parsed again with full LL prediction if the fast parse fails. The counters show how
+ * often the fallback was needed and how much time has been spent for parsing. All counters can be updated
+ * concurrently.
+ */
+public final class ParseStatistics {
+
+    private final LongAdder sllParses = new LongAdder();
+
+    private final LongAdder llParses = new LongAdder();
+
+    private final LongAdder failedParses = new LongAdder();
+
+    private final LongAdder parsedCharacters = new LongAdder();
+
+    private final LongAdder parseNanos = new LongAdder();
+
+    ParseStatistics() {
+    }
+
+    /**
+     * Returns the number of parses that failed with a syntax error.
+     */
+    public long getFailedParses() {
+        return failedParses.sum();
+    }
+
+    /**
+     * Returns the number of parses that needed the slow LL prediction mode after the SLL parse failed. This includes
+     * parses that failed with a syntax error.
+     */
+    public long getLlParses() {
+        return llParses.sum();
+    }
+
+    /**
+     * Returns the total number of characters in all parsed sources.
+     */
+    public long getParsedCharacters() {
+        return parsedCharacters.sum();
+    }
+
+    /**
+     * Returns the total time spent for lexing and parsing.
+     */
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    /**
+     * Returns the number of parses that succeeded with the fast SLL prediction mode.
+     */
+    public long getSllParses() {
+        return sllParses.sum();
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void reset() {
+        sllParses.reset();
+        llParses.reset();
+        failedParses.reset();
+        parsedCharacters.reset();
+        parseNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "ParseStatistics{" +
+                "sllParses=" + sllParses +
+                ", llParses=" + llParses +
+                ", failedParses=" + failedParses +
+                ", parsedCharacters=" + parsedCharacters +
+                ", parseNanos=" + parseNanos +
+                '}';
+    }
+
+    void recordParse(boolean fallback, boolean failed, int characters, long nanos) {
+        if (fallback)
+            llParses.increment();
+        else
+            sllParses.increment();
+        if (failed)
+            failedParses.increment();
+        parsedCharacters.add(characters);
+        parseNanos.add(nanos);
+    }
+}
@@ -22,6 +22,7 @@
 
 package org.xlrnet.tibaija.processor;
 
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.misc.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +43,8 @@ public class PreprocessVisitor extends TIBasicBaseVisitor {
 
     private static Logger LOGGER = LoggerFactory.getLogger(TIBasicBaseVisitor.class);
 
+    private int listDepth = 0;
+
     /**
      * Visits the command list and calls the underlying accept methods. If any of the commands return a {@link Label}
      * object and there is not yet a label with this name, the label information will be stored in a temporary map and
@@ -91,6 +94,74 @@ public class PreprocessVisitor extends TIBasicBaseVisitor {
         return new Label(labelIdentifier.getText());
     }
 
+    /**
+     * Visits the command and stores a {@link Superinstruction} in the context if the command is one of the common
+     * idioms that can be fused.
+     */
+    @Override
+    public Object visitCommand(@NotNull TIBasicParser.CommandContext ctx) {
+        Object result = visitChildren(ctx);
+        ctx.superinstruction = Superinstruction.recognize(ctx);
+        return result;
+    }
+
+    /**
+     * Visits a list expression and makes sure that it is not nested inside another list expression.
+     *
+     * @param ctx
+     *         The list expression context.
+     * @return The result of the child nodes.
+     */
+    @Override
+    public Object visitListExpression(@NotNull TIBasicParser.ListExpressionContext ctx) throws PreprocessException {
+        if (listDepth > 0)
+            throw newNestedListException(ctx);
+
+        listDepth++;
+        try {
+            return visitChildren(ctx);
+        } finally {
+            listDepth--;
+        }
+    }
+
+    /**
+     * Visits a function call. The arguments of a function are independent expressions, so that they may contain lists
+     * even if the function call itself is an element of a list expression.
+     *
+     * @param ctx
+     *         The function call context.
+     * @return The result of the child nodes.
+     */
+    @Override
+    public Object visitFunctionCall(@NotNull TIBasicParser.FunctionCallContext ctx) throws PreprocessException {
+        int outerListDepth = listDepth;
+        listDepth = 0;
+        try {
+            return visitChildren(ctx);
+        } finally {
+            listDepth = outerListDepth;
+        }
+    }
+
+    /**
+     * Visits a list value and makes sure that no list variable is used inside a list expression.
+     *
+     * @param ctx
+     *         The list value context.
+     * @return The result of the child nodes.
+     */
+    @Override
+    public Object visitListValue(@NotNull TIBasicParser.ListValueContext ctx) throws PreprocessException {
+        if (listDepth > 0 && ctx.listVariable() != null)
+            throw newNestedListException(ctx);
+        return visitChildren(ctx);
+    }
+
+    private PreprocessException newNestedListException(ParserRuleContext ctx) {
+        return new PreprocessException(ctx.getStart().getLine(), ctx.getStart().getCharPositionInLine(), "Lists may not contain other lists: " + ctx.getText());
+    }
+
     private static class Label {
 
         String identifier;
@@ -23,21 +23,53 @@
 package org.xlrnet.tibaija.processor;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xlrnet.tibaija.antlr.TIBasicLexer;
 import org.xlrnet.tibaija.antlr.TIBasicParser;
 import org.xlrnet.tibaija.exception.PreprocessException;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
 /**
  * The preprocessor for TI-Basic programs. The main task of this class is to run through a source program, parse it
  * and create a map of all available labels and return an instance of {@link ExecutableProgram}.
  * After the preprocessor has completed its work without any errors, the syntax of the provided TI-Basic program is
  * correct.
+ * <p/>
+ * Preprocessors are thread-safe: every call uses a new visitor and every thread reuses its own lexer and parser, so
+ * that programs can be preprocessed concurrently without rebuilding the recognizers for each program.
  */
 public class Preprocessor {
 
-    PreprocessVisitor preprocessVisitor = new PreprocessVisitor();
+    private static final Logger LOGGER = LoggerFactory.getLogger(Preprocessor.class);
+
+    private static final ParseStatistics STATISTICS = new ParseStatistics();
+
+    private static final ThreadLocal<TIBasicLexer> LEXER = ThreadLocal.withInitial(() -> {
+        TIBasicLexer lexer = new TIBasicLexer(null);
+        lexer.addErrorListener(PreprocessErrorListener.INSTANCE);
+        return lexer;
+    });
+
+    private static final ThreadLocal<TIBasicParser> PARSER = ThreadLocal.withInitial(() -> {
+        TIBasicParser parser = new TIBasicParser(null);
+        parser.setInterpreter(new DetachableParserATNSimulator(parser, parser.getInterpreter()));
+        return parser;
+    });
 
     /**
      * Takes a TI-Basic program source code as input, checks for valid syntax and returns a new {@link
@@ -55,10 +87,9 @@ public class Preprocessor {
     public ExecutableProgram preprocessProgramCode(String programName, CharSequence programCode) throws PreprocessException {
 
         ExecutableProgram executableProgram;
-        TIBasicParser parser = getParser(programCode);
-        TIBasicParser.ProgramContext programContext = parser.program();
+        TIBasicParser.ProgramContext programContext = parse(programCode, 1, 0, TIBasicParser::program).context;
 
-        Object result = preprocessVisitor.visitProgram(programContext);
+        Object result = new PreprocessVisitor().visitProgram(programContext);
 
         executableProgram = new ExecutableProgram();
         executableProgram.setMainProgramContext(programContext);
@@ -73,14 +104,328 @@ public class Preprocessor {
         return executableProgram;
     }
 
-    private TIBasicParser getParser(CharSequence programCode) {
-        ANTLRInputStream inputStream = new ANTLRInputStream(programCode.toString());
-        TIBasicLexer lexer = new TIBasicLexer(inputStream);
-        lexer.addErrorListener(PreprocessErrorListener.INSTANCE);
-        TokenStream tokens = new CommonTokenStream(lexer);
-        TIBasicParser parser = new TIBasicParser(tokens);
-        parser.addErrorListener(PreprocessErrorListener.INSTANCE);
-        return parser;
+    /**
+     * Creates an {@link ExecutableProgram} for a source that has already been preprocessed successfully before, e.g. a
+     * program from a {@link ProgramArchive}. The source will only be parsed when the program is accessed for the first
+     * time.
+     *
+     * @param programName
+     *         Name of the program to load.
+     * @param programCode
+     *         TI-Basic code that is known to be valid.
+     * @param archiveEntry
+     *         The archived result of the previous preprocessing.
+     * @return An instance of {@link ExecutableProgram} that will parse its source on demand.
+     */
+    public ExecutableProgram deferProgramCode(String programName, CharSequence programCode, ProgramArchive.Entry archiveEntry) {
+        return new DeferredExecutableProgram(programName, programCode, archiveEntry.getLabels(), archiveEntry.getCommandCount());
+    }
+
+    /**
+     * Preprocesses a changed version of an already preprocessed program. Since commands can neither span nor influence
+     * each other, only the commands that overlap the changed part of the source will be parsed again. All other
+     * commands are taken over from the given program and only the labels inside the changed commands have to be
+     * resolved again. The result is exactly the same as preprocessing the whole new source, but the parse time only
+     * depends on the size of the change.
+     * <p/>
+     * Since the tokens of the taken over commands keep their lines and columns, the remaining commands on the last
+     * changed line are parsed again as well. If the change adds or removes line breaks, all commands after the change
+     * are parsed again.
+     * <p/>
+     * The given program will not be modified, so that running executions of the old version are not affected.
+     *
+     * @param program
+     *         The previous version of the program.
+     * @param programCode
+     *         The complete new source of the program.
+     * @return A new {@link ExecutableProgram} for the new source that shares all unchanged commands with the given
+     * program.
+     * @throws PreprocessException
+     *         Will be thrown if the changed commands contain errors.
+     */
+    public ExecutableProgram updateProgramCode(ExecutableProgram program, CharSequence programCode) throws PreprocessException {
+        ExecutableProgram updatedProgram = spliceProgramCode(program, programCode);
+        return program.isCompact() ? updatedProgram.compact() : updatedProgram;
+    }
+
+    private ExecutableProgram spliceProgramCode(ExecutableProgram program, CharSequence programCode) throws PreprocessException {
+        String programName = program.getProgramName().toString();
+        CharSequence oldCode = program.getOriginalSource();
+        TIBasicParser.CommandListContext oldCommandList = program.getMainProgramContext().commandList();
+        ExecutableProgram.CommandPositions oldPositions = program.getCommandPositions();
+        int commandCount = oldPositions.size();
+
+        // Find the changed range by comparing the unchanged beginning and end of both versions
+        int oldLength = oldCode.length();
+        int newLength = programCode.length();
+        int maxCommonLength = Math.min(oldLength, newLength);
+        int prefixLength = 0;
+        while (prefixLength < maxCommonLength && oldCode.charAt(prefixLength) == programCode.charAt(prefixLength))
+            prefixLength++;
+        if (prefixLength == oldLength && prefixLength == newLength)
+            return program;
+        int suffixLength = 0;
+        while (suffixLength < maxCommonLength - prefixLength && oldCode.charAt(oldLength - 1 - suffixLength) == programCode.charAt(newLength - 1 - suffixLength))
+            suffixLength++;
+
+        if (commandCount == 0 || prefixLength <= oldPositions.getOffset(0)) {
+            LOGGER.debug("Change in program {} starts before the first command - preprocessing whole program", programName);
+            return preprocessProgramCode(programName, programCode);
+        }
+
+        // The last unchanged character before and the first unchanged character after the change determine which
+        // commands have to be parsed again. This includes the neighbours if a separator has been changed.
+        int firstCommand = oldPositions.findCommand(prefixLength - 1);
+        int endCommand = oldPositions.findCommand(oldLength - suffixLength) + 1;
+        int spanStart = oldPositions.getOffset(firstCommand);
+
+        // Taken over commands must start on an unchanged line, otherwise their tokens would report wrong positions
+        while (endCommand < commandCount && !containsNewline(oldCode, oldLength - suffixLength, oldPositions.getOffset(endCommand)))
+            endCommand++;
+        if (endCommand < commandCount && countNewlines(oldCode, spanStart, oldPositions.getOffset(endCommand)) != countNewlines(programCode, spanStart, oldPositions.getOffset(endCommand) + newLength - oldLength))
+            endCommand = commandCount;
+
+        int oldSpanEnd = endCommand < commandCount ? oldPositions.getOffset(endCommand) : oldLength;
+        int newSpanEnd = oldSpanEnd + newLength - oldLength;
+        CharSequence changedCode = programCode.subSequence(spanStart, newSpanEnd);
+
+        ParseResult<TIBasicParser.ProgramContext> result = parse(changedCode, oldPositions.getLine(firstCommand), oldPositions.getColumn(firstCommand), TIBasicParser::program);
+        if (result.nextToken.getType() != Token.EOF) {
+            LOGGER.debug("Changed commands of program {} could not be parsed completely - preprocessing whole program", programName);
+            return preprocessProgramCode(programName, programCode);
+        }
+        Object changedLabels = new PreprocessVisitor().visitProgram(result.context);
+        TIBasicParser.CommandListContext changedCommandList = result.context.commandList();
+        int changedCount = changedCommandList.command().size();
+        LOGGER.debug("Replacing commands {} to {} of program {} with {} new commands", firstCommand, endCommand - 1, programName, changedCount);
+
+        // Splice the unchanged and the new commands into a new tree
+        TIBasicParser.ProgramContext programContext = new TIBasicParser.ProgramContext(null, -1);
+        TIBasicParser.CommandListContext commandListContext = new TIBasicParser.CommandListContext(programContext, -1);
+        programContext.addChild(commandListContext);
+        appendCommands(commandListContext, oldCommandList, 0, firstCommand);
+        appendCommands(commandListContext, changedCommandList, 0, changedCount);
+        appendCommands(commandListContext, oldCommandList, endCommand, commandCount);
+        List<TIBasicParser.CommandContext> commands = commandListContext.command();
+
+        ExecutableProgram.CommandPositions positions = oldPositions.splice(firstCommand, endCommand, spanStart, changedCommandList, newLength - oldLength);
+        Map<String, Integer> labelIndexes = spliceLabels(program, changedLabels, commands, firstCommand, endCommand, changedCount);
+
+        Map<String, List<TIBasicParser.CommandContext>> labelMap = new HashMap<>();
+        labelIndexes.forEach((label, index) -> labelMap.put(label, commands.subList(index, commands.size())));
+
+        ExecutableProgram executableProgram = new ExecutableProgram();
+        executableProgram.setMainProgramContext(programContext);
+        executableProgram.setProgramName(programName);
+        executableProgram.setOriginalSource(programCode);
+        executableProgram.setInternalLabelMap(labelMap);
+        executableProgram.commandPositions = positions;
+        return executableProgram;
+    }
+
+    /**
+     * Parses a single expression, e.g. a value that has been entered by the user. The whole input must form exactly
+     * one expression.
+     *
+     * @param expressionCode
+     *         Code of a single TI-Basic expression.
+     * @return The parse tree of the expression.
+     * @throws PreprocessException
+     *         Will be thrown if the input is not a valid expression.
+     */
+    public TIBasicParser.ExpressionContext preprocessExpression(CharSequence expressionCode) throws PreprocessException {
+        ParseResult<TIBasicParser.ExpressionContext> result = parse(expressionCode, 1, 0, TIBasicParser::expression);
+
+        Token nextToken = result.nextToken;
+        if (nextToken.getType() != Token.EOF) {
+            throw new PreprocessException(nextToken.getLine(), nextToken.getCharPositionInLine(), "Unexpected input after expression: " + nextToken.getText());
+        }
+        result.context.accept(new PreprocessVisitor());
+        return result.context;
+    }
+
+    /**
+     * Preprocesses the code of a single command that has been cut out of a larger program. The code must start with
+     * the separator of the command and may not contain any further separator.
+     *
+     * @param commandCode
+     *         Code of the command including its leading separator.
+     * @param line
+     *         Line of the separator inside the whole program.
+     * @param column
+     *         Column of the separator inside the whole program.
+     * @return The parse tree of the command.
+     * @throws PreprocessException
+     *         Will be thrown if the code is not exactly one valid command.
+     */
+    TIBasicParser.CommandContext preprocessCommand(CharSequence commandCode, int line, int column) throws PreprocessException {
+        ParseResult<TIBasicParser.ProgramContext> result = parse(commandCode, line, column, TIBasicParser::program);
+
+        Token nextToken = result.nextToken;
+        if (nextToken.getType() != Token.EOF) {
+            throw new PreprocessException(nextToken.getLine(), nextToken.getCharPositionInLine(), "Unexpected input after command: " + nextToken.getText());
+        }
+        List<TIBasicParser.CommandContext> commands = result.context.commandList().command();
+        if (commands.size() != 1) {
+            throw new PreprocessException(line, column, "Expected exactly one command but found " + commands.size());
+        }
+        new PreprocessVisitor().visitProgram(result.context);
+        return commands.get(0);
+    }
+
+    /**
+     * Returns the counters of all parsers that have been used by any preprocessor.
+     *
+     * @return The global parse statistics.
+     */
+    public static ParseStatistics getStatistics() {
+        return STATISTICS;
+    }
+
+    /**
+     * Parses the given code with the given start rule. The code will first be parsed with the SLL prediction mode,
+     * which is a lot faster but may fail on some valid input. The first error cancels the SLL parse immediately and the
+     * whole code will be parsed again with full LL prediction, which reports the actual syntax errors. If the SLL parse
+     * stops before the end of the input, the LL parse will also be used, so that both stages always produce the same
+     * result. The lexer and parser of the current thread will be reused and are detached from the input afterwards, so
+     * that they don't keep the last program alive. The given line and column are used as the position of the first
+     * character, so that code fragments report the same positions as in their whole program.
+     */
+    private <T extends ParserRuleContext> ParseResult<T> parse(CharSequence code, int line, int column, Function<TIBasicParser, T> startRule) throws PreprocessException {
+        long startTime = System.nanoTime();
+        boolean fallback = false;
+        boolean failed = true;
+
+        TIBasicLexer lexer = LEXER.get();
+        lexer.setInputStream(new ANTLRInputStream(code.toString()));
+        lexer.setLine(line);
+        lexer.setCharPositionInLine(column);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        TIBasicParser parser = PARSER.get();
+        parser.setTokenStream(tokens);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+
+        try {
+            T context = null;
+            try {
+                context = startRule.apply(parser);
+            } catch (ParseCancellationException e) {
+                LOGGER.trace("SLL parse failed", e);
+            }
+
+            if (context == null || parser.getCurrentToken().getType() != Token.EOF) {
+                fallback = true;
+                tokens.reset();
+                parser.reset();
+                parser.addErrorListener(PreprocessErrorListener.INSTANCE);
+                parser.setErrorHandler(new DefaultErrorStrategy());
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                context = startRule.apply(parser);
+            }
+
+            failed = false;
+            return new ParseResult<>(context, parser.getCurrentToken());
+        } finally {
+            parser.setTokenStream(null);
+            ((DetachableParserATNSimulator) parser.getInterpreter()).detach();
+            lexer.setInputStream(null);
+            long nanos = System.nanoTime() - startTime;
+            STATISTICS.recordParse(fallback, failed, code.length(), nanos);
+            LOGGER.debug("Parsed {} characters in {} µs (LL fallback: {}, failed: {})", code.length(), nanos / 1000, fallback, failed);
+        }
+    }
+
+    private static boolean containsNewline(CharSequence code, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (code.charAt(i) == '\n')
+                return true;
+        }
+        return false;
+    }
+
+    private static int countNewlines(CharSequence code, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (code.charAt(i) == '\n')
+                count++;
+        }
+        return count;
+    }
+
+    private void appendCommands(TIBasicParser.CommandListContext target, TIBasicParser.CommandListContext source, int from, int to) {
+        for (int i = from; i < to; i++) {
+            target.addChild(source.SEPARATOR(i).getSymbol());
+            target.addChild(source.command(i));
+        }
+    }
+
+    /**
+     * Computes the label positions after the given range of commands has been replaced. Labels before the change keep
+     * their position and labels after the change are moved. Labels that were defined in the replaced commands and
+     * are not defined in the new commands anymore may still be defined again later in the program, so that the rest of
+     * the program has to be searched for them.
+     */
+    private Map<String, Integer> spliceLabels(ExecutableProgram program, Object changedLabels, List<TIBasicParser.CommandContext> commands, int firstCommand, int endCommand, int changedCount) {
+        int shift = changedCount - (endCommand - firstCommand);
+        Map<String, Integer> labelIndexes = new HashMap<>();
+        Set<String> removedLabels = new HashSet<>();
+
+        program.getLabelIndexes().forEach((label, index) -> {
+            if (index < firstCommand)
+                labelIndexes.put(label, index);
+            else if (index >= endCommand)
+                labelIndexes.put(label, index + shift);
+            else
+                removedLabels.add(label);
+        });
+
+        if (changedLabels instanceof PreprocessVisitor.LabelMapWrapper) {
+            ((PreprocessVisitor.LabelMapWrapper) changedLabels).getMap().forEach((label, labelCommands) -> {
+                int index = firstCommand + changedCount - labelCommands.size();
+                labelIndexes.merge(label, index, Math::min);
+                removedLabels.remove(label);
+            });
+        }
+
+        for (int i = firstCommand + changedCount; i < commands.size() && !removedLabels.isEmpty(); i++) {
+            TIBasicParser.CommandContext command = commands.get(i);
+            if (command.isControlFlowStatement && command.controlFlowStatement().labelStatement() != null) {
+                String label = command.controlFlowStatement().labelStatement().labelIdentifier().getText();
+                if (removedLabels.remove(label))
+                    labelIndexes.putIfAbsent(label, i);
+            }
+        }
+        return labelIndexes;
+    }
+
+    /**
+     * Parser interpreter that can forget the input of its last prediction. ANTLR keeps the outermost context of the
+     * last prediction, which would keep the whole parse tree of the last program alive in the parser of each thread.
+     */
+    private static class DetachableParserATNSimulator extends ParserATNSimulator {
+
+        DetachableParserATNSimulator(TIBasicParser parser, ParserATNSimulator interpreter) {
+            super(parser, parser.getATN(), interpreter.decisionToDFA, interpreter.getSharedContextCache());
+        }
+
+        void detach() {
+            _input = null;
+            _outerContext = null;
+        }
+    }
+
+    private static class ParseResult<T extends ParserRuleContext> {
+
+        final T context;
+
+        final Token nextToken;
+
+        ParseResult(T context, Token nextToken) {
+            this.context = context;
+            this.nextToken = nextToken;
+        }
     }
 
 }
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.antlr.TIBasicLexer;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent archive of programs that have already been preprocessed successfully. Programs are identified by a hash of
+ * their source code, so that a program that is found in the archive is known to be syntactically valid and doesn't
+ * have to be parsed before it is executed for the first time. Since ANTLR parse trees can't be stored, the archive
+ * only contains the result of the preprocessing, i.e. the number of commands and the identifiers of all labels.
+ * <p/>
+ * All entries are bound to the grammar version which was used to create them. If the grammar changes, an existing
+ * archive will be discarded when it is opened. The archive file is read via a memory mapping and new entries are
+ * appended to the end of the file. Instances are thread-safe.
+ */
+public class ProgramArchive implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgramArchive.class);
+
+    /**
+     * Magic number at the beginning of each archive: "TIBA"
+     */
+    private static final int MAGIC = 0x54494241;
+
+    private static final short VERSION = 1;
+
+    private static final int HASH_LENGTH = 32;
+
+    private static final int HEADER_LENGTH = 4 + 2 + HASH_LENGTH;
+
+    /**
+     * Hash over the serialized lexer and parser ATN. Any change to the grammar results in a different hash.
+     */
+    private static final HashCode GRAMMAR_VERSION = Hashing.sha256().newHasher()
+            .putString(TIBasicLexer._serializedATN, StandardCharsets.UTF_8)
+            .putString(TIBasicParser._serializedATN, StandardCharsets.UTF_8)
+            .hash();
+
+    private final Map<HashCode, Entry> entries = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+
+    private final Path path;
+
+    private ProgramArchive(@NotNull Path path, @NotNull FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Open the archive at the given path or create a new one if the file doesn't exist. An archive that has been
+     * created with a different grammar version will be cleared.
+     *
+     * @param path
+     *         Path of the archive file.
+     * @return The opened archive.
+     * @throws IOException
+     *         Will be thrown if the file can't be read or written or if it is not a program archive.
+     */
+    @NotNull
+    public static ProgramArchive open(@NotNull Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ProgramArchive archive = new ProgramArchive(path, channel);
+        try {
+            archive.load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return archive;
+    }
+
+    /**
+     * Returns the hash that identifies the current grammar version.
+     */
+    @NotNull
+    public static String getGrammarVersion() {
+        return GRAMMAR_VERSION.toString();
+    }
+
+    /**
+     * Looks up a program source in the archive.
+     *
+     * @param programCode
+     *         Source code of the program.
+     * @return The archived preprocessing result or an empty optional if the source hasn't been archived yet.
+     */
+    @NotNull
+    public Optional<Entry> lookup(@NotNull CharSequence programCode) {
+        return Optional.ofNullable(entries.get(hashSource(programCode)));
+    }
+
+    /**
+     * Store the preprocessing result of the given program in the archive. Programs whose source is already archived
+     * will be ignored.
+     *
+     * @param program
+     *         A successfully preprocessed program.
+     * @throws IOException
+     *         Will be thrown if the archive file can't be written.
+     */
+    public void add(@NotNull ExecutableProgram program) throws IOException {
+        HashCode sourceHash = hashSource(program.getOriginalSource());
+        if (entries.containsKey(sourceHash))
+            return;
+
+        ImmutableSet<String> labels = ImmutableSet.copyOf(program.getLabelIndexes().keySet());
+        Entry entry = new Entry(program.getCommandCount(), labels);
+
+        int size = HASH_LENGTH + 4 + 2;
+        for (String label : labels)
+            size += 1 + label.getBytes(StandardCharsets.UTF_8).length;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(sourceHash.asBytes());
+        buffer.putInt(entry.getCommandCount());
+        buffer.putShort((short) labels.size());
+        for (String label : labels) {
+            byte[] labelBytes = label.getBytes(StandardCharsets.UTF_8);
+            buffer.put((byte) labelBytes.length);
+            buffer.put(labelBytes);
+        }
+        buffer.flip();
+
+        synchronized (channel) {
+            if (entries.putIfAbsent(sourceHash, entry) != null)
+                return;
+            channel.position(channel.size());
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+
+    @NotNull
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the number of archived programs.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void load() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize == 0) {
+            writeHeader();
+            return;
+        }
+        if (fileSize < HEADER_LENGTH)
+            throw new IOException("File is not a program archive: " + path);
+
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("File is not a program archive: " + path);
+
+        short version = buffer.getShort();
+        byte[] grammarVersion = new byte[HASH_LENGTH];
+        buffer.get(grammarVersion);
+        if (version != VERSION || !HashCode.fromBytes(grammarVersion).equals(GRAMMAR_VERSION)) {
+            LOGGER.info("Discarding program archive {} from a different grammar version", path);
+            channel.truncate(0);
+            writeHeader();
+            return;
+        }
+
+        int validEnd = buffer.position();
+        try {
+            while (buffer.hasRemaining()) {
+                byte[] sourceHash = new byte[HASH_LENGTH];
+                buffer.get(sourceHash);
+                int commandCount = buffer.getInt();
+                int labelCount = buffer.getShort() & 0xFFFF;
+                ImmutableSet.Builder<String> labels = ImmutableSet.builder();
+                for (int i = 0; i < labelCount; i++) {
+                    byte[] label = new byte[buffer.get() & 0xFF];
+                    buffer.get(label);
+                    labels.add(new String(label, StandardCharsets.UTF_8));
+                }
+                entries.put(HashCode.fromBytes(sourceHash), new Entry(commandCount, labels.build()));
+                validEnd = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // The last entry has not been written completely -> drop it
+            LOGGER.warn("Truncating incomplete entry at the end of program archive {}", path);
+            channel.truncate(validEnd);
+        }
+        LOGGER.debug("Loaded {} entries from program archive {}", entries.size(), path);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.put(GRAMMAR_VERSION.asBytes());
+        header.flip();
+        channel.position(0);
+        while (header.hasRemaining())
+            channel.write(header);
+    }
+
+    @NotNull
+    private static HashCode hashSource(@NotNull CharSequence programCode) {
+        return Hashing.sha256().hashString(programCode, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Preprocessing result of a single archived program.
+     */
+    public static class Entry {
+
+        private final int commandCount;
+
+        private final ImmutableSet<String> labels;
+
+        Entry(int commandCount, @NotNull ImmutableSet<String> labels) {
+            this.commandCount = commandCount;
+            this.labels = labels;
+        }
+
+        /**
+         * Returns the number of top-level commands in the program.
+         */
+        public int getCommandCount() {
+            return commandCount;
+        }
+
+        /**
+         * Returns the identifiers of all labels in the program.
+         */
+        @NotNull
+        public ImmutableSet<String> getLabels() {
+            return labels;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.exception.ExecutionLimitExceededException;
+import org.xlrnet.tibaija.exception.TIRuntimeException;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single run of an {@link ExecutableProgram} inside an {@link ExecutionEnvironment}. The execution can be advanced
+ * in slices of a given number of commands, so that many programs can share a small number of threads. Between two
+ * slices or while the program waits for input, the execution holds no thread at all. Instances are not thread-safe,
+ * but may be handed over between threads as long as only one thread at a time advances the execution.
+ */
+public class ProgramExecution {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgramExecution.class);
+
+    /**
+     * Number of commands after which the limits will be checked if the execution runs in a single call. Larger slices
+     * are split up into parts of this size as well if the execution has a wall clock limit.
+     */
+    private static final long DEFAULT_SLICE_BUDGET = 4096;
+
+    private final ExecutableProgram program;
+
+    private final FullTIBasicVisitor visitor;
+
+    private final List<TIBasicParser.CommandContext> commandList;
+
+    private final ExecutionLimits limits;
+
+    private final ExecutionState state;
+
+    private long startTime;
+
+    private boolean started;
+
+    private boolean finished;
+
+    private long suspendedSince;
+
+    private final long restoredElapsedNanos;
+
+    ProgramExecution(@NotNull ExecutableProgram program, @NotNull FullTIBasicVisitor visitor, @NotNull ExecutionLimits limits) {
+        this(program, visitor, limits, new ExecutionState(), 0);
+    }
+
+    /**
+     * Create an execution that continues with a previously saved state.
+     *
+     * @param elapsedNanos
+     *         Wall clock time that the program has already been running before the state was saved.
+     */
+    ProgramExecution(@NotNull ExecutableProgram program, @NotNull FullTIBasicVisitor visitor, @NotNull ExecutionLimits limits, @NotNull ExecutionState state, long elapsedNanos) {
+        this.program = program;
+        this.visitor = visitor;
+        this.limits = limits;
+        this.state = state;
+        this.restoredElapsedNanos = elapsedNanos;
+        this.commandList = program.getMainProgramContext().commandList().command();
+    }
+
+    /**
+     * Returns the wall clock time the program has been running so far. Time spent waiting for input is not included.
+     */
+    public long getElapsedNanos() {
+        if (!started)
+            return restoredElapsedNanos;
+        if (suspendedSince != 0)
+            return suspendedSince - startTime;
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Returns the total number of commands that have been executed or skipped so far.
+     */
+    public long getExecutedCommands() {
+        return state.executedCommands;
+    }
+
+    @NotNull
+    public ExecutionLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Returns the input the program is currently waiting for. The execution can be continued as soon as the returned
+     * future has completed.
+     *
+     * @return The pending input or an empty optional if the program is not suspended.
+     */
+    @NotNull
+    public Optional<CompletableFuture<String>> getPendingInput() {
+        if (state.pendingInput == null || state.pendingInput.isDone())
+            return Optional.empty();
+        return Optional.of(state.pendingInput);
+    }
+
+    @NotNull
+    ExecutionState getState() {
+        return state;
+    }
+
+    @NotNull
+    public ExecutableProgram getProgram() {
+        return program;
+    }
+
+    /**
+     * Returns true if the program has either reached its end or has been stopped.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Runs the program until it has finished. The limits of this execution will still be checked regularly. If the
+     * program has to wait for input, the current thread will be blocked.
+     *
+     * @throws TIRuntimeException
+     *         Will be thrown on errors while executing the program or if a limit was exceeded.
+     */
+    public void run() throws TIRuntimeException {
+        long sliceBudget = limits.isUnlimited() ? Long.MAX_VALUE : DEFAULT_SLICE_BUDGET;
+        Status status;
+        while ((status = step(sliceBudget)) != Status.FINISHED) {
+            if (status == Status.SUSPENDED)
+                state.awaitInput();
+            LOGGER.trace("Finished slice of program {} after {} commands", program.getProgramName(), state.executedCommands);
+        }
+    }
+
+    /**
+     * Executes at most the given number of commands and returns afterwards. The execution always stops at a command
+     * boundary and can be continued by calling this method again. If the program waits for input, the method returns
+     * immediately and the execution should only be continued after the input returned by {@link #getPendingInput()}
+     * is available. The limits are checked after the slice and, if there is a wall clock limit, also after every
+     * {@value #DEFAULT_SLICE_BUDGET} commands inside the slice.
+     *
+     * @param commandBudget
+     *         Maximum number of commands that may be executed or skipped in this slice.
+     * @return {@link Status#FINISHED} if the program has finished, {@link Status#YIELDED} if the budget has been
+     * used up before or {@link Status#SUSPENDED} if the program waits for input.
+     * @throws TIRuntimeException
+     *         Will be thrown on errors while executing the program or if a limit was exceeded.
+     */
+    @NotNull
+    public Status step(long commandBudget) throws TIRuntimeException {
+        if (finished)
+            return Status.FINISHED;
+
+        if (!started) {
+            startTime = System.nanoTime() - restoredElapsedNanos;
+            started = true;
+        } else if (suspendedSince != 0) {
+            // Time spent waiting for input doesn't count towards the wall clock limit
+            startTime += System.nanoTime() - suspendedSince;
+            suspendedSince = 0;
+        }
+
+        long sliceBudget = commandBudget;
+        if (limits.hasCommandLimit())
+            sliceBudget = Math.min(sliceBudget, limits.getMaxCommands() - state.executedCommands);
+
+        Status status;
+        do {
+            long partBudget = limits.hasWallClockLimit() ? Math.min(sliceBudget, DEFAULT_SLICE_BUDGET) : sliceBudget;
+            status = visitor.executeCommands(commandList, state, partBudget);
+            if (status == Status.FINISHED) {
+                finished = true;
+                return Status.FINISHED;
+            }
+            checkLimits();
+            sliceBudget -= partBudget;
+        } while (status == Status.YIELDED && sliceBudget > 0);
+
+        if (status == Status.SUSPENDED)
+            suspendedSince = System.nanoTime();
+        return status;
+    }
+
+    private void checkLimits() throws ExecutionLimitExceededException {
+        if (limits.hasCommandLimit() && state.executedCommands >= limits.getMaxCommands()) {
+            throw newLimitException("Command budget of " + limits.getMaxCommands() + " commands exceeded");
+        }
+        if (limits.hasWallClockLimit() && System.nanoTime() - startTime > limits.getMaxWallClockNanos()) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(limits.getMaxWallClockNanos());
+            throw newLimitException("Wall clock limit of " + millis + " ms exceeded");
+        }
+    }
+
+    @NotNull
+    private ExecutionLimitExceededException newLimitException(String message) {
+        int line = -1;
+        int charIndex = -1;
+        if (state.commandCounter < commandList.size() && commandList.get(state.commandCounter).getStart() != null) {
+            line = commandList.get(state.commandCounter).getStart().getLine();
+            charIndex = commandList.get(state.commandCounter).getStart().getCharPositionInLine();
+        }
+        finished = true;
+        LOGGER.debug("Terminating program {}: {}", program.getProgramName(), message);
+        return new ExecutionLimitExceededException(line, charIndex, message, state.executedCommands);
+    }
+
+    /**
+     * Result of a single execution step.
+     */
+    public static enum Status {
+        /**
+         * The program has reached its end or has been stopped.
+         */
+        FINISHED,
+        /**
+         * The command budget of the current step has been used up, but the program has not yet finished.
+         */
+        YIELDED,
+        /**
+         * The program waits for input and may only be continued after the input is available.
+         */
+        SUSPENDED
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.exception.ProgramNotFoundException;
+import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cooperative scheduler that runs many programs on a small, fixed pool of threads. Each program runs for a slice of at
+ * most a configured number of commands and is then put back at the end of the queue, so that no program can pin a
+ * thread forever and all programs get a fair share of the pool. Programs that wait for input don't occupy a thread
+ * either: they will only be put back into the queue once their input is available.
+ * <p/>
+ * The scheduler itself doesn't synchronize access to calculator memory. Programs that run at the same time should
+ * therefore use separate calculators.
+ */
+public class ProgramScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgramScheduler.class);
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final ExecutorService executorService;
+
+    private final long sliceBudget;
+
+    private final Set<CompletableFuture<ProgramExecution>> activePrograms = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean shutdown;
+
+    /**
+     * Create a new scheduler with its own thread pool.
+     *
+     * @param threadCount
+     *         Number of worker threads.
+     * @param sliceBudget
+     *         Number of commands a program may execute before it has to yield its thread.
+     */
+    public ProgramScheduler(int threadCount, long sliceBudget) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("At least one thread is required");
+        if (sliceBudget < 1)
+            throw new IllegalArgumentException("Slice budget must be positive");
+
+        this.sliceBudget = sliceBudget;
+        this.executorService = Executors.newFixedThreadPool(threadCount, newThreadFactory());
+    }
+
+    /**
+     * Returns the number of commands a program may execute before it has to yield its thread.
+     */
+    public long getSliceBudget() {
+        return sliceBudget;
+    }
+
+    /**
+     * Stops accepting new programs. Programs that have already been submitted will be run until they finish.
+     */
+    public void shutdown() {
+        shutdown = true;
+        shutdownIfIdle();
+    }
+
+    /**
+     * Stops all running programs as soon as their current slice has ended. The futures of all unfinished programs will
+     * be cancelled.
+     */
+    public void shutdownNow() {
+        shutdown = true;
+        activePrograms.forEach(future -> future.cancel(false));
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Blocks until all programs have finished after a shutdown request or until the timeout occurs.
+     *
+     * @return True if the scheduler terminated and false if the timeout elapsed before termination.
+     */
+    public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        return executorService.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Schedule a program that is stored in the memory of the given calculator. The program will run inside a new
+     * default environment of the calculator.
+     *
+     * @param calculator
+     *         The calculator whose memory and I/O device will be used.
+     * @param programName
+     *         Name of the stored program.
+     * @param limits
+     *         Total limits of the program.
+     * @return A future that completes with the finished execution or exceptionally with the error that terminated
+     * the program. Cancelling the future stops the program after its current slice.
+     * @throws ProgramNotFoundException
+     *         Will be thrown if the calculator has no program with the given name.
+     */
+    @NotNull
+    public CompletableFuture<ProgramExecution> submit(@NotNull VirtualCalculator calculator, @NotNull String programName, @NotNull ExecutionLimits limits) throws ProgramNotFoundException {
+        ExecutableProgram program = calculator.getMemory().getStoredProgram(programName);
+        ExecutionEnvironment environment = ExecutionEnvironmentUtil.newDefaultEnvironment(calculator);
+        return submit(environment.newExecution(program, new FullTIBasicVisitor(), limits));
+    }
+
+    /**
+     * Schedule a prepared execution. The execution may not be advanced by anyone else after it has been submitted.
+     *
+     * @param execution
+     *         The execution to schedule.
+     * @return A future that completes with the finished execution or exceptionally with the error that terminated
+     * the program. Cancelling the future stops the program after its current slice.
+     */
+    @NotNull
+    public CompletableFuture<ProgramExecution> submit(@NotNull ProgramExecution execution) {
+        if (shutdown)
+            throw new RejectedExecutionException("Scheduler has already been shut down");
+
+        CompletableFuture<ProgramExecution> future = new CompletableFuture<>();
+        activePrograms.add(future);
+        future.whenComplete((result, throwable) -> {
+            activePrograms.remove(future);
+            shutdownIfIdle();
+        });
+        schedule(execution, future);
+        return future;
+    }
+
+    private ThreadFactory newThreadFactory() {
+        final int poolNumber = POOL_COUNTER.incrementAndGet();
+        final AtomicInteger threadCounter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "tibaija-scheduler-" + poolNumber + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private void runSlice(@NotNull ProgramExecution execution, @NotNull CompletableFuture<ProgramExecution> future) {
+        if (future.isDone()) {
+            LOGGER.debug("Dropping cancelled program {}", execution.getProgram().getProgramName());
+            return;
+        }
+
+        try {
+            switch (execution.step(sliceBudget)) {
+                case FINISHED:
+                    future.complete(execution);
+                    break;
+                case SUSPENDED:
+                    Optional<CompletableFuture<String>> pendingInput = execution.getPendingInput();
+                    if (pendingInput.isPresent()) {
+                        LOGGER.debug("Suspending program {} until input is available", execution.getProgram().getProgramName());
+                        pendingInput.get().whenComplete((input, throwable) -> schedule(execution, future));
+                    } else {
+                        schedule(execution, future);
+                    }
+                    break;
+                default:
+                    // Requeue at the end of the queue, so that all other waiting programs get their turn first
+                    schedule(execution, future);
+            }
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void schedule(@NotNull ProgramExecution execution, @NotNull CompletableFuture<ProgramExecution> future) {
+        try {
+            executorService.execute(() -> runSlice(execution, future));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * The executor may only be shut down after the last program has finished, since unfinished programs requeue
+     * themselves after each slice.
+     */
+    private void shutdownIfIdle() {
+        if (shutdown && activePrograms.isEmpty())
+            executorService.shutdown();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * Rough estimates of the heap size of the objects that make up a program. The sizes assume a 64-bit JVM without
+ * compressed references, so that the estimates are rather too high than too low. They are meant for comparing
+ * programs and representations, not for exact measurements.
+ */
+final class RetainedSize {
+
+    static final long OBJECT_HEADER = 16;
+
+    static final long REFERENCE = 8;
+
+    static final long ARRAY_HEADER = 16;
+
+    /**
+     * A view on a part of a list, as used for the commands after a label.
+     */
+    static final long SUB_LIST = OBJECT_HEADER + 2 * REFERENCE + 3 * 4;
+
+    /**
+     * A token with its type, position, channel, text and source references.
+     */
+    private static final long TOKEN = OBJECT_HEADER + 7 * 4 + 3 * REFERENCE;
+
+    /**
+     * A terminal node of the parse tree that wraps a token.
+     */
+    private static final long TERMINAL_NODE = OBJECT_HEADER + 2 * REFERENCE + TOKEN;
+
+    /**
+     * A rule node of the parse tree with its parent, children, tokens and the fields generated for the rule.
+     */
+    private static final long RULE_NODE = OBJECT_HEADER + 6 * REFERENCE + 2 * 4;
+
+    /**
+     * An entry of a hash map, which also needs a slot in the table of the map.
+     */
+    private static final long MAP_ENTRY = OBJECT_HEADER + 3 * REFERENCE + 4 + REFERENCE;
+
+    private RetainedSize() {
+    }
+
+    static long of(CharSequence sequence) {
+        if (sequence instanceof StringBuilder)
+            return OBJECT_HEADER + REFERENCE + 4 + ofCharArray(((StringBuilder) sequence).capacity());
+        return OBJECT_HEADER + REFERENCE + 4 + ofCharArray(sequence.length());
+    }
+
+    /**
+     * Sums up the nodes of a parse tree. The tree is traversed iteratively, since deeply nested expressions could
+     * exceed the stack otherwise.
+     */
+    static long of(ParseTree tree) {
+        long bytes = 0;
+        Deque<ParseTree> pending = new ArrayDeque<>();
+        pending.push(tree);
+        while (!pending.isEmpty()) {
+            ParseTree node = pending.pop();
+            if (node instanceof ParserRuleContext) {
+                bytes += RULE_NODE;
+                ParserRuleContext context = (ParserRuleContext) node;
+                if (context.children != null) {
+                    bytes += OBJECT_HEADER + REFERENCE + 4 + ofReferenceArray(context.children.size());
+                    context.children.forEach(pending::push);
+                }
+            } else {
+                bytes += TERMINAL_NODE;
+            }
+        }
+        return bytes;
+    }
+
+    static long ofLabelMap(Collection<String> labels, long valueSize) {
+        long bytes = OBJECT_HEADER + REFERENCE + 4 * 4 + ARRAY_HEADER;
+        for (String label : labels)
+            bytes += MAP_ENTRY + of(label) + valueSize;
+        return bytes;
+    }
+
+    static long ofIntArray(int length) {
+        return align(ARRAY_HEADER + 4L * length);
+    }
+
+    private static long ofCharArray(int length) {
+        return align(ARRAY_HEADER + 2L * length);
+    }
+
+    private static long ofReferenceArray(int length) {
+        return align(ARRAY_HEADER + REFERENCE * length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.exception.TIRuntimeException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Executes the commands of a {@link CommandStream} while they are read. The visitor only ever sees a small window of
+ * commands: the current command and the following one, which is needed to decide whether an If starts a block or only
+ * guards a single command. After each step, all commands that have been executed or skipped are removed from the
+ * window, so that their parse trees can be collected.
+ */
+class StreamingExecution {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingExecution.class);
+
+    /**
+     * Number of commands that have been read but not yet executed.
+     */
+    private static final int WINDOW_SIZE = 2;
+
+    /**
+     * Empty command that is appended to the window as long as more commands follow. It is never executed, but makes
+     * sure that the visitor only reports a finished program if it has been stopped.
+     */
+    private static final TIBasicParser.CommandContext PLACEHOLDER = new TIBasicParser.CommandContext(null, -1);
+
+    private final CommandStream commandStream;
+
+    private final FullTIBasicVisitor visitor;
+
+    private final ExecutionState state = new ExecutionState();
+
+    private final List<TIBasicParser.CommandContext> window = new ArrayList<>(WINDOW_SIZE + 1);
+
+    StreamingExecution(@NotNull CommandStream commandStream, @NotNull FullTIBasicVisitor visitor) {
+        this.commandStream = commandStream;
+        this.visitor = visitor;
+    }
+
+    /**
+     * Runs the program until the end of the stream has been reached or the program has been stopped. If the program
+     * has to wait for input, the current thread will be blocked.
+     */
+    void run() throws IOException, TIRuntimeException {
+        fillWindow();
+        while (!window.isEmpty()) {
+            boolean lastCommand = window.size() < WINDOW_SIZE;
+            if (!lastCommand)
+                window.add(PLACEHOLDER);
+
+            ProgramExecution.Status status;
+            state.commandCounter = 0;
+            while ((status = visitor.executeCommands(window, state, 1)) == ProgramExecution.Status.SUSPENDED) {
+                state.awaitInput();
+            }
+
+            if (!lastCommand) {
+                window.remove(window.size() - 1);
+                if (status == ProgramExecution.Status.FINISHED) {
+                    LOGGER.debug("Streamed program stopped after {} commands", state.executedCommands);
+                    return;
+                }
+            }
+            window.subList(0, Math.min(state.commandCounter, window.size())).clear();
+            fillWindow();
+        }
+        LOGGER.debug("Streamed program finished after {} commands", state.executedCommands);
+    }
+
+    private void fillWindow() throws IOException {
+        TIBasicParser.CommandContext command;
+        while (window.size() < WINDOW_SIZE && (command = commandStream.next()) != null) {
+            window.add(command);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableMap;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.commands.BinaryCommand;
+import org.xlrnet.tibaija.commands.BinaryCommandOperator;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.util.ContextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fused operation that replaces one of the most common commands in TI-Basic programs. Superinstructions are
+ * recognized by the {@link PreprocessVisitor} and stored in the parse tree of the command, so that the visitor can run
+ * them instead of visiting all levels of the expression. The following idioms are recognized:
+ * <ul>
+ * <li>Increments and decrements of a number variable with a constant, e.g. {@code X+1→X}</li>
+ * <li>Increments and decrements of Ans with a constant, e.g. {@code Ans+1}</li>
+ * <li>Stores of a constant list, e.g. {@code {1,2,3}→∟L}</li>
+ * <li>Conditions of If, While and Repeat that compare a number variable with a constant, e.g. {@code If X=5}</li>
+ * </ul>
+ * Variables and Ans are changed exactly like the visitor would change them. If an operator is not implemented by its
+ * default command or if a compared value is not a real number, the superinstruction can't be used and the command
+ * must be visited as usual.
+ */
+public abstract class Superinstruction {
+
+    private static final ImmutableMap<String, BinaryCommandOperator> OPERATORS = ImmutableMap.<String, BinaryCommandOperator>builder()
+            .put("+", BinaryCommandOperator.PLUS)
+            .put("-", BinaryCommandOperator.MINUS)
+            .put("=", BinaryCommandOperator.EQUALS)
+            .put("≠", BinaryCommandOperator.NOT_EQUALS)
+            .put(">", BinaryCommandOperator.GREATER_THAN)
+            .put("<", BinaryCommandOperator.LESS_THAN)
+            .put("≥", BinaryCommandOperator.GREATER_EQUALS)
+            .put("≤", BinaryCommandOperator.LESS_EQUALS)
+            .build();
+
+    /**
+     * Recognize a superinstruction for the given command.
+     *
+     * @param ctx
+     *         A preprocessed command.
+     * @return A superinstruction that can replace the command or null if the command is not a known idiom.
+     */
+    @Nullable
+    static Superinstruction recognize(@NotNull TIBasicParser.CommandContext ctx) {
+        if (ctx.expressionParent() != null)
+            return recognizeLastResultIncrement(ctx.expressionParent().expression());
+        if (ctx.statement() != null && ctx.statement().storeStatement() instanceof TIBasicParser.StoreNumberStatementContext)
+            return recognizeIncrement((TIBasicParser.StoreNumberStatementContext) ctx.statement().storeStatement());
+        if (ctx.statement() != null && ctx.statement().storeStatement() instanceof TIBasicParser.StoreListStatementContext)
+            return recognizeListStore((TIBasicParser.StoreListStatementContext) ctx.statement().storeStatement());
+        if (ctx.controlFlowStatement() != null)
+            return recognizeComparison(ctx.controlFlowStatement());
+        return null;
+    }
+
+    /**
+     * Execute a command superinstruction. The result will be stored in Ans by the caller.
+     *
+     * @param environment
+     *         The environment in which the command is executed.
+     * @return The result of the command or null if the superinstruction can't be used and the command must be visited.
+     */
+    @Nullable
+    Value execute(@NotNull ExecutionEnvironment environment) {
+        return null;
+    }
+
+    /**
+     * Evaluate a condition superinstruction.
+     *
+     * @param environment
+     *         The environment in which the condition is evaluated.
+     * @return The result of the condition or null if the superinstruction can't be used and the condition must be
+     * visited.
+     */
+    @Nullable
+    Boolean test(@NotNull ExecutionEnvironment environment) {
+        return null;
+    }
+
+    @Nullable
+    private static Superinstruction recognizeIncrement(@NotNull TIBasicParser.StoreNumberStatementContext ctx) {
+        Pattern pattern = Pattern.of(ctx.expression());
+        Variables.NumberVariable target = Variables.resolveNumberVariable(ctx.numericalVariable().getText());
+        if (pattern == null || !pattern.isIncrement() || pattern.lhs.variable != target)
+            return null;
+        return new VariableIncrement(target, pattern.operator, pattern.rhs.constant);
+    }
+
+    @Nullable
+    private static Superinstruction recognizeLastResultIncrement(@NotNull TIBasicParser.ExpressionContext ctx) {
+        Pattern pattern = Pattern.of(ctx);
+        if (pattern == null || !pattern.isIncrement() || !pattern.lhs.isLastResult)
+            return null;
+        return new LastResultIncrement(pattern.operator, pattern.rhs.constant);
+    }
+
+    @Nullable
+    private static Superinstruction recognizeListStore(@NotNull TIBasicParser.StoreListStatementContext ctx) {
+        Pattern pattern = Pattern.of(ctx.expression());
+        if (pattern == null || pattern.constant == null || !pattern.constant.isList())
+            return null;
+        return new ListStore(ctx.listVariable().listIdentifier().getText(), pattern.constant);
+    }
+
+    @Nullable
+    private static Superinstruction recognizeComparison(@NotNull TIBasicParser.ControlFlowStatementContext ctx) {
+        TIBasicParser.ExpressionContext condition;
+        if (ctx.ifStatement() != null)
+            condition = ctx.ifStatement().expression();
+        else if (ctx.whileStatement() != null)
+            condition = ctx.whileStatement().expression();
+        else if (ctx.repeatStatement() != null)
+            condition = ctx.repeatStatement().expression();
+        else
+            return null;
+
+        Pattern pattern = Pattern.of(condition);
+        if (pattern == null || pattern.operator == null || pattern.lhs.variable == null || !isRealNumber(pattern.rhs.constant))
+            return null;
+        BinaryCommandOperator operator = OPERATORS.get(pattern.operator);
+        if (operator == BinaryCommandOperator.PLUS || operator == BinaryCommandOperator.MINUS)
+            return null;
+        return new VariableComparison(pattern.lhs.variable, pattern.operator, operator, pattern.rhs.constant.complex().getReal());
+    }
+
+    private static boolean isRealNumber(@Nullable Value value) {
+        return value != null && value.isNumber() && value.complex().getImaginary() == 0;
+    }
+
+    /**
+     * Returns the registered command for the given operator if it is implemented by the default command.
+     */
+    @Nullable
+    private static BinaryCommand getDefaultCommand(@NotNull ExecutionEnvironment environment, @NotNull String operator) {
+        Command command = environment.getCommand(operator);
+        if (command instanceof BinaryCommand && ((BinaryCommand) command).getOperator() == OPERATORS.get(operator))
+            return (BinaryCommand) command;
+        return null;
+    }
+
+    /**
+     * Fused {@code X+c→X} or {@code X-c→X}.
+     */
+    private static class VariableIncrement extends Superinstruction {
+
+        private final Variables.NumberVariable variable;
+
+        private final String operator;
+
+        private final Value constant;
+
+        VariableIncrement(@NotNull Variables.NumberVariable variable, @NotNull String operator, @NotNull Value constant) {
+            this.variable = variable;
+            this.operator = operator;
+            this.constant = constant;
+        }
+
+        @Nullable
+        @Override
+        Value execute(@NotNull ExecutionEnvironment environment) {
+            BinaryCommand command = getDefaultCommand(environment, operator);
+            if (command == null)
+                return null;
+            Value result = command.applyToNumbers(environment.getMemory().getNumberVariableValue(variable), constant);
+            environment.getWritableMemory().setNumberVariableValue(variable, result);
+            return result;
+        }
+    }
+
+    /**
+     * Fused {@code Ans+c} or {@code Ans-c}.
+     */
+    private static class LastResultIncrement extends Superinstruction {
+
+        private final String operator;
+
+        private final Value constant;
+
+        LastResultIncrement(@NotNull String operator, @NotNull Value constant) {
+            this.operator = operator;
+            this.constant = constant;
+        }
+
+        @Nullable
+        @Override
+        Value execute(@NotNull ExecutionEnvironment environment) {
+            BinaryCommand command = getDefaultCommand(environment, operator);
+            Value lastResult = environment.getMemory().getLastResult();
+            if (command == null)
+                return null;
+            if (lastResult.isNumber())
+                return command.applyToNumbers(lastResult, constant);
+            if (lastResult.isList())
+                return command.applyToLists(lastResult, constant);
+            return null;                // Let the command report the type error
+        }
+    }
+
+    /**
+     * Fused {@code {c1,c2,...}→∟L} with constant elements. The list value is created only once.
+     */
+    private static class ListStore extends Superinstruction {
+
+        private final String listName;
+
+        private final Value list;
+
+        ListStore(@NotNull String listName, @NotNull Value list) {
+            this.listName = listName;
+            this.list = list;
+        }
+
+        @NotNull
+        @Override
+        Value execute(@NotNull ExecutionEnvironment environment) {
+            environment.getWritableMemory().setListVariableValue(listName, list);
+            return list;
+        }
+    }
+
+    /**
+     * Fused condition {@code X=c}, {@code X<c} etc. of If, While and Repeat.
+     */
+    private static class VariableComparison extends Superinstruction {
+
+        private final Variables.NumberVariable variable;
+
+        private final String operatorName;
+
+        private final BinaryCommandOperator operator;
+
+        private final double constant;
+
+        VariableComparison(@NotNull Variables.NumberVariable variable, @NotNull String operatorName, @NotNull BinaryCommandOperator operator, double constant) {
+            this.variable = variable;
+            this.operatorName = operatorName;
+            this.operator = operator;
+            this.constant = constant;
+        }
+
+        @Nullable
+        @Override
+        Boolean test(@NotNull ExecutionEnvironment environment) {
+            Complex value = environment.getMemory().getNumberVariableValue(variable).complex();
+            if (value.getImaginary() != 0 || Double.isNaN(value.getReal()) || getDefaultCommand(environment, operatorName) == null)
+                return null;
+            double real = value.getReal();
+            switch (operator) {
+                case EQUALS:
+                    return real == constant;
+                case NOT_EQUALS:
+                    return real != constant;
+                case GREATER_THAN:
+                    return real > constant;
+                case LESS_THAN:
+                    return real < constant;
+                case GREATER_EQUALS:
+                    return real >= constant;
+                default:
+                    return real <= constant;
+            }
+        }
+    }
+
+    /**
+     * Minimal expression tree that only supports number variables, Ans, constants, constant lists and a single binary
+     * operator between two of them.
+     */
+    private static class Pattern {
+
+        private Variables.NumberVariable variable;
+
+        private Value constant;
+
+        private boolean isLastResult;
+
+        private String operator;
+
+        private Pattern lhs;
+
+        private Pattern rhs;
+
+        @Nullable
+        static Pattern of(@NotNull ParseTree expression) {
+            return new PatternFolder().fold(expression);
+        }
+
+        /**
+         * Returns true if this pattern adds a constant to or subtracts it from another value.
+         */
+        boolean isIncrement() {
+            return ("+".equals(operator) || "-".equals(operator)) && isRealNumber(rhs.constant);
+        }
+    }
+
+    private static class PatternFolder extends ExpressionFolder<Pattern> {
+
+        @Nullable
+        @Override
+        protected Pattern binary(@NotNull String operator, @NotNull Pattern lhs, @NotNull Pattern rhs) {
+            if (lhs.operator != null || rhs.operator != null || !OPERATORS.containsKey(operator))
+                return null;
+            Pattern pattern = new Pattern();
+            pattern.operator = operator;
+            pattern.lhs = lhs;
+            pattern.rhs = rhs;
+            return pattern;
+        }
+
+        @Nullable
+        @Override
+        protected Pattern unary(@NotNull String operator, @NotNull Pattern operand) {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        protected Pattern negation(@NotNull Pattern operand) {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        protected Pattern leaf(@NotNull ParseTree tree) {
+            if (!(tree instanceof TIBasicParser.Expression_valueContext))
+                return null;
+            TIBasicParser.Expression_valueContext ctx = (TIBasicParser.Expression_valueContext) tree;
+            Pattern pattern = new Pattern();
+            if (ctx.lastResult() != null) {
+                pattern.isLastResult = true;
+            } else if (ctx.numericalValue() != null && ctx.numericalValue().numericalVariable() != null) {
+                pattern.variable = Variables.resolveNumberVariable(ctx.numericalValue().numericalVariable().getText());
+            } else if (ctx.numericalValue() != null) {
+                pattern.constant = ContextUtils.extractValueFromNumberContext(ctx.numericalValue().number());
+            } else if (ctx.listValue() != null && ctx.listValue().listExpression() != null) {
+                pattern.constant = foldConstantList(ctx.listValue().listExpression());
+                if (pattern.constant == null)
+                    return null;
+            } else {
+                return null;
+            }
+            return pattern;
+        }
+
+        @Nullable
+        private Value foldConstantList(@NotNull TIBasicParser.ListExpressionContext ctx) {
+            List<Complex> elements = new ArrayList<>(ctx.expression().size());
+            for (TIBasicParser.ExpressionContext expression : ctx.expression()) {
+                Pattern element = fold(expression);
+                if (element == null || !isRealNumber(element.constant))
+                    return null;
+                elements.add(element.constant.complex());
+            }
+            return Value.of(elements);
+        }
+    }
+}
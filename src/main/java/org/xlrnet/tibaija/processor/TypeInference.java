@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.jetbrains.annotations.NotNull;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Infers the result types of an expression and all its operator subrules before the expression is evaluated. Number
+ * variables can only contain numbers and list variables can only contain lists, so that the type of most expressions
+ * is known in advance. Only expressions that depend on Ans or contain matrices have an {@link ExpressionType#UNKNOWN}
+ * type.
+ * <p/>
+ * The inferred types assume that all operators are implemented by the default commands.
+ */
+class TypeInference extends ExpressionFolder<ExpressionType> {
+
+    private final Map<ParseTree, ExpressionType> types = new IdentityHashMap<>();
+
+    /**
+     * Infer the types of the given expression and all of its subrules.
+     *
+     * @param tree
+     *         An expression or any of its operator subrules.
+     * @return The types of all visited parse trees.
+     */
+    @NotNull
+    static Map<ParseTree, ExpressionType> infer(@NotNull ParseTree tree) {
+        TypeInference inference = new TypeInference();
+        inference.fold(tree);
+        return inference.types;
+    }
+
+    /**
+     * Returns the result type of a binary operator with operands of the given types.
+     */
+    @NotNull
+    static ExpressionType binaryResult(@NotNull String operator, @NotNull ExpressionType lhs, @NotNull ExpressionType rhs) {
+        if (lhs == ExpressionType.UNKNOWN || rhs == ExpressionType.UNKNOWN)
+            return ExpressionType.UNKNOWN;
+        if (lhs == ExpressionType.LIST || rhs == ExpressionType.LIST)
+            return ExpressionType.LIST;
+        switch (operator) {
+            case "+":
+            case "-":
+            case "*":
+            case "/":
+                return lhs == ExpressionType.REAL && rhs == ExpressionType.REAL ? ExpressionType.REAL : ExpressionType.COMPLEX;
+            case "^":
+            case "×√":
+                return ExpressionType.COMPLEX;
+            default:
+                return ExpressionType.REAL;         // Comparisons and logic operators only accept real numbers
+        }
+    }
+
+    @NotNull
+    @Override
+    public ExpressionType fold(@NotNull ParseTree tree) {
+        ExpressionType type = super.fold(tree);
+        types.put(tree, type);
+        return type;
+    }
+
+    @NotNull
+    @Override
+    protected ExpressionType binary(@NotNull String operator, @NotNull ExpressionType lhs, @NotNull ExpressionType rhs) {
+        return binaryResult(operator, lhs, rhs);
+    }
+
+    @NotNull
+    @Override
+    protected ExpressionType unary(@NotNull String operator, @NotNull ExpressionType operand) {
+        if (operand == ExpressionType.UNKNOWN || operand == ExpressionType.LIST)
+            return operand;
+        switch (operator) {
+            case "²":
+            case "³":
+            case "⁻¹":
+                return operand;
+            case "ᵀ":
+                return ExpressionType.UNKNOWN;      // Only accepts matrices
+            case "√(":
+            case "∛(":
+                return ExpressionType.COMPLEX;
+            default:
+                return ExpressionType.REAL;         // not( and ! only accept real numbers
+        }
+    }
+
+    @NotNull
+    @Override
+    protected ExpressionType negation(@NotNull ExpressionType operand) {
+        return operand;
+    }
+
+    @NotNull
+    @Override
+    protected ExpressionType leaf(@NotNull ParseTree tree) {
+        if (tree instanceof TIBasicParser.Expression_postfixContext)
+            return ExpressionType.COMPLEX;          // Imaginary numbers
+        if (!(tree instanceof TIBasicParser.Expression_valueContext))
+            return ExpressionType.UNKNOWN;
+
+        TIBasicParser.Expression_valueContext ctx = (TIBasicParser.Expression_valueContext) tree;
+        if (ctx.numericalValue() != null)
+            return ctx.numericalValue().number() != null ? ExpressionType.REAL : ExpressionType.COMPLEX;
+        if (ctx.listElement() != null)
+            return ExpressionType.COMPLEX;
+        if (ctx.listValue() != null)
+            return ExpressionType.LIST;
+        if (ctx.matrixElement() != null)
+            return ExpressionType.REAL;
+        if (ctx.getKey() != null)
+            return ExpressionType.REAL;
+        if (ctx.functionCall() != null) {
+            switch (ctx.functionCall().function.getType()) {
+                case TIBasicParser.SUM:
+                case TIBasicParser.MEAN:
+                    return ExpressionType.COMPLEX;
+                case TIBasicParser.RREF:
+                    return ExpressionType.UNKNOWN;
+                default:
+                    return ExpressionType.REAL;
+            }
+        }
+        return ExpressionType.UNKNOWN;
+    }
+}
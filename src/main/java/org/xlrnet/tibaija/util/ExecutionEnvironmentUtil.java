@@ -26,6 +26,10 @@ import org.jetbrains.annotations.NotNull;
 import org.xlrnet.tibaija.VirtualCalculator;
 import org.xlrnet.tibaija.commands.BinaryCommand;
 import org.xlrnet.tibaija.commands.BinaryCommandOperator;
+import org.xlrnet.tibaija.commands.MatrixCommand;
+import org.xlrnet.tibaija.commands.MatrixCommandOperator;
+import org.xlrnet.tibaija.commands.StatisticsCommand;
+import org.xlrnet.tibaija.commands.StatisticsCommandOperator;
 import org.xlrnet.tibaija.commands.UnaryCommand;
 import org.xlrnet.tibaija.commands.UnaryCommandOperator;
 import org.xlrnet.tibaija.io.CalculatorIO;
@@ -39,11 +43,14 @@ public class ExecutionEnvironmentUtil {
 
     @NotNull
     public static ExecutionEnvironment newDefaultEnvironment(@NotNull VirtualCalculator virtualCalculator) {
-        return newDefaultEnvironment(virtualCalculator.getMemory(), virtualCalculator.getIODevice());
+        ExecutionEnvironment env = newDefaultEnvironment(virtualCalculator.getMemory(), virtualCalculator.getIODevice());
+        if (virtualCalculator.getNumberMode() != null)
+            env.setNumberMode(virtualCalculator.getNumberMode());
+        return env;
     }
 
     @NotNull
-    private static ExecutionEnvironment newDefaultEnvironment(@NotNull CalculatorMemory memory, @NotNull CalculatorIO ioDevice) {
+    public static ExecutionEnvironment newDefaultEnvironment(@NotNull CalculatorMemory memory, @NotNull CalculatorIO ioDevice) {
         ExecutionEnvironment env = ExecutionEnvironment.newEnvironment(memory, ioDevice);
         registerCommands(env);
         return env;
@@ -68,6 +75,7 @@ public class ExecutionEnvironmentUtil {
         env.registerCommand("√(", new UnaryCommand(UnaryCommandOperator.SQUARE_ROOT));
         env.registerCommand("∛(", new UnaryCommand(UnaryCommandOperator.CUBIC_ROOT));
         env.registerCommand("!", new UnaryCommand(UnaryCommandOperator.FACTORIAL));
+        env.registerCommand("⁻¹", new UnaryCommand(UnaryCommandOperator.INVERSE));
         
         // Register comparison operators
         env.registerCommand("=", new BinaryCommand(BinaryCommandOperator.EQUALS));
@@ -82,6 +90,20 @@ public class ExecutionEnvironmentUtil {
         env.registerCommand("or", new BinaryCommand(BinaryCommandOperator.OR));
         env.registerCommand("xor", new BinaryCommand(BinaryCommandOperator.XOR));
         env.registerCommand("not(", new UnaryCommand(UnaryCommandOperator.NOT));
+
+        // Register statistics functions
+        env.registerCommand("sum(", new StatisticsCommand(StatisticsCommandOperator.SUM));
+        env.registerCommand("mean(", new StatisticsCommand(StatisticsCommandOperator.MEAN));
+        env.registerCommand("median(", new StatisticsCommand(StatisticsCommandOperator.MEDIAN));
+        env.registerCommand("stdDev(", new StatisticsCommand(StatisticsCommandOperator.STANDARD_DEVIATION));
+        env.registerCommand("variance(", new StatisticsCommand(StatisticsCommandOperator.VARIANCE));
+        env.registerCommand("1-Var Stats", new StatisticsCommand(StatisticsCommandOperator.ONE_VAR_STATS));
+        env.registerCommand("LinReg(ax+b)", new StatisticsCommand(StatisticsCommandOperator.LINEAR_REGRESSION));
+
+        // Register matrix functions
+        env.registerCommand("ᵀ", new MatrixCommand(MatrixCommandOperator.TRANSPOSE));
+        env.registerCommand("det(", new MatrixCommand(MatrixCommandOperator.DETERMINANT));
+        env.registerCommand("rref(", new MatrixCommand(MatrixCommandOperator.REDUCED_ROW_ECHELON_FORM));
     }
 
 }
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.memory.Matrix;
+import org.xlrnet.tibaija.memory.Value;
+
+import java.util.stream.IntStream;
+
+/**
+ * Helper methods for linear algebra on {@link Matrix} objects. All algorithms work directly on the row-major arrays
+ * of the matrices and only allocate the result and, for eliminations, a single working copy. Large matrices are
+ * processed in parallel on the common fork join pool.
+ */
+public class MatrixUtils {
+
+    /**
+     * Edge length of the square blocks in which products and transpositions are calculated. A block of 64x64 doubles
+     * has 32 KiB and fits well into the L1 or L2 cache together with the matching blocks of the other operands.
+     */
+    static final int BLOCK_SIZE = 64;
+
+    /**
+     * Minimum number of multiply-add operations from which a matrix product will be calculated in parallel.
+     */
+    static final long PARALLEL_MULTIPLY_THRESHOLD = 1L << 21;
+
+    /**
+     * Minimum number of elements that have to be updated in a single elimination step to update the rows in
+     * parallel.
+     */
+    static final long PARALLEL_ELIMINATION_THRESHOLD = 1L << 16;
+
+    /**
+     * Pivots whose magnitude is below this fraction of the largest element are considered to be zero.
+     */
+    private static final double TOLERANCE = 1e-12;
+
+    /**
+     * Multiply two matrices. The product is calculated block-wise, so that the blocks of both operands stay in the
+     * cache while they are used. Large products are calculated in parallel, where each task calculates a different
+     * block of rows.
+     *
+     * @param lhs
+     *         The left operand.
+     * @param rhs
+     *         The right operand. Must have as many rows as the left operand has columns.
+     * @return The product of both matrices.
+     * @throws TIArgumentException
+     *         Will be thrown if the dimensions don't match.
+     */
+    @NotNull
+    public static Matrix multiply(@NotNull Matrix lhs, @NotNull Matrix rhs) throws TIArgumentException {
+        if (lhs.getColumns() != rhs.getRows())
+            throw new TIArgumentException("Dimension mismatch", Value.of(lhs), Value.of(rhs));
+
+        final int rows = lhs.getRows();
+        final int inner = lhs.getColumns();
+        final int columns = rhs.getColumns();
+        final double[] left = lhs.elements();
+        final double[] right = rhs.elements();
+        final double[] result = new double[rows * columns];
+
+        int rowBlocks = (rows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (rowBlocks > 1 && (long) rows * inner * columns >= PARALLEL_MULTIPLY_THRESHOLD) {
+            IntStream.range(0, rowBlocks).parallel().forEach(block -> multiplyRows(left, right, result, inner, columns,
+                    block * BLOCK_SIZE, Math.min(rows, (block + 1) * BLOCK_SIZE)));
+        } else {
+            multiplyRows(left, right, result, inner, columns, 0, rows);
+        }
+        return Matrix.wrap(rows, columns, result);
+    }
+
+    /**
+     * Calculates the given rows of a product in the order i-k-j, so that the innermost loop runs over consecutive
+     * elements of the right operand and of the result.
+     */
+    private static void multiplyRows(@NotNull double[] left, @NotNull double[] right, @NotNull double[] result,
+                                     int inner, int columns, int rowStart, int rowEnd) {
+        for (int innerBlock = 0; innerBlock < inner; innerBlock += BLOCK_SIZE) {
+            int innerEnd = Math.min(inner, innerBlock + BLOCK_SIZE);
+            for (int columnBlock = 0; columnBlock < columns; columnBlock += BLOCK_SIZE) {
+                int columnEnd = Math.min(columns, columnBlock + BLOCK_SIZE);
+                for (int i = rowStart; i < rowEnd; i++) {
+                    int resultRow = i * columns;
+                    int leftRow = i * inner;
+                    for (int k = innerBlock; k < innerEnd; k++) {
+                        double factor = left[leftRow + k];
+                        int rightRow = k * columns;
+                        for (int j = columnBlock; j < columnEnd; j++)
+                            result[resultRow + j] += factor * right[rightRow + j];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the transposed matrix, i.e. the element in row r and column c will be moved to row c and column r.
+     */
+    @NotNull
+    public static Matrix transpose(@NotNull Matrix matrix) {
+        int rows = matrix.getRows();
+        int columns = matrix.getColumns();
+        double[] source = matrix.elements();
+        double[] result = new double[source.length];
+
+        for (int rowBlock = 0; rowBlock < rows; rowBlock += BLOCK_SIZE) {
+            int rowEnd = Math.min(rows, rowBlock + BLOCK_SIZE);
+            for (int columnBlock = 0; columnBlock < columns; columnBlock += BLOCK_SIZE) {
+                int columnEnd = Math.min(columns, columnBlock + BLOCK_SIZE);
+                for (int i = rowBlock; i < rowEnd; i++) {
+                    for (int j = columnBlock; j < columnEnd; j++)
+                        result[j * rows + i] = source[i * columns + j];
+                }
+            }
+        }
+        return Matrix.wrap(columns, rows, result);
+    }
+
+    /**
+     * Calculates the determinant of a square matrix with a LU decomposition with partial pivoting.
+     *
+     * @param matrix
+     *         A square matrix.
+     * @return The determinant of the matrix.
+     * @throws TIArgumentException
+     *         Will be thrown if the matrix is not square.
+     */
+    public static double determinant(@NotNull Matrix matrix) throws TIArgumentException {
+        checkSquare(matrix);
+
+        int size = matrix.getRows();
+        double[] work = matrix.elements().clone();
+        double determinant = 1;
+
+        for (int column = 0; column < size; column++) {
+            int pivotRow = findPivotRow(work, size, column, column, size);
+            double pivot = work[pivotRow * size + column];
+            if (pivot == 0)
+                return 0;
+            if (pivotRow != column) {
+                swapRows(work, size, pivotRow, column);
+                determinant = -determinant;
+            }
+            determinant *= pivot;
+            eliminate(work, size, column, column, column + 1, size);
+        }
+        return determinant;
+    }
+
+    /**
+     * Calculates the inverse of a square matrix with a Gauss-Jordan elimination with partial pivoting.
+     *
+     * @param matrix
+     *         A square matrix.
+     * @return The inverse of the matrix.
+     * @throws TIArgumentException
+     *         Will be thrown if the matrix is not square or singular.
+     */
+    @NotNull
+    public static Matrix inverse(@NotNull Matrix matrix) throws TIArgumentException {
+        checkSquare(matrix);
+
+        int size = matrix.getRows();
+        int width = 2 * size;
+        double[] source = matrix.elements();
+        double[] work = new double[size * width];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(source, row * size, work, row * width, size);
+            work[row * width + size + row] = 1;
+        }
+
+        double tolerance = TOLERANCE * maxAbs(source);
+        for (int column = 0; column < size; column++) {
+            int pivotRow = findPivotRow(work, width, column, column, size);
+            if (Math.abs(work[pivotRow * width + column]) <= tolerance)
+                throw new TIArgumentException("Singular matrix", Value.of(matrix));
+            swapRows(work, width, pivotRow, column);
+            normalizeRow(work, width, column, column);
+            eliminate(work, width, column, column, 0, size);
+        }
+
+        double[] result = new double[size * size];
+        for (int row = 0; row < size; row++)
+            System.arraycopy(work, row * width + size, result, row * size, size);
+        return Matrix.wrap(size, size, result);
+    }
+
+    /**
+     * Calculates the reduced row echelon form of a matrix with a Gauss-Jordan elimination with partial pivoting. Like
+     * on a real calculator, the matrix must not have more rows than columns. Elements that are only different from
+     * zero because of rounding errors will be set to zero.
+     *
+     * @param matrix
+     *         A matrix with at least as many columns as rows.
+     * @return The reduced row echelon form of the matrix.
+     * @throws TIArgumentException
+     *         Will be thrown if the matrix has more rows than columns.
+     */
+    @NotNull
+    public static Matrix rref(@NotNull Matrix matrix) throws TIArgumentException {
+        int rows = matrix.getRows();
+        int columns = matrix.getColumns();
+        if (columns < rows)
+            throw new TIArgumentException("Invalid dimension", rows, columns);
+
+        double[] work = matrix.elements().clone();
+        double tolerance = TOLERANCE * maxAbs(work);
+        int pivotRow = 0;
+
+        for (int column = 0; column < columns && pivotRow < rows; column++) {
+            int candidate = findPivotRow(work, columns, column, pivotRow, rows);
+            if (Math.abs(work[candidate * columns + column]) <= tolerance)
+                continue;
+            swapRows(work, columns, candidate, pivotRow);
+            normalizeRow(work, columns, pivotRow, column);
+            eliminate(work, columns, pivotRow, column, 0, rows);
+            pivotRow++;
+        }
+
+        for (int i = 0; i < work.length; i++) {
+            if (Math.abs(work[i]) <= tolerance)
+                work[i] = 0;
+        }
+        return Matrix.wrap(rows, columns, work);
+    }
+
+    /**
+     * Raises a square matrix to a non-negative integer power by repeated squaring.
+     *
+     * @param matrix
+     *         A square matrix.
+     * @param exponent
+     *         The exponent. Must not be negative.
+     * @return The power of the matrix. The identity matrix if the exponent is zero.
+     * @throws TIArgumentException
+     *         Will be thrown if the matrix is not square or the exponent is negative.
+     */
+    @NotNull
+    public static Matrix power(@NotNull Matrix matrix, int exponent) throws TIArgumentException {
+        checkSquare(matrix);
+        if (exponent < 0)
+            throw new TIArgumentException("Invalid exponent", exponent);
+
+        Matrix result = null;
+        Matrix base = matrix;
+        for (int remaining = exponent; remaining > 0; remaining >>= 1) {
+            if ((remaining & 1) != 0)
+                result = result == null ? base : multiply(result, base);
+            if (remaining > 1)
+                base = multiply(base, base);
+        }
+        return result != null ? result : Matrix.identity(matrix.getRows());
+    }
+
+    private static void checkSquare(@NotNull Matrix matrix) throws TIArgumentException {
+        if (!matrix.isSquare())
+            throw new TIArgumentException("Invalid dimension", matrix.getRows(), matrix.getColumns());
+    }
+
+    /**
+     * Returns the row between the given bounds with the largest absolute value in the given column.
+     */
+    private static int findPivotRow(@NotNull double[] work, int width, int column, int rowStart, int rowEnd) {
+        int pivotRow = rowStart;
+        double max = Math.abs(work[rowStart * width + column]);
+        for (int row = rowStart + 1; row < rowEnd; row++) {
+            double candidate = Math.abs(work[row * width + column]);
+            if (candidate > max) {
+                max = candidate;
+                pivotRow = row;
+            }
+        }
+        return pivotRow;
+    }
+
+    private static void swapRows(@NotNull double[] work, int width, int first, int second) {
+        if (first == second)
+            return;
+        int firstOffset = first * width;
+        int secondOffset = second * width;
+        for (int j = 0; j < width; j++) {
+            double tmp = work[firstOffset + j];
+            work[firstOffset + j] = work[secondOffset + j];
+            work[secondOffset + j] = tmp;
+        }
+    }
+
+    /**
+     * Divides the given row by its element in the pivot column. All elements left of the pivot column must be zero.
+     */
+    private static void normalizeRow(@NotNull double[] work, int width, int row, int pivotColumn) {
+        int offset = row * width;
+        double pivot = work[offset + pivotColumn];
+        for (int j = pivotColumn + 1; j < width; j++)
+            work[offset + j] /= pivot;
+        work[offset + pivotColumn] = 1;
+    }
+
+    /**
+     * Subtracts a multiple of the pivot row from all other rows between the given bounds, so that their element in the
+     * pivot column becomes zero. All elements of the pivot row left of the pivot column must be zero. If enough
+     * elements have to be updated, the rows will be processed in parallel.
+     */
+    private static void eliminate(@NotNull double[] work, int width, int pivotRow, int pivotColumn, int rowStart, int rowEnd) {
+        if ((long) (rowEnd - rowStart) * (width - pivotColumn) >= PARALLEL_ELIMINATION_THRESHOLD) {
+            IntStream.range(rowStart, rowEnd).parallel().forEach(row -> {
+                if (row != pivotRow)
+                    eliminateRow(work, width, pivotRow, pivotColumn, row);
+            });
+        } else {
+            for (int row = rowStart; row < rowEnd; row++) {
+                if (row != pivotRow)
+                    eliminateRow(work, width, pivotRow, pivotColumn, row);
+            }
+        }
+    }
+
+    private static void eliminateRow(@NotNull double[] work, int width, int pivotRow, int pivotColumn, int row) {
+        int offset = row * width;
+        int pivotOffset = pivotRow * width;
+        double factor = work[offset + pivotColumn] / work[pivotOffset + pivotColumn];
+        if (factor == 0)
+            return;
+        for (int j = pivotColumn + 1; j < width; j++)
+            work[offset + j] -= factor * work[pivotOffset + j];
+        work[offset + pivotColumn] = 0;
+    }
+
+    private static double maxAbs(@NotNull double[] values) {
+        double max = 0;
+        for (double value : values)
+            max = Math.max(max, Math.abs(value));
+        return max;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.util;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+
+import java.util.List;
+
+/**
+ * Helper methods for sorting lists like SortA( and SortD(. Instead of sorting {@link Complex} objects with a
+ * comparator, the elements are reduced to primitive sort keys once and sorted together with their original indices.
+ * The resulting permutation can then be applied to any number of dependent lists.
+ */
+public class SortUtils {
+
+    /**
+     * Runs up to this length are sorted with insertion sort before they are merged.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    /**
+     * Returns the primitive sort keys of a list. Real lists are sorted by their values, lists with at least one
+     * imaginary element by the magnitude of their elements like on a real calculator.
+     */
+    @NotNull
+    public static double[] toSortKeys(@NotNull List<Complex> list) {
+        boolean isComplex = false;
+        for (Complex complex : list) {
+            if (complex.getImaginary() != 0) {
+                isComplex = true;
+                break;
+            }
+        }
+        double[] keys = new double[list.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = isComplex ? list.get(i).abs() : list.get(i).getReal();
+        return keys;
+    }
+
+    /**
+     * Sorts the given keys with a stable merge sort and returns the permutation, i.e. the original index of every
+     * element in the sorted order. Equal keys keep their original order in both directions.
+     *
+     * @param keys
+     *         The keys to sort. The array won't be modified.
+     * @param descending
+     *         True if the keys should be sorted in descending order.
+     * @return The original indices in sorted order.
+     */
+    @NotNull
+    public static int[] sortingPermutation(@NotNull double[] keys, boolean descending) {
+        int length = keys.length;
+        double[] sortedKeys = new double[length];
+        int[] indices = new int[length];
+        for (int i = 0; i < length; i++) {
+            sortedKeys[i] = descending ? -keys[i] : keys[i];     // Negated keys keep equal elements in order
+            indices[i] = i;
+        }
+
+        for (int from = 0; from < length; from += INSERTION_SORT_THRESHOLD)
+            insertionSort(sortedKeys, indices, from, Math.min(from + INSERTION_SORT_THRESHOLD, length));
+        if (length <= INSERTION_SORT_THRESHOLD)
+            return indices;
+
+        double[] keyBuffer = new double[length];
+        int[] indexBuffer = new int[length];
+        for (int width = INSERTION_SORT_THRESHOLD; width < length; width *= 2) {
+            for (int from = 0; from < length; from += 2 * width)
+                merge(sortedKeys, indices, keyBuffer, indexBuffer, from, Math.min(from + width, length), Math.min(from + 2 * width, length));
+
+            double[] swapKeys = sortedKeys;
+            sortedKeys = keyBuffer;
+            keyBuffer = swapKeys;
+            int[] swapIndices = indices;
+            indices = indexBuffer;
+            indexBuffer = swapIndices;
+        }
+        return indices;
+    }
+
+    /**
+     * Reorders a list with a permutation from {@link #sortingPermutation(double[], boolean)}.
+     *
+     * @throws TIArgumentException
+     *         Will be thrown if the list and the permutation have different lengths.
+     */
+    @NotNull
+    public static ImmutableList<Complex> permute(@NotNull List<Complex> list, @NotNull int[] permutation) throws TIArgumentException {
+        if (list.size() != permutation.length)
+            throw new TIArgumentException("Dimension mismatch", list.size(), permutation.length);
+        Complex[] elements = new Complex[permutation.length];
+        for (int i = 0; i < elements.length; i++)
+            elements[i] = list.get(permutation[i]);
+        return ImmutableList.copyOf(elements);
+    }
+
+    private static void insertionSort(@NotNull double[] keys, @NotNull int[] indices, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            double key = keys[i];
+            int index = indices[i];
+            int j = i - 1;
+            while (j >= from && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            indices[j + 1] = index;
+        }
+    }
+
+    private static void merge(@NotNull double[] keys, @NotNull int[] indices, @NotNull double[] keyTarget, @NotNull int[] indexTarget, int from, int middle, int to) {
+        if (middle == to || keys[middle - 1] <= keys[middle]) {
+            // Both runs are already in order
+            System.arraycopy(keys, from, keyTarget, from, to - from);
+            System.arraycopy(indices, from, indexTarget, from, to - from);
+            return;
+        }
+        int left = from;
+        int right = middle;
+        for (int target = from; target < to; target++) {
+            if (right >= to || (left < middle && keys[left] <= keys[right])) {
+                keyTarget[target] = keys[left];
+                indexTarget[target] = indices[left++];
+            } else {
+                keyTarget[target] = keys[right];
+                indexTarget[target] = indices[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+
+/**
+ * Collection of single-pass algorithms for the statistics commands of TI-Basic. All methods work on arrays of real
+ * numbers and accept an optional array of frequencies, which must have the same length as the values. Every value is
+ * counted as often as its frequency says; frequencies may be fractional, but must not be negative.
+ * <p/>
+ * Variances are calculated with the weighted variant of Welford's algorithm, so that no sum of squares has to be
+ * subtracted from another. Medians and quartiles are found by selection instead of sorting the whole list.
+ */
+public class StatisticsUtils {
+
+    /**
+     * Calculates the sum of the values between two indices with compensated (Kahan-Babuška) summation.
+     *
+     * @param values
+     *         The values to sum up.
+     * @param from
+     *         Index of the first value (inclusive).
+     * @param to
+     *         Index of the last value (exclusive).
+     * @return The sum of the values.
+     */
+    public static double sum(@NotNull double[] values, int from, int to) {
+        double sum = 0;
+        double compensation = 0;
+        for (int i = from; i < to; i++) {
+            double t = sum + values[i];
+            if (Math.abs(sum) >= Math.abs(values[i]))
+                compensation += (sum - t) + values[i];
+            else
+                compensation += (values[i] - t) + sum;
+            sum = t;
+        }
+        return sum + compensation;
+    }
+
+    /**
+     * Calculates the weighted arithmetic mean of the given values.
+     *
+     * @param values
+     *         The values.
+     * @param frequencies
+     *         The frequency of each value or null if every value occurs once.
+     * @return The mean of the values.
+     * @throws TIArgumentException
+     *         Will be thrown if the frequencies are invalid.
+     */
+    public static double mean(@NotNull double[] values, @Nullable double[] frequencies) throws TIArgumentException {
+        checkFrequencies(values, frequencies);
+        double weight = 0;
+        double mean = 0;
+        for (int i = 0; i < values.length; i++) {
+            double w = frequencies == null ? 1 : frequencies[i];
+            if (w == 0)
+                continue;
+            weight += w;
+            mean += (values[i] - mean) * w / weight;
+        }
+        return mean;
+    }
+
+    /**
+     * Calculates count, mean, variance, sums and extreme values of the given values in a single pass.
+     *
+     * @param values
+     *         The values.
+     * @param frequencies
+     *         The frequency of each value or null if every value occurs once.
+     * @return The moments of the values.
+     * @throws TIArgumentException
+     *         Will be thrown if the frequencies are invalid.
+     */
+    @NotNull
+    public static Moments moments(@NotNull double[] values, @Nullable double[] frequencies) throws TIArgumentException {
+        checkFrequencies(values, frequencies);
+        Moments moments = new Moments();
+        double sumCompensation = 0;
+        for (int i = 0; i < values.length; i++) {
+            double w = frequencies == null ? 1 : frequencies[i];
+            if (w == 0)
+                continue;       // Values with a frequency of zero are ignored completely
+            double x = values[i];
+
+            moments.weight += w;
+            double delta = x - moments.mean;
+            moments.mean += delta * w / moments.weight;
+            moments.m2 += w * delta * (x - moments.mean);
+
+            double t = moments.sum + w * x;
+            sumCompensation += Math.abs(moments.sum) >= Math.abs(w * x) ? (moments.sum - t) + w * x : (w * x - t) + moments.sum;
+            moments.sum = t;
+            moments.sumOfSquares += w * x * x;
+            moments.min = Math.min(moments.min, x);
+            moments.max = Math.max(moments.max, x);
+        }
+        moments.sum += sumCompensation;
+        return moments;
+    }
+
+    /**
+     * Calculates the median of the given values by selection. If the total frequency is even, the median is the mean
+     * of the two values in the middle.
+     *
+     * @param values
+     *         The values. The array won't be modified.
+     * @param frequencies
+     *         The frequency of each value or null if every value occurs once.
+     * @return The median of the values.
+     * @throws TIArgumentException
+     *         Will be thrown if the frequencies are invalid.
+     */
+    public static double median(@NotNull double[] values, @Nullable double[] frequencies) throws TIArgumentException {
+        double totalWeight = checkFrequencies(values, frequencies);
+        Selection selection = new Selection(values, frequencies);
+        return selection.selectCenter(totalWeight / 2);
+    }
+
+    /**
+     * Calculates the first quartile, the median and the third quartile of the given values like a calculator does:
+     * The first and the third quartile are the medians of the lower and the upper half of the values, which don't
+     * include the median itself if the total frequency is odd.
+     *
+     * @param values
+     *         The values. The array won't be modified.
+     * @param frequencies
+     *         The frequency of each value or null if every value occurs once.
+     * @return An array with the first quartile, the median and the third quartile.
+     * @throws TIArgumentException
+     *         Will be thrown if the frequencies are invalid.
+     */
+    @NotNull
+    public static double[] quartiles(@NotNull double[] values, @Nullable double[] frequencies) throws TIArgumentException {
+        double totalWeight = checkFrequencies(values, frequencies);
+        Selection selection = new Selection(values, frequencies);
+        double median = selection.selectCenter(totalWeight / 2);
+        double halfWeight = Math.floor(totalWeight / 2);
+        if (halfWeight == 0)
+            return new double[]{median, median, median};
+        double firstQuartile = selection.selectCenter(halfWeight / 2);
+        double thirdQuartile = selection.selectCenter(totalWeight - halfWeight / 2);
+        return new double[]{firstQuartile, median, thirdQuartile};
+    }
+
+    /**
+     * Fits a line y=ax+b with the least squares method. The co-moments are calculated in a single pass with the same
+     * update as the variance in {@link #moments(double[], double[])}.
+     *
+     * @param xValues
+     *         The x values.
+     * @param yValues
+     *         The y values. Must have the same length as the x values.
+     * @param frequencies
+     *         The frequency of each pair or null if every pair occurs once.
+     * @return An array with the slope a, the intercept b, the coefficient of determination r² and the correlation
+     * coefficient r.
+     * @throws TIArgumentException
+     *         Will be thrown if the lists have different lengths, the frequencies are invalid or if either all x or
+     *         all y values are the same.
+     */
+    @NotNull
+    public static double[] linearRegression(@NotNull double[] xValues, @NotNull double[] yValues, @Nullable double[] frequencies) throws TIArgumentException {
+        if (xValues.length != yValues.length)
+            throw new TIArgumentException("Dimension mismatch", xValues.length, yValues.length);
+        checkFrequencies(xValues, frequencies);
+
+        double weight = 0, meanX = 0, meanY = 0, sxx = 0, syy = 0, sxy = 0;
+        for (int i = 0; i < xValues.length; i++) {
+            double w = frequencies == null ? 1 : frequencies[i];
+            if (w == 0)
+                continue;
+            weight += w;
+            double deltaX = xValues[i] - meanX;
+            double deltaY = yValues[i] - meanY;
+            meanX += deltaX * w / weight;
+            meanY += deltaY * w / weight;
+            sxx += w * deltaX * (xValues[i] - meanX);
+            syy += w * deltaY * (yValues[i] - meanY);
+            sxy += w * deltaX * (yValues[i] - meanY);
+        }
+        if (sxx == 0 || syy == 0)
+            throw new TIArgumentException("Divide by zero", sxx, syy);
+
+        double slope = sxy / sxx;
+        double r = sxy / Math.sqrt(sxx * syy);
+        return new double[]{slope, meanY - slope * meanX, r * r, r};
+    }
+
+    /**
+     * Checks that the frequencies have the same length as the values, are not negative and don't sum up to zero.
+     *
+     * @return The sum of all frequencies.
+     */
+    private static double checkFrequencies(@NotNull double[] values, @Nullable double[] frequencies) throws TIArgumentException {
+        if (frequencies == null) {
+            if (values.length == 0)
+                throw new TIArgumentException("Invalid dimension", 0);
+            return values.length;
+        }
+        if (frequencies.length != values.length)
+            throw new TIArgumentException("Dimension mismatch", values.length, frequencies.length);
+        double totalWeight = 0;
+        for (double frequency : frequencies) {
+            if (!(frequency >= 0) || Double.isInfinite(frequency))
+                throw new TIArgumentException("Frequencies must not be negative", frequency);
+            totalWeight += frequency;
+        }
+        if (totalWeight == 0)
+            throw new TIArgumentException("Sum of frequencies must be greater than zero", totalWeight);
+        return totalWeight;
+    }
+
+    /**
+     * Result of {@link #moments(double[], double[])}.
+     */
+    public static class Moments {
+
+        private double weight;
+
+        private double mean;
+
+        private double m2;
+
+        private double sum;
+
+        private double sumOfSquares;
+
+        private double min = Double.POSITIVE_INFINITY;
+
+        private double max = Double.NEGATIVE_INFINITY;
+
+        private Moments() {
+        }
+
+        /**
+         * Returns the number of values, i.e. the sum of all frequencies.
+         */
+        public double getWeight() {
+            return weight;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getSumOfSquares() {
+            return sumOfSquares;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the variance of the values as a whole population (σx²).
+         */
+        public double getPopulationVariance() {
+            return m2 / weight;
+        }
+
+        /**
+         * Returns the variance of the values as a sample (Sx²).
+         *
+         * @throws TIArgumentException
+         *         Will be thrown if there is not more than one value.
+         */
+        public double getSampleVariance() throws TIArgumentException {
+            if (weight <= 1)
+                throw new TIArgumentException("Sample size must be greater than one", weight);
+            return m2 / (weight - 1);
+        }
+    }
+
+    /**
+     * Weighted selection on copies of the values with a frequency other than zero. Each selection partially
+     * partitions the copies, so that following selections become cheaper.
+     */
+    private static class Selection {
+
+        private final double[] values;
+
+        private final double[] weights;
+
+        private Selection(@NotNull double[] values, @Nullable double[] frequencies) {
+            if (frequencies == null) {
+                this.values = values.clone();
+                this.weights = null;
+                return;
+            }
+            int count = 0;
+            for (double frequency : frequencies) {
+                if (frequency > 0)
+                    count++;
+            }
+            this.values = new double[count];
+            this.weights = new double[count];
+            for (int i = 0, j = 0; i < values.length; i++) {
+                if (frequencies[i] > 0) {
+                    this.values[j] = values[i];
+                    this.weights[j++] = frequencies[i];
+                }
+            }
+        }
+
+        /**
+         * Returns the value at the given position of the sorted values. If the position lies exactly on the border
+         * between two values, the mean of both values will be returned.
+         */
+        private double selectCenter(double position) {
+            return (select(position, false) + select(position, true)) / 2;
+        }
+
+        /**
+         * Returns the value whose range of positions in the sorted values contains the given position. The range of
+         * the i-th value is (c<sub>i-1</sub>, c<sub>i</sub>] if upper is false and [c<sub>i-1</sub>, c<sub>i</sub>)
+         * otherwise, where c<sub>i</sub> is the cumulative frequency of the first i sorted values.
+         */
+        private double select(double position, boolean upper) {
+            int from = 0;
+            int to = values.length;
+            while (to - from > 1) {
+                double pivot = values[(from + to) >>> 1];
+
+                // Three-way partition into [from, lower) < pivot, [lower, greater) == pivot and [greater, to) > pivot
+                int lower = from, i = from, greater = to;
+                double lowerWeight = 0, equalWeight = 0;
+                while (i < greater) {
+                    double value = values[i];
+                    if (value < pivot) {
+                        lowerWeight += weight(i);
+                        swap(lower++, i++);
+                    } else if (value > pivot) {
+                        swap(i, --greater);
+                    } else {
+                        equalWeight += weight(i);
+                        i++;
+                    }
+                }
+
+                if (upper ? position < lowerWeight : position <= lowerWeight) {
+                    to = lower;
+                } else if ((upper ? position < lowerWeight + equalWeight : position <= lowerWeight + equalWeight) || greater == to) {
+                    return pivot;
+                } else {
+                    position -= lowerWeight + equalWeight;
+                    from = greater;
+                }
+            }
+            return values[from];
+        }
+
+        private double weight(int index) {
+            return weights == null ? 1 : weights[index];
+        }
+
+        private void swap(int i, int j) {
+            double value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+            if (weights != null) {
+                double weight = weights[i];
+                weights[i] = weights[j];
+                weights[j] = weight;
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.util;
+
+import org.apache.commons.math3.complex.Complex;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Decimal floating point numbers with the precision of TI calculators. Every number has a mantissa with 14 significant
+ * decimal digits and an exponent between -99 and 99. Results are rounded half away from zero to 14 digits, so that
+ * e.g. 0.1+0.2 is exactly 0.3 like on the calculator.
+ * <p/>
+ * A decimal is packed into a single {@code long}: the signed mantissa in the upper 56 bits and the exponent of its last
+ * digit in the lower 8 bits. All operations work on these primitive values and don't allocate any objects. Zero is
+ * always represented by {@link #ZERO}.
+ */
+public class TIDecimal {
+
+    /**
+     * The packed decimal zero.
+     */
+    public static final long ZERO = 0L;
+
+    /**
+     * Number of significant digits of the mantissa.
+     */
+    public static final int DIGITS = 14;
+
+    /**
+     * Largest exponent of a decimal in scientific notation.
+     */
+    public static final int MAX_EXPONENT = 99;
+
+    private static final long MIN_MANTISSA = 10_000_000_000_000L;
+
+    private static final long MANTISSA_LIMIT = 100_000_000_000_000L;
+
+    private static final long HALF = 10_000_000L;
+
+    private static final long DIVISION_STEP_LIMIT = 100_000_000_000L;
+
+    /**
+     * Number of additional digits that are kept while adding two decimals.
+     */
+    private static final int GUARD_DIGITS = 4;
+
+    /**
+     * Powers of ten that can be represented exactly as double.
+     */
+    private static final double[] EXACT_POWERS = new double[23];
+
+    private static final long[] LONG_POWERS = new long[19];
+
+    static {
+        double power = 1;
+        for (int i = 0; i < EXACT_POWERS.length; i++, power *= 10)
+            EXACT_POWERS[i] = power;
+        long longPower = 1;
+        for (int i = 0; i < LONG_POWERS.length; i++, longPower *= 10)
+            LONG_POWERS[i] = longPower;
+    }
+
+    private TIDecimal() {
+        // Static helper class
+    }
+
+    /**
+     * Converts a finite double to the nearest decimal with 14 significant digits. Doubles that have been created from a
+     * decimal with {@link #toDouble(long)} are always converted back to exactly the same decimal.
+     *
+     * @param value
+     *         A finite double.
+     * @return The packed decimal.
+     * @throws ArithmeticException
+     *         Will be thrown if the value is not finite or too large.
+     */
+    public static long valueOf(double value) throws ArithmeticException {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            throw new ArithmeticException("Not a finite number: " + value);
+        if (value == 0)
+            return ZERO;
+
+        double magnitude = Math.abs(value);
+        // Scale the value to 15 digits before the decimal point and round with the last digit
+        int exponent = (int) Math.floor(Math.log10(magnitude)) - DIGITS;
+        double scaled = scale(magnitude, exponent);
+        if (scaled < MANTISSA_LIMIT) {
+            // log10() may be off by one close to powers of ten
+            exponent--;
+            scaled = scale(magnitude, exponent);
+        }
+        return round(value < 0, (long) scaled, exponent);
+    }
+
+    /**
+     * Returns true if the given complex number is a finite real number that can be converted to a decimal.
+     */
+    public static boolean isFiniteReal(@NotNull Complex complex) {
+        return complex.getImaginary() == 0 && !Double.isNaN(complex.getReal()) && !Double.isInfinite(complex.getReal());
+    }
+
+    /**
+     * Converts a decimal to the nearest double.
+     */
+    public static double toDouble(long decimal) {
+        long mantissa = mantissa(decimal);
+        int exponent = exponent(decimal);
+        if (exponent >= 0)
+            return mantissa * powerOfTen(exponent);
+        if (exponent >= -22)
+            return mantissa / EXACT_POWERS[-exponent];
+        return mantissa / EXACT_POWERS[22] / powerOfTen(-exponent - 22);
+    }
+
+    /**
+     * Returns the signed mantissa of a decimal. The mantissa of every decimal except zero has exactly 14 digits.
+     */
+    public static long mantissa(long decimal) {
+        return decimal >> 8;
+    }
+
+    /**
+     * Returns the exponent of the last digit of the mantissa, i.e. the value of a decimal is {@code mantissa *
+     * 10^exponent}.
+     */
+    public static int exponent(long decimal) {
+        return (byte) decimal;
+    }
+
+    public static long negate(long decimal) {
+        return pack(-mantissa(decimal), exponent(decimal));
+    }
+
+    /**
+     * Adds two decimals and rounds the result to 14 digits.
+     *
+     * @throws ArithmeticException
+     *         Will be thrown if the result is too large.
+     */
+    public static long add(long lhs, long rhs) throws ArithmeticException {
+        if (lhs == ZERO)
+            return rhs;
+        if (rhs == ZERO)
+            return lhs;
+        if (exponent(lhs) < exponent(rhs)) {
+            long swap = lhs;
+            lhs = rhs;
+            rhs = swap;
+        }
+
+        int shift = exponent(lhs) - exponent(rhs);
+        if (shift > DIGITS + GUARD_DIGITS)
+            return lhs;             // The smaller number can't change the rounded result
+
+        long larger = mantissa(lhs) * LONG_POWERS[GUARD_DIGITS];
+        long smaller;
+        if (shift <= GUARD_DIGITS) {
+            smaller = mantissa(rhs) * LONG_POWERS[GUARD_DIGITS - shift];
+        } else {
+            long divisor = LONG_POWERS[shift - GUARD_DIGITS];
+            smaller = mantissa(rhs) / divisor;
+            // The sum has the sign of lhs and must be truncated towards zero before rounding. For a smaller number with
+            // the opposite sign, truncating it towards zero would make the magnitude of the sum too large.
+            if ((lhs < 0) != (rhs < 0) && mantissa(rhs) % divisor != 0)
+                smaller += lhs < 0 ? 1 : -1;
+        }
+        long sum = larger + smaller;
+        return round(sum < 0, Math.abs(sum), exponent(lhs) - GUARD_DIGITS);
+    }
+
+    /**
+     * Subtracts two decimals and rounds the result to 14 digits.
+     *
+     * @throws ArithmeticException
+     *         Will be thrown if the result is too large.
+     */
+    public static long subtract(long lhs, long rhs) throws ArithmeticException {
+        return add(lhs, negate(rhs));
+    }
+
+    /**
+     * Multiplies two decimals and rounds the result to 14 digits.
+     *
+     * @throws ArithmeticException
+     *         Will be thrown if the result is too large.
+     */
+    public static long multiply(long lhs, long rhs) throws ArithmeticException {
+        if (lhs == ZERO || rhs == ZERO)
+            return ZERO;
+
+        long a = Math.abs(mantissa(lhs));
+        long b = Math.abs(mantissa(rhs));
+        // Multiply both 14 digit mantissas in 7 digit limbs, so that no partial product overflows
+        long aHigh = a / HALF, aLow = a % HALF;
+        long bHigh = b / HALF, bLow = b % HALF;
+        long low = aLow * bLow;
+        long carry = low / HALF + aHigh * bLow + aLow * bHigh;
+        long middle = carry % HALF;
+        long high = carry / HALF + aHigh * bHigh;
+        long rest = middle * HALF + low % HALF;     // The product is high * 10^14 + rest
+
+        int exponent = exponent(lhs) + exponent(rhs) + DIGITS;
+        long digits;
+        if (high >= MIN_MANTISSA) {
+            digits = high * 10 + rest / LONG_POWERS[13];
+            exponent -= 1;
+        } else {
+            digits = high * 100 + rest / LONG_POWERS[12];
+            exponent -= 2;
+        }
+        return round((lhs < 0) != (rhs < 0), digits, exponent);
+    }
+
+    /**
+     * Divides two decimals and rounds the result to 14 digits.
+     *
+     * @throws ArithmeticException
+     *         Will be thrown if the divisor is zero or if the result is too large.
+     */
+    public static long divide(long lhs, long rhs) throws ArithmeticException {
+        if (rhs == ZERO)
+            throw new ArithmeticException("Division by zero");
+        if (lhs == ZERO)
+            return ZERO;
+
+        long divisor = Math.abs(mantissa(rhs));
+        long remainder = Math.abs(mantissa(lhs));
+        long quotient = remainder / divisor;
+        remainder %= divisor;
+        int exponent = exponent(lhs) - exponent(rhs);
+        // Long division until the quotient has 15 digits for rounding, four digits at once as long as possible
+        while (quotient < MANTISSA_LIMIT) {
+            int step = quotient < DIVISION_STEP_LIMIT ? 4 : 1;
+            remainder *= LONG_POWERS[step];
+            quotient = quotient * LONG_POWERS[step] + remainder / divisor;
+            remainder %= divisor;
+            exponent -= step;
+        }
+        return round((lhs < 0) != (rhs < 0), quotient, exponent);
+    }
+
+    /**
+     * Compares two decimals numerically.
+     */
+    public static int compare(long lhs, long rhs) {
+        if (lhs == rhs)
+            return 0;
+        long difference = subtract(lhs, rhs);
+        return difference == ZERO ? 0 : (difference < 0 ? -1 : 1);
+    }
+
+    /**
+     * Returns the decimal in scientific notation with all 14 digits, e.g. {@code 1.2345678901234E-5}.
+     */
+    @NotNull
+    public static String toString(long decimal) {
+        if (decimal == ZERO)
+            return "0";
+        long mantissa = mantissa(decimal);
+        String digits = Long.toString(Math.abs(mantissa));
+        return (mantissa < 0 ? "-" : "") + digits.charAt(0) + "." + digits.substring(1) + "E" + (exponent(decimal) + DIGITS - 1);
+    }
+
+    /**
+     * Rounds an unsigned number of digits half away from zero to 14 digits and packs it.
+     */
+    private static long round(boolean negative, long digits, int exponent) throws ArithmeticException {
+        if (digits == 0)
+            return ZERO;
+        while (digits >= MANTISSA_LIMIT * 10) {
+            digits /= 10;
+            exponent++;
+        }
+        if (digits >= MANTISSA_LIMIT) {
+            long last = digits % 10;
+            digits = digits / 10 + (last >= 5 ? 1 : 0);
+            exponent++;
+            if (digits == MANTISSA_LIMIT) {
+                digits /= 10;
+                exponent++;
+            }
+        }
+        while (digits < MIN_MANTISSA) {
+            digits *= 10;
+            exponent--;
+        }
+
+        int scientificExponent = exponent + DIGITS - 1;
+        if (scientificExponent > MAX_EXPONENT)
+            throw new ArithmeticException("Overflow");
+        if (scientificExponent < -MAX_EXPONENT)
+            return ZERO;
+        return pack(negative ? -digits : digits, exponent);
+    }
+
+    private static long pack(long mantissa, int exponent) {
+        if (mantissa == 0)
+            return ZERO;
+        return (mantissa << 8) | (exponent & 0xFF);
+    }
+
+    private static double scale(double magnitude, int exponent) {
+        return exponent < 0 ? magnitude * powerOfTen(-exponent) : magnitude / powerOfTen(exponent);
+    }
+
+    private static double powerOfTen(int exponent) {
+        return exponent < EXACT_POWERS.length ? EXACT_POWERS[exponent] : Math.pow(10, exponent);
+    }
+}
@@ -31,6 +31,14 @@ import java.util.regex.Pattern;
  */
 public class ValidationUtils {
 
+    private static final Pattern LABEL_IDENTIFIER_PATTERN = Pattern.compile("[A-Z0-9θ]{1,2}");
+
+    private static final Pattern PROGRAM_NAME_PATTERN = Pattern.compile("[A-Zθ][A-Zθ0-9]{0,7}");
+
+    private static final Pattern LIST_NAME_PATTERN = Pattern.compile("∟[A-Zθ][A-Z0-9θ]{0,4}");
+
+    private static final Pattern NUMBER_VARIABLE_NAME_PATTERN = Pattern.compile("[A-Zθ]");
+
     /**
      * Checks if the given input string is a valid label identifier for TI-Basic. Label names can be either one or two
      * characters long, and the only characters you're allowed to use are letters (including θ) and numbers 0 to 9;
@@ -41,7 +49,7 @@ public class ValidationUtils {
      * @return True if the given string is a valid label identifier. False otherwise.
      */
     public static boolean isValidLabelIdentifier(@NotNull String labelIdentifier) {
-        return Pattern.matches("[A-Z0-9θ]{1,2}", labelIdentifier);
+        return LABEL_IDENTIFIER_PATTERN.matcher(labelIdentifier).matches();
     }
 
     /**
@@ -53,7 +61,7 @@ public class ValidationUtils {
      * @return True if the given string is a valid program name. False otherwise.
      */
     public static boolean isValidProgramName(@NotNull String programName) {
-        return Pattern.matches("[A-Zθ][A-Zθ0-9]{0,7}", programName);
+        return PROGRAM_NAME_PATTERN.matcher(programName).matches();
     }
 
     /**
@@ -65,7 +73,7 @@ public class ValidationUtils {
      * @return True if the given string is a valid list variable name. False otherwise.
      */
     public static boolean isValidListName(@NotNull String listName) {
-        return Pattern.matches("∟[A-Zθ][A-Z0-9θ]{0,4}", listName);
+        return LIST_NAME_PATTERN.matcher(listName).matches();
     }
 
     /**
@@ -77,6 +85,6 @@ public class ValidationUtils {
      * @return True if the given string is a valid number variable name. False otherwise.
      */
     public static boolean isValidNumberVariableName(@NotNull String variableName) {
-        return Pattern.matches("[A-Zθ]", variableName);        
+        return NUMBER_VARIABLE_NAME_PATTERN.matcher(variableName).matches();
     }
 }
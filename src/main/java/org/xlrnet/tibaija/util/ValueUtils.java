@@ -75,6 +75,29 @@ public class ValueUtils {
                 throw new TIArgumentException("Cannot operate on imaginary values", ImmutableList.copyOf(values));
     }
 
+    /**
+     * Check if the given Value is a valid one-based index of a list element and convert it to an int. The index must be
+     * a real integer between one and the given maximum. If this is not the case, a new {@link
+     * org.xlrnet.tibaija.exception.TIArgumentException} will be thrown.
+     *
+     * @param index
+     *         The index to check.
+     * @param maxIndex
+     *         The largest allowed index, i.e. the dimension of the list or one more if the list may be extended.
+     * @return The index as int.
+     * @throws org.xlrnet.tibaija.exception.IllegalTypeException
+     *         Will be thrown if the index is not a number.
+     * @throws org.xlrnet.tibaija.exception.TIArgumentException
+     *         Will be thrown if the index is not an integer or out of range.
+     */
+    public static int checkListIndex(@NotNull Value index, int maxIndex) throws IllegalTypeException, TIArgumentException {
+        checkValueType(index, Variables.VariableType.NUMBER);
+        double real = index.complex().getReal();
+        if (index.hasImaginaryValue() || real != Math.rint(real) || real < 1 || real > maxIndex)
+            throw new TIArgumentException("Invalid dimension", index);
+        return (int) real;
+    }
+
     /**
      * Return true if the given Value is either a number or a list.
      */
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xlrnet.tibaija.exception.ExecutionLimitExceededException;
+import org.xlrnet.tibaija.processor.ExecutionLimits;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for running many programs in batch mode.
+ */
+public class BatchRunnerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.getRoot().toPath();
+        write("count.tib", ":0→A:While A<100:A+1→A:End:Disp A:Disp A*2");
+        write("loop.tib", ":While 1:End");
+        write("broken.tib", ":1→A:Disp ∟A");
+        write("syntax.tib", ":1+→");
+        write(".hidden", ":1");
+    }
+
+    @Test
+    public void testFindProgramFiles_directory() throws Exception {
+        List<Path> files = BatchRunner.findProgramFiles(directory.toString());
+        assertEquals(4, files.size());
+        assertEquals("broken.tib", files.get(0).getFileName().toString());
+    }
+
+    @Test
+    public void testFindProgramFiles_glob() throws Exception {
+        Files.createDirectory(directory.resolve("sub"));
+        write("sub/nested.tib", ":1");
+        write("other.txt", ":1");
+
+        assertEquals(4, BatchRunner.findProgramFiles(directory + "/*.tib").size());
+        assertEquals(5, BatchRunner.findProgramFiles(directory + "/**.tib").size());
+    }
+
+    @Test(timeout = 10000L)
+    public void testRun() throws Exception {
+        BatchRunner batchRunner = new BatchRunner(2, new ExecutionLimits(10000, 0, TimeUnit.MILLISECONDS));
+        BatchRunner.BatchResult batchResult = batchRunner.run(BatchRunner.findProgramFiles(directory.toString()));
+
+        List<BatchRunner.ProgramResult> results = batchResult.getResults();
+        assertEquals(4, results.size());
+        assertFalse(batchResult.isSuccessful());
+
+        BatchRunner.ProgramResult broken = results.get(0);
+        assertEquals(BatchRunner.Status.FAILED, broken.getStatus());
+        assertEquals("BROKEN", broken.getProgramName());
+        assertNotNull(broken.getError());
+
+        BatchRunner.ProgramResult count = results.get(1);
+        assertEquals(BatchRunner.Status.SUCCESS, count.getStatus());
+        assertNull(count.getError());
+        assertEquals(2, count.getOutput().split("\n").length);
+        assertTrue(count.getExecutedCommands() > 300);
+
+        BatchRunner.ProgramResult loop = results.get(2);
+        assertEquals(BatchRunner.Status.LIMIT_EXCEEDED, loop.getStatus());
+        assertTrue(loop.getError() instanceof ExecutionLimitExceededException);
+        assertEquals(10000, loop.getExecutedCommands());
+
+        assertEquals(BatchRunner.Status.LOAD_FAILED, results.get(3).getStatus());
+        assertEquals(1, batchResult.count(BatchRunner.Status.SUCCESS));
+    }
+
+    private void write(String fileName, String source) throws Exception {
+        Files.write(directory.resolve(fileName), source.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xlrnet.tibaija.exception.ExecutionLimitExceededException;
+import org.xlrnet.tibaija.io.CapturingIO;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.processor.ExecutionLimits;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for running a program with many sets of initial values.
+ */
+public class ParameterSweepTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private VirtualCalculator calculator;
+
+    @Before
+    public void setUp() {
+        calculator = new TI83Plus(new DefaultCalculatorMemory(), new CapturingIO());
+        calculator.getMemory().setNumberVariableValue(Variables.NumberVariable.B, Value.of(10));
+        calculator.loadProgram("CALC", ":A*B→X:∟DATA*A→∟RES:X+1");
+    }
+
+    @Test(timeout = 30000L)
+    public void testRun() {
+        List<Map<String, Value>> rows = IntStream.range(0, 500)
+                .mapToObj(i -> ImmutableMap.of("A", Value.of(i), "∟DATA", list(1, i)))
+                .collect(Collectors.toList());
+
+        ParameterSweep.Result result = new ParameterSweep(4, ExecutionLimits.UNLIMITED)
+                .run(calculator, "CALC", rows, Arrays.asList("Ans", "X", "∟RES"));
+
+        assertEquals(500, result.getRowCount());
+        assertEquals(0, result.getFailedRowCount());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(Value.of(10 * i), result.getColumn("X").get(i));
+            assertEquals(Value.of(10 * i + 1), result.getColumn("Ans").get(i));
+            assertEquals(list(i, i * i), result.getColumn("∟RES").get(i));
+        }
+        // The calculator itself is not affected by the runs
+        assertEquals(Value.ZERO, calculator.getMemory().getNumberVariableValue(Variables.NumberVariable.X));
+        assertFalse(calculator.getMemory().getListVariableNames().contains("RES"));
+    }
+
+    @Test
+    public void testRun_failedRow() {
+        calculator.loadProgram("LOOP", ":A→X:While A:End");
+        List<Map<String, Value>> rows = Arrays.asList(ImmutableMap.of("A", Value.of(0)), ImmutableMap.of("A", Value.of(1)));
+
+        ParameterSweep.Result result = new ParameterSweep(2, new ExecutionLimits(1000, 0, TimeUnit.MILLISECONDS))
+                .run(calculator, "LOOP", rows, Arrays.asList("X"));
+
+        assertEquals(1, result.getFailedRowCount());
+        assertNull(result.getError(0));
+        assertEquals(Value.ZERO, result.getColumn("X").get(0));
+        assertTrue(result.getError(1) instanceof ExecutionLimitExceededException);
+        assertNull(result.getColumn("X").get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRun_invalidVariable() {
+        calculator.sweepProgram("CALC", Arrays.asList(ImmutableMap.of("a", Value.of(1))), Arrays.asList("X"));
+    }
+
+    @Test
+    public void testReadBindingsAndWriteCsv() throws Exception {
+        Path csvFile = temporaryFolder.newFile("sweep.csv").toPath();
+        Files.write(csvFile, "A, ∟DATA\n2,{1,2}\n\n3,\"{4,5}\"\n".getBytes(StandardCharsets.UTF_8));
+
+        List<Map<String, Value>> rows = ParameterSweep.readBindings(csvFile);
+        assertEquals(2, rows.size());
+        assertEquals(Value.of(2), rows.get(0).get("A"));
+        assertEquals(list(4, 5), rows.get(1).get("∟DATA"));
+
+        ParameterSweep.Result result = calculator.sweepProgram("CALC", rows, Arrays.asList("X", "∟RES"));
+        StringBuilder csv = new StringBuilder();
+        result.writeCsv(csv);
+        assertEquals("run,X,∟RES,error\n1,20,\"{2,4}\",\n2,30,\"{12,15}\",\n", csv.toString());
+    }
+
+    @Test
+    public void testFormatValue() {
+        assertEquals("2.5", ParameterSweep.formatValue(Value.of(2.5)));
+        assertEquals("3-2i", ParameterSweep.formatValue(Value.of(3, -2)));
+        assertEquals("-i", ParameterSweep.formatValue(Value.of(0, -1)));
+        assertEquals("{1,0.5}", ParameterSweep.formatValue(list(1, 0.5)));
+    }
+
+    private static Value list(double... values) {
+        return Value.of(Arrays.stream(values).mapToObj(Complex::valueOf).toArray(Complex[]::new));
+    }
+}
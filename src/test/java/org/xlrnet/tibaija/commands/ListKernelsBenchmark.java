@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.commands;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.math3.complex.Complex;
+import org.xlrnet.tibaija.memory.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Simple benchmark that compares the element-wise evaluation of list operators with {@link Value} objects, with
+ * {@link Complex} elements and with the selected {@link ListKernels}. This is no unit test and must be started
+ * manually, e.g. with {@code -Dtibaija.kernels=scalar} to select the kernels.
+ */
+public class ListKernelsBenchmark {
+
+    private static final int LIST_SIZE = 999;
+
+    private static final int WARMUP_ROUNDS = 20_000;
+
+    private static final int MEASURED_ROUNDS = 20_000;
+
+    private static final BinaryCommandOperator[] OPERATORS = {
+            BinaryCommandOperator.PLUS, BinaryCommandOperator.MULTIPLY, BinaryCommandOperator.DIVIDE,
+            BinaryCommandOperator.LESS_THAN, BinaryCommandOperator.AND
+    };
+
+    private static double blackhole;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        double[] lhs = new double[LIST_SIZE];
+        double[] rhs = new double[LIST_SIZE];
+        List<Complex> lhsList = new ArrayList<>(LIST_SIZE);
+        List<Complex> rhsList = new ArrayList<>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; i++) {
+            lhs[i] = random.nextDouble() * 100;
+            rhs[i] = random.nextDouble() * 100 + 1;
+            lhsList.add(Complex.valueOf(lhs[i]));
+            rhsList.add(Complex.valueOf(rhs[i]));
+        }
+        ImmutableList<Complex> lhsElements = ImmutableList.copyOf(lhsList);
+        ImmutableList<Complex> rhsElements = ImmutableList.copyOf(rhsList);
+        ListKernels kernels = ListKernels.getInstance();
+
+        System.out.printf("%-16s %14s %14s %14s%n", "Operator", "Value ns/elem", "Complex ns/elem", kernels.getName() + " ns/elem");
+        for (BinaryCommandOperator operator : OPERATORS) {
+            double valueNanos = measure(() -> {
+                for (int i = 0; i < LIST_SIZE; i++)
+                    blackhole += operator.getOperatorFunction().apply(Value.of(lhsElements.get(i)), Value.of(rhsElements.get(i))).complex().getReal();
+            });
+            double complexNanos = measure(() -> {
+                for (int i = 0; i < LIST_SIZE; i++)
+                    blackhole += operator.applyOnElements(lhsElements.get(i), rhsElements.get(i)).getReal();
+            });
+            double[] result = new double[LIST_SIZE];
+            double kernelNanos = measure(() -> {
+                kernels.apply(operator, lhs, rhs, result);
+                blackhole += result[LIST_SIZE - 1];
+            });
+            System.out.printf("%-16s %14.3f %14.3f %14.3f%n", operator, valueNanos, complexNanos, kernelNanos);
+        }
+        System.out.println(blackhole != 0 ? "" : " ");
+    }
+
+    private static double measure(Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            round.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++)
+            round.run();
+        return (System.nanoTime() - start) / (double) MEASURED_ROUNDS / LIST_SIZE;
+    }
+}
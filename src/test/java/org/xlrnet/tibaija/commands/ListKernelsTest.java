@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.commands;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+import org.xlrnet.tibaija.memory.Value;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the primitive list kernels.
+ */
+public class ListKernelsTest {
+
+    private static final double[] LHS = {0, 1, -2.5, 3, 1e300, 0.1 + 0.2, 7, -0.0};
+
+    private static final double[] RHS = {0, 2, -2.5, -4, 1e-300, 0.3, 0.5, 0.0};
+
+    private final ListKernels kernels = new ScalarListKernels();
+
+    @Test
+    public void testGetInstance_defaultsToScalar() {
+        assertEquals("scalar", ListKernels.getInstance().getName());
+    }
+
+    @Test
+    public void testApply_binaryMatchesOperatorFunction() {
+        for (BinaryCommandOperator operator : BinaryCommandOperator.values()) {
+            if (!ListKernels.isExactForReals(operator))
+                continue;
+            double[] result = new double[LHS.length];
+            kernels.apply(operator, LHS, RHS, result);
+            for (int i = 0; i < LHS.length; i++) {
+                if (operator == BinaryCommandOperator.DIVIDE && RHS[i] == 0)
+                    continue;
+                assertEquals(operator + " of element " + i, expected(operator, LHS[i], RHS[i]), result[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testApply_binaryBroadcast() {
+        for (BinaryCommandOperator operator : BinaryCommandOperator.values()) {
+            if (!ListKernels.isExactForReals(operator))
+                continue;
+            double[] leftResult = new double[LHS.length];
+            double[] rightResult = new double[LHS.length];
+            kernels.apply(operator, LHS, new double[]{2}, leftResult);
+            kernels.apply(operator, new double[]{2}, LHS, rightResult);
+            for (int i = 0; i < LHS.length; i++) {
+                assertEquals(operator + " of element " + i, expected(operator, LHS[i], 2), leftResult[i], 0);
+                if (operator != BinaryCommandOperator.DIVIDE || LHS[i] != 0)
+                    assertEquals(operator + " of element " + i, expected(operator, 2, LHS[i]), rightResult[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testApply_unaryMatchesOperatorFunction() {
+        for (UnaryCommandOperator operator : UnaryCommandOperator.values()) {
+            if (!ListKernels.isExactForReals(operator))
+                continue;
+            double[] result = new double[RHS.length];
+            kernels.apply(operator, RHS, result);
+            for (int i = 0; i < RHS.length; i++) {
+                if (operator == UnaryCommandOperator.SQUARE_ROOT && RHS[i] < 0)
+                    continue;
+                double expected = operator.getOperatorFunction().apply(Value.of(RHS[i])).complex().getReal();
+                assertEquals(operator + " of element " + i, expected, result[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testApply_inPlace() {
+        double[] operand = {1, 2, 3};
+        kernels.apply(BinaryCommandOperator.MULTIPLY, operand, operand, operand);
+        assertArrayEquals(new double[]{1, 4, 9}, operand, 0);
+    }
+
+    @Test
+    public void testToRealArray() {
+        assertArrayEquals(new double[]{1, 2}, ListKernels.toRealArray(Value.of(Complex.valueOf(1), Complex.valueOf(2))), 0);
+        assertArrayEquals(new double[]{3}, ListKernels.toRealArray(Value.of(3)), 0);
+        assertNull(ListKernels.toRealArray(Value.of(Complex.valueOf(1), Complex.I)));
+        assertNull(ListKernels.toRealArray(Value.of(Complex.valueOf(Double.POSITIVE_INFINITY))));
+    }
+
+    private static double expected(BinaryCommandOperator operator, double lhs, double rhs) {
+        return operator.getOperatorFunction().apply(Value.of(lhs), Value.of(rhs)).complex().getReal();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.commands;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.math3.complex.Complex;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.util.StatisticsUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Simple benchmark for the statistics functions on lists with 999 elements. Compares each {@link
+ * StatisticsCommandOperator} including the conversion of its arguments with the {@link StatisticsUtils} on primitive
+ * arrays and the median by selection with a median by sorting. This is no unit test and must be started manually.
+ */
+public class StatisticsBenchmark {
+
+    private static final int LIST_SIZE = 999;
+
+    private static final int WARMUP_ROUNDS = 20_000;
+
+    private static final int MEASURED_ROUNDS = 20_000;
+
+    private static double blackhole;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        double[] xValues = new double[LIST_SIZE];
+        double[] yValues = new double[LIST_SIZE];
+        double[] frequencies = new double[LIST_SIZE];
+        List<Complex> xList = new ArrayList<>(LIST_SIZE);
+        List<Complex> yList = new ArrayList<>(LIST_SIZE);
+        List<Complex> frequencyList = new ArrayList<>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; i++) {
+            xValues[i] = random.nextDouble() * 100;
+            yValues[i] = 3 * xValues[i] + random.nextGaussian();
+            frequencies[i] = random.nextInt(5);
+            xList.add(Complex.valueOf(xValues[i]));
+            yList.add(Complex.valueOf(yValues[i]));
+            frequencyList.add(Complex.valueOf(frequencies[i]));
+        }
+        Value x = Value.of(xList);
+        Value y = Value.of(yList);
+        Value f = Value.of(frequencyList);
+
+        System.out.printf("%-20s %16s %16s%n", "Function", "Command ns/elem", "Utils ns/elem");
+        print("sum(", StatisticsCommandOperator.SUM, ImmutableList.of(x),
+                () -> blackhole += StatisticsUtils.sum(xValues, 0, LIST_SIZE));
+        print("mean(", StatisticsCommandOperator.MEAN, ImmutableList.of(x, f),
+                () -> blackhole += StatisticsUtils.mean(xValues, frequencies));
+        print("median(", StatisticsCommandOperator.MEDIAN, ImmutableList.of(x),
+                () -> blackhole += StatisticsUtils.median(xValues, null));
+        print("median( freq", StatisticsCommandOperator.MEDIAN, ImmutableList.of(x, f),
+                () -> blackhole += StatisticsUtils.median(xValues, frequencies));
+        print("stdDev(", StatisticsCommandOperator.STANDARD_DEVIATION, ImmutableList.of(x),
+                () -> blackhole += StatisticsUtils.moments(xValues, null).getSampleVariance());
+        print("1-Var Stats", StatisticsCommandOperator.ONE_VAR_STATS, ImmutableList.of(x, f),
+                () -> blackhole += StatisticsUtils.quartiles(xValues, frequencies)[0] + StatisticsUtils.moments(xValues, frequencies).getMean());
+        print("LinReg(ax+b)", StatisticsCommandOperator.LINEAR_REGRESSION, ImmutableList.of(x, y),
+                () -> blackhole += StatisticsUtils.linearRegression(xValues, yValues, null)[0]);
+
+        double sortNanos = measure(() -> {
+            double[] sorted = xValues.clone();
+            Arrays.sort(sorted);
+            blackhole += (sorted[(LIST_SIZE - 1) / 2] + sorted[LIST_SIZE / 2]) / 2;
+        });
+        System.out.printf("%-20s %16s %16.3f%n", "median( by sorting", "-", sortNanos);
+        System.out.println(blackhole != 0 ? "" : " ");
+    }
+
+    private static void print(String name, StatisticsCommandOperator operator, ImmutableList<Value> arguments, Runnable utilsRound) {
+        Function<ImmutableList<Value>, Value> function = operator.getOperatorFunction();
+        double commandNanos = measure(() -> blackhole += function.apply(arguments).getValue().hashCode());
+        double utilsNanos = measure(utilsRound);
+        System.out.printf("%-20s %16.3f %16.3f%n", name, commandNanos, utilsNanos);
+    }
+
+    private static double measure(Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            round.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++)
+            round.run();
+        return (System.nanoTime() - start) / (double) MEASURED_ROUNDS / LIST_SIZE;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xlrnet.tibaija.TI83Plus;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Variables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for reading tokenized program files.
+ */
+public class ProgramFileLoaderTest {
+
+    /**
+     * Tokens of the following program:
+     * <pre>
+     * 0→A
+     * While A<5
+     * A+1→A
+     * End
+     * {1,2}→∟₁
+     * </pre>
+     */
+    private static final int[] COUNTING_PROGRAM = {
+            0x30, 0x04, 0x41, 0x3F,
+            0xD1, 0x41, 0x6B, 0x35, 0x3F,
+            0x41, 0x70, 0x31, 0x04, 0x41, 0x3F,
+            0xD4, 0x3F,
+            0x08, 0x31, 0x2B, 0x32, 0x09, 0x04, 0x5D, 0x00
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRead() throws Exception {
+        ProgramFile programFile = ProgramFileLoader.read(ByteBuffer.wrap(newProgramFile("COUNT", 0x05, COUNTING_PROGRAM)));
+
+        assertEquals("COUNT", programFile.getProgramName());
+        assertEquals("Test file", programFile.getComment());
+        assertFalse(programFile.isEditLocked());
+        assertEquals(":0→A:While A<5:A+1→A:End:{1,2}→∟₁", programFile.getSource().toString());
+    }
+
+    @Test
+    public void testRead_editLocked() throws Exception {
+        ProgramFile programFile = ProgramFileLoader.read(ByteBuffer.wrap(newProgramFile("Aθ", 0x06, 0x41)));
+
+        assertEquals("Aθ", programFile.getProgramName());
+        assertTrue(programFile.isEditLocked());
+    }
+
+    @Test
+    public void testRead_execute() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("COUNT.8xp");
+        Files.write(file, newProgramFile("COUNT", 0x05, COUNTING_PROGRAM));
+
+        ProgramFile programFile = ProgramFileLoader.read(file);
+        VirtualCalculator calculator = newCalculator();
+        calculator.loadProgram(programFile.getProgramName(), programFile.getSource());
+        calculator.executeProgram("COUNT");
+
+        assertEquals(5, calculator.getMemory().getNumberVariableValue(Variables.NumberVariable.A).complex().getReal(), 0);
+        assertEquals(2, calculator.getMemory().getListVariableValue("₁").list().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_invalidChecksum() throws Exception {
+        byte[] bytes = newProgramFile("COUNT", 0x05, COUNTING_PROGRAM);
+        bytes[bytes.length - 1]++;
+        ProgramFileLoader.read(ByteBuffer.wrap(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_invalidSignature() throws Exception {
+        byte[] bytes = newProgramFile("COUNT", 0x05, COUNTING_PROGRAM);
+        bytes[2] = 'X';
+        ProgramFileLoader.read(ByteBuffer.wrap(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_truncated() throws Exception {
+        byte[] bytes = newProgramFile("COUNT", 0x05, COUNTING_PROGRAM);
+        byte[] truncated = new byte[bytes.length - 5];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        ProgramFileLoader.read(ByteBuffer.wrap(truncated));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_notAProgram() throws Exception {
+        ProgramFileLoader.read(ByteBuffer.wrap(newProgramFile("A", 0x00, 0x41)));
+    }
+
+    @Test
+    public void testRead_unsupportedToken() throws Exception {
+        try {
+            ProgramFileLoader.read(ByteBuffer.wrap(newProgramFile("COUNT", 0x05, 0x41, 0xBB, 0x0A)));
+            fail("Unsupported token should have been rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("0xBB0A"));
+        }
+    }
+
+    @Test
+    public void testImportDirectory() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        Files.write(directory.resolve("count.8xp"), newProgramFile("COUNT", 0x05, COUNTING_PROGRAM));
+        Files.write(directory.resolve("other.8XP"), newProgramFile("OTHER", 0x05, 0x31));
+        byte[] broken = newProgramFile("BROKEN", 0x05, 0x31);
+        broken[broken.length - 1]++;
+        Files.write(directory.resolve("broken.8xp"), broken);
+        Files.write(directory.resolve("readme.txt"), new byte[]{'h', 'i'});
+
+        VirtualCalculator calculator = newCalculator();
+        ProgramFileLoader.ImportResult result = ProgramFileLoader.importDirectory(directory, calculator);
+
+        assertEquals(2, result.getLoadedPrograms().size());
+        assertTrue(result.getLoadedPrograms().contains("COUNT"));
+        assertTrue(result.getLoadedPrograms().contains("OTHER"));
+        assertEquals(1, result.getFailures().size());
+        assertTrue(result.getFailures().containsKey(directory.resolve("broken.8xp")));
+        assertNotNull(calculator.getMemory().getStoredProgram("OTHER"));
+    }
+
+    private VirtualCalculator newCalculator() {
+        return new TI83Plus(new DefaultCalculatorMemory(), mock(CalculatorIO.class));
+    }
+
+    private byte[] newProgramFile(String name, int type, int... tokens) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int variableLength = tokens.length + 2;
+        writeShort(data, 0x0D);
+        writeShort(data, variableLength);
+        data.write(type);
+        for (int i = 0; i < 8; i++) {
+            if (i < name.length())
+                data.write(name.charAt(i) == 'θ' ? 0x5B : name.charAt(i));
+            else
+                data.write(0);
+        }
+        data.write(0);          // Version
+        data.write(0);          // Archive flag
+        writeShort(data, variableLength);
+        writeShort(data, tokens.length);
+        for (int token : tokens)
+            data.write(token);
+
+        byte[] dataSection = data.toByteArray();
+        int checksum = 0;
+        for (byte b : dataSection)
+            checksum += b & 0xFF;
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        byte[] signature = {'*', '*', 'T', 'I', '8', '3', 'F', '*', 0x1A, 0x0A, 0x00};
+        file.write(signature, 0, signature.length);
+        byte[] comment = new byte[42];
+        byte[] commentText = "Test file".getBytes();
+        System.arraycopy(commentText, 0, comment, 0, commentText.length);
+        file.write(comment, 0, comment.length);
+        writeShort(file, dataSection.length);
+        file.write(dataSection, 0, dataSection.length);
+        writeShort(file, checksum);
+        return file.toByteArray();
+    }
+
+    private void writeShort(ByteArrayOutputStream stream, int value) {
+        stream.write(value & 0xFF);
+        stream.write((value >> 8) & 0xFF);
+    }
+}
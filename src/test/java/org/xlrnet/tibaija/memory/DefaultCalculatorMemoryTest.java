@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.memory;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Before;
+import org.junit.Test;
+import org.xlrnet.tibaija.TI83Plus;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.exception.UndefinedVariableException;
+import org.xlrnet.tibaija.io.CalculatorIO;
+import org.xlrnet.tibaija.processor.ExecutableProgram;
+import org.xlrnet.tibaija.processor.Preprocessor;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for forking the default memory.
+ */
+public class DefaultCalculatorMemoryTest {
+
+    private DefaultCalculatorMemory memory;
+
+    @Before
+    public void setUp() {
+        memory = new DefaultCalculatorMemory();
+        memory.setNumberVariableValue(Variables.NumberVariable.A, Value.of(1));
+        memory.setListVariableValue("DATA", list(1, 2, 3));
+        memory.setLastResult(Value.of(5));
+    }
+
+    @Test
+    public void testFork_sharesContent() {
+        ExecutableProgram program = new Preprocessor().preprocessProgramCode("TEST", ":1→B");
+        memory.storeProgram("TEST", program);
+
+        CalculatorMemory fork = memory.fork();
+
+        assertEquals(Value.of(1), fork.getNumberVariableValue(Variables.NumberVariable.A));
+        assertEquals(Value.ZERO, fork.getNumberVariableValue(Variables.NumberVariable.B));
+        assertEquals(list(1, 2, 3), fork.getListVariableValue("DATA"));
+        assertEquals(Value.of(5), fork.getLastResult());
+        assertSame(program, fork.getStoredProgram("TEST"));
+        assertEquals(memory.getListVariableNames(), fork.getListVariableNames());
+    }
+
+    @Test
+    public void testFork_changesAreIsolated() {
+        CalculatorMemory fork = memory.fork();
+
+        fork.setNumberVariableValue(Variables.NumberVariable.A, Value.of(2));
+        fork.setListVariableValue("NEW", list(4));
+        fork.setLastResult(Value.of(6));
+        memory.setListVariableValue("DATA", list(7));
+        memory.setNumberVariableValue(Variables.NumberVariable.C, Value.of(3));
+
+        assertEquals(Value.of(1), memory.getNumberVariableValue(Variables.NumberVariable.A));
+        assertEquals(Value.of(2), fork.getNumberVariableValue(Variables.NumberVariable.A));
+        assertEquals(list(1, 2, 3), fork.getListVariableValue("DATA"));
+        assertEquals(list(7), memory.getListVariableValue("DATA"));
+        assertEquals(Value.ZERO, fork.getNumberVariableValue(Variables.NumberVariable.C));
+        assertEquals(Value.of(5), memory.getLastResult());
+        assertFalse(memory.getListVariableNames().contains("NEW"));
+    }
+
+    @Test(expected = UndefinedVariableException.class)
+    public void testFork_newListNotVisibleInParent() {
+        memory.fork().setListVariableValue("NEW", list(4));
+        memory.getListVariableValue("NEW");
+    }
+
+    @Test
+    public void testFork_manyGenerations() {
+        CalculatorMemory current = memory;
+        for (int i = 0; i < 100; i++) {
+            current = current.fork();
+            current.setNumberVariableValue(Variables.NumberVariable.B, Value.of(i));
+            current.setListVariableValue("L" + i, list(i));
+        }
+
+        assertEquals(Value.of(99), current.getNumberVariableValue(Variables.NumberVariable.B));
+        assertEquals(Value.of(1), current.getNumberVariableValue(Variables.NumberVariable.A));
+        assertEquals(101, current.getListVariableNames().size());
+        for (int i = 0; i < 100; i++)
+            assertEquals(list(i), current.getListVariableValue("L" + i));
+        assertEquals(1, memory.getListVariableNames().size());
+    }
+
+    @Test(timeout = 30000L)
+    public void testFork_concurrentRuns() {
+        VirtualCalculator calculator = new TI83Plus(memory, mock(CalculatorIO.class));
+        calculator.loadProgram("CALC", ":A*A+1→S:∟DATA*A→∟RES");
+
+        // Forking modifies the parent, so only the runs happen concurrently
+        List<CalculatorMemory> forks = IntStream.range(0, 1000).mapToObj(i -> memory.fork()).collect(Collectors.toList());
+        IntStream.range(0, forks.size()).parallel().forEach(i -> {
+            CalculatorMemory fork = forks.get(i);
+            fork.setNumberVariableValue(Variables.NumberVariable.A, Value.of(i));
+            new TI83Plus(fork, mock(CalculatorIO.class)).executeProgram("CALC");
+        });
+
+        for (int i = 0; i < forks.size(); i++) {
+            assertEquals(Value.of(i * i + 1), forks.get(i).getNumberVariableValue(Variables.NumberVariable.S));
+            assertEquals(list(i, 2 * i, 3 * i), forks.get(i).getListVariableValue("RES"));
+        }
+        assertEquals(Value.ZERO, memory.getNumberVariableValue(Variables.NumberVariable.S));
+        assertFalse(memory.getListVariableNames().contains("RES"));
+    }
+
+    private static Value list(double... values) {
+        return Value.of(DoubleStream.of(values).mapToObj(Complex::valueOf).toArray(Complex[]::new));
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.memory;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xlrnet.tibaija.TI83Plus;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.exception.DuplicateProgramException;
+import org.xlrnet.tibaija.io.CalculatorIO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for encoding and decoding memory snapshots.
+ */
+public class MemorySnapshotTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private VirtualCalculator calculator;
+
+    @Before
+    public void setUp() {
+        calculator = new TI83Plus(new DefaultCalculatorMemory(), mock(CalculatorIO.class));
+        calculator.loadProgram("SETUP", ":1→A:{1,2,3}→∟ABC");
+
+        CalculatorMemory memory = calculator.getMemory();
+        memory.setLastResult(Value.of(Complex.I, Complex.valueOf(2)));
+        memory.setNumberVariableValue(Variables.NumberVariable.A, Value.of(-1.25, 3));
+        memory.setNumberVariableValue(Variables.NumberVariable.Z, Value.of(1e99));
+        for (int list = 1; list <= 6; list++) {
+            List<Complex> values = new ArrayList<>();
+            for (int i = 0; i < 999; i++)
+                values.add(list == 6 ? new Complex(i, -i) : new Complex(i * list / 7.0));
+            memory.setListVariableValue(String.valueOf((char) ('₀' + list)), Value.of(values));
+        }
+        memory.setListVariableValue("EMPTY", Value.of(new ArrayList<>()));
+        memory.setMatrixVariableValue(Variables.MatrixVariable.A, Value.of(Matrix.of(2, 3, 1, 2, 3, -4.5, 5, 1e-99)));
+        memory.setMatrixVariableValue(Variables.MatrixVariable.J, Value.of(Matrix.identity(20)));
+    }
+
+    @Test
+    public void testRoundTrip_byteBuffer() throws Exception {
+        MemorySnapshot snapshot = MemorySnapshot.of(calculator.getMemory());
+        ByteBuffer buffer = snapshot.toByteBuffer();
+        assertEquals(snapshot.getEncodedSize(), buffer.remaining());
+
+        CalculatorMemory target = new DefaultCalculatorMemory();
+        MemorySnapshot.read(buffer).restoreInto(target);
+
+        assertFalse(buffer.hasRemaining());
+        assertMemoryEquals(calculator.getMemory(), target);
+    }
+
+    @Test
+    public void testRoundTrip_mappedFile() throws Exception {
+        Path file = temporaryFolder.newFile("memory.tibm").toPath();
+        MemorySnapshot.of(calculator.getMemory()).writeTo(file);
+
+        CalculatorMemory target = new DefaultCalculatorMemory();
+        MemorySnapshot.read(file).restoreInto(target);
+
+        assertMemoryEquals(calculator.getMemory(), target);
+    }
+
+    @Test
+    public void testRoundTrip_bufferOffset() throws Exception {
+        MemorySnapshot snapshot = MemorySnapshot.of(calculator.getMemory());
+        ByteBuffer buffer = ByteBuffer.allocate(snapshot.getEncodedSize() + 10);
+        buffer.position(3);
+        snapshot.writeTo(buffer);
+        buffer.position(3);
+
+        MemorySnapshot decoded = MemorySnapshot.read(buffer);
+        assertEquals(3 + snapshot.getEncodedSize(), buffer.position());
+        assertEquals(snapshot.getListVariables(), decoded.getListVariables());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_invalidMagic() throws Exception {
+        ByteBuffer buffer = MemorySnapshot.of(calculator.getMemory()).toByteBuffer();
+        buffer.put(0, (byte) 0);
+        MemorySnapshot.read(buffer);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_corruptedData() throws Exception {
+        ByteBuffer buffer = MemorySnapshot.of(calculator.getMemory()).toByteBuffer();
+        buffer.put(200, (byte) (buffer.get(200) ^ 0x01));
+        MemorySnapshot.read(buffer);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_truncated() throws Exception {
+        ByteBuffer buffer = MemorySnapshot.of(calculator.getMemory()).toByteBuffer();
+        buffer.limit(buffer.limit() / 2);
+        MemorySnapshot.read(buffer);
+    }
+
+    @Test
+    public void testRoundTrip_matrixAsLastResult() throws Exception {
+        calculator.getMemory().setLastResult(Value.of(Matrix.of(1, 2, 7, 8)));
+        MemorySnapshot snapshot = MemorySnapshot.read(MemorySnapshot.of(calculator.getMemory()).toByteBuffer());
+
+        assertEquals(Value.of(Matrix.of(1, 2, 7, 8)), snapshot.getLastResult());
+        assertEquals(2, snapshot.getMatrixVariables().size());
+    }
+
+    @Test
+    public void testRead_versionWithoutMatrices() throws Exception {
+        int numberVariables = Variables.NumberVariable.values().length;
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 17 + 4 + numberVariables * 16 + 4 + 4 + 8);
+        buffer.putInt(0x5449424D).putShort((short) 1).putShort((short) 0);
+        buffer.put((byte) 0).putDouble(42).putDouble(0);
+        buffer.putInt(numberVariables);
+        for (int i = 0; i < numberVariables; i++)
+            buffer.putDouble(i).putDouble(0);
+        buffer.putInt(0).putInt(0);
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc32.getValue());
+        buffer.flip();
+
+        MemorySnapshot snapshot = MemorySnapshot.read(buffer);
+
+        assertEquals(Value.of(42), snapshot.getLastResult());
+        assertEquals(Value.of(1), snapshot.getNumberVariables().get(Variables.NumberVariable.values()[1]));
+        assertTrue(snapshot.getMatrixVariables().isEmpty());
+    }
+
+    @Test(expected = DuplicateProgramException.class)
+    public void testRestore_conflictingProgram() throws Exception {
+        MemorySnapshot snapshot = MemorySnapshot.read(MemorySnapshot.of(calculator.getMemory()).toByteBuffer());
+
+        VirtualCalculator target = new TI83Plus(new DefaultCalculatorMemory(), mock(CalculatorIO.class));
+        target.loadProgram("SETUP", ":2→A");
+        snapshot.restoreInto(target.getMemory());
+    }
+
+    private void assertMemoryEquals(ReadOnlyCalculatorMemory expected, ReadOnlyCalculatorMemory actual) {
+        assertEquals(expected.getLastResult(), actual.getLastResult());
+        for (Variables.NumberVariable variable : Variables.NumberVariable.values())
+            assertEquals(expected.getNumberVariableValue(variable), actual.getNumberVariableValue(variable));
+        assertEquals(expected.getListVariableNames(), actual.getListVariableNames());
+        for (String listName : expected.getListVariableNames())
+            assertEquals(expected.getListVariableValue(listName), actual.getListVariableValue(listName));
+        assertEquals(expected.getMatrixVariableNames(), actual.getMatrixVariableNames());
+        for (Variables.MatrixVariable variable : expected.getMatrixVariableNames())
+            assertEquals(expected.getMatrixVariableValue(variable), actual.getMatrixVariableValue(variable));
+        assertEquals(expected.getStoredProgramNames(), actual.getStoredProgramNames());
+        assertEquals(expected.getStoredProgram("SETUP").getOriginalSource(), actual.getStoredProgram("SETUP").getOriginalSource());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.xlrnet.tibaija.TI83Plus;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.io.CalculatorIO;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.xlrnet.tibaija.memory.Variables.NumberVariable.*;
+
+/**
+ * Tests for evaluating expressions over columns of inputs.
+ */
+public class BatchExpressionTest {
+
+    private static final double[] A_COLUMN = {1, 2, 3, -4, 0.5};
+
+    private static final double[] B_COLUMN = {5, -6, 7, 8, 9};
+
+    private static final double[] C_COLUMN = {0, 1, -2, 3.25, 10};
+
+    private static final Map<Variables.NumberVariable, double[]> COLUMNS = ImmutableMap.of(A, A_COLUMN, B, B_COLUMN, C, C_COLUMN);
+
+    @Test
+    public void testEvaluate_kernels() {
+        assertMatchesInterpreter("A²+B*C", true);
+        assertMatchesInterpreter("(A-1)/B+‾C³", true);
+        assertMatchesInterpreter("A^2-2AB", true);
+        assertMatchesInterpreter("A<B and C≥0 xor not(A=1)", true);
+        assertMatchesInterpreter("√(B²+C²)", true);
+    }
+
+    @Test
+    public void testEvaluate_fallback() {
+        assertMatchesInterpreter("10 nCr 2+B", false);
+        assertMatchesInterpreter("A+Ans*B", false);
+    }
+
+    @Test
+    public void testEvaluate_nonRealIntermediateResult() {
+        BatchExpression expression = BatchExpression.compile("√(A)²");
+        assertTrue(expression.isKernelEvaluated());
+
+        double[] result = expression.evaluate(ImmutableMap.of(A, A_COLUMN));
+        for (int i = 0; i < A_COLUMN.length; i++)
+            assertEquals(A_COLUMN[i], result[i], 1e-9);
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testEvaluate_nonRealResult() {
+        BatchExpression.compile("√(A)").evaluate(ImmutableMap.of(A, A_COLUMN));
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testEvaluate_mismatchingDimensions() {
+        BatchExpression.compile("A+B").evaluate(ImmutableMap.of(A, A_COLUMN, B, new double[]{1, 2}));
+    }
+
+    @Test
+    public void testEvaluate_unboundVariablesFromMemory() {
+        DefaultCalculatorMemory memory = new DefaultCalculatorMemory();
+        memory.setNumberVariableValue(X, Value.of(10));
+
+        double[] result = BatchExpression.compile("AX+Y").evaluate(ImmutableMap.of(A, A_COLUMN), memory);
+        assertArrayEquals(new double[]{10, 20, 30, -40, 5}, result, 0);
+    }
+
+    @Test
+    public void testEvaluate_constantExpression() {
+        assertArrayEquals(new double[]{7}, BatchExpression.compile("1+2*3").evaluate(Collections.emptyMap()), 0);
+        assertArrayEquals(new double[]{7, 7, 7, 7, 7}, BatchExpression.compile("1+2*3").evaluate(COLUMNS), 0);
+    }
+
+    @Test
+    public void testEvaluate_emptyColumns() {
+        assertEquals(0, BatchExpression.compile("A+1").evaluate(ImmutableMap.of(A, new double[0])).length);
+    }
+
+    @Test
+    public void testEvaluate_doesNotModifyColumns() {
+        double[] column = A_COLUMN.clone();
+        BatchExpression.compile("((A+1)*2)²").evaluate(ImmutableMap.of(A, column));
+        assertArrayEquals(A_COLUMN, column, 0);
+    }
+
+    @Test
+    public void testGetVariables() {
+        assertEquals(ImmutableSet.of(A, B, C), BatchExpression.compile("A²+B*C-A").getVariables());
+    }
+
+    private void assertMatchesInterpreter(String expressionCode, boolean kernelEvaluated) {
+        BatchExpression expression = BatchExpression.compile(expressionCode);
+        assertEquals(kernelEvaluated, expression.isKernelEvaluated());
+
+        double[] result = expression.evaluate(COLUMNS);
+        assertEquals(A_COLUMN.length, result.length);
+        for (int i = 0; i < A_COLUMN.length; i++) {
+            VirtualCalculator calculator = new TI83Plus(new DefaultCalculatorMemory(), mock(CalculatorIO.class));
+            calculator.getMemory().setNumberVariableValue(A, Value.of(A_COLUMN[i]));
+            calculator.getMemory().setNumberVariableValue(B, Value.of(B_COLUMN[i]));
+            calculator.getMemory().setNumberVariableValue(C, Value.of(C_COLUMN[i]));
+            calculator.interpret(expressionCode);
+            assertEquals("Row " + i + " of " + expressionCode, calculator.getMemory().getLastResult().complex().getReal(), result[i], 1e-9);
+        }
+    }
+}
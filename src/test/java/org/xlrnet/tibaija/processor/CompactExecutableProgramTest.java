@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.junit.Test;
+import org.xlrnet.tibaija.TI83Plus;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.exception.LabelNotFoundException;
+import org.xlrnet.tibaija.io.CalculatorIO;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Variables;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for programs that don't keep their parse tree.
+ */
+public class CompactExecutableProgramTest {
+
+    private static final String PROGRAM = ":0→A\n:Lbl AB\n:While A<10\n:A+1→A\n:End\n:Lbl C\n:A*2→B";
+
+    private final Preprocessor preprocessor = new Preprocessor();
+
+    @Test
+    public void testCompact_keepsProgramInformation() {
+        ExecutableProgram program = preprocessor.preprocessProgramCode("TEST", PROGRAM);
+        ExecutableProgram compact = program.compact();
+
+        assertTrue(compact.isCompact());
+        assertFalse(program.isCompact());
+        assertSame(compact, compact.compact());
+        assertEquals("TEST", compact.getProgramName());
+        assertEquals(PROGRAM, compact.getOriginalSource().toString());
+        assertEquals(program.getCommandCount(), compact.getCommandCount());
+        assertEquals(program.getLabelIndexes(), compact.getLabelIndexes());
+        assertEquals(program.getLabelCommands("C").size(), compact.getLabelCommands("C").size());
+        assertEquals(program.getMainProgramContext().toStringTree(), compact.getMainProgramContext().toStringTree());
+    }
+
+    @Test(expected = LabelNotFoundException.class)
+    public void testGetLabelCommands_unknownLabel() {
+        preprocessor.preprocessProgramCode("TEST", PROGRAM).compact().getLabelCommands("X");
+    }
+
+    @Test
+    public void testGetRetainedBytes() {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            code.append(":A+").append(i).append("*(B-2)→A\n");
+        ExecutableProgram program = preprocessor.preprocessProgramCode("TEST", code);
+        ExecutableProgram compact = program.compact();
+
+        assertTrue(compact.getRetainedBytes() > 2 * code.length());
+        assertTrue(program.getRetainedBytes() > 10 * compact.getRetainedBytes());
+        // Rebuilding the tree must not change the accounted size
+        long retainedBytes = compact.getRetainedBytes();
+        compact.getMainProgramContext();
+        assertEquals(retainedBytes, compact.getRetainedBytes());
+    }
+
+    @Test
+    public void testUpdateProgramCode_staysCompact() {
+        ExecutableProgram compact = preprocessor.preprocessProgramCode("TEST", PROGRAM).compact();
+        String newCode = PROGRAM.replace("A<10", "A<20");
+
+        ExecutableProgram updated = preprocessor.updateProgramCode(compact, newCode);
+
+        assertTrue(updated.isCompact());
+        assertEquals(newCode, updated.getOriginalSource().toString());
+        assertEquals(preprocessor.preprocessProgramCode("TEST", newCode).getLabelIndexes(), updated.getLabelIndexes());
+    }
+
+    @Test
+    public void testCompactPrograms() {
+        VirtualCalculator calculator = new TI83Plus(new DefaultCalculatorMemory(), mock(CalculatorIO.class));
+        calculator.loadProgram("FIRST", PROGRAM);
+        calculator.loadProgram("SECOND", ":0→A:While A<10:A+1→A:End:A*2→B");
+        long retainedBytes = calculator.getMemory().getRetainedProgramBytes();
+
+        calculator.getMemory().compactPrograms();
+
+        assertTrue(calculator.getMemory().getStoredProgram("FIRST").isCompact());
+        assertTrue(calculator.getMemory().getStoredProgram("SECOND").isCompact());
+        assertTrue(calculator.getMemory().getRetainedProgramBytes() < retainedBytes);
+
+        calculator.executeProgram("SECOND");
+        assertEquals(20, calculator.getMemory().getNumberVariableValue(Variables.NumberVariable.B).complex().getReal(), 0);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Before;
+import org.junit.Test;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.io.CapturingIO;
+import org.xlrnet.tibaija.memory.CalculatorMemory;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
+
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for compiling the conditions of control flow statements.
+ */
+public class CompiledConditionTest {
+
+    private static final String[] CONDITIONS = {
+            "A<B", "A≤B", "A>B", "A≥B", "A=B", "A≠B", "A", "not(A)", "A and B", "A or B", "A xor B",
+            "A+1<B*2", "‾A≥B-3", "A/B>.5", "A²+B³≠0", "A<B and B<C or not(C=A)", "(A<B)+(B<C)=2", "Ans>A"
+    };
+
+    private CalculatorMemory memory;
+
+    private ExecutionEnvironment environment;
+
+    private FullTIBasicVisitor visitor;
+
+    @Before
+    public void setUp() {
+        memory = new DefaultCalculatorMemory();
+        environment = ExecutionEnvironmentUtil.newDefaultEnvironment(memory, new CapturingIO());
+        visitor = new FullTIBasicVisitor();
+        visitor.setEnvironment(environment);
+    }
+
+    @Test
+    public void testCompile_unsupported() {
+        assertNull(compile("getKey=0"));
+        assertNull(compile("∟A(1)=0"));
+        assertNull(compile("A^2<B"));
+        assertNull(compile("i=A"));
+        assertNull(compile("{1,2}=A"));
+        assertNotNull(compile("A<B and not(C)"));
+    }
+
+    @Test
+    public void testEvaluate_sameAsVisitor() {
+        double[] values = {-2, -0.5, 0, 0.5, 1, 3};
+        for (String condition : CONDITIONS) {
+            TIBasicParser.ExpressionContext ctx = new Preprocessor().preprocessExpression(condition);
+            CompiledCondition compiled = CompiledCondition.compile(ctx, environment);
+            assertNotNull(condition, compiled);
+            for (double a : values) {
+                for (double b : values) {
+                    setVariables(a, b, a - b);
+                    Object expected = outcome(() -> ((Value) visitor.visitExpression(ctx)).bool());
+                    assertEquals(condition + " with A=" + a + ", B=" + b, expected, outcome(() -> compiled.evaluate(ctx, visitor, environment)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEvaluate_divisionByZero() {
+        setVariables(1, 0, 0);
+        TIBasicParser.ExpressionContext ctx = new Preprocessor().preprocessExpression("A/B=A/B");
+        assertEquals(((Value) visitor.visitExpression(ctx)).bool(), CompiledCondition.compile(ctx, environment).evaluate(ctx, visitor, environment));
+    }
+
+    @Test
+    public void testEvaluate_complexVariable() {
+        setVariables(1, 2, 0);
+        memory.setNumberVariableValue(Variables.NumberVariable.C, Value.of(Complex.I));
+        TIBasicParser.ExpressionContext ctx = new Preprocessor().preprocessExpression("C=i");
+        assertNull(CompiledCondition.compile(ctx, environment));
+
+        ctx = new Preprocessor().preprocessExpression("C≠0");
+        assertTrue(CompiledCondition.compile(ctx, environment).evaluate(ctx, visitor, environment));
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testEvaluate_shortCircuitStillChecksVariables() {
+        setVariables(0, 2, 0);
+        memory.setNumberVariableValue(Variables.NumberVariable.C, Value.of(Complex.I));
+        TIBasicParser.ExpressionContext ctx = new Preprocessor().preprocessExpression("A and C>B");
+        CompiledCondition.compile(ctx, environment).evaluate(ctx, visitor, environment);
+    }
+
+    @Test
+    public void testEvaluate_decimalMode() {
+        setVariables(0.1, 0.2, 0);
+        TIBasicParser.ExpressionContext ctx = new Preprocessor().preprocessExpression("A+B=.3");
+        CompiledCondition compiled = CompiledCondition.compile(ctx, environment);
+        assertFalse(compiled.evaluate(ctx, visitor, environment));
+
+        environment.setNumberMode(NumberMode.DECIMAL);
+        assertTrue(compiled.evaluate(ctx, visitor, environment));
+    }
+
+    @Test
+    public void testEvaluate_lastResultList() {
+        memory.setLastResult(Value.of(Complex.ONE, Complex.ZERO));
+        TIBasicParser.ExpressionContext ctx = new Preprocessor().preprocessExpression("A or Ans");
+        try {
+            CompiledCondition.compile(ctx, environment).evaluate(ctx, visitor, environment);
+            fail("Lists can't be used as condition");
+        } catch (RuntimeException e) {
+            // Same error as in the visitor
+        }
+    }
+
+    /**
+     * Returns either the result or the class of the thrown exception.
+     */
+    private Object outcome(Supplier<Boolean> evaluation) {
+        try {
+            return evaluation.get();
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+
+    private CompiledCondition compile(String condition) {
+        return CompiledCondition.compile(new Preprocessor().preprocessExpression(condition), environment);
+    }
+
+    private void setVariables(double a, double b, double c) {
+        memory.setNumberVariableValue(Variables.NumberVariable.A, Value.of(a));
+        memory.setNumberVariableValue(Variables.NumberVariable.B, Value.of(b));
+        memory.setNumberVariableValue(Variables.NumberVariable.C, Value.of(c));
+        memory.setLastResult(Value.of(b));
+    }
+}
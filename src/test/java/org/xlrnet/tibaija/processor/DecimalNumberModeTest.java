@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for calculating with 14 significant decimal digits in {@link NumberMode#DECIMAL}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DecimalNumberModeTest extends AbstractTI83PlusTest {
+
+    @Test
+    public void testInterpret_binaryMode() {
+        calculator.interpret(".1+.2=.3");
+        assertEquals(Value.ZERO, mockedMemory.getLastResult());
+    }
+
+    @Test
+    public void testInterpret_decimalMode() {
+        calculator.setNumberMode(NumberMode.DECIMAL);
+        calculator.interpret(".1+.2=.3");
+        assertEquals(Value.of(1), mockedMemory.getLastResult());
+    }
+
+    @Test
+    public void testInterpret_decimalMode_rounding() {
+        calculator.setNumberMode(NumberMode.DECIMAL);
+        calculator.interpret("2/3");
+        assertEquals(0.66666666666667, mockedMemory.getLastResult().complex().getReal(), 0);
+    }
+
+    @Test
+    public void testInterpret_decimalMode_complex() {
+        calculator.setNumberMode(NumberMode.DECIMAL);
+        calculator.interpret("(1+2i)*i");
+        verifyLastResultValue(-2, 1);
+    }
+
+    @Test
+    public void testInterpret_decimalMode_lists() {
+        calculator.setNumberMode(NumberMode.DECIMAL);
+        calculator.interpret("({.1,.7}+.2)*3-{.9,2.7}");
+        assertEquals(Value.of(Complex.ZERO, Complex.ZERO), mockedMemory.getLastResult());
+    }
+
+    @Test
+    public void testInterpret_decimalMode_squared() {
+        calculator.setNumberMode(NumberMode.DECIMAL);
+        calculator.interpret(".1²=.01");
+        assertEquals(Value.of(1), mockedMemory.getLastResult());
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_decimalMode_divisionByZero() {
+        calculator.setNumberMode(NumberMode.DECIMAL);
+        calculator.interpret("1/0");
+    }
+
+    @Test
+    public void testExecuteProgram_decimalMode() {
+        calculator.setNumberMode(NumberMode.DECIMAL);
+        storeAndExecute(":0→A:0→I:While I<10:A+.1→A:I+1→I:End");
+        assertEquals(1, mockedMemory.getNumberVariableValue(Variables.NumberVariable.A).complex().getReal(), 0);
+    }
+}
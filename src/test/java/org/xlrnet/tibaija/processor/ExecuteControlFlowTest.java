@@ -26,6 +26,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.xlrnet.tibaija.exception.IllegalControlFlowException;
+import org.xlrnet.tibaija.exception.TIArgumentException;
 import org.xlrnet.tibaija.memory.Variables;
 
 /**
@@ -43,6 +44,66 @@ public class ExecuteControlFlowTest extends AbstractTI83PlusTest {
                 ":End");
     }
 
+    @Test(expected = TIArgumentException.class)
+    public void testExecute_invalidProgram_controlFlow_for_zero_increment() {
+        storeAndExecute(":For(I,1,10,0)" +
+                ":End");
+    }
+
+    @Test
+    public void testExecute_validProgram_controlFlow_for() {
+        storeAndExecute(":0→A" +
+                ":For(I,1,5)" +
+                ":A+I→A" +
+                ":End");
+        assertNumberVariableValue(Variables.NumberVariable.A, 15, 0);
+        assertNumberVariableValue(Variables.NumberVariable.I, 6, 0);
+    }
+
+    @Test
+    public void testExecute_validProgram_controlFlow_for_bounds_evaluated_once() {
+        storeAndExecute(":3→N:0→A" +
+                ":For(I,1,N)" +
+                ":N+1→N" +
+                ":A+1→A" +
+                ":End");
+        assertNumberVariableValue(Variables.NumberVariable.A, 3, 0);
+    }
+
+    @Test
+    public void testExecute_validProgram_controlFlow_for_decrement() {
+        storeAndExecute(":0→A" +
+                ":For(I,10,1,‾3)" +
+                ":A+I→A" +
+                ":End");
+        assertNumberVariableValue(Variables.NumberVariable.A, 22, 0);
+        assertNumberVariableValue(Variables.NumberVariable.I, -2, 0);
+    }
+
+    @Test
+    public void testExecute_validProgram_controlFlow_for_nested() {
+        storeAndExecute(":0→A" +
+                ":For(I,1,3)" +
+                ":For(J,I,3)" +
+                ":A+1→A" +
+                ":End" +
+                ":End");
+        assertNumberVariableValue(Variables.NumberVariable.A, 6, 0);
+    }
+
+    @Test
+    public void testExecute_validProgram_controlFlow_for_skipped() {
+        storeAndExecute(":0→A" +
+                ":For(I,5,1)" +
+                ":While 1" +
+                ":End" +
+                ":A+1→A" +
+                ":End" +
+                ":A+7");
+        verifyLastResultValue(7);
+        assertNumberVariableValue(Variables.NumberVariable.I, 5, 0);
+    }
+
     @Test(expected = IllegalControlFlowException.class)
     public void testExecute_invalidProgram_controlFlow_while_then() {
         storeAndExecute(":While 1" +
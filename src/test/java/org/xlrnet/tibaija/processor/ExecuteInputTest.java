@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.xlrnet.tibaija.exception.PreprocessException;
+import org.xlrnet.tibaija.exception.TIInputException;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for commands that read input from the I/O device.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ExecuteInputTest extends AbstractTI83PlusTest {
+
+    @Test
+    public void testExecute_validProgram_input_expression() {
+        when(mockedIO.requestInput()).thenReturn(CompletableFuture.completedFuture("3+4"));
+        storeAndExecute(":Input A:A*2");
+        verify(mockedIO).print("?");
+        assertNumberVariableValue(Variables.NumberVariable.A, 7, 0);
+        verifyLastResultValue(14);
+    }
+
+    @Test
+    public void testExecute_validProgram_input_list() {
+        when(mockedIO.requestInput()).thenReturn(CompletableFuture.completedFuture("{1,2,3}"));
+        storeAndExecute(":Input ∟ABC");
+        verifyListVariableValue("ABC", Complex.valueOf(1), Complex.valueOf(2), Complex.valueOf(3));
+    }
+
+    @Test
+    public void testExecute_validProgram_prompt_multiple() {
+        when(mockedIO.requestInput()).thenReturn(CompletableFuture.completedFuture("2")).thenReturn(CompletableFuture.completedFuture("‾5"));
+        storeAndExecute(":Prompt A,B:A+B");
+        verify(mockedIO).print("A=?");
+        verify(mockedIO).print("B=?");
+        assertNumberVariableValue(Variables.NumberVariable.A, 2, 0);
+        assertNumberVariableValue(Variables.NumberVariable.B, -5, 0);
+        verifyLastResultValue(-3);
+    }
+
+    @Test
+    public void testExecute_validProgram_input_insideLoop() {
+        when(mockedIO.requestInput()).thenReturn(CompletableFuture.completedFuture("1"))
+                .thenReturn(CompletableFuture.completedFuture("2")).thenReturn(CompletableFuture.completedFuture("0"));
+        storeAndExecute(":0→B:1→A:While A:Input A:B+A→B:End");
+        assertNumberVariableValue(Variables.NumberVariable.B, 3, 0);
+    }
+
+    @Test
+    public void testExecute_validProgram_pause_value() {
+        when(mockedIO.requestInput()).thenReturn(CompletableFuture.completedFuture(""));
+        storeAndExecute(":5:Pause Ans+1:Ans*2");
+        verify(mockedIO).printLine(Matchers.<Value>anyVararg());
+        verifyLastResultValue(10);
+    }
+
+    @Test
+    public void testExecute_validProgram_getKey() {
+        when(mockedIO.getKey()).thenReturn(105);
+        storeAndExecute(":getKey");
+        verifyLastResultValue(105);
+    }
+
+    @Test(expected = PreprocessException.class)
+    public void testExecute_invalidInput_trailingGarbage() {
+        when(mockedIO.requestInput()).thenReturn(CompletableFuture.completedFuture("3)4→"));
+        storeAndExecute(":Input A");
+    }
+
+    @Test(expected = TIInputException.class)
+    public void testExecute_invalidInput_endOfInput() {
+        when(mockedIO.requestInput()).thenReturn(CompletableFuture.completedFuture(null));
+        storeAndExecute(":Input A");
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+import org.xlrnet.tibaija.TI83Plus;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.io.CalculatorIO;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for writing and restoring checkpoints of running programs.
+ */
+public class ExecutionCheckpointTest {
+
+    private static final String NESTED_LOOP_PROGRAM = ":0→A:0→S:{1,2}→∟L" +
+            ":While A<10:A+1→A:0→B" +
+            ":Repeat B=3:B+1→B" +
+            ":If A>5:S+B→S" +
+            ":End:End:∟L*S";
+
+    @Test
+    public void testCheckpoint_resumeInNewCalculator() throws Exception {
+        VirtualCalculator reference = newCalculator(mock(CalculatorIO.class));
+        reference.loadProgram("NESTED", NESTED_LOOP_PROGRAM);
+        ProgramExecution referenceExecution = newExecution(reference, "NESTED", ExecutionLimits.UNLIMITED);
+        referenceExecution.run();
+        assertTrue(referenceExecution.getExecutedCommands() > 111);
+
+        for (int slice : new int[]{1, 7, 23, 50, 111}) {
+            VirtualCalculator source = newCalculator(mock(CalculatorIO.class));
+            source.loadProgram("NESTED", NESTED_LOOP_PROGRAM);
+            source.loadProgram("OTHER", ":1+1");
+            ProgramExecution execution = newExecution(source, "NESTED", new ExecutionLimits(500, 0, TimeUnit.MILLISECONDS));
+            assertEquals(ProgramExecution.Status.YIELDED, execution.step(slice));
+
+            byte[] checkpoint = writeCheckpoint(source, execution);
+
+            VirtualCalculator target = newCalculator(mock(CalculatorIO.class));
+            ProgramExecution restored = ExecutionEnvironmentUtil.newDefaultEnvironment(target)
+                    .restoreCheckpoint(new ByteArrayInputStream(checkpoint), new FullTIBasicVisitor());
+            assertEquals(slice, restored.getExecutedCommands());
+            assertEquals(500, restored.getLimits().getMaxCommands());
+            restored.run();
+
+            assertEquals(reference.getMemory().getNumberVariableValue(Variables.NumberVariable.S), target.getMemory().getNumberVariableValue(Variables.NumberVariable.S));
+            assertEquals(reference.getMemory().getLastResult(), target.getMemory().getLastResult());
+            assertEquals(reference.getMemory().getListVariableValue("L"), target.getMemory().getListVariableValue("L"));
+            assertEquals(":1+1", target.getMemory().getStoredProgram("OTHER").getOriginalSource());
+        }
+    }
+
+    @Test
+    public void testCheckpoint_resumeForLoop() throws Exception {
+        String program = ":0→S:For(I,10,1,‾1.5):S+I→S:End";
+        VirtualCalculator source = newCalculator(mock(CalculatorIO.class));
+        source.loadProgram("FOR", program);
+        ProgramExecution execution = newExecution(source, "FOR", ExecutionLimits.UNLIMITED);
+        assertEquals(ProgramExecution.Status.YIELDED, execution.step(6));
+
+        VirtualCalculator target = newCalculator(mock(CalculatorIO.class));
+        ExecutionEnvironmentUtil.newDefaultEnvironment(target)
+                .restoreCheckpoint(new ByteArrayInputStream(writeCheckpoint(source, execution)), new FullTIBasicVisitor()).run();
+
+        assertEquals(Value.of(38.5), target.getMemory().getNumberVariableValue(Variables.NumberVariable.S));
+        assertEquals(Value.of(-.5), target.getMemory().getNumberVariableValue(Variables.NumberVariable.I));
+    }
+
+    @Test
+    public void testCheckpoint_restoreVariables() throws Exception {
+        VirtualCalculator source = newCalculator(mock(CalculatorIO.class));
+        source.loadProgram("TEST", ":1:2");
+        source.getMemory().setNumberVariableValue(Variables.NumberVariable.Z, Value.of(1.5, -2));
+        source.getMemory().setListVariableValue("₁", Value.of(Complex.I, Complex.ONE));
+        source.getMemory().setLastResult(Value.of(Complex.valueOf(42)));
+
+        byte[] checkpoint = writeCheckpoint(source, newExecution(source, "TEST", ExecutionLimits.UNLIMITED));
+        VirtualCalculator target = newCalculator(mock(CalculatorIO.class));
+        ExecutionEnvironmentUtil.newDefaultEnvironment(target).restoreCheckpoint(new ByteArrayInputStream(checkpoint), new FullTIBasicVisitor());
+
+        assertEquals(Value.of(1.5, -2), target.getMemory().getNumberVariableValue(Variables.NumberVariable.Z));
+        assertEquals(Value.of(Complex.I, Complex.ONE), target.getMemory().getListVariableValue("₁"));
+        assertEquals(Value.of(42), target.getMemory().getLastResult());
+    }
+
+    @Test
+    public void testCheckpoint_restoreDecimalMode() throws Exception {
+        VirtualCalculator source = newCalculator(mock(CalculatorIO.class));
+        source.setNumberMode(NumberMode.DECIMAL);
+        source.loadProgram("DEC", ":.1→A:A+.2→B:B-.3");
+        ProgramExecution execution = newExecution(source, "DEC", ExecutionLimits.UNLIMITED);
+        assertEquals(ProgramExecution.Status.YIELDED, execution.step(1));
+
+        byte[] checkpoint = writeCheckpoint(source, execution);
+        VirtualCalculator target = newCalculator(mock(CalculatorIO.class));
+        ExecutionEnvironment environment = ExecutionEnvironmentUtil.newDefaultEnvironment(target);
+        assertEquals(NumberMode.BINARY, environment.getNumberMode());
+        environment.restoreCheckpoint(new ByteArrayInputStream(checkpoint), new FullTIBasicVisitor()).run();
+
+        assertEquals(NumberMode.DECIMAL, environment.getNumberMode());
+        assertEquals(Value.of(.3), target.getMemory().getNumberVariableValue(Variables.NumberVariable.B));
+        assertEquals(Value.ZERO, target.getMemory().getLastResult());
+    }
+
+    @Test
+    public void testCheckpoint_pendingInputIsRequestedAgain() throws Exception {
+        CalculatorIO sourceIO = mock(CalculatorIO.class);
+        when(sourceIO.requestInput()).thenReturn(new CompletableFuture<>());
+        VirtualCalculator source = newCalculator(sourceIO);
+        source.loadProgram("WAIT", ":5→A:Input A:A*2");
+        ProgramExecution execution = newExecution(source, "WAIT", ExecutionLimits.UNLIMITED);
+        assertEquals(ProgramExecution.Status.SUSPENDED, execution.step(100));
+
+        byte[] checkpoint = writeCheckpoint(source, execution);
+
+        CalculatorIO targetIO = mock(CalculatorIO.class);
+        when(targetIO.requestInput()).thenReturn(CompletableFuture.completedFuture("21"));
+        VirtualCalculator target = newCalculator(targetIO);
+        ExecutionEnvironmentUtil.newDefaultEnvironment(target).restoreCheckpoint(new ByteArrayInputStream(checkpoint), new FullTIBasicVisitor()).run();
+
+        assertEquals(Value.of(42), target.getMemory().getLastResult());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCheckpoint_corruptedChecksum() throws Exception {
+        VirtualCalculator source = newCalculator(mock(CalculatorIO.class));
+        source.loadProgram("TEST", ":1:2");
+        byte[] checkpoint = writeCheckpoint(source, newExecution(source, "TEST", ExecutionLimits.UNLIMITED));
+        checkpoint[checkpoint.length - 20] ^= 0x10;
+
+        ExecutionEnvironmentUtil.newDefaultEnvironment(newCalculator(mock(CalculatorIO.class)))
+                .restoreCheckpoint(new ByteArrayInputStream(checkpoint), new FullTIBasicVisitor());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCheckpoint_conflictingProgram() throws Exception {
+        VirtualCalculator source = newCalculator(mock(CalculatorIO.class));
+        source.loadProgram("TEST", ":1:2");
+        byte[] checkpoint = writeCheckpoint(source, newExecution(source, "TEST", ExecutionLimits.UNLIMITED));
+
+        VirtualCalculator target = newCalculator(mock(CalculatorIO.class));
+        target.loadProgram("TEST", ":3:4");
+        ExecutionEnvironmentUtil.newDefaultEnvironment(target).restoreCheckpoint(new ByteArrayInputStream(checkpoint), new FullTIBasicVisitor());
+    }
+
+    @Test
+    public void testCheckpoint_conflictingProgramLeavesMemoryUntouched() throws Exception {
+        VirtualCalculator source = newCalculator(mock(CalculatorIO.class));
+        source.loadProgram("AAA", ":1");
+        source.loadProgram("TEST", ":1:2");
+        source.getMemory().setNumberVariableValue(Variables.NumberVariable.A, Value.of(1));
+        byte[] checkpoint = writeCheckpoint(source, newExecution(source, "TEST", ExecutionLimits.UNLIMITED));
+
+        VirtualCalculator target = newCalculator(mock(CalculatorIO.class));
+        target.loadProgram("TEST", ":3:4");
+        target.getMemory().setNumberVariableValue(Variables.NumberVariable.A, Value.of(5));
+        try {
+            ExecutionEnvironmentUtil.newDefaultEnvironment(target).restoreCheckpoint(new ByteArrayInputStream(checkpoint), new FullTIBasicVisitor());
+            fail("Conflicting program should have been detected");
+        } catch (IOException e) {
+            assertEquals(Value.of(5), target.getMemory().getNumberVariableValue(Variables.NumberVariable.A));
+            assertFalse(target.getMemory().getStoredProgramNames().contains("AAA"));
+        }
+    }
+
+    @Test
+    public void testCheckpoint_invalidCommandCounterLeavesMemoryUntouched() throws Exception {
+        VirtualCalculator source = newCalculator(mock(CalculatorIO.class));
+        source.loadProgram("TEST", ":1:2");
+        source.getMemory().setNumberVariableValue(Variables.NumberVariable.A, Value.of(1));
+        byte[] checkpoint = writeCheckpoint(source, newExecution(source, "TEST", ExecutionLimits.UNLIMITED));
+
+        // Magic, version, program name and source, number mode
+        int commandCounterOffset = 4 + 2 + 2 + "TEST".length() + 4 + ":1:2".length() + 1;
+        ByteBuffer buffer = ByteBuffer.wrap(checkpoint);
+        buffer.putInt(commandCounterOffset, 3);
+        CRC32 checksum = new CRC32();
+        checksum.update(checkpoint, 0, checkpoint.length - 8);
+        buffer.putLong(checkpoint.length - 8, checksum.getValue());
+
+        VirtualCalculator target = newCalculator(mock(CalculatorIO.class));
+        target.getMemory().setNumberVariableValue(Variables.NumberVariable.A, Value.of(5));
+        ExecutionEnvironment environment = ExecutionEnvironmentUtil.newDefaultEnvironment(target);
+        try {
+            environment.restoreCheckpoint(new ByteArrayInputStream(checkpoint), new FullTIBasicVisitor());
+            fail("Invalid command counter should have been detected");
+        } catch (IOException e) {
+            assertEquals(Value.of(5), target.getMemory().getNumberVariableValue(Variables.NumberVariable.A));
+            assertTrue(target.getMemory().getStoredProgramNames().isEmpty());
+        }
+    }
+
+    private ProgramExecution newExecution(VirtualCalculator calculator, String programName, ExecutionLimits limits) {
+        return ExecutionEnvironmentUtil.newDefaultEnvironment(calculator)
+                .newExecution(calculator.getMemory().getStoredProgram(programName), new FullTIBasicVisitor(), limits);
+    }
+
+    private byte[] writeCheckpoint(VirtualCalculator calculator, ProgramExecution execution) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ExecutionEnvironmentUtil.newDefaultEnvironment(calculator).writeCheckpoint(execution, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private VirtualCalculator newCalculator(CalculatorIO calculatorIO) {
+        return new TI83Plus(new DefaultCalculatorMemory(), calculatorIO);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.xlrnet.tibaija.commands.BinaryCommand;
+import org.xlrnet.tibaija.commands.BinaryCommandOperator;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.io.CapturingIO;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.doReturn;
+
+/**
+ * Tests for the fused evaluation of element-wise list operators.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class FusedListExpressionTest extends AbstractTI83PlusTest {
+
+    @Test
+    public void testCompile_tooFewOperators() {
+        assertNull(FusedListExpression.compile(new Preprocessor().preprocessExpression("∟A+1")));
+        assertNull(FusedListExpression.compile(new Preprocessor().preprocessExpression("(∟A)")));
+        assertNotNull(FusedListExpression.compile(new Preprocessor().preprocessExpression("‾∟A+1")));
+        assertNotNull(FusedListExpression.compile(new Preprocessor().preprocessExpression("(∟A+1)*∟B")));
+    }
+
+    @Test
+    public void testInterpret_chain() {
+        mockLists();
+        calculator.interpret("(∟A+1)*∟B-2");
+        verifyLastResultValueList(8d, 13d, 18d);
+    }
+
+    @Test
+    public void testInterpret_broadcastOnBothSides() {
+        mockLists();
+        calculator.interpret("2-∟A*3+(4/2)");
+        verifyLastResultValueList(1d, -2d, -5d);
+    }
+
+    @Test
+    public void testInterpret_prefixAndPostfix() {
+        mockLists();
+        calculator.interpret("‾√(∟A²+{0,5,7})³");
+        verifyLastResultValueList(-1d, -27d, -64d);
+    }
+
+    @Test
+    public void testInterpret_nestedListExpression() {
+        calculator.interpret("{1+1,2*3}*{2,3}+1");
+        verifyLastResultValueList(5d, 19d);
+    }
+
+    @Test
+    public void testInterpret_numbersOnly() {
+        calculator.interpret("1+2*3²");
+        verifyLastResultValue(19);
+    }
+
+    @Test
+    public void testInterpret_complexElements() {
+        calculator.interpret("{i,2}*{i,1}+1");
+        verifyLastResultValueList(0d, 3d);
+    }
+
+    @Test
+    public void testInterpret_mismatchingDimensions() {
+        try {
+            calculator.interpret("{1,2,3}+1+{1,2}");
+            fail("Mismatching dimensions must be rejected");
+        } catch (TIArgumentException e) {
+            assertTrue(e.getMessage().contains("Mismatching dimensions: 3 - 2"));
+        }
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_imaginaryComparison() {
+        calculator.interpret("{i,1}+1>0");
+    }
+
+    @Test
+    public void testEvaluate_customCommandIsNotFused() {
+        ExecutionEnvironment environment = ExecutionEnvironment.newEnvironment(new DefaultCalculatorMemory(), new CapturingIO());
+        CountingCommand plus = new CountingCommand();
+        environment.registerCommand("+", plus);
+        environment.registerCommand("*", new BinaryCommand(BinaryCommandOperator.MULTIPLY));
+
+        FullTIBasicVisitor visitor = new FullTIBasicVisitor();
+        visitor.setEnvironment(environment);
+        Value result = (Value) visitor.visitExpression(new Preprocessor().preprocessExpression("{1,2}+{3,4}*2"));
+
+        assertEquals(1, plus.calls);
+        assertEquals(ImmutableList.of(Complex.valueOf(6), Complex.valueOf(8)), result.list());
+    }
+
+    private void mockLists() {
+        doReturn(Value.of(Complex.valueOf(1), Complex.valueOf(2), Complex.valueOf(3))).when(mockedMemory).getListVariableValue("A");
+        doReturn(Value.of(Complex.valueOf(5), Complex.valueOf(5), Complex.valueOf(5))).when(mockedMemory).getListVariableValue("B");
+    }
+
+    /**
+     * Command that always returns its right operand.
+     */
+    private static class CountingCommand extends Command {
+
+        int calls;
+
+        @Override
+        protected Optional<Value> execute(ImmutableList<Value> arguments) {
+            calls++;
+            return Optional.of(arguments.get(1));
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.xlrnet.tibaija.exception.TIArgumentException;
 import org.xlrnet.tibaija.memory.Value;
 import org.xlrnet.tibaija.memory.Variables;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.doReturn;
 
 /**
@@ -45,6 +46,23 @@ public class InterpretListsTest extends AbstractTI83PlusTest {
         calculator.interpret("{1} + {1,2}");
     }
 
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_invalidProgram_element_index_fraction() {
+        doReturn(Value.of(ImmutableList.of(Complex.ONE, Complex.ONE))).when(mockedMemory).getListVariableValue("A");
+        calculator.interpret("∟A(1.5)");
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_invalidProgram_element_index_too_large() {
+        doReturn(Value.of(ImmutableList.of(Complex.ONE))).when(mockedMemory).getListVariableValue("A");
+        calculator.interpret("∟A(2)");
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_invalidProgram_element_store_gap() {
+        storeAndExecute(":{1,2}→∟A:5→∟A(4)");
+    }
+
     @Test(expected = PreprocessException.class)
     public void testInterpret_invalidProgram_listname_digit() {
         calculator.interpret("∟1");
@@ -72,6 +90,27 @@ public class InterpretListsTest extends AbstractTI83PlusTest {
         verifyLastResultValueList(Complex.valueOf(3, 1), Complex.valueOf(5, 2));
     }
 
+    @Test
+    public void testInterpret_validProgram_element() {
+        doReturn(Value.of(ImmutableList.of(Complex.ONE, Complex.valueOf(2, 3)))).when(mockedMemory).getListVariableValue("A");
+        doReturn(Value.of(1)).when(mockedMemory).getNumberVariableValue(Variables.NumberVariable.A);
+        calculator.interpret("2∟A(A+1)");
+        verifyLastResultValue(4, 6);
+    }
+
+    @Test
+    public void testInterpret_validProgram_element_store() {
+        storeAndExecute(":{1,2}→∟A:5→∟A(1):7→∟A(3)");
+        verifyListVariableValue("A", Complex.valueOf(5), Complex.valueOf(2), Complex.valueOf(7));
+        assertEquals(Value.of(7), mockedMemory.getLastResult());
+    }
+
+    @Test
+    public void testInterpret_validProgram_element_store_new_list() {
+        storeAndExecute(":3→∟NEW(1)");
+        verifyListVariableValue("NEW", Complex.valueOf(3));
+    }
+
     @Test
     public void testInterpret_validProgram_list() {
         calculator.interpret("{1,2,3,456");
@@ -150,7 +189,7 @@ public class InterpretListsTest extends AbstractTI83PlusTest {
     public void testInterpret_validProgram_multiply_implicit_numbervariable_right() {
         doReturn(Value.of(ImmutableList.of(Complex.valueOf(2)))).when(mockedMemory).getListVariableValue("A");
         doReturn(Value.of(2)).when(mockedMemory).getNumberVariableValue(Variables.NumberVariable.A);
-        calculator.interpret("∟A(A");
+        calculator.interpret("(∟A)(A");
         verifyLastResultValueList(4d);
     }
 
@@ -166,4 +205,31 @@ public class InterpretListsTest extends AbstractTI83PlusTest {
         verifyLastResultValueList(Complex.valueOf(2, 3.5), Complex.valueOf(4, 7));
     }
 
+    @Test(expected = TIArgumentException.class)
+    public void testProgram_invalid_sortA_dimension_mismatch() {
+        storeAndExecute(":{3,1,2}→∟A:{1,2}→∟B:SortA(∟A,∟B)");
+    }
+
+    @Test
+    public void testProgram_sortA_dependentLists() {
+        storeAndExecute(":{3,1,2,1}→∟A:{1,2,3,4}→∟B:{i,2i,3i,4i}→∟C:5:SortA(∟A,∟B,∟C)");
+        assertEquals(Value.of(Complex.valueOf(1), Complex.valueOf(1), Complex.valueOf(2), Complex.valueOf(3)), mockedMemory.getListVariableValue("A"));
+        assertEquals(Value.of(Complex.valueOf(2), Complex.valueOf(4), Complex.valueOf(3), Complex.valueOf(1)), mockedMemory.getListVariableValue("B"));
+        assertEquals(Value.of(Complex.valueOf(0, 2), Complex.valueOf(0, 4), Complex.valueOf(0, 3), Complex.I), mockedMemory.getListVariableValue("C"));
+        assertEquals(Value.of(5), mockedMemory.getLastResult());      // Sorting doesn't change Ans
+    }
+
+    @Test
+    public void testProgram_sortA_complex_magnitude() {
+        storeAndExecute(":{‾3,2i,1}→∟₁:SortA(∟₁)");
+        assertEquals(Value.of(Complex.ONE, Complex.valueOf(0, 2), Complex.valueOf(-3)), mockedMemory.getListVariableValue("₁"));
+    }
+
+    @Test
+    public void testProgram_sortD_stable() {
+        storeAndExecute(":{1,3,1,3}→∟A:{1,2,3,4}→∟B:SortD(∟A,∟B)");
+        assertEquals(Value.of(Complex.valueOf(3), Complex.valueOf(3), Complex.ONE, Complex.ONE), mockedMemory.getListVariableValue("A"));
+        assertEquals(Value.of(Complex.valueOf(2), Complex.valueOf(4), Complex.ONE, Complex.valueOf(3)), mockedMemory.getListVariableValue("B"));
+    }
+
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.xlrnet.tibaija.exception.IllegalTypeException;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.exception.UndefinedVariableException;
+import org.xlrnet.tibaija.memory.Matrix;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.test.TestUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.verify;
+
+/**
+ * All tests regarding matrix variables and matrix operations.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class InterpretMatrixTest extends AbstractTI83PlusTest {
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_invalidProgram_mismatchingRows() {
+        calculator.interpret("[[1,2][3]]");
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_invalidProgram_add_dimensionMismatch() {
+        calculator.interpret("[[1,2]]+[[1][2]]");
+    }
+
+    @Test(expected = IllegalTypeException.class)
+    public void testInterpret_invalidProgram_add_number() {
+        calculator.interpret("[[1,2]]+1");
+    }
+
+    @Test(expected = IllegalTypeException.class)
+    public void testInterpret_invalidProgram_det_list() {
+        calculator.interpret("det({1,2})");
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_invalidProgram_inverse_singular() {
+        calculator.interpret("[[1,2][2,4]]⁻¹");
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_invalidProgram_element_outOfBounds() {
+        storeAndExecute(":[[1,2][3,4]]→[A]:[A](3,1)");
+    }
+
+    @Test(expected = UndefinedVariableException.class)
+    public void testInterpret_invalidProgram_undefinedMatrix() {
+        calculator.interpret("[B]");
+    }
+
+    @Test
+    public void testInterpret_validProgram_storeMatrix() {
+        storeAndExecute(":[[1,2][3,4]]→[A]");
+        verify(mockedMemory).setMatrixVariableValue(Variables.MatrixVariable.A, Value.of(Matrix.of(2, 2, 1, 2, 3, 4)));
+    }
+
+    @Test
+    public void testInterpret_validProgram_element() {
+        storeAndExecute(":[[1,2][3,4]]→[A]:[A](2,1)");
+        assertEquals(Value.of(3), mockedMemory.getLastResult());
+    }
+
+    @Test
+    public void testInterpret_validProgram_storeElement() {
+        storeAndExecute(":[[1,2][3,4]]→[A]:5→[A](1,2)");
+        assertEquals(Matrix.of(2, 2, 1, 5, 3, 4), mockedMemory.getMatrixVariableValue(Variables.MatrixVariable.A).matrix());
+    }
+
+    @Test
+    public void testInterpret_validProgram_add() {
+        calculator.interpret("[[1,2][3,4]]+[[10,20][30,40]]");
+        verifyLastResultMatrix(2, 2, 11, 22, 33, 44);
+    }
+
+    @Test
+    public void testInterpret_validProgram_multiply_scalar() {
+        calculator.interpret("2[[1,2][3,4]]/4");
+        verifyLastResultMatrix(2, 2, 0.5, 1, 1.5, 2);
+    }
+
+    @Test
+    public void testInterpret_validProgram_multiply() {
+        storeAndExecute(":[[1,2][3,4]]→[A]:[[5][6]]→[B]:[A][B]");
+        verifyLastResultMatrix(2, 1, 17, 39);
+    }
+
+    @Test
+    public void testInterpret_validProgram_power() {
+        calculator.interpret("[[1,1][1,0]]^10");
+        verifyLastResultMatrix(2, 2, 89, 55, 55, 34);
+    }
+
+    @Test
+    public void testInterpret_validProgram_squared() {
+        calculator.interpret("[[1,2][3,4]]²");
+        verifyLastResultMatrix(2, 2, 7, 10, 15, 22);
+    }
+
+    @Test
+    public void testInterpret_validProgram_transpose() {
+        calculator.interpret("[[1,2,3][4,5,6]]ᵀ");
+        verifyLastResultMatrix(3, 2, 1, 4, 2, 5, 3, 6);
+    }
+
+    @Test
+    public void testInterpret_validProgram_det() {
+        calculator.interpret("det([[1,2][3,4]])");
+        verifyLastResultValue(-2);
+    }
+
+    @Test
+    public void testInterpret_validProgram_rref() {
+        calculator.interpret("rref([[2,1,‾1,8][‾3,‾1,2,‾11][‾2,1,2,‾3]])");
+        verifyLastResultMatrix(3, 4, 1, 0, 0, 2, 0, 1, 0, 3, 0, 0, 1, -1);
+    }
+
+    @Test
+    public void testInterpret_validProgram_solveLinearSystem() {
+        storeAndExecute(":[[4,7][2,6]]→[A]:[[1][2]]→[B]:[A]⁻¹[B]→[C]");
+        verifyMatrix(mockedMemory.getMatrixVariableValue(Variables.MatrixVariable.C), 2, 1, -0.8, 0.6);
+    }
+
+    @Test
+    public void testInterpret_validProgram_inverse_number() {
+        calculator.interpret("4⁻¹");
+        verifyLastResultValue(0.25);
+    }
+
+    @Test
+    public void testInterpret_validProgram_equals() {
+        calculator.interpret("[[1,2]]=[[1,2]]");
+        verifyLastResultValue(1);
+    }
+
+    @Test
+    public void testInterpret_validProgram_loop() {
+        storeAndExecute(":[[0,0][0,0]]→[A]:For(I,1,2):For(J,1,2):I+J→[A](I,J):End:End:det([A])→D");
+        assertNumberVariableValue(Variables.NumberVariable.D, -1, 0);
+    }
+
+    private void verifyLastResultMatrix(int rows, int columns, double... elements) {
+        verifyMatrix(mockedMemory.getLastResult(), rows, columns, elements);
+    }
+
+    private void verifyMatrix(Value value, int rows, int columns, double... elements) {
+        Matrix matrix = value.matrix();
+        assertEquals(rows, matrix.getRows());
+        assertEquals(columns, matrix.getColumns());
+        assertArrayEquals(elements, matrix.elements(), TestUtils.DEFAULT_TOLERANCE);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.xlrnet.tibaija.exception.IllegalTypeException;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.memory.Value;
+
+import static org.mockito.Mockito.doReturn;
+
+/**
+ * All tests regarding the statistics functions.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class InterpretStatisticsTest extends AbstractTI83PlusTest {
+
+    @Test(expected = IllegalTypeException.class)
+    public void testInterpret_invalidProgram_median_number() {
+        calculator.interpret("median(5)");
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_invalidProgram_stdDev_single_value() {
+        calculator.interpret("stdDev({1,2},{0,1})");
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_invalidProgram_sum_index_too_large() {
+        calculator.interpret("sum({1,2},1,3)");
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInterpret_invalidProgram_mean_negative_frequency() {
+        calculator.interpret("mean({1,2},{1,‾1})");
+    }
+
+    @Test
+    public void testInterpret_validProgram_sum() {
+        calculator.interpret("sum({1,2,3,4})");
+        verifyLastResultValue(10);
+    }
+
+    @Test
+    public void testInterpret_validProgram_sum_range() {
+        calculator.interpret("sum({1,2,3,4},2,3)");
+        verifyLastResultValue(5);
+    }
+
+    @Test
+    public void testInterpret_validProgram_sum_complex() {
+        calculator.interpret("sum({1+i,2})");
+        verifyLastResultValue(3, 1);
+    }
+
+    @Test
+    public void testInterpret_validProgram_sum_inside_list() {
+        doReturn(Value.of(ImmutableList.of(Complex.ONE, Complex.valueOf(2)))).when(mockedMemory).getListVariableValue("A");
+        calculator.interpret("{sum(∟A),sum({3,4}),2}");
+        verifyLastResultValueList(Complex.valueOf(3), Complex.valueOf(7), Complex.valueOf(2));
+    }
+
+    @Test
+    public void testInterpret_validProgram_mean_frequencies() {
+        calculator.interpret("mean({1,2,3},{3,1,0})");
+        verifyLastResultValue(1.25);
+    }
+
+    @Test
+    public void testInterpret_validProgram_median_in_expression() {
+        calculator.interpret("2*median({4,1,3,2})+1");
+        verifyLastResultValue(6);
+    }
+
+    @Test
+    public void testInterpret_validProgram_variance() {
+        calculator.interpret("variance({2,4,4,4,5,5,7,9})");
+        verifyLastResultValue(4.571428571);
+    }
+
+    @Test
+    public void testInterpret_validProgram_stdDev_frequencies() {
+        calculator.interpret("stdDev({2,4,5,7,9},{1,3,2,1,1})");
+        verifyLastResultValue(2.138089935);
+    }
+
+    @Test
+    public void testInterpret_validProgram_oneVarStats() {
+        calculator.interpret("1-Var Stats {5,1,4,2,3}");
+        verifyLastResultValueList(3.0, 15.0, 55.0, 1.58113883, 1.414213562, 5.0, 1.0, 1.5, 3.0, 4.5, 5.0);
+    }
+
+    @Test
+    public void testProgram_oneVarStats_defaultList() {
+        storeAndExecute(":{1,2,3,4,5}→∟₁:1-Var Stats");
+        verifyLastResultValueList(3.0, 15.0, 55.0, 1.58113883, 1.414213562, 5.0, 1.0, 1.5, 3.0, 4.5, 5.0);
+    }
+
+    @Test
+    public void testProgram_linReg_defaultLists() {
+        storeAndExecute(":{1,2,3}→∟₁:{2,4,6.5}→∟₂:LinReg(ax+b)");
+        verifyLastResultValueList(2.25, -0.333333333, 0.995901639, 0.997948716);
+    }
+
+    @Test
+    public void testInterpret_validProgram_linReg_frequencies() {
+        calculator.interpret("LinReg(ax+b) {1,2,3,4},{3,5,7,0},{1,2,1,0}");
+        verifyLastResultValueList(Complex.valueOf(2), Complex.ONE, Complex.ONE, Complex.ONE);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.xlrnet.tibaija.exception.DuplicateProgramException;
+import org.xlrnet.tibaija.exception.PreprocessException;
+import org.xlrnet.tibaija.memory.Variables;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for loading many programs at once.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class LoadProgramsTest extends AbstractTI83PlusTest {
+
+    @Test
+    public void testLoadPrograms() {
+        Map<String, String> programs = new LinkedHashMap<>();
+        for (int i = 0; i < 64; i++)
+            programs.put("PRGM" + i, ":0→A:While A<" + i + ":A+1→A:End:{1," + i + "}→∟L" + (i % 10));
+
+        calculator.loadPrograms(programs);
+
+        assertEquals(64, mockedMemory.getStoredProgramNames().size());
+        calculator.executeProgram("PRGM42");
+        assertNumberVariableValue(Variables.NumberVariable.A, 42, 0);
+        verifyListVariableValue("L2", Complex.ONE, new Complex(42));
+    }
+
+    @Test
+    public void testLoadPrograms_syntaxError() {
+        Map<String, String> programs = new LinkedHashMap<>();
+        programs.put("VALID", ":1→A");
+        programs.put("BROKEN", ":1+→A");
+
+        try {
+            calculator.loadPrograms(programs);
+            fail("Syntax error should have been detected");
+        } catch (PreprocessException e) {
+            assertTrue(mockedMemory.getStoredProgramNames().isEmpty());
+        }
+    }
+
+    @Test
+    public void testLoadPrograms_duplicateName() {
+        calculator.loadProgram("OLD", ":1→A");
+        Map<String, String> programs = new LinkedHashMap<>();
+        programs.put("NEW", ":2→A");
+        programs.put("OLD", ":3→A");
+
+        try {
+            calculator.loadPrograms(programs);
+            fail("Duplicate program should have been detected");
+        } catch (DuplicateProgramException e) {
+            assertEquals("OLD", e.getProgramName());
+            assertEquals(1, mockedMemory.getStoredProgramNames().size());
+        }
+    }
+}
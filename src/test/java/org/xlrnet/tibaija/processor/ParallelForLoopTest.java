@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.exception.UndefinedVariableException;
+import org.xlrnet.tibaija.io.CapturingIO;
+import org.xlrnet.tibaija.memory.CalculatorMemory;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the dependence analysis and the parallel execution of For( loops.
+ */
+public class ParallelForLoopTest {
+
+    private static final String INPUT_LISTS = ":{1,2,3,4,5,6,7,8,9,10}→∟A:{2,3,5,7,11,13,17,19,23,29}→∟B";
+
+    private static final String[] PROGRAMS = {
+            INPUT_LISTS + ":For(I,1,10):∟A(I)+∟B(I)→∟RES(I):End",
+            INPUT_LISTS + ":For(I,1,10):∟A(I)²→X:X-∟B(I)→Y:Y/2→∟RES(I):Ans*I→∟C(I):End",
+            INPUT_LISTS + ":For(I,10,1,‾1):I→∟RES(I):End",
+            INPUT_LISTS + ":{0}→∟RES:For(I,1,20):I+Ans:I→∟RES(I):End",
+            INPUT_LISTS + ":0→S:For(I,1,10):S+∟A(I)→S:End",
+            INPUT_LISTS + ":For(I,1,10):∟A(I)→∟A(I):End",
+            INPUT_LISTS + ":For(I,1,10,.5):∟A(I)→∟RES(I):End",
+            INPUT_LISTS + ":For(I,1,12):∟A(I)→∟RES(I):End",
+            INPUT_LISTS + ":For(I,1,10):∟A(I)→X:X→∟RES(I):If X>5:Then:0→∟RES(I):End:End",
+            INPUT_LISTS + ":For(I,1,1):5→∟RES(I):End"
+    };
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testAnalyze_independent() {
+        assertNotNull(analyze(":For(I,1,10):∟A(I)+∟B(I)→∟RES(I):End"));
+        assertNotNull(analyze(":For(I,1,10):∟A(I)²→X:X+1→∟RES(I):X→∟C(I):End"));
+        assertNotNull(analyze(":For(I,1,10):I:Ans²→∟RES(I):End"));
+        assertNotNull(analyze(":For(I,1,10):S+I→∟RES(I):End"));
+    }
+
+    @Test
+    public void testAnalyze_dependent() {
+        assertNull(analyze(":For(I,1,10):S+I→S:End"));
+        assertNull(analyze(":For(I,1,10):Ans+1→∟RES(I):End"));
+        assertNull(analyze(":For(I,1,10):∟RES(I)+1→∟RES(I):End"));
+        assertNull(analyze(":For(I,2,10):∟RES(I-1)→∟RES(I):End"));
+        assertNull(analyze(":For(I,1,10):I→∟RES(I+1):End"));
+        assertNull(analyze(":For(I,1,10):I+1→I:End"));
+        assertNull(analyze(":For(I,1,10):{I}→∟RES:End"));
+    }
+
+    @Test
+    public void testAnalyze_sideEffects() {
+        assertNull(analyze(":For(I,1,10):Disp I:End"));
+        assertNull(analyze(":For(I,1,10):getKey→∟RES(I):End"));
+        assertNull(analyze(":For(I,1,getKey):I→∟RES(I):End"));
+        assertNull(analyze(":For(I,1,10):If I=2:Stop:End"));
+        assertNull(analyze(":For(I,1,10):Input X:End"));
+        assertNull(analyze(":For(I,1,10):I→∟RES(I)"));
+    }
+
+    @Test
+    public void testRun_sameAsSequential() {
+        for (String program : PROGRAMS) {
+            Result sequential = run(program, null);
+            Result parallel = run(program, pool);
+            assertEquals(program, sequential.exception, parallel.exception);
+            assertEquals(program, sequential.executedCommands, parallel.executedCommands);
+            for (Variables.NumberVariable variable : new Variables.NumberVariable[]{Variables.NumberVariable.I, Variables.NumberVariable.S, Variables.NumberVariable.X, Variables.NumberVariable.Y})
+                assertEquals(program, sequential.memory.getNumberVariableValue(variable), parallel.memory.getNumberVariableValue(variable));
+            assertEquals(program, sequential.memory.getLastResult(), parallel.memory.getLastResult());
+            for (String list : new String[]{"A", "RES", "C"})
+                assertEquals(program, getListOrNull(sequential.memory, list), getListOrNull(parallel.memory, list));
+        }
+    }
+
+    @Test
+    public void testRun_reportsParallelizedLoops() {
+        Result result = run(INPUT_LISTS + "\n:For(I,1,10):∟A(I)→∟RES(I):End\n:For(I,1,10):S+I→S:End\n:For(I,1,10):∟B(I)→∟C(I):End", pool);
+        assertEquals(ImmutableSet.of(2, 4), result.environment.getParallelizedLoopLines());
+    }
+
+    @Test
+    public void testRun_disabledByDefault() {
+        Result result = run(PROGRAMS[0], null);
+        assertTrue(result.environment.getParallelizedLoopLines().isEmpty());
+    }
+
+    @Test
+    public void testRun_errorInIteration() {
+        Result result = run(PROGRAMS[7], pool);
+        assertEquals(TIArgumentException.class, result.exception);
+        assertEquals(10, result.memory.getListVariableValue("RES").list().size());
+        assertTrue(result.environment.getParallelizedLoopLines().isEmpty());
+    }
+
+    @Test
+    public void testRun_commandLimit() {
+        CalculatorMemory memory = new DefaultCalculatorMemory();
+        ExecutionEnvironment environment = ExecutionEnvironmentUtil.newDefaultEnvironment(memory, new CapturingIO());
+        environment.setParallelLoopPool(pool);
+        ProgramExecution execution = environment.newExecution(new Preprocessor().preprocessProgramCode("TEST", PROGRAMS[0]), new FullTIBasicVisitor(), ExecutionLimits.UNLIMITED);
+
+        // The loop doesn't fit into the slice and will be executed sequentially
+        assertEquals(ProgramExecution.Status.YIELDED, execution.step(10));
+        assertEquals(10, execution.getExecutedCommands());
+        while (execution.step(10) != ProgramExecution.Status.FINISHED) ;
+        assertTrue(environment.getParallelizedLoopLines().isEmpty());
+        assertEquals(10, memory.getListVariableValue("RES").list().size());
+    }
+
+    @Test
+    public void testRun_cachedLoopDoesNotKeepProgram() throws Exception {
+        ExecutionEnvironment environment = ExecutionEnvironmentUtil.newDefaultEnvironment(new DefaultCalculatorMemory(), new CapturingIO());
+        environment.setParallelLoopPool(pool);
+        FullTIBasicVisitor visitor = new FullTIBasicVisitor();
+        ExecutableProgram program = new Preprocessor().preprocessProgramCode("TEST", PROGRAMS[0]);
+        environment.newExecution(program, visitor, ExecutionLimits.UNLIMITED).run();
+        assertFalse(environment.getParallelizedLoopLines().isEmpty());
+
+        WeakReference<TIBasicParser.ProgramContext> programContext = new WeakReference<>(program.getMainProgramContext());
+        program = null;
+        for (int i = 0; i < 20 && programContext.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(programContext.get());
+    }
+
+    private ParallelForLoop analyze(String program) {
+        ExecutableProgram executableProgram = new Preprocessor().preprocessProgramCode("TEST", program);
+        return ParallelForLoop.analyze(executableProgram.getMainProgramContext().commandList().command(), 0);
+    }
+
+    private Value getListOrNull(CalculatorMemory memory, String listName) {
+        try {
+            return memory.getListVariableValue(listName);
+        } catch (UndefinedVariableException e) {
+            return null;
+        }
+    }
+
+    private Result run(String program, ForkJoinPool parallelLoopPool) {
+        Result result = new Result();
+        result.memory = new DefaultCalculatorMemory();
+        result.environment = ExecutionEnvironmentUtil.newDefaultEnvironment(result.memory, new CapturingIO());
+        result.environment.setParallelLoopPool(parallelLoopPool);
+        ProgramExecution execution = result.environment.newExecution(new Preprocessor().preprocessProgramCode("TEST", program), new FullTIBasicVisitor(), ExecutionLimits.UNLIMITED);
+        try {
+            execution.run();
+        } catch (RuntimeException e) {
+            result.exception = e.getClass();
+        }
+        result.executedCommands = execution.getExecutedCommands();
+        return result;
+    }
+
+    private static class Result {
+
+        CalculatorMemory memory;
+
+        ExecutionEnvironment environment;
+
+        Class<?> exception;
+
+        long executedCommands;
+    }
+}
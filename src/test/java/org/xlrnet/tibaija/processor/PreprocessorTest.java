@@ -26,10 +26,17 @@ import org.junit.Test;
 import org.xlrnet.tibaija.antlr.TIBasicParser;
 import org.xlrnet.tibaija.exception.PreprocessException;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 public class PreprocessorTest {
 
@@ -48,6 +55,19 @@ public class PreprocessorTest {
         assertEquals(2, labelB.size());
     }
 
+    @Test
+    public void testPreprocess_parserDoesNotKeepProgram() throws Exception {
+        ExecutableProgram executableProgram = preprocessor.preprocessProgramCode(VALID_PRGM_NAME, ":1→A:If A=1:Then:2→B:End");
+        WeakReference<TIBasicParser.ProgramContext> programContext = new WeakReference<>(executableProgram.getMainProgramContext());
+
+        executableProgram = null;
+        for (int i = 0; i < 20 && programContext.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(programContext.get());
+    }
+
     @Test
     public void testEmptyLineProgram() {
         ExecutableProgram executableProgram = preprocessor.preprocessProgramCode(VALID_PRGM_NAME, ":");
@@ -115,6 +135,64 @@ public class PreprocessorTest {
         assertEquals(2, labelCommands.size());
     }
 
+    @Test
+    public void testStatistics_sllParse() {
+        ParseStatistics statistics = Preprocessor.getStatistics();
+        long sllParses = statistics.getSllParses();
+        long llParses = statistics.getLlParses();
+
+        preprocessor.preprocessProgramCode(VALID_PRGM_NAME, ":1→A:While A<10:A+1→A:End:{1,2}+{3,4}→∟AB:2∟AB");
+
+        assertEquals(sllParses + 1, statistics.getSllParses());
+        assertEquals(llParses, statistics.getLlParses());
+    }
+
+    @Test
+    public void testStatistics_syntaxErrorUsesLlParse() {
+        ParseStatistics statistics = Preprocessor.getStatistics();
+        long llParses = statistics.getLlParses();
+        long failedParses = statistics.getFailedParses();
+
+        try {
+            preprocessor.preprocessProgramCode(VALID_PRGM_NAME, ":1+→A");
+            fail("Syntax error should have been detected");
+        } catch (PreprocessException e) {
+            assertEquals(llParses + 1, statistics.getLlParses());
+            assertEquals(failedParses + 1, statistics.getFailedParses());
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void testConcurrentPreprocessing() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ExecutableProgram>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final String code = ":Lbl A" + (i % 10) + ":{1,2}+" + i + "→∟A:While A<" + i + ":A+1→A:End";
+                futures.add(executorService.submit(() -> preprocessor.preprocessProgramCode(VALID_PRGM_NAME, code)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                ExecutableProgram program = futures.get(i).get();
+                assertEquals(":Lbl A" + (i % 10) + ":{1,2}+" + i + "→∟A:While A<" + i + ":A+1→A:End", program.getOriginalSource());
+                assertEquals(5, program.getMainProgramContext().commandList().command().size());
+                assertNotNull(program.getLabelCommands("A" + (i % 10)));
+                assertEquals("A<" + i, program.getMainProgramContext().commandList().command(2).getText().substring(5));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test(expected = PreprocessException.class)
+    public void testNestedList() {
+        preprocessor.preprocessProgramCode(VALID_PRGM_NAME, ":{1,2}:{1,{2}}");
+    }
+
+    @Test(expected = PreprocessException.class)
+    public void testNestedListExpression() {
+        preprocessor.preprocessExpression("{1,∟A}");
+    }
+
     @Test(expected = PreprocessException.class)
     public void testSyntaxError() {
         preprocessor.preprocessProgramCode(VALID_PRGM_NAME, ":Label A");
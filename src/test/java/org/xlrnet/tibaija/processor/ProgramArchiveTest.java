@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xlrnet.tibaija.TI83Plus;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.exception.LabelNotFoundException;
+import org.xlrnet.tibaija.io.CalculatorIO;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for the persistent archive of preprocessed programs.
+ */
+public class ProgramArchiveTest {
+
+    private static final String PROGRAM = ":Lbl A:2→A:Lbl B2:A*21";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path archivePath;
+
+    @Before
+    public void setUp() throws Exception {
+        archivePath = temporaryFolder.getRoot().toPath().resolve("programs.tiba");
+    }
+
+    @Test
+    public void testLoadProgram_deferredAfterReopen() throws Exception {
+        try (ProgramArchive archive = ProgramArchive.open(archivePath)) {
+            VirtualCalculator calculator = newCalculator(archive);
+            calculator.loadProgram("TEST", PROGRAM);
+            assertFalse(calculator.getMemory().getStoredProgram("TEST") instanceof DeferredExecutableProgram);
+            assertEquals(1, archive.size());
+        }
+
+        try (ProgramArchive archive = ProgramArchive.open(archivePath)) {
+            assertEquals(1, archive.size());
+            ProgramArchive.Entry entry = archive.lookup(PROGRAM).get();
+            assertEquals(4, entry.getCommandCount());
+            assertEquals(2, entry.getLabels().size());
+            assertTrue(entry.getLabels().contains("B2"));
+
+            VirtualCalculator calculator = newCalculator(archive);
+            calculator.loadProgram("TEST", PROGRAM);
+            DeferredExecutableProgram program = (DeferredExecutableProgram) calculator.getMemory().getStoredProgram("TEST");
+            assertFalse(program.isPreprocessed());
+            assertEquals(4, program.getCommandCount());
+            assertFalse(program.isPreprocessed());
+
+            assertEquals(2, program.getLabelCommands("B2").size());
+            assertTrue(program.isPreprocessed());
+            assertEquals(4, program.getCommandCount());
+        }
+    }
+
+    @Test
+    public void testExecuteProgram_deferred() throws Exception {
+        try (ProgramArchive archive = ProgramArchive.open(archivePath)) {
+            newCalculator(archive).loadProgram("TEST", ":2→A:A*21");
+
+            VirtualCalculator calculator = newCalculator(archive);
+            calculator.loadProgram("TEST", ":2→A:A*21");
+            assertTrue(calculator.getMemory().getStoredProgram("TEST") instanceof DeferredExecutableProgram);
+
+            calculator.executeProgram("TEST");
+            assertEquals(Value.of(42), calculator.getMemory().getLastResult());
+        }
+    }
+
+    @Test
+    public void testLookup_unknownLabelWithoutParsing() throws Exception {
+        try (ProgramArchive archive = ProgramArchive.open(archivePath)) {
+            newCalculator(archive).loadProgram("TEST", PROGRAM);
+            ExecutableProgram program = new Preprocessor().deferProgramCode("TEST", PROGRAM, archive.lookup(PROGRAM).get());
+            try {
+                program.getLabelCommands("C");
+                fail("Label should not have been found");
+            } catch (LabelNotFoundException e) {
+                assertFalse(((DeferredExecutableProgram) program).isPreprocessed());
+            }
+        }
+    }
+
+    @Test
+    public void testOpen_differentGrammarVersion() throws Exception {
+        try (ProgramArchive archive = ProgramArchive.open(archivePath)) {
+            newCalculator(archive).loadProgram("TEST", PROGRAM);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(archivePath.toFile(), "rw")) {
+            file.seek(6);
+            file.write(~file.read());
+        }
+
+        try (ProgramArchive archive = ProgramArchive.open(archivePath)) {
+            assertEquals(0, archive.size());
+            assertFalse(archive.lookup(PROGRAM).isPresent());
+        }
+    }
+
+    @Test
+    public void testOpen_incompleteEntry() throws Exception {
+        try (ProgramArchive archive = ProgramArchive.open(archivePath)) {
+            VirtualCalculator calculator = newCalculator(archive);
+            calculator.loadProgram("FIRST", ":1");
+            calculator.loadProgram("SECOND", ":2");
+        }
+        try (RandomAccessFile file = new RandomAccessFile(archivePath.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        try (ProgramArchive archive = ProgramArchive.open(archivePath)) {
+            assertEquals(1, archive.size());
+            assertTrue(archive.lookup(":1").isPresent());
+            newCalculator(archive).loadProgram("SECOND", ":2");
+        }
+        try (ProgramArchive archive = ProgramArchive.open(archivePath)) {
+            assertEquals(2, archive.size());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpen_invalidFile() throws Exception {
+        Files.write(archivePath, "This is not an archive at all, but it is long enough".getBytes());
+        ProgramArchive.open(archivePath);
+    }
+
+    private VirtualCalculator newCalculator(ProgramArchive archive) {
+        return new TI83Plus(new DefaultCalculatorMemory(), mock(CalculatorIO.class), archive);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xlrnet.tibaija.TI83Plus;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.exception.ExecutionLimitExceededException;
+import org.xlrnet.tibaija.io.CalculatorIO;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for running programs with the cooperative scheduler.
+ */
+public class ProgramSchedulerTest {
+
+    private static final String RUNAWAY_PROGRAM = ":0→A:While 1:A+1→A:End";
+
+    private static final String COUNTING_PROGRAM = ":0→A:While A<50:A+1→A:End";
+
+    private ProgramScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ProgramScheduler(1, 16);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test(timeout = 5000L)
+    public void testSubmit_commandLimit() throws Exception {
+        VirtualCalculator calculator = newCalculator("LOOP", RUNAWAY_PROGRAM);
+        CompletableFuture<ProgramExecution> future = scheduler.submit(calculator, "LOOP", new ExecutionLimits(1000, 0, TimeUnit.MILLISECONDS));
+
+        ExecutionLimitExceededException exception = getLimitException(future);
+        assertEquals(1000, exception.getExecutedCommands());
+    }
+
+    @Test(timeout = 5000L)
+    public void testSubmit_finishesWithinLimit() throws Exception {
+        VirtualCalculator calculator = newCalculator("COUNT", COUNTING_PROGRAM);
+        ProgramExecution execution = scheduler.submit(calculator, "COUNT", new ExecutionLimits(1000, 0, TimeUnit.MILLISECONDS)).get();
+
+        assertTrue(execution.isFinished());
+        assertEquals(50, calculator.getMemory().getNumberVariableValue(Variables.NumberVariable.A).complex().getReal(), 0);
+    }
+
+    @Test(timeout = 5000L)
+    public void testSubmit_runawayDoesNotBlockOthers() throws Exception {
+        VirtualCalculator runaway = newCalculator("LOOP", RUNAWAY_PROGRAM);
+        VirtualCalculator counting = newCalculator("COUNT", COUNTING_PROGRAM);
+
+        // Only one worker thread is available -> the counting program must still finish while the runaway is running
+        CompletableFuture<ProgramExecution> runawayFuture = scheduler.submit(runaway, "LOOP", ExecutionLimits.UNLIMITED);
+        CompletableFuture<ProgramExecution> countingFuture = scheduler.submit(counting, "COUNT", ExecutionLimits.UNLIMITED);
+
+        countingFuture.get();
+        assertFalse(runawayFuture.isDone());
+        assertEquals(50, counting.getMemory().getNumberVariableValue(Variables.NumberVariable.A).complex().getReal(), 0);
+
+        runawayFuture.cancel(false);
+    }
+
+    @Test(timeout = 5000L)
+    public void testSubmit_wallClockLimit() throws Exception {
+        VirtualCalculator calculator = newCalculator("LOOP", RUNAWAY_PROGRAM);
+        CompletableFuture<ProgramExecution> future = scheduler.submit(calculator, "LOOP", new ExecutionLimits(0, 50, TimeUnit.MILLISECONDS));
+
+        ExecutionLimitExceededException exception = getLimitException(future);
+        assertTrue(exception.getExecutedCommands() > 0);
+    }
+
+    @Test(timeout = 5000L)
+    public void testSubmit_suspendedProgramHoldsNoThread() throws Exception {
+        CompletableFuture<String> input = new CompletableFuture<>();
+        CalculatorIO calculatorIO = mock(CalculatorIO.class);
+        when(calculatorIO.requestInput()).thenReturn(input);
+        VirtualCalculator waiting = new TI83Plus(new DefaultCalculatorMemory(), calculatorIO);
+        waiting.loadProgram("WAIT", ":Input A:A+1→A");
+        VirtualCalculator counting = newCalculator("COUNT", COUNTING_PROGRAM);
+
+        CompletableFuture<ProgramExecution> waitingFuture = scheduler.submit(waiting, "WAIT", ExecutionLimits.UNLIMITED);
+        scheduler.submit(counting, "COUNT", ExecutionLimits.UNLIMITED).get();
+        assertFalse(waitingFuture.isDone());
+
+        input.complete("41");
+        waitingFuture.get();
+        assertEquals(42, waiting.getMemory().getNumberVariableValue(Variables.NumberVariable.A).complex().getReal(), 0);
+    }
+
+    @Test
+    public void testStep_suspendsOnInput() {
+        CompletableFuture<String> input = new CompletableFuture<>();
+        CalculatorIO calculatorIO = mock(CalculatorIO.class);
+        when(calculatorIO.requestInput()).thenReturn(input);
+        VirtualCalculator calculator = new TI83Plus(new DefaultCalculatorMemory(), calculatorIO);
+        calculator.loadProgram("WAIT", ":1→B:Prompt A:A+B→B");
+        ProgramExecution execution = ExecutionEnvironmentUtil.newDefaultEnvironment(calculator)
+                .newExecution(calculator.getMemory().getStoredProgram("WAIT"), new FullTIBasicVisitor(), ExecutionLimits.UNLIMITED);
+
+        assertEquals(ProgramExecution.Status.SUSPENDED, execution.step(100));
+        assertEquals(ProgramExecution.Status.SUSPENDED, execution.step(100));
+        assertSame(input, execution.getPendingInput().get());
+
+        input.complete("2");
+        assertFalse(execution.getPendingInput().isPresent());
+        assertEquals(ProgramExecution.Status.FINISHED, execution.step(100));
+        assertEquals(3, calculator.getMemory().getNumberVariableValue(Variables.NumberVariable.B).complex().getReal(), 0);
+    }
+
+    @Test
+    public void testStep_yieldsAtBudget() {
+        VirtualCalculator calculator = newCalculator("COUNT", COUNTING_PROGRAM);
+        ProgramExecution execution = ExecutionEnvironmentUtil.newDefaultEnvironment(calculator)
+                .newExecution(calculator.getMemory().getStoredProgram("COUNT"), new FullTIBasicVisitor(), ExecutionLimits.UNLIMITED);
+
+        assertEquals(ProgramExecution.Status.YIELDED, execution.step(10));
+        assertEquals(10, execution.getExecutedCommands());
+        assertFalse(execution.isFinished());
+
+        while (execution.step(10) != ProgramExecution.Status.FINISHED) ;
+        assertTrue(execution.isFinished());
+        assertEquals(50, calculator.getMemory().getNumberVariableValue(Variables.NumberVariable.A).complex().getReal(), 0);
+    }
+
+    @Test(timeout = 5000L, expected = ExecutionLimitExceededException.class)
+    public void testStep_wallClockLimitInsideSlice() {
+        VirtualCalculator calculator = newCalculator("LOOP", RUNAWAY_PROGRAM);
+        ProgramExecution execution = ExecutionEnvironmentUtil.newDefaultEnvironment(calculator)
+                .newExecution(calculator.getMemory().getStoredProgram("LOOP"), new FullTIBasicVisitor(), new ExecutionLimits(0, 50, TimeUnit.MILLISECONDS));
+
+        execution.step(Long.MAX_VALUE);
+    }
+
+    private ExecutionLimitExceededException getLimitException(CompletableFuture<ProgramExecution> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ExecutionLimitExceededException);
+            return (ExecutionLimitExceededException) e.getCause();
+        }
+        fail("Program should have been terminated");
+        return null;
+    }
+
+    private VirtualCalculator newCalculator(String programName, String programCode) {
+        VirtualCalculator calculator = new TI83Plus(new DefaultCalculatorMemory(), mock(CalculatorIO.class));
+        calculator.loadProgram(programName, programCode);
+        return calculator;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xlrnet.tibaija.TI83Plus;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.exception.PreprocessException;
+import org.xlrnet.tibaija.io.CapturingIO;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for running programs while they are read from a stream.
+ */
+public class StreamingExecutionTest {
+
+    private CapturingIO calculatorIO;
+
+    private VirtualCalculator calculator;
+
+    private ExecutionEnvironment environment;
+
+    @Before
+    public void setUp() {
+        calculatorIO = new CapturingIO(Arrays.asList("5"));
+        calculator = new TI83Plus(new DefaultCalculatorMemory(), calculatorIO);
+        environment = ExecutionEnvironmentUtil.newDefaultEnvironment(calculator);
+    }
+
+    @Test(timeout = 30000L)
+    public void testRunStreaming_generatedProgram() throws Exception {
+        int commandCount = 20000;
+        environment.runStreaming(new GeneratedProgramReader(":0→A", "\n:A+1→A", commandCount), new FullTIBasicVisitor());
+
+        assertNumberVariable(Variables.NumberVariable.A, commandCount);
+    }
+
+    @Test
+    public void testRunStreaming_conditions() throws Exception {
+        String program = ":1→A:0→B\n" +
+                ":If A=2:1→B\n" +
+                ":If A=1\n:Then\n:B+10→B\n:Else\n:B+100→B\n:End\n" +
+                ":If A=1:B+1000→B";
+        environment.runStreaming(new StringReader(program), new FullTIBasicVisitor());
+
+        assertNumberVariable(Variables.NumberVariable.B, 1010);
+    }
+
+    @Test
+    public void testRunStreaming_stop() throws Exception {
+        environment.runStreaming(new StringReader(":1→A:Stop:2→A"), new FullTIBasicVisitor());
+
+        assertNumberVariable(Variables.NumberVariable.A, 1);
+    }
+
+    @Test
+    public void testRunStreaming_input() throws Exception {
+        environment.runStreaming(new StringReader(":Input A:Disp A*2"), new FullTIBasicVisitor());
+
+        assertNumberVariable(Variables.NumberVariable.A, 5);
+        assertTrue(calculatorIO.getOutput().contains("10"));
+    }
+
+    @Test
+    public void testRunStreaming_emptyProgram() throws Exception {
+        environment.runStreaming(new StringReader(" \n"), new FullTIBasicVisitor());
+    }
+
+    @Test
+    public void testRunStreaming_loopRejected() throws Exception {
+        try {
+            environment.runStreaming(new StringReader(":1→A:2→B\n:While A<5:A+1→A:End"), new FullTIBasicVisitor());
+            fail("Loops may not be streamed");
+        } catch (PreprocessException e) {
+            assertEquals(2, e.getLinenumber());
+            assertEquals(0, e.getCharInLine());
+        }
+        // Commands before the loop have already been executed, except for the one that was read ahead
+        assertNumberVariable(Variables.NumberVariable.A, 1);
+    }
+
+    @Test
+    public void testRunStreaming_syntaxErrorPosition() throws Exception {
+        try {
+            environment.runStreaming(new StringReader(":1→A\n:2→B:3+→C"), new FullTIBasicVisitor());
+            fail("Syntax errors must be reported");
+        } catch (PreprocessException e) {
+            assertEquals(2, e.getLinenumber());
+        }
+    }
+
+    @Test(expected = PreprocessException.class)
+    public void testRunStreaming_missingSeparator() throws Exception {
+        environment.runStreaming(new StringReader("1→A"), new FullTIBasicVisitor());
+    }
+
+    private void assertNumberVariable(Variables.NumberVariable variable, double expected) {
+        assertEquals(expected, calculator.getMemory().getNumberVariableValue(variable).complex().getReal(), 0);
+    }
+
+    /**
+     * Reader that generates a program with a given number of repeated commands without ever holding the whole program
+     * in memory.
+     */
+    private static class GeneratedProgramReader extends Reader {
+
+        private final String repeatedCommand;
+
+        private int remainingCommands;
+
+        private String current;
+
+        private int position;
+
+        GeneratedProgramReader(String firstCommand, String repeatedCommand, int count) {
+            this.current = firstCommand;
+            this.repeatedCommand = repeatedCommand;
+            this.remainingCommands = count;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (position == current.length()) {
+                if (remainingCommands == 0)
+                    return -1;
+                remainingCommands--;
+                current = repeatedCommand;
+                position = 0;
+            }
+            int count = Math.min(len, current.length() - position);
+            current.getChars(position, position + count, cbuf, off);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Before;
+import org.junit.Test;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.exception.UndefinedVariableException;
+import org.xlrnet.tibaija.io.CapturingIO;
+import org.xlrnet.tibaija.memory.CalculatorMemory;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Value;
+import org.xlrnet.tibaija.memory.Variables;
+import org.xlrnet.tibaija.util.ExecutionEnvironmentUtil;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for recognizing and executing superinstructions.
+ */
+public class SuperinstructionTest {
+
+    private static final String[] PROGRAMS = {
+            ":0→A:While A≤10:A+1→A:End",
+            ":5→A:Repeat A<0:A-.5→A:End",
+            ":3→A:If A=3:Then:A+2→A:End:If A≠5:0→A",
+            ":1:While Ans<100:Ans+7:End",
+            ":{1,2,3}:Ans-1",
+            ":{1,2,‾3}→∟A:∟A+1→∟B:{4}→∟A",
+            ":‾0→A:If A=0:1→B",
+            ":1→A:A+i→A:A+1→A"
+    };
+
+    private CalculatorMemory memory;
+
+    private ExecutionEnvironment environment;
+
+    private FullTIBasicVisitor visitor;
+
+    @Before
+    public void setUp() {
+        memory = new DefaultCalculatorMemory();
+        environment = ExecutionEnvironmentUtil.newDefaultEnvironment(memory, new CapturingIO());
+        visitor = new FullTIBasicVisitor();
+    }
+
+    @Test
+    public void testRecognize() {
+        assertNotNull(recognize("X+1→X"));
+        assertNotNull(recognize("X-.5→X"));
+        assertNotNull(recognize("Ans+1"));
+        assertNotNull(recognize("{1,2,3}→∟L"));
+        assertNotNull(recognize("If X=5"));
+        assertNotNull(recognize("While X≤10"));
+        assertNotNull(recognize("Repeat X>3"));
+
+        assertNull(recognize("X+1→Y"));
+        assertNull(recognize("X+Y→X"));
+        assertNull(recognize("1+X→X"));
+        assertNull(recognize("X*2→X"));
+        assertNull(recognize("Ans*2"));
+        assertNull(recognize("{1,A}→∟L"));
+        assertNull(recognize("If X=Y"));
+        assertNull(recognize("If X+1"));
+        assertNull(recognize("If X=i"));
+    }
+
+    @Test
+    public void testExecute_sameAsVisitor() {
+        for (String program : PROGRAMS) {
+            CalculatorMemory expected = run(program, false);
+            CalculatorMemory actual = run(program, true);
+            for (Variables.NumberVariable variable : new Variables.NumberVariable[]{Variables.NumberVariable.A, Variables.NumberVariable.B}) {
+                assertEquals(program, expected.getNumberVariableValue(variable), actual.getNumberVariableValue(variable));
+            }
+            assertEquals(program, expected.getLastResult(), actual.getLastResult());
+            assertEquals(program, getListOrNull(expected, "A"), getListOrNull(actual, "A"));
+            assertEquals(program, getListOrNull(expected, "B"), getListOrNull(actual, "B"));
+        }
+    }
+
+    @Test
+    public void testTest_complexVariable() {
+        memory.setNumberVariableValue(Variables.NumberVariable.A, Value.of(Complex.I));
+        assertNull(recognize("If A=1").test(environment));
+
+        memory.setNumberVariableValue(Variables.NumberVariable.A, Value.of(1));
+        assertTrue(recognize("If A=1").test(environment));
+    }
+
+    @Test
+    public void testExecute_withoutDefaultCommands() {
+        ExecutionEnvironment emptyEnvironment = ExecutionEnvironment.newEnvironment(memory, new CapturingIO());
+        assertNull(recognize("A+1→A").execute(emptyEnvironment));
+        assertNull(recognize("Ans+1").execute(emptyEnvironment));
+        assertNull(recognize("If A=1").test(emptyEnvironment));
+    }
+
+    @Test
+    public void testExecute_decimalMode() {
+        memory.setNumberVariableValue(Variables.NumberVariable.A, Value.of(0.1));
+        environment.setNumberMode(NumberMode.DECIMAL);
+        recognize("A+.2→A").execute(environment);
+        assertEquals(0.3, memory.getNumberVariableValue(Variables.NumberVariable.A).complex().getReal(), 0);
+    }
+
+    private Superinstruction recognize(String command) {
+        return parse(":" + command).getMainProgramContext().commandList().command(0).superinstruction;
+    }
+
+    private ExecutableProgram parse(String program) {
+        return new Preprocessor().preprocessProgramCode("TEST", program);
+    }
+
+    private Value getListOrNull(CalculatorMemory memory, String listName) {
+        try {
+            return memory.getListVariableValue(listName);
+        } catch (UndefinedVariableException e) {
+            return null;
+        }
+    }
+
+    private CalculatorMemory run(String program, boolean withSuperinstructions) {
+        CalculatorMemory runMemory = new DefaultCalculatorMemory();
+        ExecutableProgram executableProgram = parse(program);
+        if (!withSuperinstructions) {
+            for (TIBasicParser.CommandContext command : executableProgram.getMainProgramContext().commandList().command())
+                command.superinstruction = null;
+        }
+        ExecutionEnvironmentUtil.newDefaultEnvironment(runMemory, new CapturingIO()).run(executableProgram, visitor);
+        return runMemory;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.processor;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Test;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the static type inference of expressions.
+ */
+public class TypeInferenceTest {
+
+    @Test
+    public void testInfer_numbers() {
+        assertType(ExpressionType.REAL, "1+2*3");
+        assertType(ExpressionType.REAL, "getKey-1");
+        assertType(ExpressionType.COMPLEX, "A+1");
+        assertType(ExpressionType.COMPLEX, "2i");
+        assertType(ExpressionType.COMPLEX, "√(4)");
+        assertType(ExpressionType.COMPLEX, "2^.5");
+        assertType(ExpressionType.REAL, "A<B and not(C)");
+        assertType(ExpressionType.REAL, "‾(2²)³");
+    }
+
+    @Test
+    public void testInfer_lists() {
+        assertType(ExpressionType.LIST, "{1,2}");
+        assertType(ExpressionType.LIST, "∟ABC+A");
+        assertType(ExpressionType.LIST, "2*(A-∟B)²");
+        assertType(ExpressionType.LIST, "not(∟A=1)");
+    }
+
+    @Test
+    public void testInfer_unknown() {
+        assertType(ExpressionType.UNKNOWN, "Ans");
+        assertType(ExpressionType.UNKNOWN, "Ans+1");
+        assertType(ExpressionType.UNKNOWN, "∟A*Ans");
+        assertType(ExpressionType.UNKNOWN, "√(Ans)");
+    }
+
+    @Test
+    public void testInfer_matrices() {
+        assertType(ExpressionType.UNKNOWN, "[A]");
+        assertType(ExpressionType.UNKNOWN, "[[1,2][3,4]]⁻¹*2");
+        assertType(ExpressionType.UNKNOWN, "rref([A])");
+        assertType(ExpressionType.REAL, "[A](1,2)+1");
+        assertType(ExpressionType.REAL, "det([A])");
+    }
+
+    @Test
+    public void testInfer_subrules() {
+        TIBasicParser.ExpressionContext ctx = new Preprocessor().preprocessExpression("(Ans+1)*2=∟A");
+        Map<ParseTree, ExpressionType> types = TypeInference.infer(ctx);
+
+        TIBasicParser.Expression_compareContext compare = ctx.expression_conv().expression_xor().expression_or(0).expression_and(0).expression_compare(0);
+        assertEquals(ExpressionType.UNKNOWN, types.get(compare));
+        assertEquals(ExpressionType.UNKNOWN, types.get(compare.expression_plus_minus(0)));
+        assertEquals(ExpressionType.LIST, types.get(compare.expression_plus_minus(1)));
+    }
+
+    private void assertType(ExpressionType expected, String expression) {
+        TIBasicParser.ExpressionContext ctx = new Preprocessor().preprocessExpression(expression);
+        assertEquals(expression, expected, TypeInference.infer(ctx).get(ctx));
+    }
+}
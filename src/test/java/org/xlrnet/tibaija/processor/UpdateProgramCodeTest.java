@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+package org.xlrnet.tibaija.processor;
+
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.junit.Test;
+import org.xlrnet.tibaija.TI83Plus;
+import org.xlrnet.tibaija.VirtualCalculator;
+import org.xlrnet.tibaija.antlr.TIBasicParser;
+import org.xlrnet.tibaija.exception.LabelNotFoundException;
+import org.xlrnet.tibaija.exception.PreprocessException;
+import org.xlrnet.tibaija.io.CalculatorIO;
+import org.xlrnet.tibaija.memory.DefaultCalculatorMemory;
+import org.xlrnet.tibaija.memory.Variables;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for preprocessing changed programs incrementally.
+ */
+public class UpdateProgramCodeTest {
+
+    private static final String[] COMMANDS = {"1→A", "A+1→A", "Lbl A", "Lbl B", "Lbl 1", "Goto B", "While A<10", "End",
+            "{1,2}→∟L", "2∟L", "", "If A=1", "Then", "Else", "12.5", "A²+B"};
+
+    private final Preprocessor preprocessor = new Preprocessor();
+
+    @Test
+    public void testUpdate_changeSingleCommand() {
+        ExecutableProgram program = preprocessor.preprocessProgramCode("TEST", ":1→A:2→B\n:Lbl A:3→C");
+        ExecutableProgram updated = preprocessor.updateProgramCode(program, ":1→A:22→B\n:Lbl A:3→C");
+
+        List<TIBasicParser.CommandContext> oldCommands = program.getMainProgramContext().commandList().command();
+        List<TIBasicParser.CommandContext> newCommands = updated.getMainProgramContext().commandList().command();
+        assertSame(oldCommands.get(0), newCommands.get(0));
+        assertNotSame(oldCommands.get(1), newCommands.get(1));
+        assertSame(oldCommands.get(2), newCommands.get(2));
+        assertSame(oldCommands.get(3), newCommands.get(3));
+        assertEquals("22→B", newCommands.get(1).getText());
+        assertEquals(2, updated.getLabelCommands("A").size());
+        assertEquals(":1→A:2→B\n:Lbl A:3→C", program.getOriginalSource());
+    }
+
+    @Test
+    public void testUpdate_removeLabelFindsLaterDefinition() {
+        ExecutableProgram program = preprocessor.preprocessProgramCode("TEST", ":1:Lbl A:2:Lbl A:3");
+        ExecutableProgram updated = preprocessor.updateProgramCode(program, ":1:2:Lbl A:3");
+
+        assertEquals(2, updated.getLabelCommands("A").size());
+    }
+
+    @Test(expected = LabelNotFoundException.class)
+    public void testUpdate_removeLabel() {
+        ExecutableProgram program = preprocessor.preprocessProgramCode("TEST", ":1:Lbl A:2");
+        preprocessor.updateProgramCode(program, ":1:2").getLabelCommands("A");
+    }
+
+    @Test
+    public void testUpdate_syntaxErrorPosition() {
+        ExecutableProgram program = preprocessor.preprocessProgramCode("TEST", ":1→A\n:2→B\n:3→C");
+        try {
+            preprocessor.updateProgramCode(program, ":1→A\n:2→B\n:3+→C");
+            fail("Syntax error should have been detected");
+        } catch (PreprocessException e) {
+            assertEquals(3, e.getLinenumber());
+            assertEquals(3, e.getCharInLine());
+        }
+    }
+
+    @Test
+    public void testUpdate_unchanged() {
+        ExecutableProgram program = preprocessor.preprocessProgramCode("TEST", ":1→A");
+        assertSame(program, preprocessor.updateProgramCode(program, ":1→A"));
+    }
+
+    @Test
+    public void testUpdate_randomEditsMatchFullPreprocessing() {
+        Random random = new Random(4711);
+        List<String> commands = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+            commands.add(COMMANDS[random.nextInt(COMMANDS.length)]);
+        ExecutableProgram program = preprocessor.preprocessProgramCode("TEST", join(commands, random));
+
+        for (int edit = 0; edit < 300; edit++) {
+            int index = random.nextInt(commands.size());
+            switch (random.nextInt(3)) {
+                case 0:
+                    commands.set(index, COMMANDS[random.nextInt(COMMANDS.length)]);
+                    break;
+                case 1:
+                    commands.add(index, COMMANDS[random.nextInt(COMMANDS.length)]);
+                    break;
+                default:
+                    if (commands.size() > 1)
+                        commands.remove(index);
+            }
+            String source = join(commands, new Random(edit % 3));
+            program = preprocessor.updateProgramCode(program, source);
+            assertEquivalent(preprocessor.preprocessProgramCode("TEST", source), program);
+        }
+    }
+
+    @Test
+    public void testUpdate_tokenPositionsAfterChangedLine() {
+        assertUpdateEquivalent(":1→A:Lbl C\n:Lbl C:A+1→A", ":1→A:Lbl C:C:A+1→A");
+        assertUpdateEquivalent(":{1}→∟X:If ∟X(1):Then:1→A:End", ":{1}→∟X:If ∟X(1:Disp A∟X(1):Then:1→A:End");
+        assertUpdateEquivalent(":1→A:2→B\n:3→C:4→D", ":1→A:22→B\n:3→C:4→D");
+        assertUpdateEquivalent(":1→A:2→B:3→C\n:4→D", ":1→A:2\n→B:3→C\n:4→D");
+        assertUpdateEquivalent(":1→A\n:2→B\n:3→C\n:4→D", ":1→A\n:2→B:3→C\n:4→D");
+        assertUpdateEquivalent(":1→A\n:2→B:While A<2\n:A+1→A\n:End", ":1→A\n\n\n:2→B:While A<2\n:A+1→A\n:End");
+    }
+
+    @Test
+    public void testUpdateProgram() {
+        VirtualCalculator calculator = new TI83Plus(new DefaultCalculatorMemory(), mock(CalculatorIO.class));
+        calculator.updateProgram("TEST", ":1→A:A+1→A");
+        calculator.updateProgram("TEST", ":5→A:A+1→A");
+        calculator.executeProgram("TEST");
+
+        assertEquals(6, calculator.getMemory().getNumberVariableValue(Variables.NumberVariable.A).complex().getReal(), 0);
+    }
+
+    private void assertUpdateEquivalent(String oldSource, String newSource) {
+        ExecutableProgram program = preprocessor.preprocessProgramCode("TEST", oldSource);
+        assertEquivalent(preprocessor.preprocessProgramCode("TEST", newSource), preprocessor.updateProgramCode(program, newSource));
+    }
+
+    private void assertEquivalent(ExecutableProgram expected, ExecutableProgram actual) {
+        String source = actual.getOriginalSource().toString();
+        List<TIBasicParser.CommandContext> expectedCommands = expected.getMainProgramContext().commandList().command();
+        List<TIBasicParser.CommandContext> actualCommands = actual.getMainProgramContext().commandList().command();
+        assertEquals(source, expectedCommands.size(), actualCommands.size());
+        for (int i = 0; i < expectedCommands.size(); i++) {
+            assertEquals(source, expectedCommands.get(i).getText(), actualCommands.get(i).getText());
+            assertEquals(source, expectedCommands.get(i).isControlFlowStatement, actualCommands.get(i).isControlFlowStatement);
+            assertEquals(source, tokenPositions(expectedCommands.get(i)), tokenPositions(actualCommands.get(i)));
+        }
+
+        assertEquals(source, expected.internalLabelMap.keySet(), actual.internalLabelMap.keySet());
+        for (String label : expected.internalLabelMap.keySet())
+            assertEquals(source, expected.getLabelCommands(label).size(), actual.getLabelCommands(label).size());
+
+        ExecutableProgram.CommandPositions expectedPositions = expected.getCommandPositions();
+        ExecutableProgram.CommandPositions actualPositions = actual.getCommandPositions();
+        for (int i = 0; i < expectedPositions.size(); i++) {
+            assertEquals(source, expectedPositions.getOffset(i), actualPositions.getOffset(i));
+            assertEquals(source, expectedPositions.getLine(i), actualPositions.getLine(i));
+            assertEquals(source, expectedPositions.getColumn(i), actualPositions.getColumn(i));
+        }
+    }
+
+    /**
+     * Returns line and column of every token in the given tree.
+     */
+    private List<String> tokenPositions(ParseTree tree) {
+        List<String> positions = new ArrayList<>();
+        if (tree instanceof TerminalNode) {
+            Token token = ((TerminalNode) tree).getSymbol();
+            positions.add(token.getText() + "@" + token.getLine() + ":" + token.getCharPositionInLine());
+        }
+        for (int i = 0; i < tree.getChildCount(); i++)
+            positions.addAll(tokenPositions(tree.getChild(i)));
+        return positions;
+    }
+
+    private String join(List<String> commands, Random random) {
+        StringBuilder builder = new StringBuilder();
+        for (String command : commands) {
+            if (builder.length() > 0 && random.nextInt(4) == 0)
+                builder.append('\n');
+            builder.append(':').append(command);
+        }
+        return builder.toString();
+    }
+}
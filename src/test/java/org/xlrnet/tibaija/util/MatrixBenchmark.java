@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.util;
+
+import org.xlrnet.tibaija.memory.Matrix;
+
+import java.util.Random;
+
+/**
+ * Simple benchmark for the matrix operations. Compares the blocked and, for large dimensions, parallel product of
+ * {@link MatrixUtils} with a naive i-j-k product and measures the inverse and determinant of the same matrices. This
+ * is no unit test and must be started manually.
+ */
+public class MatrixBenchmark {
+
+    private static final int[] DIMENSIONS = {3, 16, 64, 256, 512};
+
+    private static final long TARGET_NANOS = 500_000_000L;
+
+    private static double blackhole;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+
+        System.out.printf("%-10s %16s %16s %16s %16s%n", "Dimension", "Naive ms", "Blocked ms", "Inverse ms", "det( ms");
+        for (int dimension : DIMENSIONS) {
+            Matrix lhs = randomMatrix(random, dimension);
+            Matrix rhs = randomMatrix(random, dimension);
+
+            double naive = measure(() -> blackhole += naiveMultiply(lhs, rhs)[0]);
+            double blocked = measure(() -> blackhole += MatrixUtils.multiply(lhs, rhs).get(0, 0));
+            double inverse = measure(() -> blackhole += MatrixUtils.inverse(lhs).get(0, 0));
+            double determinant = measure(() -> blackhole += MatrixUtils.determinant(lhs));
+            System.out.printf("%-10d %16.4f %16.4f %16.4f %16.4f%n", dimension, naive, blocked, inverse, determinant);
+        }
+        System.out.println(blackhole != 0 ? "" : " ");
+    }
+
+    /**
+     * Runs the given round until the target time has passed twice, once for warmup and once for measuring.
+     *
+     * @return Average milliseconds per round of the second run.
+     */
+    private static double measure(Runnable round) {
+        double millis = 0;
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            int rounds = 0;
+            while (System.nanoTime() - start < TARGET_NANOS) {
+                round.run();
+                rounds++;
+            }
+            millis = (System.nanoTime() - start) / 1e6 / rounds;
+        }
+        return millis;
+    }
+
+    private static Matrix randomMatrix(Random random, int dimension) {
+        double[] elements = new double[dimension * dimension];
+        for (int i = 0; i < elements.length; i++)
+            elements[i] = random.nextDouble() * 2 - 1;
+        return Matrix.wrap(dimension, dimension, elements);
+    }
+
+    private static double[] naiveMultiply(Matrix lhs, Matrix rhs) {
+        int size = lhs.getRows();
+        double[] left = lhs.elements();
+        double[] right = rhs.elements();
+        double[] result = new double[size * size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                double sum = 0;
+                for (int k = 0; k < size; k++)
+                    sum += left[i * size + k] * right[k * size + j];
+                result[i * size + j] = sum;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.util;
+
+import org.junit.Test;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.memory.Matrix;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MatrixUtilsTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    public void testMultiply_small() {
+        Matrix product = MatrixUtils.multiply(Matrix.of(2, 3, 1, 2, 3, 4, 5, 6), Matrix.of(3, 2, 7, 8, 9, 10, 11, 12));
+        assertEquals(Matrix.of(2, 2, 58, 64, 139, 154), product);
+    }
+
+    @Test
+    public void testMultiply_blockedAndParallel() {
+        // Dimensions that are no multiple of the block size and large enough for the parallel path
+        Random random = new Random(42);
+        for (int[] dimension : new int[][]{{1, 1, 1}, {3, 70, 5}, {65, 129, 63}, {150, 130, 140}}) {
+            Matrix lhs = randomMatrix(random, dimension[0], dimension[1]);
+            Matrix rhs = randomMatrix(random, dimension[1], dimension[2]);
+            assertArrayEquals(naiveMultiply(lhs, rhs), MatrixUtils.multiply(lhs, rhs).elements(), TOLERANCE);
+        }
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testMultiply_dimensionMismatch() {
+        MatrixUtils.multiply(Matrix.of(2, 2, 1, 2, 3, 4), Matrix.of(3, 1, 1, 2, 3));
+    }
+
+    @Test
+    public void testTranspose() {
+        assertEquals(Matrix.of(3, 2, 1, 4, 2, 5, 3, 6), MatrixUtils.transpose(Matrix.of(2, 3, 1, 2, 3, 4, 5, 6)));
+
+        Matrix large = randomMatrix(new Random(1), 70, 130);
+        Matrix transposed = MatrixUtils.transpose(large);
+        assertEquals(130, transposed.getRows());
+        assertEquals(70, transposed.getColumns());
+        assertEquals(large.get(69, 129), transposed.get(129, 69), 0);
+        assertEquals(large, MatrixUtils.transpose(transposed));
+    }
+
+    @Test
+    public void testDeterminant() {
+        assertEquals(-2, MatrixUtils.determinant(Matrix.of(2, 2, 1, 2, 3, 4)), TOLERANCE);
+        assertEquals(-306, MatrixUtils.determinant(Matrix.of(3, 3, 6, 1, 1, 4, -2, 5, 2, 8, 7)), TOLERANCE);
+        assertEquals(5, MatrixUtils.determinant(Matrix.of(1, 1, 5)), 0);
+    }
+
+    @Test
+    public void testDeterminant_singular() {
+        assertEquals(0, MatrixUtils.determinant(Matrix.of(3, 3, 1, 2, 3, 2, 4, 6, 7, 8, 9)), TOLERANCE);
+        assertEquals(0, MatrixUtils.determinant(Matrix.of(2, 2, 0, 0, 0, 0)), 0);
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testDeterminant_notSquare() {
+        MatrixUtils.determinant(Matrix.of(1, 2, 1, 2));
+    }
+
+    @Test
+    public void testInverse() {
+        Matrix inverse = MatrixUtils.inverse(Matrix.of(2, 2, 4, 7, 2, 6));
+        assertArrayEquals(new double[]{0.6, -0.7, -0.2, 0.4}, inverse.elements(), TOLERANCE);
+    }
+
+    @Test
+    public void testInverse_large() {
+        // Large enough for the parallel elimination
+        Random random = new Random(7);
+        Matrix matrix = randomMatrix(random, 200, 200);
+        Matrix product = MatrixUtils.multiply(matrix, MatrixUtils.inverse(matrix));
+        assertArrayEquals(Matrix.identity(200).elements(), product.elements(), 1e-8);
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testInverse_singular() {
+        MatrixUtils.inverse(Matrix.of(2, 2, 1, 2, 2, 4));
+    }
+
+    @Test
+    public void testRref() {
+        Matrix rref = MatrixUtils.rref(Matrix.of(3, 4, 2, 1, -1, 8, -3, -1, 2, -11, -2, 1, 2, -3));
+        assertArrayEquals(new double[]{1, 0, 0, 2, 0, 1, 0, 3, 0, 0, 1, -1}, rref.elements(), TOLERANCE);
+    }
+
+    @Test
+    public void testRref_dependentRows() {
+        Matrix rref = MatrixUtils.rref(Matrix.of(2, 3, 1, 2, 3, 2, 4, 6));
+        assertArrayEquals(new double[]{1, 2, 3, 0, 0, 0}, rref.elements(), 0);
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testRref_tooManyRows() {
+        MatrixUtils.rref(Matrix.of(2, 1, 1, 2));
+    }
+
+    @Test
+    public void testPower() {
+        Matrix fibonacci = Matrix.of(2, 2, 1, 1, 1, 0);
+        assertEquals(Matrix.of(2, 2, 89, 55, 55, 34), MatrixUtils.power(fibonacci, 10));
+        assertEquals(Matrix.identity(2), MatrixUtils.power(fibonacci, 0));
+        assertEquals(fibonacci, MatrixUtils.power(fibonacci, 1));
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testPower_negative() {
+        MatrixUtils.power(Matrix.identity(2), -1);
+    }
+
+    private static Matrix randomMatrix(Random random, int rows, int columns) {
+        double[] elements = new double[rows * columns];
+        for (int i = 0; i < elements.length; i++)
+            elements[i] = random.nextDouble() * 2 - 1;
+        return Matrix.wrap(rows, columns, elements);
+    }
+
+    private static double[] naiveMultiply(Matrix lhs, Matrix rhs) {
+        double[] result = new double[lhs.getRows() * rhs.getColumns()];
+        for (int i = 0; i < lhs.getRows(); i++) {
+            for (int j = 0; j < rhs.getColumns(); j++) {
+                double sum = 0;
+                for (int k = 0; k < lhs.getColumns(); k++)
+                    sum += lhs.get(i, k) * rhs.get(k, j);
+                result[i * rhs.getColumns() + j] = sum;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.util;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SortUtilsTest {
+
+    @Test
+    public void testSortingPermutation_ascending_stable() {
+        assertArrayEquals(new int[]{1, 3, 2, 0, 4}, SortUtils.sortingPermutation(new double[]{3, 1, 2, 1, 3}, false));
+    }
+
+    @Test
+    public void testSortingPermutation_descending_stable() {
+        assertArrayEquals(new int[]{0, 4, 2, 1, 3}, SortUtils.sortingPermutation(new double[]{3, 1, 2, 1, 3}, true));
+    }
+
+    @Test
+    public void testSortingPermutation_empty() {
+        assertArrayEquals(new int[0], SortUtils.sortingPermutation(new double[0], false));
+    }
+
+    @Test
+    public void testSortingPermutation_large() {
+        // Compare with a stable sort of boxed indices on lists that need several merge passes
+        Random random = new Random(42);
+        for (int length : new int[]{33, 100, 999, 5000}) {
+            double[] keys = new double[length];
+            for (int i = 0; i < length; i++)
+                keys[i] = random.nextInt(length / 4);
+            for (boolean descending : new boolean[]{false, true}) {
+                Integer[] expected = new Integer[length];
+                for (int i = 0; i < length; i++)
+                    expected[i] = i;
+                Comparator<Integer> comparator = Comparator.comparingDouble(i -> keys[i]);
+                Arrays.sort(expected, descending ? comparator.reversed() : comparator);
+
+                int[] actual = SortUtils.sortingPermutation(keys, descending);
+                for (int i = 0; i < length; i++)
+                    assertEquals(expected[i].intValue(), actual[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testToSortKeys() {
+        assertArrayEquals(new double[]{-3, 2}, SortUtils.toSortKeys(ImmutableList.of(Complex.valueOf(-3), Complex.valueOf(2))), 0);
+        assertArrayEquals(new double[]{3, 5}, SortUtils.toSortKeys(ImmutableList.of(Complex.valueOf(-3), Complex.valueOf(3, 4))), 0);
+    }
+
+    @Test
+    public void testPermute() {
+        ImmutableList<Complex> list = ImmutableList.of(Complex.valueOf(1), Complex.valueOf(2), Complex.valueOf(3));
+        assertEquals(ImmutableList.of(Complex.valueOf(3), Complex.valueOf(1), Complex.valueOf(2)), SortUtils.permute(list, new int[]{2, 0, 1}));
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testPermute_invalid_dimension_mismatch() {
+        SortUtils.permute(ImmutableList.of(Complex.ONE), new int[]{1, 0});
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.util;
+
+import org.junit.Test;
+import org.xlrnet.tibaija.exception.TIArgumentException;
+import org.xlrnet.tibaija.test.TestUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StatisticsUtilsTest {
+
+    @Test(expected = TIArgumentException.class)
+    public void testMean_invalid_dimension_mismatch() {
+        StatisticsUtils.mean(new double[]{1, 2, 3}, new double[]{1, 1});
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testMean_invalid_negative_frequency() {
+        StatisticsUtils.mean(new double[]{1, 2}, new double[]{1, -1});
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testMean_invalid_zero_frequencies() {
+        StatisticsUtils.mean(new double[]{1, 2}, new double[]{0, 0});
+    }
+
+    @Test
+    public void testMean_frequencies() {
+        assertEquals(1.25, StatisticsUtils.mean(new double[]{1, 2, 3}, new double[]{3, 1, 0}), TestUtils.DEFAULT_TOLERANCE);
+        assertEquals(2, StatisticsUtils.mean(new double[]{1, 3}, new double[]{0.5, 0.5}), TestUtils.DEFAULT_TOLERANCE);
+    }
+
+    @Test
+    public void testMedian() {
+        assertEquals(3, StatisticsUtils.median(new double[]{5, 1, 4, 2, 3}, null), 0);
+        assertEquals(2.5, StatisticsUtils.median(new double[]{4, 1, 3, 2}, null), 0);
+        assertEquals(7, StatisticsUtils.median(new double[]{7, 7, 7, 1, 9, 7}, null), 0);
+        assertEquals(42, StatisticsUtils.median(new double[]{42}, null), 0);
+    }
+
+    @Test
+    public void testMedian_frequencies() {
+        assertEquals(3, StatisticsUtils.median(new double[]{1, 2, 3}, new double[]{1, 1, 5}), 0);
+        assertEquals(1.5, StatisticsUtils.median(new double[]{2, 1, 3}, new double[]{1, 1, 0}), 0);
+        assertEquals(2, StatisticsUtils.median(new double[]{3, 1, 2}, new double[]{1, 1, 2}), 0);
+    }
+
+    @Test
+    public void testMedian_doesNotModifyValues() {
+        double[] values = {5, 1, 4, 2, 3};
+        StatisticsUtils.median(values, null);
+        assertArrayEquals(new double[]{5, 1, 4, 2, 3}, values, 0);
+    }
+
+    @Test
+    public void testMoments_largeOffset() {
+        // Textbook algorithm with sums of squares would lose all significant digits here
+        StatisticsUtils.Moments moments = StatisticsUtils.moments(new double[]{1e9 + 4, 1e9 + 7, 1e9 + 13, 1e9 + 16}, null);
+        assertEquals(1e9 + 10, moments.getMean(), 0);
+        assertEquals(30, moments.getSampleVariance(), TestUtils.DEFAULT_TOLERANCE);
+        assertEquals(22.5, moments.getPopulationVariance(), TestUtils.DEFAULT_TOLERANCE);
+    }
+
+    @Test
+    public void testMoments_frequencies() {
+        // Same as {2,4,4,4,5,5,7,9}
+        StatisticsUtils.Moments moments = StatisticsUtils.moments(new double[]{9, 4, 2, 5, 7, 1}, new double[]{1, 3, 1, 2, 1, 0});
+        assertEquals(8, moments.getWeight(), 0);
+        assertEquals(5, moments.getMean(), TestUtils.DEFAULT_TOLERANCE);
+        assertEquals(40, moments.getSum(), 0);
+        assertEquals(232, moments.getSumOfSquares(), 0);
+        assertEquals(4, moments.getPopulationVariance(), TestUtils.DEFAULT_TOLERANCE);
+        assertEquals(32.0 / 7, moments.getSampleVariance(), TestUtils.DEFAULT_TOLERANCE);
+        assertEquals(2, moments.getMin(), 0);
+        assertEquals(9, moments.getMax(), 0);
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testMoments_invalid_sampleVariance() {
+        StatisticsUtils.moments(new double[]{1, 2}, new double[]{0, 1}).getSampleVariance();
+    }
+
+    @Test
+    public void testQuartiles() {
+        assertArrayEquals(new double[]{1.5, 3, 4.5}, StatisticsUtils.quartiles(new double[]{5, 4, 3, 2, 1}, null), 0);
+        assertArrayEquals(new double[]{1.5, 2.5, 3.5}, StatisticsUtils.quartiles(new double[]{1, 2, 3, 4}, null), 0);
+        assertArrayEquals(new double[]{1, 3, 5}, StatisticsUtils.quartiles(new double[]{1, 3, 5, 7}, new double[]{2, 2, 2, 1}), 0);
+        assertArrayEquals(new double[]{8, 8, 8}, StatisticsUtils.quartiles(new double[]{8}, null), 0);
+    }
+
+    @Test
+    public void testSum_compensated() {
+        assertEquals(2, StatisticsUtils.sum(new double[]{1, 1e100, 1, -1e100}, 0, 4), 0);
+        assertEquals(5, StatisticsUtils.sum(new double[]{1, 2, 3, 4}, 1, 3), 0);
+    }
+
+    @Test
+    public void testLinearRegression() {
+        double[] result = StatisticsUtils.linearRegression(new double[]{1, 2, 3}, new double[]{2, 4, 6.5}, null);
+        assertArrayEquals(new double[]{2.25, -0.333333333, 0.995901639, 0.997948716}, result, TestUtils.DEFAULT_TOLERANCE);
+    }
+
+    @Test
+    public void testLinearRegression_frequencies() {
+        double[] result = StatisticsUtils.linearRegression(new double[]{1, 2, 3, 4}, new double[]{3, 5, 7, 0}, new double[]{1, 2, 1, 0});
+        assertArrayEquals(new double[]{2, 1, 1, 1}, result, TestUtils.DEFAULT_TOLERANCE);
+    }
+
+    @Test(expected = TIArgumentException.class)
+    public void testLinearRegression_invalid_constant() {
+        StatisticsUtils.linearRegression(new double[]{2, 2, 2}, new double[]{1, 2, 3}, null);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.util;
+
+import org.apache.commons.math3.complex.Complex;
+import org.xlrnet.tibaija.commands.BinaryCommandOperator;
+import org.xlrnet.tibaija.memory.Value;
+
+import java.util.Random;
+
+/**
+ * Simple benchmark that compares the basic arithmetic operations with doubles, with {@link Complex} numbers, with
+ * packed {@link TIDecimal} numbers and with decimal {@link Value} objects as used in
+ * {@link org.xlrnet.tibaija.processor.NumberMode#DECIMAL}. This is no unit test and must be started manually.
+ */
+public class TIDecimalBenchmark {
+
+    private static final int SIZE = 1000;
+
+    private static final int WARMUP_ROUNDS = 20_000;
+
+    private static final int MEASURED_ROUNDS = 20_000;
+
+    private static final BinaryCommandOperator[] OPERATORS = {
+            BinaryCommandOperator.PLUS, BinaryCommandOperator.MINUS, BinaryCommandOperator.MULTIPLY,
+            BinaryCommandOperator.DIVIDE
+    };
+
+    private static double blackhole;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        double[] lhs = new double[SIZE];
+        double[] rhs = new double[SIZE];
+        Complex[] lhsComplex = new Complex[SIZE];
+        Complex[] rhsComplex = new Complex[SIZE];
+        long[] lhsDecimal = new long[SIZE];
+        long[] rhsDecimal = new long[SIZE];
+        Value[] lhsValues = new Value[SIZE];
+        Value[] rhsValues = new Value[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            lhsDecimal[i] = TIDecimal.valueOf(random.nextDouble() * 100);
+            rhsDecimal[i] = TIDecimal.valueOf(random.nextDouble() * 100 + 1);
+            lhs[i] = TIDecimal.toDouble(lhsDecimal[i]);
+            rhs[i] = TIDecimal.toDouble(rhsDecimal[i]);
+            lhsComplex[i] = Complex.valueOf(lhs[i]);
+            rhsComplex[i] = Complex.valueOf(rhs[i]);
+            lhsValues[i] = Value.of(lhsComplex[i]);
+            rhsValues[i] = Value.of(rhsComplex[i]);
+        }
+
+        System.out.printf("%-10s %12s %12s %12s %12s%n", "Operator", "double ns", "Complex ns", "TIDecimal ns", "Value ns");
+        for (BinaryCommandOperator operator : OPERATORS) {
+            double doubleNanos = measure(() -> {
+                for (int i = 0; i < SIZE; i++)
+                    blackhole += applyDouble(operator, lhs[i], rhs[i]);
+            });
+            double complexNanos = measure(() -> {
+                for (int i = 0; i < SIZE; i++)
+                    blackhole += operator.applyOnElements(lhsComplex[i], rhsComplex[i]).getReal();
+            });
+            double decimalNanos = measure(() -> {
+                long sum = 0;
+                for (int i = 0; i < SIZE; i++)
+                    sum += applyDecimal(operator, lhsDecimal[i], rhsDecimal[i]);
+                blackhole += sum;
+            });
+            double valueNanos = measure(() -> {
+                for (int i = 0; i < SIZE; i++)
+                    blackhole += operator.applyDecimal(lhsValues[i], rhsValues[i]).complex().getReal();
+            });
+            System.out.printf("%-10s %12.3f %12.3f %12.3f %12.3f%n", operator, doubleNanos, complexNanos, decimalNanos, valueNanos);
+        }
+        System.out.println(blackhole != 0 ? "" : " ");
+    }
+
+    private static double applyDouble(BinaryCommandOperator operator, double lhs, double rhs) {
+        switch (operator) {
+            case PLUS:
+                return lhs + rhs;
+            case MINUS:
+                return lhs - rhs;
+            case MULTIPLY:
+                return lhs * rhs;
+            default:
+                return lhs / rhs;
+        }
+    }
+
+    private static long applyDecimal(BinaryCommandOperator operator, long lhs, long rhs) {
+        switch (operator) {
+            case PLUS:
+                return TIDecimal.add(lhs, rhs);
+            case MINUS:
+                return TIDecimal.subtract(lhs, rhs);
+            case MULTIPLY:
+                return TIDecimal.multiply(lhs, rhs);
+            default:
+                return TIDecimal.divide(lhs, rhs);
+        }
+    }
+
+    private static double measure(Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            round.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++)
+            round.run();
+        return (System.nanoTime() - start) / (double) MEASURED_ROUNDS / SIZE;
+    }
+}
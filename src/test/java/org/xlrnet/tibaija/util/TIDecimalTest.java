@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015 Jakob Hendeß
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE
+ */
+
+
+package org.xlrnet.tibaija.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TIDecimalTest {
+
+    @Test
+    public void testValueOf_roundTrip() {
+        double[] values = {1, -1, 0.1, 0.3, 123456.789, 1e-99, -9.9999999999999e99, 2.0 / 3};
+        for (double value : values) {
+            long decimal = TIDecimal.valueOf(value);
+            assertEquals(decimal, TIDecimal.valueOf(TIDecimal.toDouble(decimal)));
+        }
+        assertEquals(0.66666666666667, TIDecimal.toDouble(TIDecimal.valueOf(2.0 / 3)), 0);
+        assertEquals(TIDecimal.ZERO, TIDecimal.valueOf(-0.0));
+    }
+
+    @Test
+    public void testAdd() {
+        assertEquals(0.3, decimalAdd(0.1, 0.2), 0);
+        assertEquals(0, decimalAdd(0.1, -0.1), 0);
+        assertEquals(1, decimalAdd(1, 1e-15), 0);
+        assertEquals(100000000000000.0, decimalAdd(99999999999999.0, 1), 0);
+        assertEquals(-1.5, decimalAdd(-2, 0.5), 0);
+    }
+
+    @Test
+    public void testSubtract() {
+        long result = TIDecimal.subtract(TIDecimal.valueOf(0.3), TIDecimal.valueOf(0.1));
+        assertEquals(0.2, TIDecimal.toDouble(result), 0);
+    }
+
+    @Test
+    public void testSubtract_largeShift() {
+        assertEquals("9.9999999999999E-1", TIDecimal.toString(TIDecimal.subtract(TIDecimal.valueOf(1), TIDecimal.valueOf(5.0000000000001e-15))));
+        assertEquals("-9.9999999999999E-1", TIDecimal.toString(TIDecimal.add(TIDecimal.valueOf(-1), TIDecimal.valueOf(5.0000000000001e-15))));
+        assertEquals("1.0000000000000E0", TIDecimal.toString(TIDecimal.subtract(TIDecimal.valueOf(1), TIDecimal.valueOf(5e-15))));
+        assertEquals("1.0000000000000E0", TIDecimal.toString(TIDecimal.add(TIDecimal.valueOf(1), TIDecimal.valueOf(5.0000000000001e-15))));
+        assertEquals("-1.0000000000000E0", TIDecimal.toString(TIDecimal.subtract(TIDecimal.valueOf(-1), TIDecimal.valueOf(4.9999999999999e-15))));
+    }
+
+    @Test
+    public void testMultiply() {
+        assertEquals(0.01, decimalMultiply(0.1, 0.1), 0);
+        assertEquals(-6, decimalMultiply(-2, 3), 0);
+        assertEquals(1.2193263111264e17, decimalMultiply(123456789, 987654321), 0);
+        assertEquals(0.99999999999999, decimalMultiply(1.0 / 3, 3), 0);
+    }
+
+    @Test
+    public void testDivide() {
+        long third = TIDecimal.divide(TIDecimal.valueOf(1), TIDecimal.valueOf(3));
+        assertEquals("3.3333333333333E-1", TIDecimal.toString(third));
+        assertEquals("6.6666666666667E-1", TIDecimal.toString(TIDecimal.divide(TIDecimal.valueOf(2), TIDecimal.valueOf(3))));
+        assertEquals(0.99999999999999, TIDecimal.toDouble(TIDecimal.multiply(third, TIDecimal.valueOf(3))), 0);
+        assertEquals(-0.25, TIDecimal.toDouble(TIDecimal.divide(TIDecimal.valueOf(1), TIDecimal.valueOf(-4))), 0);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivide_byZero() {
+        TIDecimal.divide(TIDecimal.valueOf(1), TIDecimal.ZERO);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testMultiply_overflow() {
+        TIDecimal.multiply(TIDecimal.valueOf(1e60), TIDecimal.valueOf(1e60));
+    }
+
+    @Test
+    public void testMultiply_underflow() {
+        assertEquals(TIDecimal.ZERO, TIDecimal.multiply(TIDecimal.valueOf(1e-60), TIDecimal.valueOf(1e-60)));
+    }
+
+    @Test
+    public void testCompare() {
+        assertEquals(0, TIDecimal.compare(TIDecimal.valueOf(0.3), TIDecimal.add(TIDecimal.valueOf(0.1), TIDecimal.valueOf(0.2))));
+        assertEquals(-1, TIDecimal.compare(TIDecimal.valueOf(-1), TIDecimal.valueOf(0.5)));
+        assertEquals(1, TIDecimal.compare(TIDecimal.valueOf(2), TIDecimal.valueOf(1.5)));
+    }
+
+    private double decimalAdd(double lhs, double rhs) {
+        return TIDecimal.toDouble(TIDecimal.add(TIDecimal.valueOf(lhs), TIDecimal.valueOf(rhs)));
+    }
+
+    private double decimalMultiply(double lhs, double rhs) {
+        return TIDecimal.toDouble(TIDecimal.multiply(TIDecimal.valueOf(lhs), TIDecimal.valueOf(rhs)));
+    }
+}